@@ -0,0 +1,99 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import java.util.Arrays;
+
+/**
+ * A set of tile indices ({@code x * numY + y}) that remembers the order
+ * tiles were added in. Membership is tracked with a per-tile generation
+ * stamp, so adding, testing, and clearing are all constant time and clearing
+ * never touches the tiles that were not in the set. Used to limit each stage
+ * of scoring to the tiles that active lines can reach.
+ *
+ * @author Robert Moore
+ *
+ */
+public class ActiveTileSet {
+
+  private int[] indices = new int[64];
+
+  private int size = 0;
+
+  /**
+   * Generation in which each tile was last added. A tile is in the set if its
+   * stamp equals {@link #stamp}.
+   */
+  private int[] stamps = new int[0];
+
+  private int stamp = 1;
+
+  /**
+   * Empties the set and sizes it for a grid of {@code numTiles} tiles.
+   *
+   * @param numTiles
+   *          the number of tiles in the grid.
+   */
+  public void reset(final int numTiles) {
+    this.size = 0;
+    if (this.stamps.length != numTiles) {
+      this.stamps = new int[numTiles];
+      this.stamp = 1;
+    } else if (++this.stamp == 0) {
+      // Wrapped around, so old stamps could match again
+      Arrays.fill(this.stamps, 0);
+      this.stamp = 1;
+    }
+  }
+
+  /**
+   * Adds a tile to the set.
+   *
+   * @param index
+   *          the tile index.
+   * @return {@code true} if the tile was not already in the set.
+   */
+  public boolean add(final int index) {
+    if (this.stamps[index] == this.stamp) {
+      return false;
+    }
+    this.stamps[index] = this.stamp;
+    if (this.size == this.indices.length) {
+      this.indices = Arrays.copyOf(this.indices, this.size * 2);
+    }
+    this.indices[this.size++] = index;
+    return true;
+  }
+
+  public boolean contains(final int index) {
+    return this.stamps[index] == this.stamp;
+  }
+
+  public int get(final int i) {
+    return this.indices[i];
+  }
+
+  public int size() {
+    return this.size;
+  }
+
+  public boolean isEmpty() {
+    return this.size == 0;
+  }
+}
@@ -22,13 +22,20 @@ package com.owlplatform.solver.passivemotion;
  * @author Robert Moore
  *
  */
-public class AlgorithmConfig {
+public class AlgorithmConfig implements Cloneable {
   
   
   protected float tileScoreThreshold = .5f;
 
   protected float stdDevNoiseThreshold = 1.2f;
 
+  /**
+   * Rate at which each link learns its own noise baseline. Links are then
+   * held to the greater of their baseline and
+   * {@link #stdDevNoiseThreshold}. 0 uses only the global threshold.
+   */
+  protected float baselineAdaptRate = 0f;
+
   protected float radiusThreshold = 90f;
   
   protected float linkMinDistance = 6f;
@@ -42,4 +49,104 @@ public class AlgorithmConfig {
   protected float neighborRatio = 0.5f;
   
   protected float peakRatio = 0.5f;
+
+  /**
+   * How links are scored: {@code "line"} (the default) or {@code "ellipse"}.
+   */
+  protected String scoringModel = null;
+
+  /**
+   * Extra path length at the edge of each link's ellipse when
+   * {@link #scoringModel} is {@code "ellipse"}. 0 uses
+   * {@link #desiredTileWidth}, which must then be set.
+   */
+  protected float ellipseExcessPath = 0f;
+
+  /**
+   * How tiles are scored: {@code "lines"} (the default) sums the weighted
+   * values of the lines through each tile, and {@code "rti"} solves for the
+   * tile image with radio tomographic imaging. The two produce scores on
+   * different scales, so {@link #tileScoreThreshold} must be tuned for each.
+   */
+  protected String solverMode = null;
+
+  /**
+   * Tikhonov regularization of the imaging inverse, relative to the mean
+   * squared weight of a link. Larger values give smoother images. 0 uses a
+   * default of 0.5.
+   */
+  protected float rtiRegularization = 0f;
+
+  /**
+   * Number of threads that score blocks of the region in parallel. Each
+   * block is twice {@link #radiusThreshold} on a side, so only regions much
+   * larger than the radius benefit. 0 scores the region as a whole.
+   */
+  protected int shardThreads = 0;
+
+  /**
+   * Whether to keep the variance and baseline of every link in a direct
+   * buffer, off the heap. With thousands of anchors this keeps the link
+   * state out of garbage collection, but the JVM's direct memory limit must
+   * allow 24 bytes per receiver-transmitter pair.
+   */
+  protected boolean offHeapLinkState = false;
+
+  /**
+   * No longer used. Each link's tiles are traced once when its geometry is
+   * built, so scoring never searches for them.
+   */
+  @Deprecated
+  protected int coarseSearchLevels = 0;
+
+  /**
+   * Farthest an area of motion may move between results and keep its
+   * identifier. 0 disables tracking.
+   */
+  protected float trackingGateDistance = 0f;
+
+  /**
+   * Number of consecutive results a tracked area may go undetected before it
+   * is forgotten.
+   */
+  protected int trackingMaxMissed = 0;
+
+  /**
+   * Whether to merge the published tiles into rectangles and skip publishing
+   * results that have not changed since the last one sent.
+   */
+  protected boolean deduplicateResults = false;
+
+  /**
+   * Largest difference in score between tiles merged into one rectangle, and
+   * between a result and the last one sent for it to count as unchanged. 0
+   * only merges and skips exact duplicates.
+   */
+  protected float resultScoreTolerance = 0f;
+
+  /**
+   * How often, in milliseconds, an unchanged result is published anyway, so
+   * that its creation date stays current. 0 never publishes it again.
+   */
+  protected long resultRefreshInterval = 0l;
+
+  /**
+   * Whether to publish one summary per connected area of tiles instead of
+   * the tiles themselves.
+   */
+  protected boolean summarizeAreas = false;
+
+  /**
+   * Returns a copy of this configuration that can be changed without
+   * affecting algorithms already using this one.
+   *
+   * @return the copy.
+   */
+  AlgorithmConfig copy() {
+    try {
+      return (AlgorithmConfig) super.clone();
+    } catch (CloneNotSupportedException cnse) {
+      throw new IllegalStateException(cnse);
+    }
+  }
 }
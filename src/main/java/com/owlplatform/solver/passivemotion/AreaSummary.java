@@ -0,0 +1,129 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+/**
+ * A compact description of one connected group of tiles in a result, so
+ * that consumers do not need to cluster the tiles themselves.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class AreaSummary {
+
+  /**
+   * Bounds of the union of the area's tiles.
+   */
+  private float minX;
+
+  private float minY;
+
+  private float maxX;
+
+  private float maxY;
+
+  /**
+   * Score-weighted center of the area's tiles.
+   */
+  private float x;
+
+  private float y;
+
+  /**
+   * Highest score of any tile in the area.
+   */
+  private float peakScore;
+
+  private int numTiles;
+
+  public float getMinX() {
+    return minX;
+  }
+
+  public void setMinX(float minX) {
+    this.minX = minX;
+  }
+
+  public float getMinY() {
+    return minY;
+  }
+
+  public void setMinY(float minY) {
+    this.minY = minY;
+  }
+
+  public float getMaxX() {
+    return maxX;
+  }
+
+  public void setMaxX(float maxX) {
+    this.maxX = maxX;
+  }
+
+  public float getMaxY() {
+    return maxY;
+  }
+
+  public void setMaxY(float maxY) {
+    this.maxY = maxY;
+  }
+
+  public float getX() {
+    return x;
+  }
+
+  public void setX(float x) {
+    this.x = x;
+  }
+
+  public float getY() {
+    return y;
+  }
+
+  public void setY(float y) {
+    this.y = y;
+  }
+
+  public float getPeakScore() {
+    return peakScore;
+  }
+
+  public void setPeakScore(float peakScore) {
+    this.peakScore = peakScore;
+  }
+
+  public int getNumTiles() {
+    return numTiles;
+  }
+
+  public void setNumTiles(int numTiles) {
+    this.numTiles = numTiles;
+  }
+
+  @Override
+  public String toString() {
+    StringBuffer sb = new StringBuffer();
+    sb.append("Area of ").append(this.numTiles).append(" tiles (")
+        .append(this.minX).append(", ").append(this.minY).append(") (")
+        .append(this.maxX).append(", ").append(this.maxY)
+        .append(") centered at (").append(this.x).append(", ").append(this.y)
+        .append("): ").append(this.peakScore);
+    return sb.toString();
+  }
+}
@@ -0,0 +1,395 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.owlplatform.worldmodel.Attribute;
+import com.owlplatform.worldmodel.client.ClientWorldConnection;
+import com.owlplatform.worldmodel.client.StepResponse;
+import com.owlplatform.worldmodel.client.WorldState;
+import com.owlplatform.worldmodel.types.DataConverter;
+import com.owlplatform.worldmodel.types.DoubleConverter;
+import com.thoughtworks.xstream.XStream;
+
+/**
+ * Solves a past time range from the link variance stored in the world model,
+ * as fast as the data can be read and scored. The range is split into
+ * windows which are solved in parallel, each by its own algorithm on a
+ * single thread; the configured shard threads are not used, so the number
+ * of threads is bounded by the number of windows solved at once. A window
+ * first replays a warm-up period before its start so that link baselines
+ * have settled, then produces a result at every interval of the window using
+ * only the variance recorded before that time. Results are written to a
+ * {@link ColumnarResultWriter} file in time order.
+ * <p>
+ * Each window takes the anchors as they were at the start of its warm-up,
+ * so anchors moved during a window are only picked up by the next window.
+ * Areas of motion are tracked within a window but not across windows.
+ *
+ * @author Robert Moore
+ *
+ */
+public class BackfillSolver {
+
+  private static final Logger log = LoggerFactory
+      .getLogger(BackfillSolver.class);
+
+  /**
+   * Default length of each window.
+   */
+  public static final long DEFAULT_WINDOW = 3600000l;
+
+  /**
+   * Default variance replayed before each window.
+   */
+  public static final long DEFAULT_WARMUP = 300000l;
+
+  private final ClientWorldConnection clientWM = new ClientWorldConnection();
+
+  private final String regionId;
+
+  private final AlgorithmConfig config;
+
+  private long windowLength = DEFAULT_WINDOW;
+
+  private long warmup = DEFAULT_WARMUP;
+
+  private long interval = PassiveMotionSolver.UPDATE_FREQUENCY;
+
+  private int numThreads = Runtime.getRuntime().availableProcessors();
+
+  private float regionXMax = 0f;
+
+  private float regionYMax = 0f;
+
+  /**
+   * Solves a time range and writes the results to a file.
+   *
+   * @param args
+   *          world model host, client port, region name, algorithm config,
+   *          start and end time (milliseconds since the epoch) and output
+   *          file, followed by any options.
+   */
+  public static void main(String[] args) {
+    if (args.length < 7) {
+      printUsageInfo();
+      return;
+    }
+    AlgorithmConfig config = (AlgorithmConfig) new XStream()
+        .fromXML(new File(args[3]));
+    BackfillSolver solver = new BackfillSolver(args[0],
+        Integer.parseInt(args[1]), args[2], config);
+    for (int i = 7; i < args.length; ++i) {
+      if (args[i].equals("--window") && i + 1 < args.length) {
+        solver.setWindowLength(Long.parseLong(args[++i]));
+      } else if (args[i].equals("--warmup") && i + 1 < args.length) {
+        solver.setWarmup(Long.parseLong(args[++i]));
+      } else if (args[i].equals("--interval") && i + 1 < args.length) {
+        solver.setInterval(Long.parseLong(args[++i]));
+      } else if (args[i].equals("--threads") && i + 1 < args.length) {
+        solver.setNumThreads(Integer.parseInt(args[++i]));
+      }
+    }
+    boolean complete = false;
+    try {
+      complete = solver.solve(Long.parseLong(args[4]), Long.parseLong(args[5]),
+          new File(args[6]));
+    } catch (IOException ioe) {
+      log.error("Unable to write " + args[6] + ".", ioe);
+    }
+    System.exit(complete ? 0 : 1);
+  }
+
+  public static void printUsageInfo() {
+    System.out
+        .println("Usage: <world model host> <client port> <region name> <algorithm config> <start time> <end time> <output file> [--window <ms>] [--warmup <ms>] [--interval <ms>] [--threads <n>]");
+  }
+
+  public BackfillSolver(final String wmHost, final int clientPort,
+      final String regionId, final AlgorithmConfig config) {
+    super();
+    this.clientWM.setHost(wmHost);
+    this.clientWM.setPort(clientPort);
+    this.regionId = regionId;
+    // Windows are already solved in parallel, so each one scores its region
+    // on its own thread instead of starting shard threads of its own
+    this.config = config.copy();
+    this.config.shardThreads = 0;
+  }
+
+  /**
+   * Solves {@code [start, end)} and writes the results.
+   *
+   * @param start
+   *          the time of the first result.
+   * @param end
+   *          the end of the range.
+   * @param output
+   *          the file to write.
+   * @return {@code true} if every window was solved.
+   * @throws IOException
+   *           if the results cannot be written.
+   */
+  public boolean solve(final long start, final long end, final File output)
+      throws IOException {
+    if (!this.clientWM.connect(ConnectionSupervisor.CONNECT_TIMEOUT)) {
+      log.error("Unable to connect to the world model.");
+      return false;
+    }
+    ExecutorService executor = null;
+    ColumnarResultWriter writer = null;
+    int failed = 0;
+    try {
+      if (!this.retrieveRegionBounds()) {
+        log.error("Region dimensions unavailable for {}.", this.regionId);
+        return false;
+      }
+      TileGeometry geometry = this.createAlgorithm().getGeometry();
+      if (geometry == null) {
+        log.error("No tile layout for the region and configuration.");
+        return false;
+      }
+      writer = new ColumnarResultWriter(output, geometry, this.interval);
+
+      executor = Executors.newFixedThreadPool(this.numThreads,
+          new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(final Runnable r) {
+              Thread t = new Thread(r, "Backfill Window "
+                  + this.count.incrementAndGet());
+              t.setDaemon(true);
+              return t;
+            }
+          });
+      List<Future<ColumnarResultWriter.RowGroup>> windows = new ArrayList<Future<ColumnarResultWriter.RowGroup>>();
+      for (long windowStart = start; windowStart < end; windowStart += this.windowLength) {
+        final long from = windowStart;
+        final long to = Math.min(end, windowStart + this.windowLength);
+        windows.add(executor
+            .submit(new Callable<ColumnarResultWriter.RowGroup>() {
+              @Override
+              public ColumnarResultWriter.RowGroup call() throws Exception {
+                return BackfillSolver.this.solveWindow(from, to);
+              }
+            }));
+      }
+
+      long began = System.currentTimeMillis();
+      long numResults = 0;
+      for (int i = 0; i < windows.size(); ++i) {
+        ColumnarResultWriter.RowGroup group;
+        try {
+          group = windows.get(i).get();
+        } catch (ExecutionException ee) {
+          // The missing row group leaves a visible gap in the output
+          log.error("Unable to solve window " + (i + 1) + " of "
+              + windows.size() + ".", ee.getCause());
+          ++failed;
+          continue;
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+        writer.write(group);
+        numResults += group.getNumResults();
+        log.info("Solved window {} of {}.", Integer.valueOf(i + 1),
+            Integer.valueOf(windows.size()));
+      }
+      long elapsed = Math.max(1, System.currentTimeMillis() - began);
+      log.info("Solved {} results in {} ms ({} per second).", new Object[] {
+          Long.valueOf(numResults), Long.valueOf(elapsed),
+          Long.valueOf(numResults * 1000 / elapsed) });
+    } finally {
+      if (executor != null) {
+        executor.shutdownNow();
+      }
+      if (writer != null) {
+        writer.close();
+      }
+      this.clientWM.disconnect();
+    }
+    return failed == 0;
+  }
+
+  /**
+   * Replays the warm-up and variance of one window and solves it.
+   *
+   * @param windowStart
+   *          the time of the window's first result.
+   * @param windowEnd
+   *          the end of the window.
+   * @return the window's results.
+   * @throws Exception
+   *           if the world model request fails.
+   */
+  protected ColumnarResultWriter.RowGroup solveWindow(final long windowStart,
+      final long windowEnd) throws Exception {
+    ColumnarResultWriter.RowGroup group = new ColumnarResultWriter.RowGroup(
+        windowStart);
+    PassiveMotionAlgorithm algorithm = this.createAlgorithm();
+    try {
+      long replayStart = windowStart - this.warmup;
+      WorldState anchors = this.clientWM.getSnapshot(
+          this.regionId + "\\.anchor.*", replayStart, replayStart,
+          "location\\..*", "sensor.*").get();
+      PassiveMotionSolver.applyAnchors(algorithm, anchors);
+      String linkRegex = algorithm.getLinkIdRegex();
+      if (linkRegex == null) {
+        log.warn("No anchors in {} at {}.", this.regionId,
+            Long.valueOf(replayStart));
+        this.solveUntil(algorithm, group, windowStart, windowEnd);
+        return group;
+      }
+
+      StepResponse response = this.clientWM.getRangeRequest(linkRegex,
+          replayStart, windowEnd, "link variance");
+      long nextResult = windowStart;
+      try {
+        while (!response.isComplete() && !response.isError()) {
+          WorldState state = response.next();
+          if (state == null) {
+            break;
+          }
+          for (String uri : state.getIdentifiers()) {
+            Collection<Attribute> attribs = state.getState(uri);
+            if (attribs == null) {
+              continue;
+            }
+            int txSensStart = uri.indexOf('.');
+            int rxSensStart = uri.lastIndexOf('.');
+            String txerSensor = uri.substring(txSensStart + 1, rxSensStart);
+            String rxerSensor = uri.substring(rxSensStart + 1);
+            for (Attribute linkAvg : attribs) {
+              long timestamp = linkAvg.getCreationDate();
+              // Each result only sees variance recorded before it
+              if (timestamp >= nextResult) {
+                nextResult = this.solveUntil(algorithm, group, nextResult,
+                    Math.min(windowEnd, timestamp + 1));
+              }
+              double value = DoubleConverter.get().decode(linkAvg.getData());
+              algorithm.addVariance(rxerSensor, txerSensor, (float) value,
+                  timestamp);
+            }
+          }
+        }
+        if (response.isError()) {
+          throw new IOException("Range request failed for " + linkRegex
+              + ".", response.getError());
+        }
+      } finally {
+        response.cancel();
+      }
+      this.solveUntil(algorithm, group, nextResult, windowEnd);
+    } finally {
+      algorithm.shutdown();
+    }
+    return group;
+  }
+
+  /**
+   * Produces a result at every interval from {@code from} up to, but not
+   * including, {@code until}.
+   *
+   * @return the time of the next result.
+   */
+  private long solveUntil(final PassiveMotionAlgorithm algorithm,
+      final ColumnarResultWriter.RowGroup group, final long from,
+      final long until) {
+    long time = from;
+    for (; time < until; time += this.interval) {
+      FilteredTileResultSet resultSet = algorithm.generateResults(time);
+      FilteredTileResult merged = resultSet == null ? null : resultSet
+          .getResult("base-raw-0");
+      group.addResult(time, merged == null ? null : merged.getGrid());
+      if (resultSet != null) {
+        resultSet.release();
+      }
+    }
+    return time;
+  }
+
+  private PassiveMotionAlgorithm createAlgorithm() {
+    PassiveMotionAlgorithm algorithm = new PassiveMotionAlgorithm(this.config);
+    algorithm.setRegionUri(this.regionId);
+    algorithm.setRegionXMax(this.regionXMax);
+    algorithm.setRegionYMax(this.regionYMax);
+    return algorithm;
+  }
+
+  private boolean retrieveRegionBounds() {
+    try {
+      WorldState state = this.clientWM.getCurrentSnapshot(
+          "region." + this.regionId, "location\\..*").get();
+      for (String uri : state.getIdentifiers()) {
+        for (Attribute attrib : state.getState(uri)) {
+          if ("location.maxx".equals(attrib.getAttributeName())) {
+            this.regionXMax = ((Double) DataConverter.decode(
+                attrib.getAttributeName(), attrib.getData())).floatValue();
+          } else if ("location.maxy".equals(attrib.getAttributeName())) {
+            this.regionYMax = ((Double) DataConverter.decode(
+                attrib.getAttributeName(), attrib.getData())).floatValue();
+          }
+        }
+      }
+    } catch (Exception e) {
+      log.error("Couldn't retrieve dimension data for " + this.regionId + ".",
+          e);
+    }
+    return this.regionXMax > 0 && this.regionYMax > 0;
+  }
+
+  public void setWindowLength(final long windowLength) {
+    if (windowLength <= 0 || windowLength > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Invalid window length "
+          + windowLength + ".");
+    }
+    this.windowLength = windowLength;
+  }
+
+  public void setWarmup(final long warmup) {
+    this.warmup = Math.max(0, warmup);
+  }
+
+  public void setInterval(final long interval) {
+    if (interval <= 0) {
+      throw new IllegalArgumentException("Invalid interval " + interval + ".");
+    }
+    this.interval = interval;
+  }
+
+  public void setNumThreads(final int numThreads) {
+    this.numThreads = Math.max(1, numThreads);
+  }
+}
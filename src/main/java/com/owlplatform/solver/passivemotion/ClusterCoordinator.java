@@ -0,0 +1,600 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands the shards of a region out to {@link ClusterWorker} processes. The
+ * coordinator is the algorithm's {@link ShardScorer}: each tick, the shards
+ * are dealt round-robin to the connected workers along with the tick's
+ * lines, and the areas the workers send back are stored in the shards. The
+ * region and anchors are only sent to a worker when they change.
+ * <p>
+ * A worker that misses its heartbeats or whose connection fails is dropped,
+ * and the remaining workers take over its shards from the next tick. Shards
+ * that a worker has not answered for by the end of a tick, including every
+ * shard when no workers are connected, are scored by the coordinator itself,
+ * so a result is always complete.
+ *
+ * @author Robert Moore
+ *
+ */
+public class ClusterCoordinator implements ShardScorer {
+
+  private static final Logger log = LoggerFactory
+      .getLogger(ClusterCoordinator.class);
+
+  /**
+   * Longest a tick waits for the workers before scoring their shards
+   * locally. Kept below the solver's update period.
+   */
+  public static final long SOLVE_TIMEOUT = 750l;
+
+  private final int port;
+
+  private ServerSocket serverSocket = null;
+
+  private volatile boolean keepRunning = true;
+
+  /**
+   * Workers that have said hello and are still connected.
+   */
+  private final CopyOnWriteArrayList<WorkerConnection> workers = new CopyOnWriteArrayList<WorkerConnection>();
+
+  /**
+   * Guards the state of the current tick and is notified when a result
+   * arrives or a worker is lost.
+   */
+  private final Object resultLock = new Object();
+
+  private long tick = 0l;
+
+  /**
+   * Shards of the current tick, or {@code null} between ticks.
+   */
+  private RegionShard[] tickShards = null;
+
+  /**
+   * Which shards of the current tick have been answered.
+   */
+  private boolean[] received = null;
+
+  /**
+   * The anchors as last indexed. Only used by the solver thread.
+   */
+  private AnchorIndex anchors = null;
+
+  /**
+   * Shards answered by a worker and shards scored locally, over every tick.
+   * Only updated by the solver thread.
+   */
+  private long numRemoteShards = 0l;
+
+  private long numLocalShards = 0l;
+
+  /**
+   * Creates a coordinator that will accept workers on a port.
+   *
+   * @param port
+   *          the port to listen on.
+   */
+  public ClusterCoordinator(final int port) {
+    super();
+    this.port = port;
+  }
+
+  /**
+   * Starts accepting workers and sending heartbeats.
+   *
+   * @throws IOException
+   *           if the port cannot be bound.
+   */
+  public void start() throws IOException {
+    this.serverSocket = new ServerSocket(this.port);
+    Thread acceptor = new Thread("Cluster Acceptor") {
+      @Override
+      public void run() {
+        ClusterCoordinator.this.acceptWorkers();
+      }
+    };
+    acceptor.setDaemon(true);
+    acceptor.start();
+    Thread heartbeat = new Thread("Cluster Heartbeat") {
+      @Override
+      public void run() {
+        ClusterCoordinator.this.sendHeartbeats();
+      }
+    };
+    heartbeat.setDaemon(true);
+    heartbeat.start();
+    log.info("Coordinating workers on port {}.", Integer.valueOf(this.port));
+  }
+
+  /**
+   * Stops accepting workers and disconnects every worker.
+   */
+  public void stop() {
+    this.keepRunning = false;
+    if (this.serverSocket != null) {
+      try {
+        this.serverSocket.close();
+      } catch (IOException ioe) {
+        log.debug("Unable to close server socket.", ioe);
+      }
+    }
+    for (WorkerConnection worker : this.workers) {
+      worker.close(null);
+    }
+  }
+
+  public int getNumWorkers() {
+    return this.workers.size();
+  }
+
+  public long getNumRemoteShards() {
+    return this.numRemoteShards;
+  }
+
+  public long getNumLocalShards() {
+    return this.numLocalShards;
+  }
+
+  private void acceptWorkers() {
+    while (this.keepRunning) {
+      try {
+        Socket socket = this.serverSocket.accept();
+        new WorkerConnection(socket).start();
+      } catch (IOException ioe) {
+        if (this.keepRunning) {
+          log.warn("Unable to accept worker.", ioe);
+        }
+      }
+    }
+  }
+
+  private void sendHeartbeats() {
+    while (this.keepRunning) {
+      for (WorkerConnection worker : this.workers) {
+        try {
+          worker.send(ClusterProtocol.HEARTBEAT, ClusterProtocol.heartbeat());
+        } catch (IOException ioe) {
+          worker.close(ioe);
+        }
+      }
+      try {
+        Thread.sleep(ClusterProtocol.HEARTBEAT_INTERVAL);
+      } catch (InterruptedException ie) {
+        return;
+      }
+    }
+  }
+
+  public void scoreShards(final PassiveMotionAlgorithm algorithm,
+      final RegionShard[] shards, final TileGeometry geometry,
+      final List<RSSILine> lines) {
+    final List<WorkerConnection> live = new ArrayList<WorkerConnection>(
+        this.workers);
+    final int[] owners = new int[shards.length];
+    Arrays.fill(owners, -1);
+    long tickId;
+    synchronized (this.resultLock) {
+      tickId = ++this.tick;
+      this.tickShards = shards;
+      this.received = new boolean[shards.length];
+    }
+
+    if (!live.isEmpty()) {
+      AnchorIndex index = this.getAnchors(algorithm);
+      ByteArrayOutputStream linePayload = index.encodeLines(lines);
+      for (int w = 0; w < live.size() && w < shards.length; ++w) {
+        WorkerConnection worker = live.get(w);
+        try {
+          worker.solve(tickId, geometry, index, shards, w, live.size(),
+              linePayload);
+          for (int s = w; s < shards.length; s += live.size()) {
+            owners[s] = w;
+          }
+        } catch (IOException ioe) {
+          worker.close(ioe);
+        }
+      }
+      this.awaitResults(tickId, live, owners, System.currentTimeMillis()
+          + SOLVE_TIMEOUT);
+    }
+
+    boolean[] done;
+    synchronized (this.resultLock) {
+      done = this.received;
+      this.tickShards = null;
+      this.received = null;
+    }
+    int numLocal = 0;
+    for (int s = 0; s < shards.length; ++s) {
+      if (!done[s]) {
+        algorithm.scoreShard(shards[s], geometry, lines);
+        ++numLocal;
+      }
+    }
+    this.numLocalShards += numLocal;
+    this.numRemoteShards += shards.length - numLocal;
+    if (numLocal > 0 && !live.isEmpty()) {
+      log.debug("Scored {} of {} shards locally.", Integer.valueOf(numLocal),
+          Integer.valueOf(shards.length));
+    }
+  }
+
+  /**
+   * Waits until every shard sent to a worker has been answered, the
+   * worker it was sent to is lost, or the deadline passes.
+   */
+  private void awaitResults(final long tickId,
+      final List<WorkerConnection> live, final int[] owners,
+      final long deadline) {
+    synchronized (this.resultLock) {
+      while (true) {
+        boolean waiting = false;
+        for (int s = 0; s < owners.length && !waiting; ++s) {
+          waiting = owners[s] >= 0 && !this.received[s]
+              && live.get(owners[s]).isOpen();
+        }
+        if (!waiting) {
+          return;
+        }
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+          log.warn("Workers did not finish tick {} in time.",
+              Long.valueOf(tickId));
+          return;
+        }
+        try {
+          this.resultLock.wait(remaining);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Stores the areas from a worker's result in the current tick's shards.
+   * Results for any other tick are late and ignored.
+   */
+  private void resultReceived(final WorkerConnection worker,
+      final DataInputStream in) throws IOException {
+    long tickId = in.readLong();
+    int numShards = in.readInt();
+    int[] indices = new int[numShards];
+    int[][][] tiles = new int[numShards][][];
+    float[][][] scores = new float[numShards][][];
+    for (int s = 0; s < numShards; ++s) {
+      indices[s] = in.readInt();
+      int numAreas = in.readInt();
+      tiles[s] = new int[numAreas][];
+      scores[s] = new float[numAreas][];
+      for (int a = 0; a < numAreas; ++a) {
+        int numTiles = in.readInt();
+        tiles[s][a] = new int[numTiles];
+        scores[s][a] = new float[numTiles];
+        for (int i = 0; i < numTiles; ++i) {
+          tiles[s][a][i] = in.readInt();
+          scores[s][a][i] = in.readFloat();
+        }
+      }
+    }
+
+    synchronized (this.resultLock) {
+      if (tickId != this.tick || this.tickShards == null) {
+        log.debug("Ignoring late result for tick {} from {}.",
+            Long.valueOf(tickId), worker);
+        return;
+      }
+      for (int s = 0; s < numShards; ++s) {
+        int index = indices[s];
+        if (index < 0 || index >= this.tickShards.length
+            || this.received[index]) {
+          continue;
+        }
+        RegionShard shard = this.tickShards[index];
+        for (int a = 0; a < tiles[s].length; ++a) {
+          for (int i = 0; i < tiles[s][a].length; ++i) {
+            if (!shard.covers(tiles[s][a][i])) {
+              throw new IOException("Invalid tile " + tiles[s][a][i]
+                  + " in shard " + index + ".");
+            }
+          }
+        }
+        shard.clearAreas();
+        for (int a = 0; a < tiles[s].length; ++a) {
+          shard.addArea(tiles[s][a], scores[s][a]);
+        }
+        this.received[index] = true;
+      }
+      this.resultLock.notifyAll();
+    }
+  }
+
+  private AnchorIndex getAnchors(final PassiveMotionAlgorithm algorithm) {
+    long version = algorithm.getLinkVersion();
+    if (this.anchors == null || this.anchors.version != version) {
+      this.anchors = new AnchorIndex(version, algorithm);
+    }
+    return this.anchors;
+  }
+
+  /**
+   * The receivers and transmitters sent to the workers, in the order that
+   * gives each its index in {@link ClusterProtocol#SOLVE}.
+   */
+  private static final class AnchorIndex {
+    final long version;
+
+    final HashMap<String, Integer> receiverIndices = new HashMap<String, Integer>();
+
+    final HashMap<String, Integer> transmitterIndices = new HashMap<String, Integer>();
+
+    final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+
+    AnchorIndex(final long version, final PassiveMotionAlgorithm algorithm) {
+      this.version = version;
+      List<Receiver> receivers = new ArrayList<Receiver>(
+          algorithm.receivers.values());
+      List<Transmitter> transmitters = new ArrayList<Transmitter>(
+          algorithm.transmitters.values());
+      DataOutputStream out = new DataOutputStream(this.payload);
+      try {
+        out.writeInt(receivers.size());
+        for (Receiver receiver : receivers) {
+          this.receiverIndices.put(receiver.getDeviceId(),
+              Integer.valueOf(this.receiverIndices.size()));
+          out.writeUTF(receiver.getDeviceId());
+          out.writeFloat(receiver.getxLocation());
+          out.writeFloat(receiver.getyLocation());
+        }
+        out.writeInt(transmitters.size());
+        for (Transmitter transmitter : transmitters) {
+          this.transmitterIndices.put(transmitter.getDeviceId(),
+              Integer.valueOf(this.transmitterIndices.size()));
+          out.writeUTF(transmitter.getDeviceId());
+          out.writeFloat(transmitter.getxLocation());
+          out.writeFloat(transmitter.getyLocation());
+        }
+      } catch (IOException ioe) {
+        // Not thrown by a byte array
+      }
+    }
+
+    /**
+     * Encodes the lines part of a solve message. Lines whose anchors were
+     * added after this index was built are left out.
+     */
+    ByteArrayOutputStream encodeLines(final List<RSSILine> lines) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+          4 + lines.size() * 16);
+      DataOutputStream out = new DataOutputStream(bytes);
+      List<int[]> anchorPairs = new ArrayList<int[]>(lines.size());
+      List<RSSILine> known = new ArrayList<RSSILine>(lines.size());
+      for (RSSILine line : lines) {
+        Integer rx = this.receiverIndices.get(line.getReceiver().getDeviceId());
+        Integer tx = this.transmitterIndices.get(line.getTransmitter()
+            .getDeviceId());
+        if (rx == null || tx == null) {
+          continue;
+        }
+        anchorPairs.add(new int[] { rx.intValue(), tx.intValue() });
+        known.add(line);
+      }
+      try {
+        out.writeInt(known.size());
+        for (int i = 0; i < known.size(); ++i) {
+          out.writeInt(anchorPairs.get(i)[0]);
+          out.writeInt(anchorPairs.get(i)[1]);
+          out.writeFloat(known.get(i).getValue());
+          out.writeFloat(known.get(i).getNoiseFloor());
+        }
+      } catch (IOException ioe) {
+        // Not thrown by a byte array
+      }
+      return bytes;
+    }
+  }
+
+  /**
+   * One connected worker. Its thread reads the worker's messages; messages
+   * to the worker are written by the solver and heartbeat threads.
+   */
+  private final class WorkerConnection extends Thread {
+
+    private final Socket socket;
+
+    private final SocketAddress address;
+
+    private final DataInputStream in;
+
+    private final DataOutputStream out;
+
+    private String workerName = null;
+
+    private volatile boolean open = true;
+
+    /**
+     * Region last sent to the worker. Only used by the solver thread.
+     */
+    private TileGeometry sentGeometry = null;
+
+    /**
+     * Anchors last sent to the worker. Only used by the solver thread.
+     */
+    private AnchorIndex sentAnchors = null;
+
+    WorkerConnection(final Socket socket) throws IOException {
+      super("Cluster Worker " + socket.getRemoteSocketAddress());
+      this.setDaemon(true);
+      this.socket = socket;
+      this.address = socket.getRemoteSocketAddress();
+      socket.setSoTimeout(ClusterProtocol.HEARTBEAT_TIMEOUT);
+      socket.setTcpNoDelay(true);
+      this.in = new DataInputStream(new BufferedInputStream(
+          socket.getInputStream()));
+      this.out = new DataOutputStream(new BufferedOutputStream(
+          socket.getOutputStream()));
+    }
+
+    @Override
+    public void run() {
+      try {
+        ClusterProtocol.Message hello = ClusterProtocol.readMessage(this.in);
+        if (hello.getType() != ClusterProtocol.HELLO) {
+          throw new IOException("Expected hello, got message type "
+              + hello.getType() + ".");
+        }
+        int version = hello.getPayload().readInt();
+        if (version != ClusterProtocol.VERSION) {
+          throw new IOException("Unsupported protocol version " + version
+              + ".");
+        }
+        this.workerName = hello.getPayload().readUTF();
+        ClusterCoordinator.this.workers.add(this);
+        log.info("Worker {} connected from {}.", this.workerName,
+            this.address);
+
+        while (this.open) {
+          ClusterProtocol.Message message = ClusterProtocol
+              .readMessage(this.in);
+          if (message.getType() == ClusterProtocol.RESULT) {
+            ClusterCoordinator.this.resultReceived(this, message.getPayload());
+          } else if (message.getType() != ClusterProtocol.HEARTBEAT) {
+            log.warn("Unexpected message type {} from {}.",
+                Byte.valueOf(message.getType()), this);
+          }
+        }
+      } catch (IOException ioe) {
+        this.close(ioe);
+      }
+    }
+
+    void send(final byte type, final ByteArrayOutputStream payload)
+        throws IOException {
+      synchronized (this.out) {
+        ClusterProtocol.writeMessage(this.out, type, payload);
+      }
+    }
+
+    /**
+     * Sends every {@code stride}-th shard, starting at {@code first}, to the
+     * worker, preceded by the region and anchors if they have changed.
+     */
+    void solve(final long tickId, final TileGeometry geometry,
+        final AnchorIndex anchorIndex, final RegionShard[] shards,
+        final int first, final int stride,
+        final ByteArrayOutputStream linePayload) throws IOException {
+      if (this.sentGeometry != geometry) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16);
+        DataOutputStream region = new DataOutputStream(bytes);
+        region.writeFloat(geometry.getRegionXMax());
+        region.writeFloat(geometry.getRegionYMax());
+        region.writeInt(geometry.getNumX());
+        region.writeInt(geometry.getNumY());
+        this.send(ClusterProtocol.REGION, bytes);
+        this.sentGeometry = geometry;
+      }
+      if (this.sentAnchors != anchorIndex) {
+        this.send(ClusterProtocol.ANCHORS, anchorIndex.payload);
+        this.sentAnchors = anchorIndex;
+      }
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+          16 + linePayload.size() + shards.length * 28 / stride);
+      DataOutputStream solve = new DataOutputStream(bytes);
+      solve.writeLong(tickId);
+      solve.writeInt((shards.length - first + stride - 1) / stride);
+      for (int s = first; s < shards.length; s += stride) {
+        RegionShard shard = shards[s];
+        solve.writeInt(s);
+        solve.writeInt(shard.getCoreMinX());
+        solve.writeInt(shard.getCoreMinY());
+        solve.writeInt(shard.getCoreMaxX());
+        solve.writeInt(shard.getCoreMaxY());
+        solve.writeInt(shard.getMarginX());
+        solve.writeInt(shard.getMarginY());
+      }
+      linePayload.writeTo(solve);
+      this.send(ClusterProtocol.SOLVE, bytes);
+    }
+
+    boolean isOpen() {
+      return this.open;
+    }
+
+    /**
+     * Closes the connection and stops handing shards to the worker.
+     *
+     * @param cause
+     *          why the connection is closed, or {@code null} on shutdown.
+     */
+    void close(final Exception cause) {
+      synchronized (this) {
+        if (!this.open) {
+          return;
+        }
+        this.open = false;
+      }
+      ClusterCoordinator.this.workers.remove(this);
+      try {
+        this.socket.close();
+      } catch (IOException ioe) {
+        log.debug("Unable to close worker socket.", ioe);
+      }
+      if (cause != null && ClusterCoordinator.this.keepRunning) {
+        log.warn("Lost {}: {}", this, cause.toString());
+      } else {
+        log.info("Disconnected {}.", this);
+      }
+      synchronized (ClusterCoordinator.this.resultLock) {
+        ClusterCoordinator.this.resultLock.notifyAll();
+      }
+    }
+
+    @Override
+    public String toString() {
+      StringBuffer sb = new StringBuffer();
+      sb.append("Worker ")
+          .append(this.workerName == null ? "(unnamed)" : this.workerName)
+          .append(" at ").append(this.address);
+      return sb.toString();
+    }
+  }
+}
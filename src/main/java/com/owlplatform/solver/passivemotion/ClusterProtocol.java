@@ -0,0 +1,175 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Binary protocol between a {@link ClusterCoordinator} and its
+ * {@link ClusterWorker}s. Every message is framed as a 4-byte big-endian
+ * length, counting the type byte and payload, then a 1-byte type and the
+ * payload. Payloads are written with {@link DataOutputStream}.
+ *
+ * <ul>
+ * <li>{@link #HELLO} (worker) - protocol version (int), worker name (UTF).</li>
+ * <li>{@link #HEARTBEAT} (both) - sender's clock (long).</li>
+ * <li>{@link #REGION} (coordinator) - region width and height (float), tile
+ * counts along x and y (int).</li>
+ * <li>{@link #ANCHORS} (coordinator) - number of receivers (int), then each
+ * receiver's ID (UTF) and x and y (float); the same for transmitters. An
+ * anchor's position in the message is its index in {@link #SOLVE}.</li>
+ * <li>{@link #SOLVE} (coordinator) - tick (long); number of shards (int), then
+ * each shard's index and its core min x, min y, max x, max y, and x and y
+ * margins (int); number of lines (int), then each line's receiver and
+ * transmitter index (int), value and noise floor (float).</li>
+ * <li>{@link #RESULT} (worker) - tick (long); number of shards scored (int),
+ * then each shard's index and number of areas (int), and for each area its
+ * number of tiles (int) followed by each tile's index (int) and score
+ * (float).</li>
+ * </ul>
+ *
+ * Shards left out of a result were not scored by the worker.
+ *
+ * @author Robert Moore
+ *
+ */
+public final class ClusterProtocol {
+
+  /**
+   * Changed whenever a message's layout changes.
+   */
+  public static final int VERSION = 1;
+
+  public static final byte HELLO = 1;
+
+  public static final byte HEARTBEAT = 2;
+
+  public static final byte REGION = 3;
+
+  public static final byte ANCHORS = 4;
+
+  public static final byte SOLVE = 5;
+
+  public static final byte RESULT = 6;
+
+  /**
+   * How often each side sends a heartbeat.
+   */
+  public static final long HEARTBEAT_INTERVAL = 1000l;
+
+  /**
+   * How long either side waits without hearing from the other before
+   * closing the connection.
+   */
+  public static final int HEARTBEAT_TIMEOUT = 5000;
+
+  /**
+   * Largest frame accepted, to protect against a corrupt length.
+   */
+  public static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+
+  private ClusterProtocol() {
+    super();
+  }
+
+  /**
+   * A received message.
+   */
+  public static final class Message {
+    private final byte type;
+
+    private final DataInputStream payload;
+
+    Message(final byte type, final DataInputStream payload) {
+      this.type = type;
+      this.payload = payload;
+    }
+
+    public byte getType() {
+      return this.type;
+    }
+
+    public DataInputStream getPayload() {
+      return this.payload;
+    }
+  }
+
+  /**
+   * Writes one framed message and flushes the stream. Callers writing from
+   * more than one thread must synchronize on the stream.
+   *
+   * @param out
+   *          the stream to write to.
+   * @param type
+   *          the message type.
+   * @param payload
+   *          the message payload.
+   * @throws IOException
+   *           if the message cannot be written.
+   */
+  public static void writeMessage(final DataOutputStream out,
+      final byte type, final ByteArrayOutputStream payload) throws IOException {
+    out.writeInt(payload.size() + 1);
+    out.writeByte(type);
+    payload.writeTo(out);
+    out.flush();
+  }
+
+  /**
+   * Reads one framed message, blocking until all of it has arrived.
+   *
+   * @param in
+   *          the stream to read from.
+   * @return the message.
+   * @throws IOException
+   *           if the stream fails or the frame is invalid.
+   */
+  public static Message readMessage(final DataInputStream in)
+      throws IOException {
+    int length = in.readInt();
+    if (length < 1 || length > MAX_FRAME_LENGTH) {
+      throw new IOException("Invalid frame length " + length + ".");
+    }
+    byte type = in.readByte();
+    byte[] payload = new byte[length - 1];
+    in.readFully(payload);
+    return new Message(type, new DataInputStream(new ByteArrayInputStream(
+        payload)));
+  }
+
+  /**
+   * Creates the payload of a heartbeat.
+   *
+   * @return the payload.
+   */
+  public static ByteArrayOutputStream heartbeat() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(8);
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeLong(System.currentTimeMillis());
+    } catch (IOException ioe) {
+      // Not thrown by a byte array
+    }
+    return bytes;
+  }
+}
@@ -0,0 +1,403 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.thoughtworks.xstream.XStream;
+
+/**
+ * Scores shards for a {@link ClusterCoordinator}. The worker keeps its own
+ * copy of the region and anchors, as sent by the coordinator, and answers
+ * each solve message with the areas found in the shards it was given. It
+ * must be started with the same algorithm configuration as the coordinator.
+ * If the coordinator is lost, the worker reconnects with an increasing
+ * delay and starts over with fresh state.
+ * <p>
+ * Several workers can run on one host, each in its own JVM, by starting
+ * them against the same coordinator.
+ *
+ * @author Robert Moore
+ *
+ */
+public class ClusterWorker {
+
+  private static final Logger log = LoggerFactory
+      .getLogger(ClusterWorker.class);
+
+  private final String host;
+
+  private final int port;
+
+  private final AlgorithmConfig config;
+
+  private final String workerName;
+
+  private volatile boolean keepRunning = true;
+
+  private volatile Socket socket = null;
+
+  /**
+   * State for the current coordinator. Only used by the thread in
+   * {@link #run()}.
+   */
+  private PassiveMotionAlgorithm algorithm = null;
+
+  private Receiver[] receivers = new Receiver[0];
+
+  private Transmitter[] transmitters = new Transmitter[0];
+
+  private int numX = 0;
+
+  private int numY = 0;
+
+  private final HashMap<Integer, RegionShard> shards = new HashMap<Integer, RegionShard>();
+
+  private TileGeometry shardGeometry = null;
+
+  /**
+   * Connects to a coordinator and scores shards until stopped.
+   *
+   * @param args
+   *          coordinator host, coordinator port, algorithm config, and
+   *          optionally the worker's name.
+   */
+  public static void main(String[] args) {
+    if (args.length < 3) {
+      printUsageInfo();
+      return;
+    }
+    AlgorithmConfig config = (AlgorithmConfig) new XStream()
+        .fromXML(new File(args[2]));
+    String name = args.length > 3 ? args[3] : ManagementFactory
+        .getRuntimeMXBean().getName();
+    new ClusterWorker(args[0], Integer.parseInt(args[1]), config, name).run();
+  }
+
+  public static void printUsageInfo() {
+    System.out
+        .println("Usage: <coordinator host> <coordinator port> <algorithm config> [worker name]");
+  }
+
+  public ClusterWorker(final String host, final int port,
+      final AlgorithmConfig config, final String workerName) {
+    super();
+    this.host = host;
+    this.port = port;
+    this.config = config;
+    this.workerName = workerName;
+  }
+
+  /**
+   * Connects to the coordinator and serves it, reconnecting whenever the
+   * connection is lost, until {@link #shutdown()} is called.
+   */
+  public void run() {
+    ExponentialBackoff backoff = new ExponentialBackoff(
+        ConnectionSupervisor.MIN_RETRY_DELAY,
+        ConnectionSupervisor.MAX_RETRY_DELAY);
+    while (this.keepRunning) {
+      try {
+        this.socket = new Socket(this.host, this.port);
+        backoff.succeeded();
+        log.info("Connected to coordinator at {}:{}.", this.host,
+            Integer.valueOf(this.port));
+        this.serve(this.socket);
+      } catch (IOException ioe) {
+        if (this.keepRunning) {
+          log.warn("Lost coordinator at {}:{}: {}", new Object[] { this.host,
+              Integer.valueOf(this.port), ioe.toString() });
+        }
+      } finally {
+        this.closeSocket();
+      }
+      if (this.keepRunning && !backoff.failedAndWait()) {
+        break;
+      }
+    }
+    log.info("Worker {} exiting.", this.workerName);
+  }
+
+  public void shutdown() {
+    this.keepRunning = false;
+    this.closeSocket();
+  }
+
+  private void closeSocket() {
+    Socket current = this.socket;
+    if (current != null) {
+      try {
+        current.close();
+      } catch (IOException ioe) {
+        log.debug("Unable to close socket.", ioe);
+      }
+    }
+  }
+
+  private void serve(final Socket current) throws IOException {
+    current.setSoTimeout(ClusterProtocol.HEARTBEAT_TIMEOUT);
+    current.setTcpNoDelay(true);
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+        current.getInputStream()));
+    final DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(current.getOutputStream()));
+
+    // The coordinator resends the region and anchors to every new connection
+    this.algorithm = new PassiveMotionAlgorithm(this.config);
+    this.receivers = new Receiver[0];
+    this.transmitters = new Transmitter[0];
+    this.numX = 0;
+    this.numY = 0;
+    this.shards.clear();
+    this.shardGeometry = null;
+
+    ByteArrayOutputStream hello = new ByteArrayOutputStream();
+    DataOutputStream helloOut = new DataOutputStream(hello);
+    helloOut.writeInt(ClusterProtocol.VERSION);
+    helloOut.writeUTF(this.workerName);
+    synchronized (out) {
+      ClusterProtocol.writeMessage(out, ClusterProtocol.HELLO, hello);
+    }
+
+    Thread heartbeat = new Thread("Worker Heartbeat") {
+      @Override
+      public void run() {
+        while (!current.isClosed()) {
+          try {
+            synchronized (out) {
+              ClusterProtocol.writeMessage(out, ClusterProtocol.HEARTBEAT,
+                  ClusterProtocol.heartbeat());
+            }
+            Thread.sleep(ClusterProtocol.HEARTBEAT_INTERVAL);
+          } catch (IOException ioe) {
+            return;
+          } catch (InterruptedException ie) {
+            return;
+          }
+        }
+      }
+    };
+    heartbeat.setDaemon(true);
+    heartbeat.start();
+
+    try {
+      while (this.keepRunning) {
+        ClusterProtocol.Message message = ClusterProtocol.readMessage(in);
+        switch (message.getType()) {
+        case ClusterProtocol.HEARTBEAT:
+          break;
+        case ClusterProtocol.REGION:
+          this.applyRegion(message.getPayload());
+          break;
+        case ClusterProtocol.ANCHORS:
+          this.applyAnchors(message.getPayload());
+          break;
+        case ClusterProtocol.SOLVE:
+          ByteArrayOutputStream result = this.solve(message.getPayload());
+          synchronized (out) {
+            ClusterProtocol.writeMessage(out, ClusterProtocol.RESULT, result);
+          }
+          break;
+        default:
+          log.warn("Unexpected message type {} from coordinator.",
+              Byte.valueOf(message.getType()));
+        }
+      }
+    } finally {
+      heartbeat.interrupt();
+    }
+  }
+
+  private void applyRegion(final DataInputStream in) throws IOException {
+    float xMax = in.readFloat();
+    float yMax = in.readFloat();
+    this.numX = in.readInt();
+    this.numY = in.readInt();
+    this.algorithm.setNumXTiles(this.numX);
+    this.algorithm.setNumYTiles(this.numY);
+    this.algorithm.setRegionXMax(xMax);
+    this.algorithm.setRegionYMax(yMax);
+  }
+
+  private void applyAnchors(final DataInputStream in) throws IOException {
+    Receiver[] newReceivers = new Receiver[in.readInt()];
+    HashSet<String> receiverIds = new HashSet<String>();
+    for (int i = 0; i < newReceivers.length; ++i) {
+      Receiver receiver = new Receiver();
+      receiver.setDeviceId(in.readUTF());
+      receiver.setxLocation(in.readFloat());
+      receiver.setyLocation(in.readFloat());
+      newReceivers[i] = receiver;
+      receiverIds.add(receiver.getDeviceId());
+    }
+    Transmitter[] newTransmitters = new Transmitter[in.readInt()];
+    HashSet<String> transmitterIds = new HashSet<String>();
+    for (int i = 0; i < newTransmitters.length; ++i) {
+      Transmitter transmitter = new Transmitter();
+      transmitter.setDeviceId(in.readUTF());
+      transmitter.setxLocation(in.readFloat());
+      transmitter.setyLocation(in.readFloat());
+      newTransmitters[i] = transmitter;
+      transmitterIds.add(transmitter.getDeviceId());
+    }
+
+    for (String id : new ArrayList<String>(this.algorithm.receivers.keySet())) {
+      if (!receiverIds.contains(id)) {
+        this.algorithm.removeReceiver(id);
+      }
+    }
+    for (String id : new ArrayList<String>(
+        this.algorithm.transmitters.keySet())) {
+      if (!transmitterIds.contains(id)) {
+        this.algorithm.removeTransmitter(id);
+      }
+    }
+    for (Receiver receiver : newReceivers) {
+      this.algorithm.addReceiver(receiver);
+    }
+    for (Transmitter transmitter : newTransmitters) {
+      this.algorithm.addTransmitter(transmitter);
+    }
+    this.receivers = newReceivers;
+    this.transmitters = newTransmitters;
+    log.debug("Updated {} receivers and {} transmitters.",
+        Integer.valueOf(newReceivers.length),
+        Integer.valueOf(newTransmitters.length));
+  }
+
+  /**
+   * Scores the shards of a solve message.
+   *
+   * @return the payload of the result.
+   */
+  private ByteArrayOutputStream solve(final DataInputStream in)
+      throws IOException {
+    long tickId = in.readLong();
+    int[][] bounds = new int[in.readInt()][7];
+    for (int s = 0; s < bounds.length; ++s) {
+      for (int i = 0; i < 7; ++i) {
+        bounds[s][i] = in.readInt();
+      }
+    }
+
+    final TileGeometry geometry = this.algorithm.getGeometry();
+    boolean usable = geometry != null && geometry.getNumX() == this.numX
+        && geometry.getNumY() == this.numY;
+    if (geometry != null && !usable) {
+      log.error("Tile layout {} does not match the coordinator's {}x{}. "
+          + "Is the algorithm configuration the same?", new Object[] {
+          geometry, Integer.valueOf(this.numX), Integer.valueOf(this.numY) });
+    }
+
+    int numLines = in.readInt();
+    List<RSSILine> lines = new ArrayList<RSSILine>(numLines);
+    for (int i = 0; i < numLines; ++i) {
+      int rx = in.readInt();
+      int tx = in.readInt();
+      float value = in.readFloat();
+      float noiseFloor = in.readFloat();
+      if (rx < 0 || rx >= this.receivers.length || tx < 0
+          || tx >= this.transmitters.length) {
+        throw new IOException("Invalid anchor index in line " + i + ".");
+      }
+      if (usable) {
+        lines.add(this.algorithm.createLine(this.receivers[rx],
+            this.transmitters[tx], value, noiseFloor, geometry));
+      }
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeLong(tickId);
+    if (!usable) {
+      // Leaving every shard out hands them back to the coordinator
+      out.writeInt(0);
+      return bytes;
+    }
+    out.writeInt(bounds.length);
+    for (int s = 0; s < bounds.length; ++s) {
+      RegionShard shard = this.getShard(geometry, bounds[s]);
+      this.algorithm.scoreShard(shard, geometry, lines);
+      out.writeInt(bounds[s][0]);
+      out.writeInt(shard.getNumAreas());
+      for (int a = 0; a < shard.getNumAreas(); ++a) {
+        int[] tiles = shard.getAreaTiles(a);
+        float[] scores = shard.getAreaScores(a);
+        out.writeInt(tiles.length);
+        for (int i = 0; i < tiles.length; ++i) {
+          out.writeInt(tiles[i]);
+          out.writeFloat(scores[i]);
+        }
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * Returns the shard with the given index and bounds, creating it if the
+   * layout has changed.
+   *
+   * @param geometry
+   *          the current tile layout.
+   * @param bounds
+   *          the shard index, then its core min x, min y, max x, max y, and x
+   *          and y margins.
+   * @return the shard.
+   * @throws IOException
+   *           if the bounds are outside the grid.
+   */
+  private RegionShard getShard(final TileGeometry geometry,
+      final int[] bounds) throws IOException {
+    if (this.shardGeometry != geometry) {
+      this.shards.clear();
+      this.shardGeometry = geometry;
+    }
+    Integer key = Integer.valueOf(bounds[0]);
+    RegionShard shard = this.shards.get(key);
+    if (shard == null
+        || !shard.hasBounds(bounds[1], bounds[2], bounds[3], bounds[4],
+            bounds[5], bounds[6])) {
+      if (bounds[1] < 0 || bounds[2] < 0 || bounds[1] > bounds[3]
+          || bounds[2] > bounds[4] || bounds[3] >= geometry.getNumX()
+          || bounds[4] >= geometry.getNumY() || bounds[5] < 0
+          || bounds[6] < 0) {
+        throw new IOException("Invalid bounds for shard " + bounds[0] + ".");
+      }
+      shard = new RegionShard(geometry, bounds[1], bounds[2], bounds[3],
+          bounds[4], bounds[5], bounds[6]);
+      this.shards.put(key, shard);
+    }
+    return shard;
+  }
+}
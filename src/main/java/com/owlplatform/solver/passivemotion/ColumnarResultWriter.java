@@ -0,0 +1,198 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Writes solved results to a file as columns rather than records, so that
+ * long runs can be scanned one column at a time. All values are big-endian.
+ *
+ * <ul>
+ * <li>Header - magic "PMRC" (int), version (int), region width and height
+ * (float), tile counts along x and y (int), time between results (long).</li>
+ * <li>Row groups, one per solved window, until the end of the file - start of
+ * the window (long), number of results (int) and number of tiles (int), then
+ * the columns: each result's time after the start of the window (int), each
+ * result's number of tiles (int), each tile's index (int) and each tile's
+ * score (float).</li>
+ * </ul>
+ *
+ * A tile's index is {@code x * numY + y}. Tiles are listed result by result,
+ * so the tile counts column gives the tiles belonging to each result. Only
+ * tiles in an area of motion are written.
+ *
+ * @author Robert Moore
+ *
+ */
+public class ColumnarResultWriter {
+
+  /**
+   * "PMRC"
+   */
+  public static final int MAGIC = 0x504D5243;
+
+  public static final int VERSION = 1;
+
+  /**
+   * The results of one window, gathered in columns until written.
+   */
+  public static final class RowGroup {
+    private final long start;
+
+    private int numResults = 0;
+
+    private int[] resultOffsets = new int[64];
+
+    private int[] resultSizes = new int[64];
+
+    private int numTiles = 0;
+
+    private int[] tiles = new int[256];
+
+    private float[] scores = new float[256];
+
+    /**
+     * Creates an empty row group.
+     *
+     * @param start
+     *          the start of the window.
+     */
+    public RowGroup(final long start) {
+      super();
+      this.start = start;
+    }
+
+    /**
+     * Adds a result.
+     *
+     * @param time
+     *          the time of the result, no earlier than the start of the
+     *          window.
+     * @param grid
+     *          the merged scores of the result.
+     */
+    public void addResult(final long time, final ScoreGrid grid) {
+      if (this.numResults == this.resultOffsets.length) {
+        this.resultOffsets = Arrays.copyOf(this.resultOffsets,
+            this.numResults * 2);
+        this.resultSizes = Arrays.copyOf(this.resultSizes, this.numResults * 2);
+      }
+      int before = this.numTiles;
+      if (grid != null) {
+        float[] gridScores = grid.getScores();
+        for (int i = 0; i < gridScores.length; ++i) {
+          if (gridScores[i] > 0f) {
+            if (this.numTiles == this.tiles.length) {
+              this.tiles = Arrays.copyOf(this.tiles, this.numTiles * 2);
+              this.scores = Arrays.copyOf(this.scores, this.numTiles * 2);
+            }
+            this.tiles[this.numTiles] = i;
+            this.scores[this.numTiles] = gridScores[i];
+            ++this.numTiles;
+          }
+        }
+      }
+      this.resultOffsets[this.numResults] = (int) (time - this.start);
+      this.resultSizes[this.numResults] = this.numTiles - before;
+      ++this.numResults;
+    }
+
+    public long getStart() {
+      return this.start;
+    }
+
+    public int getNumResults() {
+      return this.numResults;
+    }
+
+    public int getNumTiles() {
+      return this.numTiles;
+    }
+  }
+
+  private final DataOutputStream out;
+
+  /**
+   * Creates the file and writes its header.
+   *
+   * @param file
+   *          the file to write.
+   * @param geometry
+   *          the tile layout of every result.
+   * @param interval
+   *          the time between results.
+   * @throws IOException
+   *           if the file cannot be written.
+   */
+  public ColumnarResultWriter(final File file, final TileGeometry geometry,
+      final long interval) throws IOException {
+    super();
+    this.out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(file), 65536));
+    this.out.writeInt(MAGIC);
+    this.out.writeInt(VERSION);
+    this.out.writeFloat(geometry.getRegionXMax());
+    this.out.writeFloat(geometry.getRegionYMax());
+    this.out.writeInt(geometry.getNumX());
+    this.out.writeInt(geometry.getNumY());
+    this.out.writeLong(interval);
+  }
+
+  /**
+   * Appends a row group.
+   *
+   * @param group
+   *          the results of one window.
+   * @throws IOException
+   *           if the group cannot be written.
+   */
+  public void write(final RowGroup group) throws IOException {
+    this.out.writeLong(group.start);
+    this.out.writeInt(group.numResults);
+    this.out.writeInt(group.numTiles);
+    for (int i = 0; i < group.numResults; ++i) {
+      this.out.writeInt(group.resultOffsets[i]);
+    }
+    for (int i = 0; i < group.numResults; ++i) {
+      this.out.writeInt(group.resultSizes[i]);
+    }
+    for (int i = 0; i < group.numTiles; ++i) {
+      this.out.writeInt(group.tiles[i]);
+    }
+    for (int i = 0; i < group.numTiles; ++i) {
+      this.out.writeFloat(group.scores[i]);
+    }
+  }
+
+  /**
+   * Flushes and closes the file.
+   *
+   * @throws IOException
+   *           if the file cannot be written.
+   */
+  public void close() throws IOException {
+    this.out.close();
+  }
+}
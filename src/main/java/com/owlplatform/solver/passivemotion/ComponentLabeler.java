@@ -0,0 +1,178 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Groups the tiles of a score grid into connected areas with a union-find
+ * and summarizes each area. Tiles scoring at least the threshold are joined
+ * to any of their eight neighbors that also do, since neighboring tiles
+ * overlap. The arrays are kept between calls, so summarizing a result
+ * allocates only the summaries.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class ComponentLabeler {
+
+  /**
+   * Parent of each tile in the union-find, or -1 for tiles below the
+   * threshold.
+   */
+  private int[] parents = new int[0];
+
+  /**
+   * Index of the summary of each root tile.
+   */
+  private int[] areaIndices = new int[0];
+
+  /**
+   * Finds the connected areas of a grid.
+   * 
+   * @param grid
+   *          the scores to group.
+   * @param geometry
+   *          the tile layout of the grid.
+   * @param threshold
+   *          the lowest score of a tile in an area.
+   * @return one summary per area, in order of each area's first tile.
+   */
+  public synchronized List<AreaSummary> summarize(final ScoreGrid grid,
+      final TileGeometry geometry, final float threshold) {
+    final float[] scores = grid.getScores();
+    final int numX = geometry.getNumX();
+    final int numY = geometry.getNumY();
+    final int numTiles = numX * numY;
+    if (this.parents.length < numTiles) {
+      this.parents = new int[numTiles];
+      this.areaIndices = new int[numTiles];
+    }
+    final int[] parent = this.parents;
+    // A score of 0 is never part of an area, whatever the threshold
+    final float minScore = Math.max(threshold, Float.MIN_VALUE);
+
+    for (int x = 0; x < numX; ++x) {
+      for (int y = 0; y < numY; ++y) {
+        int index = x * numY + y;
+        if (scores[index] < minScore) {
+          parent[index] = -1;
+          continue;
+        }
+        parent[index] = index;
+        // Neighbors already visited: the column to the left and the tile below
+        if (y > 0) {
+          this.join(index, index - 1);
+        }
+        if (x > 0) {
+          int left = index - numY;
+          this.join(index, left);
+          if (y > 0) {
+            this.join(index, left - 1);
+          }
+          if (y < numY - 1) {
+            this.join(index, left + 1);
+          }
+        }
+      }
+    }
+
+    ArrayList<AreaSummary> summaries = new ArrayList<AreaSummary>();
+    float[] weightedX = new float[0];
+    float[] weightedY = new float[0];
+    float[] totals = new float[0];
+    final int[] areaIndex = this.areaIndices;
+    for (int index = 0; index < numTiles; ++index) {
+      if (parent[index] < 0) {
+        continue;
+      }
+      int root = this.find(index);
+      AreaSummary area;
+      int areaNum;
+      if (root == index) {
+        areaNum = summaries.size();
+        areaIndex[root] = areaNum;
+        area = new AreaSummary();
+        area.setMinX(Float.MAX_VALUE);
+        area.setMinY(Float.MAX_VALUE);
+        summaries.add(area);
+        if (areaNum == totals.length) {
+          int length = Math.max(8, areaNum * 2);
+          weightedX = Arrays.copyOf(weightedX, length);
+          weightedY = Arrays.copyOf(weightedY, length);
+          totals = Arrays.copyOf(totals, length);
+        }
+      } else {
+        areaNum = areaIndex[root];
+        area = summaries.get(areaNum);
+      }
+      int x = index / numY;
+      int y = index % numY;
+      float score = scores[index];
+      float tileX = geometry.getTileX(x);
+      float tileY = geometry.getTileY(y);
+      area.setMinX(Math.min(area.getMinX(), tileX));
+      area.setMinY(Math.min(area.getMinY(), tileY));
+      area.setMaxX(Math.max(area.getMaxX(), tileX + geometry.getTileWidth()));
+      area.setMaxY(Math.max(area.getMaxY(), tileY + geometry.getTileHeight()));
+      area.setPeakScore(Math.max(area.getPeakScore(), score));
+      area.setNumTiles(area.getNumTiles() + 1);
+      weightedX[areaNum] += geometry.getCenterX(x) * score;
+      weightedY[areaNum] += geometry.getCenterY(y) * score;
+      totals[areaNum] += score;
+    }
+    for (int i = 0; i < summaries.size(); ++i) {
+      summaries.get(i).setX(weightedX[i] / totals[i]);
+      summaries.get(i).setY(weightedY[i] / totals[i]);
+    }
+    return summaries;
+  }
+
+  /**
+   * Merges the areas of two tiles if the second is in one. The lower root
+   * is kept, so every root is the first tile of its area in index order.
+   */
+  private void join(final int index, final int neighbor) {
+    if (this.parents[neighbor] < 0) {
+      return;
+    }
+    int a = this.find(index);
+    int b = this.find(neighbor);
+    if (a < b) {
+      this.parents[b] = a;
+    } else if (b < a) {
+      this.parents[a] = b;
+    }
+  }
+
+  /**
+   * Finds the root of a tile's area, halving the path as it goes.
+   */
+  private int find(final int index) {
+    final int[] parent = this.parents;
+    int current = index;
+    while (parent[current] != current) {
+      parent[current] = parent[parent[current]];
+      current = parent[current];
+    }
+    return current;
+  }
+}
@@ -0,0 +1,223 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.owlplatform.worldmodel.client.ClientWorldConnection;
+import com.owlplatform.worldmodel.solver.SolverWorldConnection;
+
+/**
+ * Keeps the solver and client connections to the world model open. The
+ * supervisor connects both, checks them periodically, and reconnects any that
+ * have dropped, waiting longer after each consecutive failure. Every time the
+ * client connection is re-established the connection generation is
+ * incremented, which tells stream handlers to renew their requests.
+ *
+ * @author Robert Moore
+ *
+ */
+public class ConnectionSupervisor extends Thread {
+
+  private static final Logger log = LoggerFactory
+      .getLogger(ConnectionSupervisor.class);
+
+  /**
+   * How long to wait for a single connection attempt.
+   */
+  public static final long CONNECT_TIMEOUT = 10000l;
+
+  /**
+   * How often to check established connections.
+   */
+  public static final long HEALTH_CHECK_INTERVAL = 2000l;
+
+  /**
+   * Shortest delay between failed connection attempts.
+   */
+  public static final long MIN_RETRY_DELAY = 250l;
+
+  /**
+   * Longest delay between failed connection attempts.
+   */
+  public static final long MAX_RETRY_DELAY = 30000l;
+
+  private final SolverWorldConnection solverWM;
+
+  private final ClientWorldConnection clientWM;
+
+  private final ExponentialBackoff backoff = new ExponentialBackoff(
+      MIN_RETRY_DELAY, MAX_RETRY_DELAY);
+
+  private volatile boolean keepRunning = true;
+
+  private boolean solverConnected = false;
+
+  private boolean clientConnected = false;
+
+  /**
+   * Incremented each time the client connection is (re)established.
+   */
+  private long clientGeneration = 0;
+
+  /**
+   * Creates a supervisor for the two connections. The connections must
+   * already be configured with their host and port.
+   *
+   * @param solverWM
+   *          the solver connection.
+   * @param clientWM
+   *          the client connection.
+   */
+  public ConnectionSupervisor(final SolverWorldConnection solverWM,
+      final ClientWorldConnection clientWM) {
+    super("World Model Connection Supervisor");
+    this.setDaemon(true);
+    this.solverWM = solverWM;
+    this.clientWM = clientWM;
+  }
+
+  @Override
+  public void run() {
+    while (this.keepRunning) {
+      this.checkConnections();
+      boolean healthy;
+      synchronized (this) {
+        healthy = this.solverConnected && this.clientConnected;
+      }
+      if (healthy) {
+        this.backoff.succeeded();
+        try {
+          Thread.sleep(HEALTH_CHECK_INTERVAL);
+        } catch (InterruptedException ie) {
+          // Check again immediately
+        }
+      } else if (this.keepRunning) {
+        try {
+          Thread.sleep(this.backoff.failed());
+        } catch (InterruptedException ie) {
+          // Retry immediately
+        }
+      }
+    }
+  }
+
+  /**
+   * Reconnects whichever connection is not currently open.
+   */
+  private void checkConnections() {
+    boolean solverOk = this.solverWM.isConnected();
+    if (!solverOk) {
+      if (this.isSolverConnected()) {
+        log.warn("Lost solver connection to the world model.");
+      }
+      this.solverWM.disconnect();
+      solverOk = this.solverWM.connect(CONNECT_TIMEOUT);
+      if (!solverOk) {
+        log.warn("Unable to connect to the world model as a solver.");
+      } else {
+        log.info("Connected to the world model as a solver.");
+      }
+    }
+
+    boolean clientOk = this.clientWM.isConnected();
+    boolean reconnected = false;
+    if (!clientOk) {
+      if (this.isClientConnected()) {
+        log.warn("Lost client connection to the world model.");
+      }
+      this.clientWM.disconnect();
+      clientOk = this.clientWM.connect(CONNECT_TIMEOUT);
+      if (!clientOk) {
+        log.warn("Unable to connect to the world model as a client.");
+      } else {
+        log.info("Connected to the world model as a client.");
+        reconnected = true;
+      }
+    }
+
+    synchronized (this) {
+      this.solverConnected = solverOk;
+      this.clientConnected = clientOk;
+      if (reconnected) {
+        ++this.clientGeneration;
+      }
+      this.notifyAll();
+    }
+  }
+
+  public synchronized boolean isSolverConnected() {
+    return this.solverConnected;
+  }
+
+  public synchronized boolean isClientConnected() {
+    return this.clientConnected;
+  }
+
+  /**
+   * Returns a counter that changes each time the client connection is
+   * re-established. Requests made under an older generation are no longer
+   * being served and must be made again.
+   *
+   * @return the current client connection generation.
+   */
+  public synchronized long getClientGeneration() {
+    return this.clientGeneration;
+  }
+
+  /**
+   * Blocks until the client connection is open.
+   *
+   * @return the client connection generation, or -1 if the supervisor was
+   *         shut down or the thread interrupted while waiting.
+   */
+  public synchronized long awaitClient() {
+    while (this.keepRunning && !this.clientConnected) {
+      try {
+        this.wait();
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        return -1;
+      }
+    }
+    return this.keepRunning ? this.clientGeneration : -1;
+  }
+
+  /**
+   * Reports that a request on the client connection failed, so that the
+   * connection is checked right away instead of at the next interval.
+   */
+  public void clientFailed() {
+    this.interrupt();
+  }
+
+  /**
+   * Stops supervising and closes both connections.
+   */
+  public void shutdown() {
+    this.keepRunning = false;
+    synchronized (this) {
+      this.notifyAll();
+    }
+    this.interrupt();
+    this.solverWM.disconnect();
+    this.clientWM.disconnect();
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import java.awt.geom.Line2D;
+import java.util.Arrays;
+
+/**
+ * Scores a link over an ellipse with the two anchors as foci, approximating
+ * the first Fresnel zone of the link. A tile counts toward the link if the
+ * path from one anchor through the tile's center to the other anchor is at
+ * most {@code excessPath} longer than the direct path. Its weight falls off
+ * linearly from 1 on the line to 0 at the edge of the ellipse. As with the
+ * {@link LineScoringModel}, both anchors must be within the radius threshold
+ * of the tile's center, and weights are divided by
+ * {@code length ^ lineLengthPower}.
+ *
+ * The excess path should be at least about a tile width, or short links may
+ * miss every tile center.
+ *
+ * @author Robert Moore
+ *
+ */
+public class EllipseScoringModel implements LinkScoringModel {
+
+  private final float excessPath;
+
+  private final float radius;
+
+  /**
+   * Creates an ellipse model.
+   *
+   * @param excessPath
+   *          the extra path length at the edge of the ellipse.
+   * @param radius
+   *          the maximum distance from a tile's center to either anchor.
+   */
+  public EllipseScoringModel(final float excessPath, final float radius) {
+    super();
+    if (excessPath <= 0) {
+      throw new IllegalArgumentException("Excess path must be positive.");
+    }
+    this.excessPath = excessPath;
+    this.radius = radius;
+  }
+
+  public LinkWeights computeWeights(final LinkGeometry link) {
+    TileGeometry geometry = link.getGeometry();
+    if (geometry == null) {
+      return new LinkWeights(this, new int[0], new float[0],
+          link.getLengthDivisor(), new int[0], 1);
+    }
+    Line2D.Float line = link.getLine();
+    float length = link.getLength();
+    // Semi-minor axis, the farthest the ellipse reaches from the line
+    double a = (length + this.excessPath) / 2.0;
+    double c = length / 2.0;
+    double reach = Math.sqrt(a * a - c * c);
+
+    int x0 = Math.max(0, (int) Math.floor((Math.min(line.x1, line.x2) - reach)
+        / geometry.getXStep()) - 1);
+    int x1 = Math.min(geometry.getNumX() - 1, (int) Math.ceil((Math.max(
+        line.x1, line.x2) + reach) / geometry.getXStep()) - 1);
+    int y0 = Math.max(0, (int) Math.floor((Math.min(line.y1, line.y2) - reach)
+        / geometry.getYStep()) - 1);
+    int y1 = Math.min(geometry.getNumY() - 1, (int) Math.ceil((Math.max(
+        line.y1, line.y2) + reach) / geometry.getYStep()) - 1);
+
+    int capacity = Math.max(0, (x1 - x0 + 1) * (y1 - y0 + 1));
+    int[] affected = new int[capacity];
+    int[] tiles = new int[capacity];
+    float[] weights = new float[capacity];
+    int numAffected = 0;
+    int numTiles = 0;
+    for (int x = x0; x <= x1; ++x) {
+      float centerX = geometry.getCenterX(x);
+      for (int y = y0; y <= y1; ++y) {
+        float centerY = geometry.getCenterY(y);
+        double d1 = Math.sqrt(Math.pow(centerX - line.x1, 2)
+            + Math.pow(centerY - line.y1, 2));
+        double d2 = Math.sqrt(Math.pow(centerX - line.x2, 2)
+            + Math.pow(centerY - line.y2, 2));
+        double excess = d1 + d2 - length;
+        if (excess >= this.excessPath) {
+          continue;
+        }
+        int index = x * geometry.getNumY() + y;
+        affected[numAffected++] = index;
+        if (link.isTooShort() || d1 > this.radius || d2 > this.radius) {
+          continue;
+        }
+        tiles[numTiles] = index;
+        weights[numTiles++] = (float) (1 - Math.max(0, excess)
+            / this.excessPath);
+      }
+    }
+    return new LinkWeights(this, copyOf(tiles, numTiles), copyOf(weights,
+        numTiles), link.getLengthDivisor(), copyOf(affected, numAffected),
+        geometry.getNumY());
+  }
+
+  private static int[] copyOf(final int[] array, final int length) {
+    return length == array.length ? array : Arrays.copyOf(array, length);
+  }
+
+  private static float[] copyOf(final float[] array, final int length) {
+    return length == array.length ? array : Arrays.copyOf(array, length);
+  }
+
+  public float getExcessPath() {
+    return this.excessPath;
+  }
+
+  public float getRadius() {
+    return this.radius;
+  }
+}
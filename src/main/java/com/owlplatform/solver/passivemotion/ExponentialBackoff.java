@@ -0,0 +1,86 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+/**
+ * Retry delay that doubles after each consecutive failure, up to a maximum,
+ * and returns to the minimum after a success. Instances are not thread-safe.
+ *
+ * @author Robert Moore
+ *
+ */
+public class ExponentialBackoff {
+
+  private final long minDelay;
+
+  private final long maxDelay;
+
+  private long nextDelay;
+
+  /**
+   * Creates a new backoff.
+   *
+   * @param minDelay
+   *          the delay after the first failure, in milliseconds.
+   * @param maxDelay
+   *          the longest delay, in milliseconds.
+   */
+  public ExponentialBackoff(final long minDelay, final long maxDelay) {
+    super();
+    if (minDelay <= 0 || maxDelay < minDelay) {
+      throw new IllegalArgumentException("Invalid backoff range.");
+    }
+    this.minDelay = minDelay;
+    this.maxDelay = maxDelay;
+    this.nextDelay = minDelay;
+  }
+
+  /**
+   * Records a failure and returns how long to wait before retrying.
+   *
+   * @return the delay, in milliseconds.
+   */
+  public long failed() {
+    long delay = this.nextDelay;
+    this.nextDelay = Math.min(this.nextDelay * 2, this.maxDelay);
+    return delay;
+  }
+
+  /**
+   * Records a failure and sleeps before returning.
+   *
+   * @return {@code false} if the sleep was interrupted.
+   */
+  public boolean failedAndWait() {
+    try {
+      Thread.sleep(this.failed());
+      return true;
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Records a success, resetting the delay to the minimum.
+   */
+  public void succeeded() {
+    this.nextDelay = this.minDelay;
+  }
+}
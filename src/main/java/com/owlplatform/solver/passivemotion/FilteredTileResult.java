@@ -25,6 +25,16 @@ public class FilteredTileResult {
 	
 	protected ScoredTile[][] tiles = null;
 
+	/**
+	 * Scores of the tiles, if this result was produced from a grid.
+	 */
+	protected ScoreGrid grid = null;
+
+	/**
+	 * Layout of the tiles in {@link #grid}.
+	 */
+	protected TileGeometry geometry = null;
+
 	public float[][] getKernel() {
 		return kernel;
 	}
@@ -33,12 +43,64 @@ public class FilteredTileResult {
 		this.kernel = kernel;
 	}
 
-	public ScoredTile[][] getTiles() {
+	/**
+	 * Returns the tiles of this result. For results backed by a grid, the
+	 * tiles are created on the first call, so this must be called before the
+	 * grid is released.
+	 */
+	public synchronized ScoredTile[][] getTiles() {
+		if (this.tiles == null && this.grid != null) {
+			ScoredTile[][] created = this.geometry.createTiles();
+			this.grid.copyTo(created);
+			this.tiles = created;
+		}
 		return tiles;
 	}
 
-	public void setTiles(ScoredTile[][] tiles) {
+	public synchronized void setTiles(ScoredTile[][] tiles) {
 		this.tiles = tiles;
 	}
+
+	public ScoreGrid getGrid() {
+		return grid;
+	}
+
+	public TileGeometry getGeometry() {
+		return geometry;
+	}
+
+	/**
+	 * Backs this result with a grid of scores. If the grid is pooled, this
+	 * result takes over the caller's reference and gives it up in
+	 * {@link #release()}.
+	 * 
+	 * @param grid
+	 *          the tile scores.
+	 * @param geometry
+	 *          the layout of the tiles in the grid.
+	 */
+	public synchronized void setGrid(ScoreGrid grid, TileGeometry geometry) {
+		this.grid = grid;
+		this.geometry = geometry;
+		this.tiles = null;
+	}
+
+	/**
+	 * Adds a reference to the pooled grid backing this result, if any.
+	 */
+	public void retain() {
+		if (this.grid instanceof PooledScoreGrid) {
+			((PooledScoreGrid) this.grid).retain();
+		}
+	}
+
+	/**
+	 * Releases a reference to the pooled grid backing this result, if any.
+	 */
+	public void release() {
+		if (this.grid instanceof PooledScoreGrid) {
+			((PooledScoreGrid) this.grid).release();
+		}
+	}
 	
 }
@@ -21,6 +21,7 @@ package com.owlplatform.solver.passivemotion;
 
 import java.util.AbstractMap;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -38,6 +39,17 @@ public class FilteredTileResultSet {
 	}
 
 	protected Collection<ScoredTile> tilesToPublish = null;
+
+	/**
+	 * Areas of motion tracked across results, or {@code null} if tracking is
+	 * disabled.
+	 */
+	protected List<MotionArea> areas = null;
+
+	/**
+	 * One summary per connected group of tiles in the merged result.
+	 */
+	protected List<AreaSummary> summaries = null;
 	
 	public void setTiles(final String description, final FilteredTileResult result)
 	{
@@ -61,4 +73,40 @@ public class FilteredTileResultSet {
 	public void setTilesToPublish(Collection<ScoredTile> tilesToPublish) {
 		this.tilesToPublish = tilesToPublish;
 	}
+
+	public List<MotionArea> getAreas() {
+		return areas;
+	}
+
+	public void setAreas(List<MotionArea> areas) {
+		this.areas = areas;
+	}
+
+	public List<AreaSummary> getSummaries() {
+		return summaries;
+	}
+
+	public void setSummaries(List<AreaSummary> summaries) {
+		this.summaries = summaries;
+	}
+
+	/**
+	 * Adds a reference to every pooled grid in this set. Each call must be
+	 * matched by a call to {@link #release()}.
+	 */
+	public void retain() {
+		for (FilteredTileResult result : this.results.values()) {
+			result.retain();
+		}
+	}
+
+	/**
+	 * Releases a reference to every pooled grid in this set. Once the last
+	 * holder has released the set, the grids may be reused by the algorithm.
+	 */
+	public void release() {
+		for (FilteredTileResult result : this.results.values()) {
+			result.release();
+		}
+	}
 }
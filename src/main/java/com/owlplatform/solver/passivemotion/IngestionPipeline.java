@@ -0,0 +1,228 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Carries link variance from any number of World Model streams to the
+ * algorithms that use it. Each stream runs on its own virtual thread, so a
+ * stream blocked waiting for data costs no platform thread, and thousands of
+ * subscriptions can be open at once. Streams publish into one bounded queue,
+ * which a single consumer drains in batches into each event's algorithm.
+ * When the consumer falls behind, publishing streams block, so a backlog is
+ * pushed back onto the streams' connections instead of growing the heap.
+ *
+ * @author Robert Moore
+ *
+ */
+public class IngestionPipeline {
+
+  private static final Logger log = LoggerFactory
+      .getLogger(IngestionPipeline.class);
+
+  /**
+   * Events held before streams must wait for the consumer.
+   */
+  public static final int DEFAULT_CAPACITY = 65536;
+
+  /**
+   * Most events applied per pass of the consumer.
+   */
+  private static final int BATCH_SIZE = 1024;
+
+  /**
+   * One variance value bound for an algorithm.
+   */
+  private static final class VarianceEvent {
+    final PassiveMotionAlgorithm target;
+
+    final String receiver;
+
+    final String transmitter;
+
+    final float variance;
+
+    final long timestamp;
+
+    VarianceEvent(final PassiveMotionAlgorithm target, final String receiver,
+        final String transmitter, final float variance, final long timestamp) {
+      this.target = target;
+      this.receiver = receiver;
+      this.transmitter = transmitter;
+      this.variance = variance;
+      this.timestamp = timestamp;
+    }
+  }
+
+  private final ArrayBlockingQueue<VarianceEvent> queue;
+
+  private final ExecutorService streams = Executors
+      .newThreadPerTaskExecutor(Thread.ofVirtual().name("Ingestion-", 0)
+          .factory());
+
+  private Thread consumer = null;
+
+  private final AtomicLong numApplied = new AtomicLong(0);
+
+  private volatile boolean running = false;
+
+  /**
+   * Creates a pipeline.
+   *
+   * @param capacity
+   *          the number of events held before streams must wait.
+   */
+  public IngestionPipeline(final int capacity) {
+    super();
+    this.queue = new ArrayBlockingQueue<VarianceEvent>(capacity);
+  }
+
+  /**
+   * Starts the consumer.
+   */
+  public synchronized void start() {
+    if (this.running) {
+      return;
+    }
+    this.running = true;
+    this.consumer = Thread.ofVirtual().name("Ingestion Consumer")
+        .start(new Runnable() {
+          @Override
+          public void run() {
+            IngestionPipeline.this.consume();
+          }
+        });
+  }
+
+  /**
+   * Runs a stream on a new virtual thread. The stream should publish its
+   * values with {@link #publish} and return once it is shut down or
+   * interrupted.
+   *
+   * @param stream
+   *          the stream to run.
+   */
+  public void startStream(final Runnable stream) {
+    this.streams.execute(stream);
+  }
+
+  /**
+   * Queues a variance value for an algorithm, waiting if the queue is full.
+   *
+   * @param target
+   *          the algorithm to give the value to.
+   * @param receiver
+   *          the receiver of the link.
+   * @param transmitter
+   *          the transmitter of the link.
+   * @param variance
+   *          the link's variance.
+   * @param timestamp
+   *          the time of the value.
+   * @throws InterruptedException
+   *           if interrupted while waiting.
+   */
+  public void publish(final PassiveMotionAlgorithm target,
+      final String receiver, final String transmitter, final float variance,
+      final long timestamp) throws InterruptedException {
+    this.queue.put(new VarianceEvent(target, receiver, transmitter, variance,
+        timestamp));
+  }
+
+  /**
+   * Interrupts every stream, then stops the consumer once it has applied the
+   * events still queued.
+   */
+  public synchronized void stop() {
+    this.streams.shutdownNow();
+    try {
+      if (!this.streams.awaitTermination(1, TimeUnit.SECONDS)) {
+        log.warn("Ingestion streams did not stop in time.");
+      }
+      this.running = false;
+      if (this.consumer != null) {
+        this.consumer.interrupt();
+        this.consumer.join(1000l);
+        this.consumer = null;
+      }
+    } catch (InterruptedException ie) {
+      this.running = false;
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Returns the number of events waiting for the consumer.
+   *
+   * @return the queue length.
+   */
+  public int getBacklog() {
+    return this.queue.size();
+  }
+
+  /**
+   * Returns the number of events applied since the pipeline was created.
+   *
+   * @return the number of events applied.
+   */
+  public long getNumApplied() {
+    return this.numApplied.get();
+  }
+
+  private void consume() {
+    ArrayList<VarianceEvent> batch = new ArrayList<VarianceEvent>(BATCH_SIZE);
+    while (this.running) {
+      try {
+        batch.add(this.queue.take());
+      } catch (InterruptedException ie) {
+        break;
+      }
+      this.queue.drainTo(batch, BATCH_SIZE - 1);
+      this.apply(batch);
+    }
+    // Streams have stopped, so whatever is left is the last of the data
+    while (this.queue.drainTo(batch, BATCH_SIZE) > 0) {
+      this.apply(batch);
+    }
+    log.debug("Ingestion consumer exiting.");
+  }
+
+  private void apply(final ArrayList<VarianceEvent> batch) {
+    for (VarianceEvent event : batch) {
+      try {
+        event.target.addVariance(event.receiver, event.transmitter,
+            event.variance, event.timestamp);
+      } catch (RuntimeException re) {
+        log.warn("Unable to apply variance for " + event.transmitter + "/"
+            + event.receiver + ".", re);
+      }
+    }
+    this.numApplied.addAndGet(batch.size());
+    batch.clear();
+  }
+}
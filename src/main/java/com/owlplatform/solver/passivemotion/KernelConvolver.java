@@ -0,0 +1,307 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import java.util.Arrays;
+
+/**
+ * Applies a kernel to a {@link ScoreGrid}. Edge tiles are extended out to
+ * infinity by copying the input into a padded buffer once per call, so the
+ * inner loops contain no bounds checks. Kernels that are the outer product of
+ * two vectors (e.g., box and Gaussian blurs) are applied as two 1D passes.
+ * Scratch buffers are kept between calls, so a convolver should be reused
+ * rather than created for each grid. Instances are not thread-safe.
+ *
+ * @author Robert Moore
+ *
+ */
+public class KernelConvolver {
+
+  /**
+   * Maximum relative error permitted when decomposing a kernel into two 1D
+   * kernels.
+   */
+  private static final float SEPARABLE_TOLERANCE = 1e-5f;
+
+  /**
+   * Kernel as provided, indexed by [x][y].
+   */
+  private float[][] kernel;
+
+  /**
+   * Kernel width (along the x-axis).
+   */
+  private int kernelX;
+
+  /**
+   * Kernel height (along the y-axis).
+   */
+  private int kernelY;
+
+  /**
+   * Kernel flattened to {@code i * kernelY + j}.
+   */
+  private float[] flatKernel;
+
+  /**
+   * 1D kernel applied along the x-axis, or {@code null} if the kernel is not
+   * separable.
+   */
+  private float[] xKernel;
+
+  /**
+   * 1D kernel applied along the y-axis, or {@code null} if the kernel is not
+   * separable.
+   */
+  private float[] yKernel;
+
+  /**
+   * Edge-padded copy of the input grid.
+   */
+  private float[] padded = new float[0];
+
+  /**
+   * Output of the first pass for separable kernels.
+   */
+  private float[] intermediate = new float[0];
+
+  /**
+   * Creates a convolver for the kernel.
+   *
+   * @param kernel
+   *          the kernel to apply, indexed by [x][y].
+   */
+  public KernelConvolver(final float[][] kernel) {
+    super();
+    this.setKernel(kernel);
+  }
+
+  /**
+   * Replaces the kernel of this convolver. The kernel is copied, so later
+   * changes to the array require another call to this method.
+   *
+   * @param kernel
+   *          the new kernel, indexed by [x][y].
+   */
+  public void setKernel(final float[][] kernel) {
+    if (kernel == null || kernel.length == 0 || kernel[0] == null
+        || kernel[0].length == 0) {
+      throw new IllegalArgumentException("Kernel must not be empty.");
+    }
+    int kY = kernel[0].length;
+    float[] flat = new float[kernel.length * kY];
+    for (int i = 0; i < kernel.length; ++i) {
+      if (kernel[i].length != kY) {
+        throw new IllegalArgumentException("Kernel must be rectangular.");
+      }
+      System.arraycopy(kernel[i], 0, flat, i * kY, kY);
+    }
+    this.kernel = kernel;
+    this.kernelX = kernel.length;
+    this.kernelY = kY;
+    this.flatKernel = flat;
+    this.decompose();
+  }
+
+  public float[][] getKernel() {
+    return this.kernel;
+  }
+
+  /**
+   * Whether the current kernel is applied as two 1D passes.
+   *
+   * @return {@code true} if the kernel is separable.
+   */
+  public boolean isSeparable() {
+    return this.xKernel != null;
+  }
+
+  /**
+   * Tries to express the kernel as the outer product {@code x[i] * y[j]}.
+   * The row and column through the largest element are used as the
+   * candidate vectors, and the product is checked against every element.
+   */
+  private void decompose() {
+    this.xKernel = null;
+    this.yKernel = null;
+
+    int pivot = 0;
+    float maxAbs = 0f;
+    for (int k = 0; k < this.flatKernel.length; ++k) {
+      if (Math.abs(this.flatKernel[k]) > maxAbs) {
+        maxAbs = Math.abs(this.flatKernel[k]);
+        pivot = k;
+      }
+    }
+    // 1-row or 1-column kernels gain nothing from a second pass
+    if (maxAbs == 0f || this.kernelX == 1 || this.kernelY == 1) {
+      return;
+    }
+
+    int pivotX = pivot / this.kernelY;
+    int pivotY = pivot % this.kernelY;
+    float[] xK = new float[this.kernelX];
+    float[] yK = new float[this.kernelY];
+    for (int i = 0; i < this.kernelX; ++i) {
+      xK[i] = this.flatKernel[i * this.kernelY + pivotY];
+    }
+    float pivotValue = this.flatKernel[pivot];
+    for (int j = 0; j < this.kernelY; ++j) {
+      yK[j] = this.flatKernel[pivotX * this.kernelY + j] / pivotValue;
+    }
+
+    float tolerance = maxAbs * SEPARABLE_TOLERANCE;
+    for (int i = 0; i < this.kernelX; ++i) {
+      for (int j = 0; j < this.kernelY; ++j) {
+        if (Math.abs(xK[i] * yK[j] - this.flatKernel[i * this.kernelY + j]) > tolerance) {
+          return;
+        }
+      }
+    }
+    this.xKernel = xK;
+    this.yKernel = yK;
+  }
+
+  /**
+   * Applies the kernel to {@code in}, storing the result in {@code out}.
+   * Negative results are clamped to 0. {@code in} and {@code out} may not be
+   * the same grid.
+   *
+   * @param in
+   *          the grid to read.
+   * @param out
+   *          the grid to write, which must have the same dimensions as
+   *          {@code in}.
+   */
+  public void apply(final ScoreGrid in, final ScoreGrid out) {
+    if (in.numX != out.numX || in.numY != out.numY) {
+      throw new IllegalArgumentException(
+          "Must provide same-sized grids for input and output.");
+    }
+    if (in == out) {
+      throw new IllegalArgumentException(
+          "Input and output grids must be different.");
+    }
+
+    this.pad(in);
+    if (this.xKernel != null) {
+      this.applySeparable(in.numX, in.numY, out.scores);
+    } else {
+      this.applyFull(in.numX, in.numY, out.scores);
+    }
+
+    float[] result = out.scores;
+    for (int k = 0; k < result.length; ++k) {
+      result[k] = Math.max(result[k], 0f);
+    }
+  }
+
+  /**
+   * Copies {@code in} into the padded buffer, repeating the edge tiles to
+   * fill the kernel's overhang on each side.
+   */
+  private void pad(final ScoreGrid in) {
+    final int numX = in.numX;
+    final int numY = in.numY;
+    final int midX = this.kernelX / 2;
+    final int midY = this.kernelY / 2;
+    final int padX = numX + this.kernelX - 1;
+    final int padY = numY + this.kernelY - 1;
+    if (this.padded.length < padX * padY) {
+      this.padded = new float[padX * padY];
+    }
+    final float[] src = in.scores;
+    final float[] dst = this.padded;
+
+    for (int px = 0; px < padX; ++px) {
+      int x = Math.min(Math.max(px - midX, 0), numX - 1);
+      int srcOff = x * numY;
+      int dstOff = px * padY;
+      Arrays.fill(dst, dstOff, dstOff + midY, src[srcOff]);
+      System.arraycopy(src, srcOff, dst, dstOff + midY, numY);
+      Arrays.fill(dst, dstOff + midY + numY, dstOff + padY, src[srcOff + numY
+          - 1]);
+    }
+  }
+
+  /**
+   * Full 2D convolution. The innermost loop walks a contiguous column of the
+   * output with a constant kernel weight.
+   */
+  private void applyFull(final int numX, final int numY, final float[] out) {
+    final int padY = numY + this.kernelY - 1;
+    final float[] src = this.padded;
+    final float[] k = this.flatKernel;
+
+    Arrays.fill(out, 0f);
+    for (int x = 0; x < numX; ++x) {
+      final int outOff = x * numY;
+      for (int i = 0; i < this.kernelX; ++i) {
+        final int rowOff = (x + i) * padY;
+        for (int j = 0; j < this.kernelY; ++j) {
+          final float w = k[i * this.kernelY + j];
+          final int srcOff = rowOff + j;
+          for (int y = 0; y < numY; ++y) {
+            out[outOff + y] += src[srcOff + y] * w;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Two-pass convolution: first along y for every padded column, then along x.
+   */
+  private void applySeparable(final int numX, final int numY, final float[] out) {
+    final int padX = numX + this.kernelX - 1;
+    final int padY = numY + this.kernelY - 1;
+    if (this.intermediate.length < padX * numY) {
+      this.intermediate = new float[padX * numY];
+    }
+    final float[] src = this.padded;
+    final float[] mid = this.intermediate;
+    final float[] kx = this.xKernel;
+    final float[] ky = this.yKernel;
+
+    Arrays.fill(mid, 0, padX * numY, 0f);
+    for (int px = 0; px < padX; ++px) {
+      final int midOff = px * numY;
+      final int srcOff = px * padY;
+      for (int j = 0; j < ky.length; ++j) {
+        final float w = ky[j];
+        final int off = srcOff + j;
+        for (int y = 0; y < numY; ++y) {
+          mid[midOff + y] += src[off + y] * w;
+        }
+      }
+    }
+
+    Arrays.fill(out, 0f);
+    for (int x = 0; x < numX; ++x) {
+      final int outOff = x * numY;
+      for (int i = 0; i < kx.length; ++i) {
+        final float w = kx[i];
+        final int midOff = (x + i) * numY;
+        for (int y = 0; y < numY; ++y) {
+          out[outOff + y] += mid[midOff + y] * w;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import java.util.Arrays;
+
+/**
+ * The default scoring model. A link counts fully toward every tile its line
+ * crosses whose center is within the radius threshold of both anchors,
+ * weighted by {@code 1 / length ^ lineLengthPower}.
+ *
+ * @author Robert Moore
+ *
+ */
+public class LineScoringModel implements LinkScoringModel {
+
+  public LinkWeights computeWeights(final LinkGeometry link) {
+    int[] tiles = link.getScoredTiles();
+    float[] weights = new float[tiles.length];
+    Arrays.fill(weights, 1f);
+    TileGeometry geometry = link.getGeometry();
+    return new LinkWeights(this, tiles, weights, link.getLengthDivisor(),
+        link.getCrossedTiles(), geometry == null ? 1 : geometry.getNumY());
+  }
+}
@@ -0,0 +1,322 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Cached geometry of the link between a receiver and a
+ * transmitter. Holds the line between the two anchors, its length-based
+ * weight, the exact tiles the line crosses, and those of them the link
+ * contributes to (tiles whose centers are within the radius threshold of
+ * both anchors).
+ * A link only needs to be rebuilt when one of its anchors moves or the tile
+ * layout changes. The tile weights of the current {@link LinkScoringModel}
+ * are cached with the link.
+ *
+ * @author Robert Moore
+ *
+ */
+public final class LinkGeometry {
+
+  private final Receiver receiver;
+
+  private final Transmitter transmitter;
+
+  /**
+   * Line from the receiver to the transmitter. Must not be modified.
+   */
+  private final Line2D.Float line;
+
+  private final float length;
+
+  /**
+   * {@code length ^ lineLengthPower}, the divisor of the link's score.
+   */
+  private final double lengthDivisor;
+
+  /**
+   * Whether the link is shorter than the minimum link distance and so never
+   * contributes to a tile score.
+   */
+  private final boolean tooShort;
+
+  /**
+   * The tile layout the link's tiles were computed for.
+   */
+  private final TileGeometry geometry;
+
+  /**
+   * Indices of every tile the line intersects, in ascending order.
+   */
+  private final int[] crossedTiles;
+
+  /**
+   * Indices of the tiles the link contributes to, in ascending order: those
+   * the line intersects whose centers are within the radius threshold of
+   * both anchors. Empty if the link is too short.
+   */
+  private final int[] scoredTiles;
+
+  /**
+   * Weights computed by the last scoring model to ask for them.
+   */
+  private volatile LinkWeights weights = null;
+
+  /**
+   * Computes the geometry of the link between two anchors.
+   *
+   * @param receiver
+   *          the receiving anchor.
+   * @param transmitter
+   *          the transmitting anchor.
+   * @param geometry
+   *          the tile layout of the region.
+   * @param config
+   *          the algorithm configuration.
+   */
+  public LinkGeometry(final Receiver receiver, final Transmitter transmitter,
+      final TileGeometry geometry, final AlgorithmConfig config) {
+    super();
+    this.receiver = receiver;
+    this.transmitter = transmitter;
+    this.geometry = geometry;
+
+    float x1 = receiver.getxLocation();
+    float y1 = receiver.getyLocation();
+    float x2 = transmitter.getxLocation();
+    float y2 = transmitter.getyLocation();
+    this.line = new Line2D.Float(x1, y1, x2, y2);
+    this.length = (float) Math.sqrt(Math.pow(x1 - x2, 2)
+        + Math.pow(y1 - y2, 2));
+    this.lengthDivisor = Math.pow(this.length, config.lineLengthPower);
+    this.tooShort = this.length < config.linkMinDistance;
+
+    if (geometry == null) {
+      this.crossedTiles = new int[0];
+      this.scoredTiles = new int[0];
+      return;
+    }
+
+    float radius = config.radiusThreshold;
+    this.crossedTiles = traceTiles(this.line, geometry);
+    int numScored = 0;
+    int[] scored = new int[this.tooShort ? 0 : this.crossedTiles.length];
+    for (int i = 0; i < scored.length; ++i) {
+      int index = this.crossedTiles[i];
+      float centerX = geometry.getCenterX(index / geometry.getNumY());
+      float centerY = geometry.getCenterY(index % geometry.getNumY());
+      // Both endpoints must be near the tile
+      double d1 = Math.sqrt(Math.pow(centerX - x1, 2)
+          + Math.pow(centerY - y1, 2));
+      double d2 = Math.sqrt(Math.pow(centerX - x2, 2)
+          + Math.pow(centerY - y2, 2));
+      if (d1 <= radius && d2 <= radius) {
+        scored[numScored++] = index;
+      }
+    }
+    this.scoredTiles = numScored == scored.length ? scored : Arrays.copyOf(
+        scored, numScored);
+  }
+
+  /**
+   * Finds every tile a line intersects. The line is walked through the grid
+   * of half-tile steps with an Amanatides-Woo traversal, visiting each step
+   * cell it passes through. Tile i spans steps [i, i + 2], so the tiles that
+   * can touch step cell c are c - 2 through c + 1 along each axis; each of
+   * those is then checked against the line exactly, so float error in the
+   * walk never adds or drops a tile.
+   *
+   * @param line
+   *          the line to trace.
+   * @param geometry
+   *          the tile layout.
+   * @return the indices of the intersected tiles, in ascending order.
+   */
+  static int[] traceTiles(final Line2D.Float line, final TileGeometry geometry) {
+    final int numX = geometry.getNumX();
+    final int numY = geometry.getNumY();
+    final BitSet candidates = new BitSet(numX * numY);
+
+    // Positions in units of steps
+    double x1 = line.x1 / (double) geometry.getXStep();
+    double y1 = line.y1 / (double) geometry.getYStep();
+    double x2 = line.x2 / (double) geometry.getXStep();
+    double y2 = line.y2 / (double) geometry.getYStep();
+    int cellX = (int) Math.floor(x1);
+    int cellY = (int) Math.floor(y1);
+    int lastX = (int) Math.floor(x2);
+    int lastY = (int) Math.floor(y2);
+    int stepX = x2 > x1 ? 1 : -1;
+    int stepY = y2 > y1 ? 1 : -1;
+    double dx = Math.abs(x2 - x1);
+    double dy = Math.abs(y2 - y1);
+    // Fraction of the line between crossings of each axis
+    double deltaX = dx == 0 ? Double.POSITIVE_INFINITY : 1 / dx;
+    double deltaY = dy == 0 ? Double.POSITIVE_INFINITY : 1 / dy;
+    // Fraction of the line until the next crossing of each axis
+    double nextX = dx == 0 ? Double.POSITIVE_INFINITY
+        : (stepX > 0 ? cellX + 1 - x1 : x1 - cellX) / dx;
+    double nextY = dy == 0 ? Double.POSITIVE_INFINITY
+        : (stepY > 0 ? cellY + 1 - y1 : y1 - cellY) / dy;
+
+    addCandidates(candidates, cellX, cellY, numX, numY);
+    int remaining = Math.abs(lastX - cellX) + Math.abs(lastY - cellY);
+    for (; remaining > 0; --remaining) {
+      if (nextX < nextY) {
+        cellX += stepX;
+        nextX += deltaX;
+      } else {
+        cellY += stepY;
+        nextY += deltaY;
+      }
+      addCandidates(candidates, cellX, cellY, numX, numY);
+    }
+
+    int[] tiles = new int[candidates.cardinality()];
+    int numTiles = 0;
+    Rectangle2D.Float bounds = new Rectangle2D.Float();
+    for (int index = candidates.nextSetBit(0); index >= 0; index = candidates
+        .nextSetBit(index + 1)) {
+      bounds.setRect(geometry.getTileX(index / numY),
+          geometry.getTileY(index % numY), geometry.getTileWidth(),
+          geometry.getTileHeight());
+      if (bounds.intersectsLine(line)) {
+        tiles[numTiles++] = index;
+      }
+    }
+    return numTiles == tiles.length ? tiles : Arrays.copyOf(tiles, numTiles);
+  }
+
+  /**
+   * Marks the tiles that may touch step cell (cellX, cellY).
+   */
+  private static void addCandidates(final BitSet candidates, final int cellX,
+      final int cellY, final int numX, final int numY) {
+    int x0 = Math.max(0, cellX - 2);
+    int x1 = Math.min(numX - 1, cellX + 1);
+    int y0 = Math.max(0, cellY - 2);
+    int y1 = Math.min(numY - 1, cellY + 1);
+    for (int x = x0; x <= x1; ++x) {
+      if (y0 <= y1) {
+        candidates.set(x * numY + y0, x * numY + y1 + 1);
+      }
+    }
+  }
+
+  public Receiver getReceiver() {
+    return this.receiver;
+  }
+
+  public Transmitter getTransmitter() {
+    return this.transmitter;
+  }
+
+  public Line2D.Float getLine() {
+    return this.line;
+  }
+
+  public float getLength() {
+    return this.length;
+  }
+
+  public double getLengthDivisor() {
+    return this.lengthDivisor;
+  }
+
+  public boolean isTooShort() {
+    return this.tooShort;
+  }
+
+  public TileGeometry getGeometry() {
+    return this.geometry;
+  }
+
+  /**
+   * Returns the indices of every tile the line intersects. The array must
+   * not be modified.
+   *
+   * @return the intersected tiles, in ascending order.
+   */
+  public int[] getCrossedTiles() {
+    return this.crossedTiles;
+  }
+
+  /**
+   * Returns the indices of the tiles the link contributes to. The array must
+   * not be modified.
+   *
+   * @return the scored tiles, in ascending order.
+   */
+  public int[] getScoredTiles() {
+    return this.scoredTiles;
+  }
+
+  /**
+   * Returns the link's tile weights under a scoring model, computing them the
+   * first time they are requested.
+   *
+   * @param model
+   *          the scoring model.
+   * @return the weights computed by {@code model}.
+   */
+  public LinkWeights getWeights(final LinkScoringModel model) {
+    LinkWeights cached = this.weights;
+    if (cached == null || cached.getModel() != model) {
+      cached = model.computeWeights(this);
+      this.weights = cached;
+    }
+    return cached;
+  }
+
+  /**
+   * Checks whether this link was built from the current positions of both
+   * anchors and for the given tile layout. Anchors are compared by position,
+   * so an anchor that was announced again without moving still matches.
+   *
+   * @param rx
+   *          the current receiver.
+   * @param tx
+   *          the current transmitter.
+   * @param currentGeometry
+   *          the current tile layout.
+   * @return {@code true} if the cached geometry is still valid.
+   */
+  public boolean isCurrent(final Receiver rx, final Transmitter tx,
+      final TileGeometry currentGeometry) {
+    return currentGeometry == this.geometry
+        && rx.getxLocation() == this.receiver.getxLocation()
+        && rx.getyLocation() == this.receiver.getyLocation()
+        && tx.getxLocation() == this.transmitter.getxLocation()
+        && tx.getyLocation() == this.transmitter.getyLocation();
+  }
+
+  @Override
+  public String toString() {
+    StringBuffer sb = new StringBuffer();
+    sb.append("Link Rx(").append(this.receiver.getDeviceId()).append(") Tx(")
+        .append(this.transmitter.getDeviceId()).append(") ")
+        .append(this.scoredTiles.length).append(" of ")
+        .append(this.crossedTiles.length).append(" crossed tiles scored");
+    return sb.toString();
+  }
+}
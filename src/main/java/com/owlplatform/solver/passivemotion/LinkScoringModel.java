@@ -0,0 +1,40 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+/**
+ * Decides how much a link's variance counts toward each tile. A model
+ * computes a weight table once per {@link LinkGeometry}; the table is cached
+ * with the link and reused every tick until an anchor moves or the tile
+ * layout changes, so a model may do as much work here as it likes.
+ *
+ * @author Robert Moore
+ *
+ */
+public interface LinkScoringModel {
+
+  /**
+   * Computes the tile weights of a link.
+   *
+   * @param link
+   *          the link, with its tile layout.
+   * @return the weights of the link, created by this model.
+   */
+  public LinkWeights computeWeights(LinkGeometry link);
+}
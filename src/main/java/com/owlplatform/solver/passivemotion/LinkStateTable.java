@@ -0,0 +1,320 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The state of every link, stored as a receiver-by-transmitter matrix of
+ * fixed-size records in a single {@link ByteBuffer}. Each receiver and
+ * transmitter is given a row or column index when first seen, and a link's
+ * record is read and written through a {@link LinkVariance} view, so the
+ * number of heap objects does not grow with the number of links. The buffer
+ * may be direct, keeping the link state off the heap entirely.
+ * <p>
+ * Records are only written while holding the table's lock. Reads need no
+ * lock; a read during a write may see a mix of old and new fields, as with
+ * plain fields.
+ *
+ * @author Robert Moore
+ *
+ */
+public class LinkStateTable {
+
+  static final int VALUE = 0;
+
+  static final int BASELINE = 4;
+
+  static final int DEVIATION = 8;
+
+  /**
+   * Number of baseline samples plus one, so a zeroed record reads as unused.
+   */
+  static final int SAMPLES = 12;
+
+  static final int TIMESTAMP = 16;
+
+  static final int RECORD_SIZE = 24;
+
+  private static final int MIN_CAPACITY = 8;
+
+  /**
+   * The buffer and the anchors it has room for. Replaced as a whole when the
+   * matrix grows, so a reader always sees a consistent layout.
+   */
+  static final class Layout {
+    final ByteBuffer buffer;
+
+    final int rxCapacity;
+
+    final int txCapacity;
+
+    final String[] receivers;
+
+    final String[] transmitters;
+
+    Layout(final ByteBuffer buffer, final int rxCapacity,
+        final int txCapacity, final String[] receivers,
+        final String[] transmitters) {
+      this.buffer = buffer;
+      this.rxCapacity = rxCapacity;
+      this.txCapacity = txCapacity;
+      this.receivers = receivers;
+      this.transmitters = transmitters;
+    }
+
+    int offset(final int rx, final int tx) {
+      return (rx * this.txCapacity + tx) * RECORD_SIZE;
+    }
+  }
+
+  private final ConcurrentHashMap<String, Integer> receiverIndices = new ConcurrentHashMap<String, Integer>();
+
+  private final ConcurrentHashMap<String, Integer> transmitterIndices = new ConcurrentHashMap<String, Integer>();
+
+  private volatile Layout layout;
+
+  private volatile int numReceivers = 0;
+
+  private volatile int numTransmitters = 0;
+
+  private volatile boolean direct;
+
+  /**
+   * Creates an empty table.
+   *
+   * @param direct
+   *          {@code true} to keep the records in a direct buffer.
+   */
+  public LinkStateTable(final boolean direct) {
+    super();
+    this.direct = direct;
+    this.layout = new Layout(allocate(MIN_CAPACITY * MIN_CAPACITY
+        * RECORD_SIZE, direct), MIN_CAPACITY, MIN_CAPACITY,
+        new String[MIN_CAPACITY], new String[MIN_CAPACITY]);
+  }
+
+  private static ByteBuffer allocate(final int size, final boolean direct) {
+    ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer
+        .allocate(size);
+    return buffer.order(ByteOrder.nativeOrder());
+  }
+
+  /**
+   * Moves the records to a direct or heap buffer.
+   *
+   * @param direct
+   *          {@code true} to keep the records in a direct buffer.
+   */
+  public synchronized void setDirect(final boolean direct) {
+    if (this.direct == direct) {
+      return;
+    }
+    Layout current = this.layout;
+    ByteBuffer buffer = allocate(current.buffer.capacity(), direct);
+    ByteBuffer source = current.buffer.duplicate();
+    source.clear();
+    buffer.put(source);
+    this.layout = new Layout(buffer, current.rxCapacity, current.txCapacity,
+        current.receivers, current.transmitters);
+    this.direct = direct;
+  }
+
+  public boolean isDirect() {
+    return this.direct;
+  }
+
+  /**
+   * Returns the index of a receiver.
+   *
+   * @param receiver
+   *          the receiver's ID.
+   * @return the receiver's row, or -1 if it has no links.
+   */
+  public int getReceiverIndex(final String receiver) {
+    Integer index = this.receiverIndices.get(receiver);
+    return index == null ? -1 : index.intValue();
+  }
+
+  /**
+   * Returns the index of a transmitter.
+   *
+   * @param transmitter
+   *          the transmitter's ID.
+   * @return the transmitter's column, or -1 if it has no links.
+   */
+  public int getTransmitterIndex(final String transmitter) {
+    Integer index = this.transmitterIndices.get(transmitter);
+    return index == null ? -1 : index.intValue();
+  }
+
+  public int getNumReceivers() {
+    return Math.min(this.numReceivers, this.layout.rxCapacity);
+  }
+
+  public int getNumTransmitters() {
+    return Math.min(this.numTransmitters, this.layout.txCapacity);
+  }
+
+  public String getReceiverId(final int rx) {
+    return this.layout.receivers[rx];
+  }
+
+  public String getTransmitterId(final int tx) {
+    return this.layout.transmitters[tx];
+  }
+
+  /**
+   * Creates a view for reading and writing records.
+   *
+   * @return a view, not yet on any record.
+   */
+  public LinkVariance view() {
+    return new LinkVariance(this);
+  }
+
+  /**
+   * Returns a view of a link's record, creating the record if necessary.
+   *
+   * @param receiver
+   *          the receiver's ID.
+   * @param transmitter
+   *          the transmitter's ID.
+   * @return a view of the link.
+   */
+  public synchronized LinkVariance get(final String receiver,
+      final String transmitter) {
+    LinkVariance view = new LinkVariance(this);
+    view.moveTo(this.addReceiver(receiver), this.addTransmitter(transmitter));
+    view.markUsed();
+    return view;
+  }
+
+  /**
+   * Records a new variance value for a link.
+   *
+   * @param view
+   *          a view owned by the caller, moved to the link.
+   * @param receiver
+   *          the receiver's ID.
+   * @param transmitter
+   *          the transmitter's ID.
+   * @param variance
+   *          the link's variance.
+   * @param timestamp
+   *          the time of the value.
+   * @param adaptRate
+   *          see {@link LinkVariance#update(float, long, float)}.
+   */
+  public synchronized void update(final LinkVariance view,
+      final String receiver, final String transmitter, final float variance,
+      final long timestamp, final float adaptRate) {
+    view.moveTo(this.addReceiver(receiver), this.addTransmitter(transmitter));
+    view.markUsed();
+    view.update(variance, timestamp, adaptRate);
+  }
+
+  /**
+   * Returns the noise floor of a link without creating a view.
+   *
+   * @see LinkVariance#getNoiseFloor(float)
+   */
+  public float getNoiseFloor(final String receiver, final String transmitter,
+      final float minimum) {
+    int rx = this.getReceiverIndex(receiver);
+    int tx = this.getTransmitterIndex(transmitter);
+    if (rx < 0 || tx < 0) {
+      return minimum;
+    }
+    Layout current = this.layout;
+    if (rx >= current.rxCapacity || tx >= current.txCapacity) {
+      return minimum;
+    }
+    ByteBuffer buffer = current.buffer;
+    int offset = current.offset(rx, tx);
+    int samples = buffer.getInt(offset + SAMPLES);
+    if (samples == 0) {
+      return minimum;
+    }
+    return LinkVariance.noiseFloor(buffer.getFloat(offset + BASELINE),
+        buffer.getFloat(offset + DEVIATION), samples - 1, minimum);
+  }
+
+  Layout getLayout() {
+    return this.layout;
+  }
+
+  private int addReceiver(final String receiver) {
+    Integer index = this.receiverIndices.get(receiver);
+    if (index != null) {
+      return index.intValue();
+    }
+    int rx = this.numReceivers;
+    if (rx == this.layout.rxCapacity) {
+      this.grow(rx * 2, this.layout.txCapacity);
+    }
+    this.layout.receivers[rx] = receiver;
+    this.receiverIndices.put(receiver, Integer.valueOf(rx));
+    this.numReceivers = rx + 1;
+    return rx;
+  }
+
+  private int addTransmitter(final String transmitter) {
+    Integer index = this.transmitterIndices.get(transmitter);
+    if (index != null) {
+      return index.intValue();
+    }
+    int tx = this.numTransmitters;
+    if (tx == this.layout.txCapacity) {
+      this.grow(this.layout.rxCapacity, tx * 2);
+    }
+    this.layout.transmitters[tx] = transmitter;
+    this.transmitterIndices.put(transmitter, Integer.valueOf(tx));
+    this.numTransmitters = tx + 1;
+    return tx;
+  }
+
+  /**
+   * Copies the matrix into a larger buffer, one receiver row at a time.
+   */
+  private void grow(final int rxCapacity, final int txCapacity) {
+    Layout current = this.layout;
+    long size = (long) rxCapacity * txCapacity * RECORD_SIZE;
+    if (size > Integer.MAX_VALUE) {
+      throw new IllegalStateException("Too many links for one table: "
+          + rxCapacity + " x " + txCapacity + ".");
+    }
+    ByteBuffer buffer = allocate((int) size, this.direct);
+    ByteBuffer source = current.buffer.duplicate();
+    int rowLength = current.txCapacity * RECORD_SIZE;
+    for (int rx = 0; rx < current.rxCapacity; ++rx) {
+      source.limit(current.offset(rx, 0) + rowLength);
+      source.position(current.offset(rx, 0));
+      buffer.position(rx * txCapacity * RECORD_SIZE);
+      buffer.put(source);
+    }
+    buffer.clear();
+    this.layout = new Layout(buffer, rxCapacity, txCapacity, Arrays.copyOf(
+        current.receivers, rxCapacity), Arrays.copyOf(current.transmitters,
+        txCapacity));
+  }
+}
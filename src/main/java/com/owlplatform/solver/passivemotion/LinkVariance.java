@@ -0,0 +1,232 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+/**
+ * A view of one link's record in a {@link LinkStateTable}: the latest
+ * variance of the link, along with a running estimate of the variance the
+ * link shows when nothing is moving. The baseline is an exponentially-weighted
+ * mean that falls quickly and rises slowly, so brief motion barely moves it
+ * while a persistently noisy link (e.g., near an air handler or elevator)
+ * raises it over time. The mean absolute deviation from the baseline is
+ * tracked the same way.
+ * <p>
+ * A view holds no link state of its own and can be moved between links, so a
+ * single view can walk the whole table.
+ *
+ * @author Robert Moore
+ *
+ */
+public class LinkVariance {
+
+  /**
+   * How much faster the baseline falls than it rises.
+   */
+  private static final float FALL_FACTOR = 4f;
+
+  /**
+   * Number of deviations above the baseline at which variance is considered
+   * motion.
+   */
+  private static final float NOISE_DEVIATIONS = 3f;
+
+  /**
+   * Number of samples needed before the baseline is used.
+   */
+  public static final int MIN_BASELINE_SAMPLES = 10;
+
+  private final LinkStateTable table;
+
+  private int rx = -1;
+
+  private int tx = -1;
+
+  LinkVariance(final LinkStateTable table) {
+    super();
+    this.table = table;
+  }
+
+  /**
+   * Moves the view to a link.
+   *
+   * @param receiver
+   *          the receiver's index in the table.
+   * @param transmitter
+   *          the transmitter's index in the table.
+   * @return {@code true} if the link has a record.
+   */
+  public boolean moveTo(final int receiver, final int transmitter) {
+    this.rx = receiver;
+    this.tx = transmitter;
+    return this.getInt(LinkStateTable.SAMPLES) != 0;
+  }
+
+  public String getReceiverId() {
+    return this.table.getReceiverId(this.rx);
+  }
+
+  public String getTransmitterId() {
+    return this.table.getTransmitterId(this.tx);
+  }
+
+  /**
+   * The latest variance of the link.
+   */
+  public float getValue() {
+    return this.getFloat(LinkStateTable.VALUE);
+  }
+
+  public void setValue(final float value) {
+    this.putFloat(LinkStateTable.VALUE, value);
+  }
+
+  /**
+   * The time of the latest variance.
+   */
+  public long getTimestamp() {
+    LinkStateTable.Layout layout = this.table.getLayout();
+    return layout.buffer.getLong(layout.offset(this.rx, this.tx)
+        + LinkStateTable.TIMESTAMP);
+  }
+
+  public void setTimestamp(final long timestamp) {
+    LinkStateTable.Layout layout = this.table.getLayout();
+    layout.buffer.putLong(layout.offset(this.rx, this.tx)
+        + LinkStateTable.TIMESTAMP, timestamp);
+  }
+
+  /**
+   * Estimated variance of the link with no motion.
+   */
+  public float getBaseline() {
+    return this.getFloat(LinkStateTable.BASELINE);
+  }
+
+  public void setBaseline(final float baseline) {
+    this.putFloat(LinkStateTable.BASELINE, baseline);
+  }
+
+  /**
+   * Mean absolute deviation of the variance from the baseline.
+   */
+  public float getDeviation() {
+    return this.getFloat(LinkStateTable.DEVIATION);
+  }
+
+  public void setDeviation(final float deviation) {
+    this.putFloat(LinkStateTable.DEVIATION, deviation);
+  }
+
+  /**
+   * Number of samples included in the baseline.
+   */
+  public int getNumSamples() {
+    return this.getInt(LinkStateTable.SAMPLES) - 1;
+  }
+
+  public void setNumSamples(final int numSamples) {
+    this.putInt(LinkStateTable.SAMPLES, numSamples + 1);
+  }
+
+  /**
+   * Gives the link a record, if it does not have one.
+   */
+  void markUsed() {
+    if (this.getInt(LinkStateTable.SAMPLES) == 0) {
+      this.putInt(LinkStateTable.SAMPLES, 1);
+    }
+  }
+
+  /**
+   * Records a new variance value and updates the baseline.
+   *
+   * @param variance
+   *          the new variance of the link.
+   * @param ts
+   *          the time of the value.
+   * @param adaptRate
+   *          weight of the new value when raising the baseline, or 0 to leave
+   *          the baseline unchanged.
+   */
+  public void update(final float variance, final long ts,
+      final float adaptRate) {
+    this.setValue(variance);
+    this.setTimestamp(ts);
+    if (adaptRate <= 0) {
+      return;
+    }
+    int numSamples = this.getNumSamples();
+    if (numSamples == 0) {
+      this.setBaseline(variance);
+      this.setDeviation(0f);
+    } else {
+      float baseline = this.getBaseline();
+      float deviation = this.getDeviation();
+      float error = variance - baseline;
+      float gain = error < 0 ? Math.min(1f, adaptRate * FALL_FACTOR)
+          : adaptRate;
+      this.setBaseline(baseline + gain * error);
+      this.setDeviation(deviation + adaptRate
+          * (Math.abs(error) - deviation));
+    }
+    this.setNumSamples(numSamples + 1);
+  }
+
+  /**
+   * Returns the variance this link must exceed to indicate motion: the
+   * baseline plus a margin for its usual fluctuation, but never less than
+   * {@code minimum}.
+   *
+   * @param minimum
+   *          the global noise threshold.
+   * @return the noise floor of the link.
+   */
+  public float getNoiseFloor(final float minimum) {
+    return noiseFloor(this.getBaseline(), this.getDeviation(),
+        this.getNumSamples(), minimum);
+  }
+
+  static float noiseFloor(final float baseline, final float deviation,
+      final int numSamples, final float minimum) {
+    if (numSamples < MIN_BASELINE_SAMPLES) {
+      return minimum;
+    }
+    return Math.max(minimum, baseline + NOISE_DEVIATIONS * deviation);
+  }
+
+  private float getFloat(final int field) {
+    LinkStateTable.Layout layout = this.table.getLayout();
+    return layout.buffer.getFloat(layout.offset(this.rx, this.tx) + field);
+  }
+
+  private void putFloat(final int field, final float value) {
+    LinkStateTable.Layout layout = this.table.getLayout();
+    layout.buffer.putFloat(layout.offset(this.rx, this.tx) + field, value);
+  }
+
+  private int getInt(final int field) {
+    LinkStateTable.Layout layout = this.table.getLayout();
+    return layout.buffer.getInt(layout.offset(this.rx, this.tx) + field);
+  }
+
+  private void putInt(final int field, final int value) {
+    LinkStateTable.Layout layout = this.table.getLayout();
+    layout.buffer.putInt(layout.offset(this.rx, this.tx) + field, value);
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+/**
+ * Immutable tile weight table of one link under one
+ * {@link LinkScoringModel}. A line with value {@code v} and noise floor
+ * {@code f} adds {@code (v - f) / divisor * weights[i]} to tile
+ * {@code tiles[i]}.
+ *
+ * @author Robert Moore
+ *
+ */
+public final class LinkWeights {
+
+  private final LinkScoringModel model;
+
+  private final int[] tiles;
+
+  private final float[] weights;
+
+  private final double divisor;
+
+  private final int[] affectedTiles;
+
+  /**
+   * Bounds of {@link #tiles}. Empty if {@link #minX} is greater than
+   * {@link #maxX}.
+   */
+  private final int minX;
+
+  private final int maxX;
+
+  private final int minY;
+
+  private final int maxY;
+
+  /**
+   * Creates a weight table. The arrays are not copied and must not be
+   * modified afterwards.
+   *
+   * @param model
+   *          the model that computed the table.
+   * @param tiles
+   *          indices of the tiles the link contributes to.
+   * @param weights
+   *          the weight of each tile in {@code tiles}.
+   * @param divisor
+   *          divides the line's value before weighting.
+   * @param affectedTiles
+   *          indices of the tiles whose detection explains the link's
+   *          variance, so that the link can be removed from later rounds.
+   * @param numY
+   *          the number of tiles along the y-axis of the grid.
+   */
+  public LinkWeights(final LinkScoringModel model, final int[] tiles,
+      final float[] weights, final double divisor, final int[] affectedTiles,
+      final int numY) {
+    super();
+    if (tiles.length != weights.length) {
+      throw new IllegalArgumentException(
+          "Must provide one weight for each tile.");
+    }
+    this.model = model;
+    this.tiles = tiles;
+    this.weights = weights;
+    this.divisor = divisor;
+    this.affectedTiles = affectedTiles;
+
+    int x0 = Integer.MAX_VALUE;
+    int x1 = -1;
+    int y0 = Integer.MAX_VALUE;
+    int y1 = -1;
+    for (int i = 0; i < tiles.length; ++i) {
+      int x = tiles[i] / numY;
+      int y = tiles[i] % numY;
+      x0 = Math.min(x0, x);
+      x1 = Math.max(x1, x);
+      y0 = Math.min(y0, y);
+      y1 = Math.max(y1, y);
+    }
+    this.minX = x0;
+    this.maxX = x1;
+    this.minY = y0;
+    this.maxY = y1;
+  }
+
+  public LinkScoringModel getModel() {
+    return this.model;
+  }
+
+  public int[] getTiles() {
+    return this.tiles;
+  }
+
+  public float[] getWeights() {
+    return this.weights;
+  }
+
+  public double getDivisor() {
+    return this.divisor;
+  }
+
+  public int[] getAffectedTiles() {
+    return this.affectedTiles;
+  }
+
+  /**
+   * Checks whether the link contributes to any tile in the block
+   * [x0..x1] x [y0..y1].
+   *
+   * @param x0
+   *          first x-index of the block.
+   * @param y0
+   *          first y-index of the block.
+   * @param x1
+   *          last x-index of the block.
+   * @param y1
+   *          last y-index of the block.
+   * @return {@code true} if one of the link's tiles is in the block.
+   */
+  public boolean overlaps(final int x0, final int y0, final int x1,
+      final int y1) {
+    return x0 <= this.maxX && x1 >= this.minX && y0 <= this.maxY
+        && y1 >= this.minY;
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+/**
+ * An area of motion tracked across successive results. The identifier stays
+ * the same for as long as the area is tracked, and the position and velocity
+ * are smoothed over its detections.
+ *
+ * @author Robert Moore
+ *
+ */
+public class MotionArea {
+
+  private long areaId;
+
+  /**
+   * Smoothed x-coordinate of the center of the area.
+   */
+  private float x;
+
+  /**
+   * Smoothed y-coordinate of the center of the area.
+   */
+  private float y;
+
+  /**
+   * Velocity along the x-axis, in region units per second.
+   */
+  private float xVelocity;
+
+  /**
+   * Velocity along the y-axis, in region units per second.
+   */
+  private float yVelocity;
+
+  /**
+   * Total score of the tiles in the most recent detection.
+   */
+  private float score;
+
+  /**
+   * Number of tiles in the most recent detection.
+   */
+  private int numTiles;
+
+  /**
+   * When the area was first detected.
+   */
+  private long firstSeen;
+
+  public long getAreaId() {
+    return areaId;
+  }
+
+  public void setAreaId(long areaId) {
+    this.areaId = areaId;
+  }
+
+  public float getX() {
+    return x;
+  }
+
+  public void setX(float x) {
+    this.x = x;
+  }
+
+  public float getY() {
+    return y;
+  }
+
+  public void setY(float y) {
+    this.y = y;
+  }
+
+  public float getxVelocity() {
+    return xVelocity;
+  }
+
+  public void setxVelocity(float xVelocity) {
+    this.xVelocity = xVelocity;
+  }
+
+  public float getyVelocity() {
+    return yVelocity;
+  }
+
+  public void setyVelocity(float yVelocity) {
+    this.yVelocity = yVelocity;
+  }
+
+  public float getScore() {
+    return score;
+  }
+
+  public void setScore(float score) {
+    this.score = score;
+  }
+
+  public int getNumTiles() {
+    return numTiles;
+  }
+
+  public void setNumTiles(int numTiles) {
+    this.numTiles = numTiles;
+  }
+
+  public long getFirstSeen() {
+    return firstSeen;
+  }
+
+  public void setFirstSeen(long firstSeen) {
+    this.firstSeen = firstSeen;
+  }
+
+  @Override
+  public String toString() {
+    StringBuffer sb = new StringBuffer();
+    sb.append("Area ").append(this.areaId).append(" @ (").append(this.x)
+        .append(", ").append(this.y).append(") moving (")
+        .append(this.xVelocity).append(", ").append(this.yVelocity)
+        .append(")/s: ").append(this.score);
+    return sb.toString();
+  }
+}
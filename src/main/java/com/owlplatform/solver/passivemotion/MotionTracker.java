@@ -0,0 +1,273 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Follows areas of motion from one result to the next. Each tick, the areas
+ * detected by the algorithm are matched to the predicted positions of the
+ * existing tracks, nearest first, within a gating distance. Matched tracks
+ * are corrected with an alpha-beta filter, which smooths the jitter of single
+ * detections and estimates velocity. Unmatched detections start new tracks,
+ * and tracks that go unmatched for too many ticks are dropped. Work per tick
+ * depends only on the number of areas, not the number of tiles. Instances are
+ * not thread-safe.
+ *
+ * @author Robert Moore
+ *
+ */
+public class MotionTracker {
+
+  /**
+   * Weight of a new detection in the corrected position.
+   */
+  private static final float POSITION_GAIN = 0.5f;
+
+  /**
+   * Weight of a new detection in the corrected velocity.
+   */
+  private static final float VELOCITY_GAIN = 0.2f;
+
+  private static final class Track {
+    long areaId;
+    float x;
+    float y;
+    float xVelocity;
+    float yVelocity;
+    long lastTime;
+    long firstSeen;
+    int missed;
+    float score;
+    int numTiles;
+    boolean matched;
+  }
+
+  /**
+   * Farthest an area may move between two ticks and keep its identifier.
+   */
+  private final float gateDistance;
+
+  /**
+   * Number of consecutive ticks a track is kept without a detection.
+   */
+  private final int maxMissed;
+
+  private final List<Track> tracks = new ArrayList<Track>();
+
+  private long nextAreaId = 1;
+
+  private long frameTime = 0l;
+
+  private int numDetections = 0;
+
+  private float[] detectX = new float[8];
+
+  private float[] detectY = new float[8];
+
+  private float[] detectScore = new float[8];
+
+  private int[] detectTiles = new int[8];
+
+  /**
+   * Creates a new tracker.
+   *
+   * @param gateDistance
+   *          the farthest an area may move between ticks and keep its
+   *          identifier, in region units.
+   * @param maxMissed
+   *          the number of consecutive ticks a track survives without a
+   *          detection.
+   */
+  public MotionTracker(final float gateDistance, final int maxMissed) {
+    super();
+    if (gateDistance <= 0) {
+      throw new IllegalArgumentException("Gate distance must be positive.");
+    }
+    this.gateDistance = gateDistance;
+    this.maxMissed = Math.max(0, maxMissed);
+  }
+
+  /**
+   * Starts a new tick, discarding any detections not yet applied.
+   *
+   * @param timestamp
+   *          the time of the result, in milliseconds.
+   */
+  public void beginFrame(final long timestamp) {
+    this.frameTime = timestamp;
+    this.numDetections = 0;
+  }
+
+  /**
+   * Adds an area detected in the current tick.
+   *
+   * @param x
+   *          x-coordinate of the center of the area.
+   * @param y
+   *          y-coordinate of the center of the area.
+   * @param score
+   *          total score of the area's tiles.
+   * @param numTiles
+   *          number of tiles in the area.
+   */
+  public void addDetection(final float x, final float y, final float score,
+      final int numTiles) {
+    if (this.numDetections == this.detectX.length) {
+      int length = this.detectX.length * 2;
+      this.detectX = Arrays.copyOf(this.detectX, length);
+      this.detectY = Arrays.copyOf(this.detectY, length);
+      this.detectScore = Arrays.copyOf(this.detectScore, length);
+      this.detectTiles = Arrays.copyOf(this.detectTiles, length);
+    }
+    this.detectX[this.numDetections] = x;
+    this.detectY[this.numDetections] = y;
+    this.detectScore[this.numDetections] = score;
+    this.detectTiles[this.numDetections] = numTiles;
+    ++this.numDetections;
+  }
+
+  /**
+   * Matches the detections of the current tick to the existing tracks and
+   * returns the areas detected in this tick.
+   *
+   * @return the tracked areas, one per detection.
+   */
+  public List<MotionArea> endFrame() {
+    final int numTracks = this.tracks.size();
+    final float gate2 = this.gateDistance * this.gateDistance;
+
+    // Predicted positions at this tick
+    float[] predX = new float[numTracks];
+    float[] predY = new float[numTracks];
+    for (int t = 0; t < numTracks; ++t) {
+      Track track = this.tracks.get(t);
+      float dt = (this.frameTime - track.lastTime) / 1000f;
+      predX[t] = track.x + track.xVelocity * dt;
+      predY[t] = track.y + track.yVelocity * dt;
+      track.matched = false;
+    }
+
+    // Greedy nearest-pair assignment; both sets are small
+    int[] trackForDetection = new int[this.numDetections];
+    Arrays.fill(trackForDetection, -1);
+    while (true) {
+      float best = gate2;
+      int bestD = -1;
+      int bestT = -1;
+      for (int d = 0; d < this.numDetections; ++d) {
+        if (trackForDetection[d] >= 0) {
+          continue;
+        }
+        for (int t = 0; t < numTracks; ++t) {
+          if (this.tracks.get(t).matched) {
+            continue;
+          }
+          float dx = this.detectX[d] - predX[t];
+          float dy = this.detectY[d] - predY[t];
+          float dist2 = dx * dx + dy * dy;
+          if (dist2 <= best) {
+            best = dist2;
+            bestD = d;
+            bestT = t;
+          }
+        }
+      }
+      if (bestD < 0) {
+        break;
+      }
+      trackForDetection[bestD] = bestT;
+      this.tracks.get(bestT).matched = true;
+    }
+
+    List<MotionArea> areas = new ArrayList<MotionArea>(this.numDetections);
+    for (int d = 0; d < this.numDetections; ++d) {
+      Track track;
+      if (trackForDetection[d] >= 0) {
+        int t = trackForDetection[d];
+        track = this.tracks.get(t);
+        float dt = (this.frameTime - track.lastTime) / 1000f;
+        float rx = this.detectX[d] - predX[t];
+        float ry = this.detectY[d] - predY[t];
+        track.x = predX[t] + POSITION_GAIN * rx;
+        track.y = predY[t] + POSITION_GAIN * ry;
+        if (dt > 0) {
+          track.xVelocity += VELOCITY_GAIN * rx / dt;
+          track.yVelocity += VELOCITY_GAIN * ry / dt;
+        }
+      } else {
+        track = new Track();
+        track.areaId = this.nextAreaId++;
+        track.x = this.detectX[d];
+        track.y = this.detectY[d];
+        track.firstSeen = this.frameTime;
+        track.matched = true;
+        this.tracks.add(track);
+      }
+      track.lastTime = this.frameTime;
+      track.missed = 0;
+      track.score = this.detectScore[d];
+      track.numTiles = this.detectTiles[d];
+      areas.add(createArea(track));
+    }
+
+    for (Iterator<Track> iter = this.tracks.iterator(); iter.hasNext();) {
+      Track track = iter.next();
+      if (!track.matched && ++track.missed > this.maxMissed) {
+        iter.remove();
+      }
+    }
+    this.numDetections = 0;
+    return areas;
+  }
+
+  /**
+   * Returns the number of areas currently tracked, including those not
+   * detected in the last tick.
+   *
+   * @return the number of tracks.
+   */
+  public int getNumTracks() {
+    return this.tracks.size();
+  }
+
+  /**
+   * Forgets every track.
+   */
+  public void clear() {
+    this.tracks.clear();
+    this.numDetections = 0;
+  }
+
+  private static MotionArea createArea(final Track track) {
+    MotionArea area = new MotionArea();
+    area.setAreaId(track.areaId);
+    area.setX(track.x);
+    area.setY(track.y);
+    area.setxVelocity(track.xVelocity);
+    area.setyVelocity(track.yVelocity);
+    area.setScore(track.score);
+    area.setNumTiles(track.numTiles);
+    area.setFirstSeen(track.firstSeen);
+    return area;
+  }
+}
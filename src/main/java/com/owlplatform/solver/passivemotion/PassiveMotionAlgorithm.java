@@ -20,14 +20,23 @@
 
 package com.owlplatform.solver.passivemotion;
 
-import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.print.attribute.standard.Finishings;
 
@@ -46,6 +55,11 @@ public class PassiveMotionAlgorithm {
 
   private static final char[] MOTION_SYMBOLS = { ' ', '.', ':', '+', '#' };
 
+  /**
+   * Imaging regularization used when none is configured.
+   */
+  private static final float DEFAULT_RTI_REGULARIZATION = 0.5f;
+
   protected String regionUri;
 
   protected float regionXMax;
@@ -56,16 +70,114 @@ public class PassiveMotionAlgorithm {
 
   protected int numYTiles;
 
+  /**
+   * Layout of the tiles in the region, rebuilt whenever the region or tile
+   * counts change.
+   */
+  protected volatile TileGeometry geometry = null;
+
   protected AlgorithmConfig config;
 
   protected ConcurrentHashMap<String, Receiver> receivers = new ConcurrentHashMap<String, Receiver>();
 
   protected ConcurrentHashMap<String, Transmitter> transmitters = new ConcurrentHashMap<String, Transmitter>();
 
+  /**
+   * Incremented whenever an anchor is added or removed.
+   */
+  private final AtomicLong anchorSetVersion = new AtomicLong(0);
+
+  /**
+   * Incremented whenever a link is added, rebuilt, or removed.
+   */
+  private final AtomicLong linkVersion = new AtomicLong(0);
+
+  /**
+   * Cached link geometry, keyed by receiver and then transmitter ID.
+   */
+  protected ConcurrentHashMap<String, ConcurrentHashMap<String, LinkGeometry>> linksByRbyT = new ConcurrentHashMap<String, ConcurrentHashMap<String, LinkGeometry>>();
+
   protected ScoredTile[] tiles;
 
   protected StdDevFingerprintGenerator stdDevFingerprinter = new StdDevFingerprintGenerator();
 
+  /**
+   * Reused by {@link #applyKernel(float[][], ScoredTile[][], ScoredTile[][])}.
+   */
+  private KernelConvolver convolver = null;
+
+  /**
+   * Scratch grids for {@link #applyKernel(float[][], ScoredTile[][], ScoredTile[][])}.
+   */
+  private ScoreGrid kernelInput = null;
+
+  private ScoreGrid kernelOutput = null;
+
+  /**
+   * Recycles score grids between ticks.
+   */
+  protected final ScoreGridPool gridPool = new ScoreGridPool();
+
+  /**
+   * Scratch state for scoring on the calling thread.
+   */
+  private final ScoringContext scoring = new ScoringContext();
+
+  /**
+   * Blocks of the region scored in parallel, or {@code null} if the region
+   * is scored as a whole.
+   */
+  private RegionShard[] shards = null;
+
+  /**
+   * The tile layout {@link #shards} were created for.
+   */
+  private TileGeometry shardGeometry = null;
+
+  /**
+   * Scores shards, created when first needed.
+   */
+  private ExecutorService shardExecutor = null;
+
+  /**
+   * Scores shards in place of the shard executor, or {@code null} to use the
+   * executor.
+   */
+  private volatile ShardScorer shardScorer = null;
+
+  /**
+   * Follows areas of motion between results, or {@code null} if tracking is
+   * disabled.
+   */
+  private MotionTracker tracker = null;
+
+  /**
+   * Groups the tiles of each result into summarized areas.
+   */
+  private final ComponentLabeler labeler = new ComponentLabeler();
+
+  /**
+   * Whether results include area summaries. Labeling every result costs a
+   * pass over the whole grid, so it is skipped when nothing reads them.
+   */
+  private volatile boolean summarizeAreas;
+
+  /**
+   * Weights each link's value over the tiles.
+   */
+  protected volatile LinkScoringModel scoringModel;
+
+  /**
+   * Precomputed inverse for the radio tomographic imaging mode, or
+   * {@code null} until it is first needed.
+   */
+  private RtiProjection rtiProjection = null;
+
+  /**
+   * Link values for {@link #rtiProjection}.
+   */
+  private float[] rtiValues = new float[0];
+
   /*
   static float[][] tileFilterKernel3x3a = new float[3][3];
   static float[][] tileFilterKernel3x3b = new float[3][3];
@@ -102,6 +214,28 @@ public class PassiveMotionAlgorithm {
     this.config = config;
     this.stdDevFingerprinter.setMaxNumSamples(3);
     this.stdDevFingerprinter.setMaxSampleAge(5000l);
+    this.stdDevFingerprinter.setBaselineAdaptRate(config.baselineAdaptRate);
+    this.stdDevFingerprinter.setOffHeap(config.offHeapLinkState);
+    this.summarizeAreas = config.summarizeAreas;
+    if (config.trackingGateDistance > 0) {
+      this.tracker = new MotionTracker(config.trackingGateDistance,
+          config.trackingMaxMissed);
+    }
+    if ("ellipse".equalsIgnoreCase(config.scoringModel)) {
+      // About a tile width, so that short links still reach tile centers
+      float excessPath = config.ellipseExcessPath > 0
+          ? config.ellipseExcessPath
+          : config.desiredTileWidth;
+      if (excessPath <= 0) {
+        throw new IllegalArgumentException(
+            "The ellipse scoring model needs a positive ellipseExcessPath "
+                + "or desiredTileWidth.");
+      }
+      this.scoringModel = new EllipseScoringModel(excessPath,
+          config.radiusThreshold);
+    } else {
+      this.scoringModel = new LineScoringModel();
+    }
   }
 
   public void addVariance(final String receiver, final String transmitter,
@@ -125,6 +259,7 @@ public class PassiveMotionAlgorithm {
 
   public void setRegionXMax(float regionXMax) {
     this.regionXMax = regionXMax;
+    this.updateGeometry();
   }
 
   public float getRegionYMax() {
@@ -133,6 +268,7 @@ public class PassiveMotionAlgorithm {
 
   public void setRegionYMax(float regionYMax) {
     this.regionYMax = regionYMax;
+    this.updateGeometry();
   }
 
   public int getNumXTiles() {
@@ -141,6 +277,7 @@ public class PassiveMotionAlgorithm {
 
   public void setNumXTiles(int numXTiles) {
     this.numXTiles = numXTiles;
+    this.updateGeometry();
   }
 
   public int getNumYTiles() {
@@ -149,6 +286,43 @@ public class PassiveMotionAlgorithm {
 
   public void setNumYTiles(int numYTiles) {
     this.numYTiles = numYTiles;
+    this.updateGeometry();
+  }
+
+  public TileGeometry getGeometry() {
+    return this.geometry;
+  }
+
+  /**
+   * Rebuilds the tile layout from the region dimensions. If a desired tile
+   * width or height is configured, it determines the number of tiles along
+   * that axis; otherwise the number set by {@link #setNumXTiles(int)} or
+   * {@link #setNumYTiles(int)} is used. The layout is cleared until both
+   * region dimensions and tile counts are known.
+   */
+  protected synchronized void updateGeometry() {
+    if (this.regionXMax <= 0 || this.regionYMax <= 0) {
+      this.geometry = null;
+      return;
+    }
+
+    if (this.config.desiredTileWidth > 0) {
+      this.numXTiles = TileGeometry.tilesForSize(this.regionXMax,
+          this.config.desiredTileWidth);
+    }
+    if (this.config.desiredTileHeight > 0) {
+      this.numYTiles = TileGeometry.tilesForSize(this.regionYMax,
+          this.config.desiredTileHeight);
+    }
+
+    if (this.numXTiles <= 0 || this.numYTiles <= 0) {
+      this.geometry = null;
+      return;
+    }
+
+    this.geometry = new TileGeometry(this.regionXMax, this.regionYMax,
+        this.numXTiles, this.numYTiles);
+    log.info("Updated {}", this.geometry);
   }
 
   public ScoredTile[] getTiles() {
@@ -159,32 +333,238 @@ public class PassiveMotionAlgorithm {
     this.tiles = tiles;
   }
 
+  /**
+   * Adds a receiver, or replaces the receiver with the same device ID. Only
+   * the links to that receiver are rebuilt, and only if it has moved. A
+   * receiver announced again at the same position is ignored, so its cached
+   * links stay current.
+   * 
+   * @param receiver
+   *          the receiver to add.
+   */
   public void addReceiver(Receiver receiver) {
 
+    Receiver previous = this.receivers.get(receiver.getDeviceId());
+    if (previous != null
+        && previous.getxLocation() == receiver.getxLocation()
+        && previous.getyLocation() == receiver.getyLocation()) {
+      return;
+    }
     this.receivers.put(receiver.getDeviceId(), receiver);
+    if (previous == null) {
+      this.anchorSetVersion.incrementAndGet();
+    }
+    this.updateReceiverLinks(receiver);
     log.debug("Added {}", receiver);
   }
 
+  /**
+   * Adds a transmitter, or replaces the transmitter with the same device ID.
+   * Only the links to that transmitter are rebuilt, and only if it has moved.
+   * A transmitter announced again at the same position is ignored, so its
+   * cached links stay current.
+   * 
+   * @param transmitter
+   *          the transmitter to add.
+   */
   public void addTransmitter(Transmitter transmitter) {
 
+    Transmitter previous = this.transmitters.get(transmitter.getDeviceId());
+    if (previous != null
+        && previous.getxLocation() == transmitter.getxLocation()
+        && previous.getyLocation() == transmitter.getyLocation()) {
+      return;
+    }
     this.transmitters.put(transmitter.getDeviceId(), transmitter);
+    if (previous == null) {
+      this.anchorSetVersion.incrementAndGet();
+    }
+    this.updateTransmitterLinks(transmitter);
     log.debug("Added {}", transmitter);
   }
 
-  public FilteredTileResultSet generateResults() {
-    if (this.regionXMax == 0 || this.regionYMax == 0) {
+  /**
+   * Removes a receiver and its links.
+   * 
+   * @param deviceId
+   *          the device ID of the receiver.
+   * @return the removed receiver, or {@code null} if there was none.
+   */
+  public Receiver removeReceiver(final String deviceId) {
+    Receiver removed = this.receivers.remove(deviceId);
+    this.linksByRbyT.remove(deviceId);
+    if (removed != null) {
+      this.anchorSetVersion.incrementAndGet();
+      this.linkVersion.incrementAndGet();
+      log.debug("Removed {}", removed);
+    }
+    return removed;
+  }
+
+  /**
+   * Removes a transmitter and its links.
+   * 
+   * @param deviceId
+   *          the device ID of the transmitter.
+   * @return the removed transmitter, or {@code null} if there was none.
+   */
+  public Transmitter removeTransmitter(final String deviceId) {
+    Transmitter removed = this.transmitters.remove(deviceId);
+    for (ConcurrentHashMap<String, LinkGeometry> links : this.linksByRbyT
+        .values()) {
+      links.remove(deviceId);
+    }
+    if (removed != null) {
+      this.anchorSetVersion.incrementAndGet();
+      this.linkVersion.incrementAndGet();
+      log.debug("Removed {}", removed);
+    }
+    return removed;
+  }
+
+  /**
+   * Returns a counter that changes whenever a receiver or transmitter is added
+   * or removed. Moving an existing anchor does not change it.
+   * 
+   * @return the current version of the set of anchors.
+   */
+  public long getAnchorSetVersion() {
+    return this.anchorSetVersion.get();
+  }
+
+  /**
+   * Returns a counter that changes whenever a link is added, rebuilt, or
+   * removed, including when an anchor moves.
+   *
+   * @return the current version of the set of links.
+   */
+  public long getLinkVersion() {
+    return this.linkVersion.get();
+  }
+
+  /**
+   * Builds a regular expression matching the world model identifiers of the
+   * link variances between the known transmitters and receivers, in the form
+   * {@code <prefix>.<transmitter>.<receiver>}.
+   * 
+   * @return the identifier expression, or {@code null} if there are no
+   *         receivers or no transmitters.
+   */
+  public String getLinkIdRegex() {
+    if (this.receivers.isEmpty() || this.transmitters.isEmpty()) {
       return null;
     }
+    StringBuffer sb = new StringBuffer("^[^.]*\\.(");
+    appendAlternatives(sb, new TreeSet<String>(this.transmitters.keySet()));
+    sb.append(")\\.(");
+    appendAlternatives(sb, new TreeSet<String>(this.receivers.keySet()));
+    sb.append(")$");
+    return sb.toString();
+  }
 
-    if (this.config.desiredTileWidth > 0) {
-      this.numXTiles = (int) Math.ceil(this.regionXMax
-          / this.config.desiredTileWidth);
-      this.numXTiles += (this.numXTiles - 1);
+  private static void appendAlternatives(final StringBuffer sb,
+      final Collection<String> ids) {
+    boolean first = true;
+    for (String id : ids) {
+      if (!first) {
+        sb.append('|');
+      }
+      first = false;
+      for (int i = 0; i < id.length(); ++i) {
+        char c = id.charAt(i);
+        if (!Character.isLetterOrDigit(c)) {
+          sb.append('\\');
+        }
+        sb.append(c);
+      }
     }
-    if (this.config.desiredTileHeight > 0) {
-      this.numYTiles = (int) Math.ceil(this.regionYMax
-          / this.config.desiredTileWidth);
-      this.numYTiles += (this.numYTiles - 1);
+  }
+
+  /**
+   * Rebuilds the links between a receiver and every known transmitter.
+   */
+  protected void updateReceiverLinks(final Receiver receiver) {
+    final TileGeometry geometry = this.geometry;
+    ConcurrentHashMap<String, LinkGeometry> links = new ConcurrentHashMap<String, LinkGeometry>();
+    for (Transmitter transmitter : this.transmitters.values()) {
+      links.put(transmitter.getDeviceId(), new LinkGeometry(receiver,
+          transmitter, geometry, this.config));
+    }
+    this.linksByRbyT.put(receiver.getDeviceId(), links);
+    this.linkVersion.incrementAndGet();
+  }
+
+  /**
+   * Rebuilds the links between a transmitter and every known receiver.
+   */
+  protected void updateTransmitterLinks(final Transmitter transmitter) {
+    final TileGeometry geometry = this.geometry;
+    for (Receiver receiver : this.receivers.values()) {
+      this.getReceiverLinks(receiver.getDeviceId()).put(
+          transmitter.getDeviceId(),
+          new LinkGeometry(receiver, transmitter, geometry, this.config));
+    }
+    this.linkVersion.incrementAndGet();
+  }
+
+  private ConcurrentHashMap<String, LinkGeometry> getReceiverLinks(
+      final String receiverId) {
+    ConcurrentHashMap<String, LinkGeometry> links = this.linksByRbyT
+        .get(receiverId);
+    if (links == null) {
+      links = new ConcurrentHashMap<String, LinkGeometry>();
+      ConcurrentHashMap<String, LinkGeometry> existing = this.linksByRbyT
+          .putIfAbsent(receiverId, links);
+      if (existing != null) {
+        links = existing;
+      }
+    }
+    return links;
+  }
+
+  /**
+   * Returns the cached geometry of a link, rebuilding it if either anchor
+   * has moved or the tile layout has changed since it was cached. A rebuilt
+   * link changes the link version.
+   * 
+   * @param receiver
+   *          the current receiver.
+   * @param transmitter
+   *          the current transmitter.
+   * @param geometry
+   *          the current tile layout.
+   * @return the link geometry.
+   */
+  protected LinkGeometry getLink(final Receiver receiver,
+      final Transmitter transmitter, final TileGeometry geometry) {
+    ConcurrentHashMap<String, LinkGeometry> links = this
+        .getReceiverLinks(receiver.getDeviceId());
+    LinkGeometry link = links.get(transmitter.getDeviceId());
+    if (link == null || !link.isCurrent(receiver, transmitter, geometry)) {
+      link = new LinkGeometry(receiver, transmitter, geometry, this.config);
+      links.put(transmitter.getDeviceId(), link);
+      this.linkVersion.incrementAndGet();
+    }
+    return link;
+  }
+
+  public FilteredTileResultSet generateResults() {
+    return this.generateResults(System.currentTimeMillis());
+  }
+
+  /**
+   * Scores the current link variance as of a given time. The time is only
+   * used to track areas of motion between results, so historical data can be
+   * solved at the times it was recorded.
+   *
+   * @param now
+   *          the time of the result.
+   * @return the result, or {@code null} if the region is not yet known.
+   */
+  public FilteredTileResultSet generateResults(final long now) {
+    final TileGeometry geometry = this.geometry;
+    if (geometry == null) {
+      return null;
     }
 
     FilteredTileResultSet resultSet = new FilteredTileResultSet();
@@ -193,170 +573,465 @@ public class PassiveMotionAlgorithm {
     ArrayList<Fingerprint> fingerprints = this.calculateFingerprints();
 
     // Create RSSI lines
-    ArrayList<RSSILine> allLines = this.createRSSILines(fingerprints);
+    ArrayList<RSSILine> allLines = this.createRSSILines(fingerprints,
+        geometry);
 
     resultSet.setLines(allLines);
 
-    FilteredTileResult result;
+    // Both grids are recycled once the previous tick's results are released
+    PooledScoreGrid finalTiles = this.gridPool.acquire(geometry);
 
-    ScoredTile[][] baseRaw = this.createUnscoredTiles();
-    result = new FilteredTileResult();
-    result.setTiles(baseRaw);
+    FilteredTileResult result = new FilteredTileResult();
+    result.setGrid(finalTiles, geometry);
     resultSet.setTiles("base-raw-0", result);
 
-    ScoredTile[][] finalTiles = this.createUnscoredTiles();
-    result.setTiles(finalTiles);
-
     int tileRound = 0;
 
     ArrayList<ScoredTile> totalTiles = new ArrayList<ScoredTile>();
-    ArrayList<ScoredTile> tempTiles = this.calculateTileScores(baseRaw,
+    final MotionTracker tracker = this.tracker;
+    if (tracker != null) {
+      tracker.beginFrame(now);
+    }
+
+    RegionShard[] shards = this.getShards(geometry);
+    if (shards != null) {
+      tileRound = this.scoreShards(shards, geometry, allLines, finalTiles,
+          totalTiles);
+    } else {
+      tileRound = this.scoreRounds(geometry, allLines, finalTiles, totalTiles,
+          resultSet);
+    }
+    if (tracker != null) {
+      resultSet.setAreas(tracker.endFrame());
+    }
+    if (this.summarizeAreas) {
+      resultSet.setSummaries(this.labeler.summarize(finalTiles, geometry,
+          this.config.tileScoreThreshold));
+    }
+
+    log.debug("Detected {} areas of motion.", Integer.valueOf(tileRound));
+    if (log.isInfoEnabled()) {
+      log.info("\n" + this.printFancyMap(finalTiles, geometry));
+    }
+    if (!totalTiles.isEmpty()) {
+      resultSet.setTilesToPublish(totalTiles);
+    }
+
+    return resultSet;
+
+  }
+
+  /**
+   * Finds each area of motion in turn over the whole region, removing the
+   * lines that cross an area before scoring the next one. Every round after
+   * the first is added to {@code resultSet} as its own grid.
+   *
+   * @param geometry
+   *          the tile layout.
+   * @param allLines
+   *          the lines for this tick.
+   * @param finalTiles
+   *          receives the highest score of each tile over all rounds.
+   * @param totalTiles
+   *          receives every tile of every area.
+   * @param resultSet
+   *          receives the grid of each later round.
+   * @return the number of rounds.
+   */
+  private int scoreRounds(final TileGeometry geometry,
+      final List<RSSILine> allLines, final ScoreGrid finalTiles,
+      final List<ScoredTile> totalTiles, final FilteredTileResultSet resultSet) {
+    PooledScoreGrid baseRaw = this.gridPool.acquire(geometry);
+    FilteredTileResult result;
+    int tileRound = 0;
+    TileIndexList tempTiles = this.calculateTileScores(geometry, baseRaw,
         allLines);
     // Now seek-out the maximum area and any neighbors adhering to the
     // configuration
 
     List<RSSILine> remainLines = new ArrayList<RSSILine>();
     remainLines.addAll(allLines);
-    while (tempTiles != null && !tempTiles.isEmpty()) {
+    final int numY = geometry.getNumY();
+    final MotionTracker tracker = this.tracker;
+    while (!tempTiles.isEmpty()) {
 
       ++tileRound;
-      this.mergeTiles(finalTiles, baseRaw);
-      for (ScoredTile t : tempTiles) {
-        totalTiles.add(t.clone());
+      this.mergeTiles(finalTiles, baseRaw, tempTiles);
+      float areaScore = 0f;
+      float sumX = 0f;
+      float sumY = 0f;
+      for (int i = 0; i < tempTiles.size(); ++i) {
+        int index = tempTiles.get(i);
+        float score = baseRaw.getScores()[index];
+        totalTiles.add(geometry.createTile(index / numY, index % numY, score));
+        areaScore += score;
+        sumX += geometry.getCenterX(index / numY) * score;
+        sumY += geometry.getCenterY(index % numY) * score;
+      }
+      // Each round's tiles are one area of motion
+      if (tracker != null && areaScore > 0) {
+        tracker.addDetection(sumX / areaScore, sumY / areaScore, areaScore,
+            tempTiles.size());
       }
 
-      this.removeLines(remainLines, tempTiles);
+      this.removeLines(remainLines, tempTiles, geometry);
       if (remainLines.isEmpty()) {
         break;
       }
-      tempTiles = this.calculateTileScores(baseRaw, remainLines);
-      if (tempTiles != null && !tempTiles.isEmpty()) {
+      tempTiles = this.calculateTileScores(geometry, baseRaw, remainLines);
+      if (!tempTiles.isEmpty()) {
         result = new FilteredTileResult();
-        result.setTiles(this.cloneTiles(baseRaw));
+        result.setGrid(this.gridPool.acquireCopy(baseRaw), geometry);
         resultSet.setTiles("base-raw-" + (++tileRound), result);
       }
     }
+    baseRaw.release();
+    return tileRound;
+  }
 
-    log.debug("Detected {} areas of motion.", Integer.valueOf(tileRound));
-    log.info("\n" + this.printFancyMap(finalTiles));
-    if (!totalTiles.isEmpty()) {
-      resultSet.setTilesToPublish(totalTiles);
+  /**
+   * Scores every shard, then merges the areas each shard owns in shard
+   * order. Shards are scored by the {@link ShardScorer} if one is set, and on
+   * the shard executor otherwise. Only the merged grid is kept, since the
+   * per-round grids of different shards do not line up.
+   *
+   * @param shards
+   *          the shards covering the region.
+   * @param geometry
+   *          the tile layout.
+   * @param allLines
+   *          the lines for this tick.
+   * @param finalTiles
+   *          receives the highest score of each tile over all areas.
+   * @param totalTiles
+   *          receives every tile of every area.
+   * @return the number of areas found.
+   */
+  private int scoreShards(final RegionShard[] shards,
+      final TileGeometry geometry, final List<RSSILine> allLines,
+      final ScoreGrid finalTiles, final List<ScoredTile> totalTiles) {
+    final ShardScorer scorer = this.shardScorer;
+    if (scorer != null) {
+      scorer.scoreShards(this, shards, geometry, allLines);
+    } else if (!this.runShards(shards, geometry, allLines)) {
+      return 0;
     }
 
-    return resultSet;
+    int numAreas = 0;
+    final int numY = geometry.getNumY();
+    final float[] merged = finalTiles.getScores();
+    final MotionTracker tracker = this.tracker;
+    for (int s = 0; s < shards.length; ++s) {
+      RegionShard shard = shards[s];
+      for (int a = 0; a < shard.getNumAreas(); ++a) {
+        int[] tiles = shard.getAreaTiles(a);
+        float[] scores = shard.getAreaScores(a);
+        float areaScore = 0f;
+        float sumX = 0f;
+        float sumY = 0f;
+        for (int i = 0; i < tiles.length; ++i) {
+          int index = tiles[i];
+          float score = scores[i];
+          merged[index] = Math.max(merged[index], score);
+          totalTiles.add(geometry.createTile(index / numY, index % numY, score));
+          areaScore += score;
+          sumX += geometry.getCenterX(index / numY) * score;
+          sumY += geometry.getCenterY(index % numY) * score;
+        }
+        if (tracker != null && areaScore > 0) {
+          tracker.addDetection(sumX / areaScore, sumY / areaScore, areaScore,
+              tiles.length);
+        }
+        ++numAreas;
+      }
+    }
+    return numAreas;
+  }
 
+  /**
+   * Scores every shard on the shard executor. A shard that fails is left
+   * with no areas.
+   *
+   * @param shards
+   *          the shards covering the region.
+   * @param geometry
+   *          the tile layout.
+   * @param allLines
+   *          the lines for this tick.
+   * @return {@code false} if interrupted before every shard was scored.
+   */
+  private boolean runShards(final RegionShard[] shards,
+      final TileGeometry geometry, final List<RSSILine> allLines) {
+    List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(
+        shards.length);
+    for (final RegionShard shard : shards) {
+      tasks.add(new Callable<Object>() {
+        public Object call() {
+          PassiveMotionAlgorithm.this.scoreShard(shard, geometry, allLines);
+          return null;
+        }
+      });
+    }
+    List<Future<Object>> done;
+    try {
+      done = this.getShardExecutor().invokeAll(tasks);
+    } catch (InterruptedException ie) {
+      log.warn("Interrupted while scoring shards.");
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    for (int s = 0; s < shards.length; ++s) {
+      try {
+        done.get(s).get();
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        return false;
+      } catch (ExecutionException ee) {
+        log.error("Unable to score shard " + s + ".", ee.getCause());
+        shards[s].clearAreas();
+      }
+    }
+    return true;
   }
 
   /**
-   * Merges the highest scores of the two tile sets and updates
-   * {@code tilesToUpdate}.
+   * Finds the areas of motion within one shard. Only lines whose weights
+   * reach the shard are scored, and lines are removed only from this shard's
+   * copy of the list, so shards never share mutable state.
+   *
+   * @param shard
+   *          the shard to score.
+   * @param geometry
+   *          the tile layout.
+   * @param allLines
+   *          the lines for this tick.
    */
-  protected void mergeTiles(ScoredTile[][] tilesToUpdate,
-      ScoredTile[][] tilesToSource) {
-    for (int x = 0; x < tilesToUpdate.length; ++x) {
-      for (int y = 0; y < tilesToUpdate[0].length; ++y) {
-        tilesToUpdate[x][y].setScore(Math.max(tilesToUpdate[x][y].getScore(),
-            tilesToSource[x][y].getScore()));
+  public void scoreShard(final RegionShard shard,
+      final TileGeometry geometry, final List<RSSILine> allLines) {
+    shard.clearAreas();
+    final ScoringContext context = shard.getContext();
+    final LinkScoringModel model = this.scoringModel;
+    List<RSSILine> remainLines = new ArrayList<RSSILine>();
+    for (RSSILine line : allLines) {
+      if (line.getLink().getWeights(model)
+          .overlaps(context.getMinX(), context.getMinY(), context.getMaxX(),
+              context.getMaxY())) {
+        remainLines.add(line);
+      }
+    }
+    if (remainLines.isEmpty()) {
+      return;
+    }
+    final ScoreGrid grid = shard.getGrid();
+    TileIndexList tempTiles = this.calculateTileScores(context, geometry,
+        grid, remainLines);
+    while (!tempTiles.isEmpty()) {
+      shard.addArea(tempTiles, grid.getScores());
+      this.removeLines(context, remainLines, tempTiles, geometry);
+      if (remainLines.isEmpty()) {
+        break;
       }
+      tempTiles = this.calculateTileScores(context, geometry, grid,
+          remainLines);
     }
   }
 
-  protected ScoredTile[][] cloneTiles(ScoredTile[][] origTiles) {
-    if (origTiles == null || origTiles.length == 0 || origTiles[0] == null
-        || origTiles[0].length == 0) {
+  /**
+   * Returns the shards for a tile layout, creating them when the layout
+   * changes.
+   *
+   * @param geometry
+   *          the current tile layout.
+   * @return the shards, or {@code null} if the region should be scored as a
+   *         whole.
+   */
+  private RegionShard[] getShards(final TileGeometry geometry) {
+    if ((this.config.shardThreads <= 0 && this.shardScorer == null)
+        || this.isRtiMode()) {
       return null;
     }
+    if (this.shardGeometry != geometry) {
+      this.shards = createShards(geometry, this.config.radiusThreshold);
+      this.shardGeometry = geometry;
+    }
+    return this.shards;
+  }
 
-    ScoredTile[][] clone = new ScoredTile[origTiles.length][origTiles[0].length];
-    for (int x = 0; x < origTiles.length; ++x) {
-      for (int y = 0; y < origTiles[0].length; ++y) {
-        clone[x][y] = origTiles[x][y].clone();
+  /**
+   * Splits a region into square shards. Each shard's core is twice the
+   * radius threshold on a side, and it scores a margin of one radius around
+   * its core so that an area near a core's edge is seen whole.
+   *
+   * @param geometry
+   *          the tile layout.
+   * @param radius
+   *          the radius threshold.
+   * @return the shards, or {@code null} if the region fits in one shard.
+   */
+  static RegionShard[] createShards(final TileGeometry geometry,
+      final float radius) {
+    final int numX = geometry.getNumX();
+    final int numY = geometry.getNumY();
+    final float stepX = geometry.getXStep();
+    final float stepY = geometry.getYStep();
+    if (radius <= 0 || stepX <= 0 || stepY <= 0) {
+      return null;
+    }
+    final int coreX = Math.max(1, (int) Math.ceil(2 * radius / stepX));
+    final int coreY = Math.max(1, (int) Math.ceil(2 * radius / stepY));
+    if (coreX >= numX && coreY >= numY) {
+      return null;
+    }
+    final int marginX = (int) Math.ceil(radius / stepX);
+    final int marginY = (int) Math.ceil(radius / stepY);
+    List<RegionShard> shards = new ArrayList<RegionShard>();
+    for (int x = 0; x < numX; x += coreX) {
+      for (int y = 0; y < numY; y += coreY) {
+        shards.add(new RegionShard(geometry, x, y,
+            Math.min(numX, x + coreX) - 1, Math.min(numY, y + coreY) - 1,
+            marginX, marginY));
       }
     }
+    return shards.toArray(new RegionShard[shards.size()]);
+  }
+
+  private synchronized ExecutorService getShardExecutor() {
+    if (this.shardExecutor == null) {
+      this.shardExecutor = Executors.newFixedThreadPool(
+          this.config.shardThreads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(final Runnable r) {
+              Thread t = new Thread(r, "Shard Scorer "
+                  + this.count.incrementAndGet());
+              t.setDaemon(true);
+              return t;
+            }
+          });
+    }
+    return this.shardExecutor;
+  }
 
-    return clone;
+  /**
+   * Stops the threads used to score shards. The algorithm can still be used
+   * afterward; the threads are started again when needed.
+   */
+  public synchronized void shutdown() {
+    if (this.shardExecutor != null) {
+      this.shardExecutor.shutdownNow();
+      this.shardExecutor = null;
+    }
   }
 
-  protected void applyHighPass(final ScoredTile[][] tiles, final float minScore) {
-    for (int i = 0; i < tiles.length; ++i) {
-      for (int j = 0; j < tiles[i].length; ++j) {
-        if (tiles[i][j].getScore() <= minScore) {
-          tiles[i][j].setScore(0f);
-        }
+  /**
+   * Merges the highest scores of the two grids and updates
+   * {@code tilesToUpdate}.
+   *
+   * @param tilesToUpdate
+   *          the grid to update.
+   * @param tilesToSource
+   *          the grid to merge in.
+   * @param sourceTiles
+   *          every tile with a non-zero score in {@code tilesToSource}.
+   */
+  protected void mergeTiles(ScoreGrid tilesToUpdate, ScoreGrid tilesToSource,
+      final TileIndexList sourceTiles) {
+    final float[] update = tilesToUpdate.getScores();
+    final float[] source = tilesToSource.getScores();
+    for (int i = 0; i < sourceTiles.size(); ++i) {
+      int index = sourceTiles.get(i);
+      update[index] = Math.max(update[index], source[index]);
+    }
+  }
+
+  /**
+   * Sets every active tile at or below {@code minScore} to 0.
+   *
+   * @param tiles
+   *          the grid to filter.
+   * @param active
+   *          the tiles that may have non-zero scores.
+   * @param minScore
+   *          the highest score to remove.
+   */
+  protected void applyHighPass(final ScoreGrid tiles,
+      final ActiveTileSet active, final float minScore) {
+    final float[] scores = tiles.getScores();
+    for (int i = 0; i < active.size(); ++i) {
+      int index = active.get(i);
+      if (scores[index] <= minScore) {
+        scores[index] = 0f;
       }
     }
   }
 
+  /**
+   * Splits each macro tile into quarters. Since macro tiles overlap by half
+   * their width and height, each micro tile is covered by up to four macro
+   * tiles, and its score is the sum of their scores.
+   * 
+   * @param macroTiles
+   *          the overlapping tiles to split.
+   * @return the micro tiles, one larger than {@code macroTiles} in each
+   *         dimension.
+   */
   protected ScoredTile[][] createMicroTiles(ScoredTile[][] macroTiles) {
-    ScoredTile[][] microTiles = new ScoredTile[macroTiles.length + 1][];
-    for (int i = 0; i < microTiles.length; ++i)
-      microTiles[i] = new ScoredTile[macroTiles[0].length + 1];
+    ScoreGrid microScores = this.createMicroGrid(ScoreGrid
+        .fromTiles(macroTiles));
+    ScoredTile[][] microTiles = new ScoredTile[microScores.getNumX()][microScores
+        .getNumY()];
 
+    int lastX = macroTiles.length - 1;
+    int lastY = macroTiles[0].length - 1;
     for (int x = 0; x < microTiles.length; ++x) {
       for (int y = 0; y < microTiles[x].length; ++y) {
-        microTiles[x][y] = new ScoredTile();
-        microTiles[x][y].setScore(0f);
-        Rectangle2D dimensions = new Rectangle2D.Float();
-
-        // Check odd or even x, y
-        // even means first microtile
-        // odd mean second microtile
-
-        int macroX = x;
-        int macroY = y;
-        if (x >= macroTiles.length) {
-          macroX = macroTiles.length - 1;
-        }
-        if (y >= macroTiles[macroX].length) {
-          macroY = macroTiles[macroX].length - 1;
-        }
-
-        double newX = macroTiles[macroX][macroY].getTile().getX();
-        double newY = macroTiles[macroX][macroY].getTile().getY();
-        double newWidth = macroTiles[macroX][macroY].getTile().getWidth() / 2;
-        double newHeight = macroTiles[macroX][macroY].getTile().getHeight() / 2;
+        // The last row/column has no macro tile of its own, so it uses the
+        // far half of the last macro tile
+        Rectangle2D.Float macro = macroTiles[Math.min(x, lastX)][Math.min(y,
+            lastY)].getTile();
+        float newWidth = macro.width / 2;
+        float newHeight = macro.height / 2;
+        float newX = x > lastX ? macro.x + newWidth : macro.x;
+        float newY = y > lastY ? macro.y + newHeight : macro.y;
 
-        if (x == microTiles.length - 1) {
-          newX += newWidth;
-        }
-        if (y == microTiles[x].length - 1) {
-          newY += newHeight;
-        }
-
-        microTiles[x][y].setTile(new Rectangle2D.Float((float) newX,
-            (float) newY, (float) newWidth, (float) newHeight));
+        microTiles[x][y] = new ScoredTile();
+        microTiles[x][y].setTile(new Rectangle2D.Float(newX, newY, newWidth,
+            newHeight));
+        microTiles[x][y].setScore(microScores.get(x, y));
+      }
+    }
 
-        float tileScore = 0;
+    return microTiles;
+  }
 
-        if (x < macroTiles.length - 1 && y < macroTiles[x].length) {
-          tileScore += macroTiles[x][y].getScore();
-        }
-        if (x - 1 >= 0 && y < macroTiles[x - 1].length) {
-          tileScore += macroTiles[x - 1][y].getScore();
-        }
-        if (x < macroTiles.length && y - 1 >= 0) {
-          tileScore += macroTiles[x][y - 1].getScore();
-        }
-        if (x - 1 >= 0 && y - 1 >= 0) {
-          tileScore += macroTiles[x - 1][y - 1].getScore();
-        }
-        // microTiles[x][y].setScore((float)Math.log10(tileScore));
-        microTiles[x][y].setScore(tileScore);
-        if (Float.isInfinite(microTiles[x][y].getScore())) {
-          microTiles[x][y].setScore(0);
-        }
-        if (microTiles[x][y].getScore() < 0) {
-          microTiles[x][y].setScore(0);
+  /**
+   * Computes micro tile scores from a grid of overlapping macro tile scores.
+   * Micro tile (x, y) is the sum of macro tiles [x-1..x] x [y-1..y], read from
+   * a summed-area table. Negative and infinite sums are reported as 0.
+   * 
+   * @param macroScores
+   *          the scores of the overlapping macro tiles.
+   * @return the micro tile scores, one larger than {@code macroScores} in each
+   *         dimension.
+   */
+  protected ScoreGrid createMicroGrid(final ScoreGrid macroScores) {
+    SummedAreaTable table = new SummedAreaTable(macroScores);
+    ScoreGrid microScores = new ScoreGrid(macroScores.getNumX() + 1,
+        macroScores.getNumY() + 1);
+    for (int x = 0; x < microScores.getNumX(); ++x) {
+      for (int y = 0; y < microScores.getNumY(); ++y) {
+        float tileScore = table.sum(x - 1, y - 1, x, y);
+        if (tileScore > 0 && !Float.isInfinite(tileScore)) {
+          microScores.set(x, y, tileScore);
         }
-
       }
     }
-
-    return microTiles;
+    return microScores;
   }
 
   /**
-   * Applies a kernel to a set of tiles.
+   * Applies a kernel to a set of tiles. Edge tiles are extended out to
+   * infinity, and negative results are clamped to 0.
    * 
    * @param kernel
    *          the kernel to apply.
@@ -364,7 +1039,8 @@ public class PassiveMotionAlgorithm {
    *          the tiles to apply the kernel to.
    * @param outTiles
    *          the tiles after applying the kernel
-   * @return a list of scored tiles that have a non-zero score.
+   * @return a list of the tiles in {@code outTiles} that have a non-zero
+   *         score.
    */
   protected ArrayList<ScoredTile> applyKernel(final float[][] kernel,
       final ScoredTile[][] inTiles, ScoredTile[][] outTiles) {
@@ -373,68 +1049,32 @@ public class PassiveMotionAlgorithm {
       throw new IllegalArgumentException(
           "Must provide same-sized arrays for inTiles and outTiles.");
     }
-
-    float kernelSum = 0;
-    for (int i = 0; i < kernel.length; ++i) {
-      for (int j = 0; j < kernel[i].length; ++j) {
-        kernelSum += kernel[i][j];
-      }
-    }
-
-    // Assume kernel to be square, and really 3x3 right now
-    int kernelMidX = kernel.length / 2;
-    int kernelMidY = kernel[0].length / 2;
     for (int x = 0; x < inTiles.length; ++x) {
       if (outTiles[x].length != inTiles[x].length) {
         throw new IllegalArgumentException(
             "Must provide same-sized arrays for inTiles and outTiles.");
       }
+    }
 
-      for (int y = 0; y < inTiles[x].length; ++y) {
-        outTiles[x][y].setScore(0f);
-
-        for (int i = 0; i < kernel.length; ++i) {
-          // allTiles[x + (i - kernelMidX)][] * kernel[i][]
-          for (int j = 0; j < kernel[i].length; ++j) {
-            int tilesX = x + i - kernelMidX;
-            int tilesY = y + j - kernelMidY;
-
-            // Extend edge cells out to infinity
-            if (tilesX < 0) {
-              tilesX = 0;
-            }
-            if (tilesX >= inTiles.length) {
-              tilesX = inTiles.length - 1;
-            }
-
-            if (tilesY < 0) {
-              tilesY = 0;
-            }
-            if (tilesY >= inTiles[x].length) {
-              tilesY = inTiles[x].length - 1;
-            }
-
-            outTiles[x][y].score += inTiles[tilesX][tilesY].getScore()
-                * kernel[i][j];
-          }
-        }
-
-        // if (Math.abs(kernelSum) > 1) {
-        // outTiles[x][y].score /= kernelSum;
-        // }
+    if (this.kernelInput == null || !this.kernelInput.matches(inTiles)) {
+      this.kernelInput = new ScoreGrid(inTiles.length, inTiles[0].length);
+      this.kernelOutput = new ScoreGrid(inTiles.length, inTiles[0].length);
+    }
+    if (this.convolver == null) {
+      this.convolver = new KernelConvolver(kernel);
+    } else {
+      this.convolver.setKernel(kernel);
+    }
 
-        if (outTiles[x][y].getScore() < 0) {
-          outTiles[x][y].setScore(0f);
-        }
-        // if(outTiles[x][y].getScore() < this.tileScoreThreshold)
-        // {
-        // outTiles[x][y].setScore(0f);
-        // }
+    this.kernelInput.copyFrom(inTiles);
+    this.convolver.apply(this.kernelInput, this.kernelOutput);
+    this.kernelOutput.copyTo(outTiles);
 
+    for (int x = 0; x < outTiles.length; ++x) {
+      for (int y = 0; y < outTiles[x].length; ++y) {
         if (outTiles[x][y].getScore() > 0) {
-          solutionTiles.add(outTiles[x][y].clone());
+          solutionTiles.add(outTiles[x][y]);
         }
-
       }
     }
 
@@ -443,98 +1083,207 @@ public class PassiveMotionAlgorithm {
 
   /**
    * Calculates tile scores based on the intersecting lines. This method will
-   * modify the scores of the allTiles parameter.
-   * 
-   * @param allTiles
+   * overwrite the scores in {@code grid}. Each line adds its value to the
+   * tiles of its link, weighted by the {@link LinkScoringModel}, and only
+   * those tiles are visited by the later stages, so the cost follows the
+   * number of active lines rather than the size of the region. If
+   * {@code grid} was scored by the previous call, only the tiles scored then
+   * are cleared.
+   *
+   * @param geometry
+   *          the layout of the tiles in the grid.
+   * @param grid
+   *          the grid to score.
    * @param allLines
-   * @return an ArrayList of ScoredTile objects that have non-zero scores.
+   *          the lines to score against.
+   * @return the indices of the tiles that have non-zero scores, in ascending
+   *         order. The list is reused by the next call.
    */
-  protected ArrayList<ScoredTile> calculateTileScores(
-      final ScoredTile[][] allTiles, final Collection<RSSILine> allLines) {
-    ArrayList<ScoredTile> solutionTiles = new ArrayList<ScoredTile>();
-    // Calculate raw scores for each tile
-    for (int x = 0; x < allTiles.length; ++x) {
-      for (int y = 0; y < allTiles[x].length; ++y) {
-        // Number of terminating lines in this tile
-        int numTerminating = 0;
-        // Clear the score to 0
-        allTiles[x][y].setScore(0);
-        for (RSSILine line : allLines) {
-          // Make sure line isn't too far away
-          Rectangle2D.Float theTile = allTiles[x][y].getTile();
-          if (theTile.contains(line.getLine().getP1())) {
-            ++numTerminating;
-          }
-          if (theTile.contains(line.getLine().getP2())) {
-            ++numTerminating;
-          }
-          Point2D.Float tileCenter = new Point2D.Float(theTile.x
-              + theTile.width / 2, theTile.y + theTile.height / 2);
-          double d1 = Math.sqrt(Math.pow(tileCenter.x - line.getLine().x1, 2)
-              + Math.pow(tileCenter.y - line.getLine().y1, 2));
+  protected TileIndexList calculateTileScores(final TileGeometry geometry,
+      final ScoreGrid grid, final Collection<RSSILine> allLines) {
+    return this.calculateTileScores(this.scoring, geometry, grid, allLines);
+  }
 
-          // Check P1 distance (receiver)
-          if (d1 > this.config.radiusThreshold) {
-            continue;
-          }
-          double d2 = Math.sqrt(Math.pow(tileCenter.x - line.getLine().x2, 2)
-              + Math.pow(tileCenter.y - line.getLine().y2, 2));
-          // Check P2 distance (transmitter)
-          if (d2 > this.config.radiusThreshold) {
-            continue;
-          }
+  /**
+   * Calculates tile scores with the scratch state of {@code context}. Tiles
+   * outside the context's block are not scored. If the context is limited to
+   * a block, {@code grid} covers only the block and tiles are indexed within
+   * it, as by {@link ScoringContext#toLocal(int, int)}.
+   *
+   * @param context
+   *          the scratch state of the calling thread.
+   * @param geometry
+   *          the layout of the tiles in the grid.
+   * @param grid
+   *          the grid to score.
+   * @param allLines
+   *          the lines to score against.
+   * @return the indices of the tiles that have non-zero scores, in ascending
+   *         order. The list is reused by the next call with the same
+   *         context.
+   * @see #calculateTileScores(TileGeometry, ScoreGrid, Collection)
+   */
+  protected TileIndexList calculateTileScores(final ScoringContext context,
+      final TileGeometry geometry, final ScoreGrid grid,
+      final Collection<RSSILine> allLines) {
+    final TileIndexList solutionTiles = context.solutionTiles;
+    final ActiveTileSet active = context.activeTiles;
+    final float[] scores = grid.getScores();
+    solutionTiles.clear();
+    if (grid == context.activeGrid) {
+      for (int i = 0; i < active.size(); ++i) {
+        scores[active.get(i)] = 0f;
+      }
+    } else {
+      grid.clear();
+      context.activeGrid = grid;
+    }
+    active.reset(scores.length);
 
-          float lineLength = (float) Math.sqrt(Math.pow(line.getLine().x1
-              - line.getLine().x2, 2)
-              + Math.pow(line.getLine().y1 - line.getLine().y2, 2));
-          if (lineLength < this.config.linkMinDistance) {
-            continue;
-          }
+    final LinkScoringModel model = this.scoringModel;
+    if (this.isRtiMode()) {
+      this.projectTileScores(geometry, model, allLines, scores, active);
+    } else {
+      this.accumulateTileScores(context, geometry, model, allLines, scores);
+    }
 
-          // Check intersection
-          if (!line.getLine().intersects(theTile)) {
-            continue;
-          }
+    // Make sure the tile score is above the threshold
+    this.applyHighPass(grid, active, this.config.tileScoreThreshold);
+    for (int i = 0; i < active.size(); ++i) {
+      int index = active.get(i);
+      if (scores[index] > 0f) {
+        solutionTiles.add(index);
+      }
+    }
+    solutionTiles.sort();
 
-          float numerator = line.getValue() - this.config.stdDevNoiseThreshold;
-          allTiles[x][y].score += (float) (numerator / (Math.pow(lineLength,
-              this.config.lineLengthPower)));
+    this.findMaxAreas(context, grid);
 
-        }
-        // if(numTerminating > 1){
-        // allTiles[x][y].score = allTiles[x][y].score /
-        // (float)Math.sqrt(numTerminating);
-        // }
-
-        // allTiles[x][y].score = allTiles[x][y].score *100f /
-        // (allTiles[x][y].tile.height*allTiles[x][y].tile.width);
-
-        // Make sure the tile score is above the threshold
-        if (allTiles[x][y].getScore() <= this.config.tileScoreThreshold) {
-          // log.debug("{} score is below threshold {}.  Skipping...",allTiles[x][y],this.tileScoreThreshold);
-          allTiles[x][y].setScore(0f);
-          continue;
-        }
+    int kept = 0;
+    for (int i = 0; i < solutionTiles.size(); ++i) {
+      int index = solutionTiles.get(i);
+      if (scores[index] >= this.config.tileScoreThreshold) {
+        solutionTiles.set(kept++, index);
+      }
+    }
+    solutionTiles.truncate(kept);
 
-        solutionTiles.add(allTiles[x][y]);
+    return solutionTiles;
+  }
 
+  /**
+   * Adds each line's weighted value to the tiles of its link that are in the
+   * context's block.
+   */
+  private void accumulateTileScores(final ScoringContext context,
+      final TileGeometry geometry, final LinkScoringModel model,
+      final Collection<RSSILine> allLines, final float[] scores) {
+    final ActiveTileSet active = context.activeTiles;
+    final boolean bounded = context.isBounded(geometry);
+    final int numY = geometry.getNumY();
+    for (RSSILine line : allLines) {
+      LinkWeights weights = line.getLink().getWeights(model);
+      int[] linkTiles = weights.getTiles();
+      float[] linkWeights = weights.getWeights();
+      float numerator = line.getValue() - line.getNoiseFloor();
+      double value = numerator / weights.getDivisor();
+      for (int i = 0; i < linkTiles.length; ++i) {
+        int index = linkTiles[i];
+        if (bounded) {
+          index = context.toLocal(index / numY, index % numY);
+          if (index < 0) {
+            continue;
+          }
+        }
+        active.add(index);
+        scores[index] += (float) (value * linkWeights[i]);
       }
     }
+  }
 
-    this.findMaxAreas(allTiles);
+  /**
+   * Scores every tile with the regularized inverse of the link weights. The
+   * inverse is rebuilt whenever a link or the scoring model changes.
+   * Negative scores are set to 0.
+   */
+  private void projectTileScores(final TileGeometry geometry,
+      final LinkScoringModel model, final Collection<RSSILine> allLines,
+      final float[] scores, final ActiveTileSet active) {
+    RtiProjection projection = this.rtiProjection;
+    long version = this.linkVersion.get();
+    boolean current = projection != null
+        && projection.isCurrent(geometry, model, version);
+    if (current) {
+      // Links are also rebuilt lazily when the tile layout changes
+      for (RSSILine line : allLines) {
+        if (projection.indexOf(line.getLink()) < 0) {
+          current = false;
+          break;
+        }
+      }
+    }
+    if (!current) {
+      projection = this.buildProjection(geometry, model);
+    }
+    if (this.rtiValues.length != projection.getNumLinks()) {
+      this.rtiValues = new float[projection.getNumLinks()];
+    }
+    final float[] values = this.rtiValues;
+    Arrays.fill(values, 0f);
+    for (RSSILine line : allLines) {
+      int index = projection.indexOf(line.getLink());
+      if (index >= 0) {
+        values[index] = line.getValue() - line.getNoiseFloor();
+      }
+    }
 
-    for (Iterator<ScoredTile> iter = solutionTiles.iterator(); iter.hasNext();) {
-      ScoredTile t = iter.next();
-      if (t.getScore() < this.config.tileScoreThreshold) {
-        iter.remove();
+    projection.project(values, scores);
+    for (int i = 0; i < scores.length; ++i) {
+      if (scores[i] > 0f) {
+        active.add(i);
+      } else {
+        scores[i] = 0f;
       }
     }
+  }
 
-    return solutionTiles;
+  private RtiProjection buildProjection(final TileGeometry geometry,
+      final LinkScoringModel model) {
+    ArrayList<LinkGeometry> links = new ArrayList<LinkGeometry>();
+    for (Receiver receiver : this.receivers.values()) {
+      for (Transmitter transmitter : this.transmitters.values()) {
+        links.add(this.getLink(receiver, transmitter, geometry));
+      }
+    }
+    // Read after the links, since rebuilding a stale link changes it
+    final long version = this.linkVersion.get();
+    long start = System.currentTimeMillis();
+    float regularization = this.config.rtiRegularization > 0
+        ? this.config.rtiRegularization
+        : DEFAULT_RTI_REGULARIZATION;
+    RtiProjection projection = RtiProjection.build(links, model, geometry,
+        regularization, version);
+    log.info("Computed imaging inverse for {} links and {} tiles in {} ms.",
+        new Object[] { Integer.valueOf(projection.getNumLinks()),
+            Integer.valueOf(projection.getNumTiles()),
+            Long.valueOf(System.currentTimeMillis() - start) });
+    this.rtiProjection = projection;
+    return projection;
+  }
+
+  /**
+   * Checks whether tiles are scored by radio tomographic imaging rather than
+   * by summing line values.
+   *
+   * @return {@code true} if {@link AlgorithmConfig#solverMode} is
+   *         {@code "rti"}.
+   */
+  public boolean isRtiMode() {
+    return "rti".equalsIgnoreCase(this.config.solverMode);
   }
 
   protected ArrayList<RSSILine> createRSSILines(
-      final Collection<Fingerprint> fingerprints) {
+      final Collection<Fingerprint> fingerprints, final TileGeometry geometry) {
     // Create RSSI lines
     ArrayList<RSSILine> allLines = new ArrayList<RSSILine>();
 
@@ -549,7 +1298,6 @@ public class PassiveMotionAlgorithm {
       }
 
       for (String transmitterId : fingerprint.getRssiValues().keySet()) {
-        RSSILine line = new RSSILine();
         Transmitter transmitter = this.transmitters.get(transmitterId);
         if (transmitter == null) {
           continue;
@@ -561,18 +1309,17 @@ public class PassiveMotionAlgorithm {
               fingerprint.getReceiverId(), transmitter.getDeviceId());
           continue;
         }
-        if (value.floatValue() <= this.config.stdDevNoiseThreshold) {
+        // Noisy links are held to their own quiet-period baseline
+        float noiseFloor = this.config.stdDevNoiseThreshold;
+        if (this.config.baselineAdaptRate > 0) {
+          noiseFloor = this.stdDevFingerprinter.getNoiseFloor(
+              receiver.getDeviceId(), transmitterId, noiseFloor);
+        }
+        if (value.floatValue() <= noiseFloor) {
           continue;
         }
-        Line2D.Float theLine = new Line2D.Float();
-        theLine.setLine(receiver.getxLocation(), receiver.getyLocation(),
-            transmitter.getxLocation(), transmitter.getyLocation());
-
-        line.setLine(theLine);
-        line.setReceiver(receiver);
-        line.setTransmitter(transmitter);
-        line.setValue(value.floatValue());
-        allLines.add(line);
+        allLines.add(this.createLine(receiver, transmitter,
+            value.floatValue(), noiseFloor, geometry));
 
       }
     }
@@ -581,18 +1328,56 @@ public class PassiveMotionAlgorithm {
     return allLines;
   }
 
-  protected void findMaxAreas(ScoredTile[][] tiles) {
+  /**
+   * Creates the line for one link.
+   *
+   * @param receiver
+   *          the link's receiver.
+   * @param transmitter
+   *          the link's transmitter.
+   * @param value
+   *          the link's variance.
+   * @param noiseFloor
+   *          the link's variance when nothing is moving.
+   * @param geometry
+   *          the tile layout.
+   * @return the line.
+   */
+  protected RSSILine createLine(final Receiver receiver,
+      final Transmitter transmitter, final float value,
+      final float noiseFloor, final TileGeometry geometry) {
+    LinkGeometry link = this.getLink(receiver, transmitter, geometry);
+    RSSILine line = new RSSILine();
+    line.setLink(link);
+    line.setLine(link.getLine());
+    line.setReceiver(receiver);
+    line.setTransmitter(transmitter);
+    line.setValue(value);
+    line.setNoiseFloor(noiseFloor);
+    return line;
+  }
+
+  /**
+   * Keeps the highest-scoring tile and the neighbors that fall off gradually
+   * from it, and sets every other tile to 0.
+   *
+   * @param context
+   *          holds the tiles that may have non-zero scores.
+   * @param tiles
+   *          the grid to filter.
+   */
+  protected void findMaxAreas(final ScoringContext context, ScoreGrid tiles) {
+    final ActiveTileSet active = context.activeTiles;
+    final float[] scores = tiles.getScores();
     float maxVal = -1;
-    int maxTileX = 0;
-    int maxTileY = 0;
-    // Determine max value
-    for (int x = 0; x < tiles.length; ++x) {
-      for (int y = 0; y < tiles[0].length; ++y) {
-        if (tiles[x][y].getScore() > maxVal) {
-          maxVal = tiles[x][y].getScore();
-          maxTileX = x;
-          maxTileY = y;
-        }
+    int maxIndex = 0;
+    // Determine max value, preferring the lowest index on ties
+    for (int i = 0; i < active.size(); ++i) {
+      int index = active.get(i);
+      if (scores[index] > maxVal
+          || (scores[index] == maxVal && index < maxIndex)) {
+        maxVal = scores[index];
+        maxIndex = index;
       }
     }
 
@@ -600,19 +1385,27 @@ public class PassiveMotionAlgorithm {
 
     float minScore = maxVal * this.config.peakRatio;
     // Remove tiles below half of max
-    for (int x = 0; x < tiles.length; ++x) {
-      for (int y = 0; y < tiles[0].length; ++y) {
-        if (tiles[x][y].getScore() < minScore) {
-          tiles[x][y].setScore(0);
-        }
+    for (int i = 0; i < active.size(); ++i) {
+      int index = active.get(i);
+      if (scores[index] < minScore) {
+        scores[index] = 0;
       }
     }
 
     // Now seek out the maxTile's neighbors, seeking "gradual" reductions
     // nearby, trimming significant drops in score
+    context.keptTiles.reset(scores.length);
     if (maxVal > 0) {
-      this.trimNeighbors(tiles, maxTileX, maxTileY, maxVal, (byte) (MASK_N
-          | MASK_S | MASK_E | MASK_W));
+      this.trimNeighbors(context, tiles, maxIndex / tiles.getNumY(), maxIndex
+          % tiles.getNumY(), maxVal,
+          (byte) (MASK_N | MASK_S | MASK_E | MASK_W));
+    }
+    // Anything the trim did not reach is cut off by a zero tile
+    for (int i = 0; i < active.size(); ++i) {
+      int index = active.get(i);
+      if (!context.keptTiles.contains(index)) {
+        scores[index] = 0;
+      }
     }
   }
 
@@ -627,46 +1420,58 @@ public class PassiveMotionAlgorithm {
    * SW = 0101
    * N  = 1000
    * S  = 0100
+   *
+   * Each tile is reached by exactly one path from the peak, and every tile
+   * past a zero tile is trimmed, so the walk stops at zero tiles and
+   * findMaxAreas clears whatever it did not reach.
    */
-  protected void trimNeighbors(ScoredTile[][] tiles, int x, int y,
-      float prevNeighborScore, byte direction) {
-    float currScore = tiles[x][y].getScore();
+  protected void trimNeighbors(final ScoringContext context, ScoreGrid tiles,
+      int x, int y, float prevNeighborScore, byte direction) {
+    float currScore = tiles.get(x, y);
 
     if (prevNeighborScore < 0.01 || currScore > prevNeighborScore
         || currScore < prevNeighborScore * this.config.neighborRatio) {
 
-      tiles[x][y].setScore(0);
+      tiles.set(x, y, 0);
       currScore = 0;
     }
+    if (currScore == 0) {
+      return;
+    }
+    context.keptTiles.add(tiles.index(x, y));
     // float nScore = currScore * this.config.neighborRatio;
     // Can only go north if north bit set
-    if ((direction & MASK_N) != 0 && y < tiles[x].length - 1) {
+    if ((direction & MASK_N) != 0 && y < tiles.getNumY() - 1) {
       // Can only go NW if north + west bits set
       if ((direction & MASK_W) != 0 && x > 0) {
-        trimNeighbors(tiles, x - 1, y + 1, currScore, (byte) (MASK_N | MASK_W));
+        trimNeighbors(context, tiles, x - 1, y + 1, currScore,
+            (byte) (MASK_N | MASK_W));
       }
       // Can only go NE if north+east bits set
-      if ((direction & MASK_E) != 0 && x < tiles.length - 1) {
-        trimNeighbors(tiles, x + 1, y + 1, currScore, (byte) (MASK_N | MASK_E));
+      if ((direction & MASK_E) != 0 && x < tiles.getNumX() - 1) {
+        trimNeighbors(context, tiles, x + 1, y + 1, currScore,
+            (byte) (MASK_N | MASK_E));
       }
       // Go north
-      trimNeighbors(tiles, x, y + 1, currScore, MASK_N);
+      trimNeighbors(context, tiles, x, y + 1, currScore, MASK_N);
     }
     // Can only go south if south bit set
     if ((direction & MASK_S) != 0 && y > 0) {
       if ((direction & MASK_W) != 0 && x > 0) {
-        trimNeighbors(tiles, x - 1, y - 1, currScore, (byte) (MASK_S | MASK_W));
+        trimNeighbors(context, tiles, x - 1, y - 1, currScore,
+            (byte) (MASK_S | MASK_W));
       }
-      if ((direction & MASK_E) != 0 && x < tiles.length - 1) {
-        trimNeighbors(tiles, x + 1, y - 1, currScore, (byte) (MASK_S | MASK_E));
+      if ((direction & MASK_E) != 0 && x < tiles.getNumX() - 1) {
+        trimNeighbors(context, tiles, x + 1, y - 1, currScore,
+            (byte) (MASK_S | MASK_E));
       }
-      trimNeighbors(tiles, x, y - 1, currScore, MASK_S);
+      trimNeighbors(context, tiles, x, y - 1, currScore, MASK_S);
     }
-    if ((direction & MASK_E) != 0 && x < tiles.length - 1) {
-      trimNeighbors(tiles, x + 1, y, currScore, MASK_E);
+    if ((direction & MASK_E) != 0 && x < tiles.getNumX() - 1) {
+      trimNeighbors(context, tiles, x + 1, y, currScore, MASK_E);
     }
     if ((direction & MASK_W) != 0 && x > 0) {
-      trimNeighbors(tiles, x - 1, y, currScore, MASK_W);
+      trimNeighbors(context, tiles, x - 1, y, currScore, MASK_W);
     }
   }
 
@@ -687,52 +1492,72 @@ public class PassiveMotionAlgorithm {
     return fingerprints;
   }
 
-  protected ScoredTile[][] createUnscoredTiles() {
-    // Create unscored tiles
-    ScoredTile[][] allTiles = new ScoredTile[this.numXTiles][this.numYTiles];
-
-    float tileXStep = this.getRegionXMax() / (this.numXTiles + 1.0f);
-    float tileYStep = this.getRegionYMax() / (this.numYTiles + 1.0f);
-
-    for (int x = 0; x < allTiles.length; ++x) {
-      for (int y = 0; y < allTiles[x].length; ++y) {
-        ScoredTile theTile = new ScoredTile();
-        Rectangle2D.Float dimensions = new Rectangle2D.Float();
-        dimensions.setRect(tileXStep * x, tileYStep * y, tileXStep * 2f,
-            tileYStep * 2f);
-        theTile.setTile(dimensions);
-        theTile.setScore(0f);
-        allTiles[x][y] = theTile;
-      }
-    }
-
-    log.debug("Created tiles {} x {}", allTiles.length, allTiles[0].length);
-    return allTiles;
+  /**
+   * Removes every line that affects one of the tiles under the scoring
+   * model. With the default model, these are the lines that intersect one of
+   * the tiles.
+   * 
+   * @param origLines
+   *          the lines to filter, modified in place.
+   * @param origTiles
+   *          indices of the tiles to check.
+   * @param geometry
+   *          the layout of the tiles.
+   */
+  protected void removeLines(final List<RSSILine> origLines,
+      final TileIndexList origTiles, final TileGeometry geometry) {
+    this.removeLines(this.scoring, origLines, origTiles, geometry);
   }
 
-  protected List<RSSILine> removeLines(final List<RSSILine> origLines,
-      final List<ScoredTile> origTiles) {
-    ArrayList<RSSILine> returnedLines = new ArrayList<RSSILine>();
-    returnedLines.addAll(origLines);
+  /**
+   * Removes lines with the scratch state of {@code context}. If the context
+   * is limited to a block, {@code origTiles} are indexed within the block.
+   *
+   * @param context
+   *          the scratch state of the calling thread.
+   * @param origLines
+   *          the lines to filter, modified in place.
+   * @param origTiles
+   *          indices of the tiles to check.
+   * @param geometry
+   *          the layout of the tiles.
+   * @see #removeLines(List, TileIndexList, TileGeometry)
+   */
+  protected void removeLines(final ScoringContext context,
+      final List<RSSILine> origLines, final TileIndexList origTiles,
+      final TileGeometry geometry) {
+    final ActiveTileSet tiles = context.removedTiles;
+    final boolean bounded = context.isBounded(geometry);
+    final int numY = geometry.getNumY();
+    tiles.reset(context.getNumTiles(geometry));
+    for (int i = 0; i < origTiles.size(); ++i) {
+      tiles.add(origTiles.get(i));
+    }
 
     for (Iterator<RSSILine> iter = origLines.iterator(); iter.hasNext();) {
-      RSSILine l = iter.next();
-      for (ScoredTile t : origTiles) {
-        if (t.tile.intersectsLine(l.getLine())) {
+      int[] affected = iter.next().getLink().getWeights(this.scoringModel)
+          .getAffectedTiles();
+      for (int i = 0; i < affected.length; ++i) {
+        int index = affected[i];
+        if (bounded) {
+          index = context.toLocal(index / numY, index % numY);
+          if (index < 0) {
+            continue;
+          }
+        }
+        if (tiles.contains(index)) {
           iter.remove();
           break;
         }
       }
     }
-
-    return returnedLines;
   }
 
-  private final String printScoreMap(ScoredTile[][] allTiles) {
+  private final String printScoreMap(ScoreGrid allTiles) {
     StringBuffer sb = new StringBuffer();
-    for (int y = allTiles[0].length - 1; y >= 0; --y) {
-      for (int x = 0; x < allTiles.length; ++x) {
-        sb.append(String.format("[%05.2f]", allTiles[x][y].score));
+    for (int y = allTiles.getNumY() - 1; y >= 0; --y) {
+      for (int x = 0; x < allTiles.getNumX(); ++x) {
+        sb.append(String.format("[%05.2f]", allTiles.get(x, y)));
       }
       sb.append('\n');
     }
@@ -740,18 +1565,18 @@ public class PassiveMotionAlgorithm {
     return sb.toString();
   }
 
-  private final String printFancyMap(ScoredTile[][] allTiles) {
+  private final String printFancyMap(ScoreGrid allTiles, TileGeometry geometry) {
     StringBuffer sb = new StringBuffer();
     sb.append('+');
-    for (int x = 0; x < allTiles.length; ++x) {
+    for (int x = 0; x < allTiles.getNumX(); ++x) {
       sb.append("--");
     }
     sb.append("+\n");
-    for (int y = allTiles[0].length - 1; y >= 0; --y) {
+    for (int y = allTiles.getNumY() - 1; y >= 0; --y) {
       sb.append('|');
-      for (int x = 0; x < allTiles.length; ++x) {
+      for (int x = 0; x < allTiles.getNumX(); ++x) {
         char motionSymbol = MOTION_SYMBOLS[0];
-        float score = allTiles[x][y].getScore();
+        float score = allTiles.get(x, y);
         if (score > 2f * this.config.tileScoreThreshold) {
           motionSymbol = MOTION_SYMBOLS[4];
         } else if (score > 1.66f * this.config.tileScoreThreshold) {
@@ -764,20 +1589,69 @@ public class PassiveMotionAlgorithm {
         sb.append(motionSymbol).append(motionSymbol);
       }
       if (y == 0) {
-        sb.append(String.format("| %4.2f\n", allTiles[0][0].getTile().height));
+        sb.append(String.format("| %4.2f\n", geometry.getTileHeight()));
       } else {
         sb.append("|\n");
       }
     }
     sb.append('+');
-    for (int x = 0; x < allTiles.length; ++x) {
+    for (int x = 0; x < allTiles.getNumX(); ++x) {
       sb.append("--");
     }
     sb.append("+\n");
-    sb.append(String.format(" %4.2f\n", allTiles[0][0].getTile().width));
+    sb.append(String.format(" %4.2f\n", geometry.getTileWidth()));
     return sb.toString();
   }
 
+  public LinkScoringModel getScoringModel() {
+    return this.scoringModel;
+  }
+
+  /**
+   * Replaces the scoring model. Link weights are recomputed for the new model
+   * as they are next needed.
+   *
+   * @param scoringModel
+   *          the new model.
+   */
+  public void setScoringModel(final LinkScoringModel scoringModel) {
+    if (scoringModel == null) {
+      throw new IllegalArgumentException("Scoring model must not be null.");
+    }
+    this.scoringModel = scoringModel;
+  }
+
+  public ShardScorer getShardScorer() {
+    return this.shardScorer;
+  }
+
+  /**
+   * Sets what scores the shards of a large region. Setting a scorer enables
+   * sharding even if no shard threads are configured.
+   *
+   * @param shardScorer
+   *          the scorer, or {@code null} to score shards on this algorithm's
+   *          own threads.
+   */
+  public void setShardScorer(final ShardScorer shardScorer) {
+    this.shardScorer = shardScorer;
+  }
+
+  public boolean isSummarizeAreas() {
+    return this.summarizeAreas;
+  }
+
+  /**
+   * Sets whether results include area summaries, regardless of the
+   * configuration.
+   * 
+   * @param summarizeAreas
+   *          {@code true} to summarize the areas of every result.
+   */
+  public void setSummarizeAreas(final boolean summarizeAreas) {
+    this.summarizeAreas = summarizeAreas;
+  }
+
   public StdDevFingerprintGenerator getStdDevFingerprinter() {
     return stdDevFingerprinter;
   }
@@ -785,6 +1659,9 @@ public class PassiveMotionAlgorithm {
   public void setStdDevFingerprinter(
       StdDevFingerprintGenerator stdDevFingerprinter) {
     this.stdDevFingerprinter = stdDevFingerprinter;
+    this.stdDevFingerprinter
+        .setBaselineAdaptRate(this.config.baselineAdaptRate);
+    this.stdDevFingerprinter.setOffHeap(this.config.offHeapLinkState);
   }
   /*
     public float[][] getCustomKernel() {
@@ -21,19 +21,24 @@
 package com.owlplatform.solver.passivemotion;
 
 import java.awt.Color;
-import java.awt.Dimension;
-import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.imageio.ImageIO;
 
@@ -56,14 +61,18 @@ import com.owlplatform.worldmodel.solver.protocol.messages.AttributeAnnounceMess
 import com.owlplatform.worldmodel.types.ByteArrayConverter;
 import com.owlplatform.worldmodel.types.DataConverter;
 import com.owlplatform.worldmodel.types.DoubleConverter;
-import com.owlplatform.worldmodel.types.StringConverter;
 import com.thoughtworks.xstream.XStream;
 
 public class PassiveMotionSolver extends Thread {
-  private static final class VarianceHandler extends Thread {
+  private static final class VarianceHandler implements Runnable {
 
     private final PassiveMotionSolver handler;
-    private boolean keepRunning = true;
+    private volatile boolean keepRunning = true;
+
+    /**
+     * The active variance stream, cancelled when the anchors change.
+     */
+    private volatile StepResponse currentResponse = null;
 
     public VarianceHandler(final PassiveMotionSolver handler) {
       this.handler = handler;
@@ -71,29 +80,56 @@ public class PassiveMotionSolver extends Thread {
 
     @Override
     public void run() {
-      main: while (this.keepRunning) {
-        log.info("Requesting RSSI variance values.");
-        if (this.handler.clientWM == null) {
+      ExponentialBackoff backoff = new ExponentialBackoff(
+          ConnectionSupervisor.MIN_RETRY_DELAY,
+          ConnectionSupervisor.MAX_RETRY_DELAY);
+      while (this.keepRunning) {
+        long generation = this.handler.connections.awaitClient();
+        if (generation < 0) {
           log.info("Variance Handler exiting.");
 
           break;
         }
+
+        // Only subscribe to links between this region's anchors
+        long anchorVersion = this.handler.algorithm.getAnchorSetVersion();
+        String linkRegex = this.handler.algorithm.getLinkIdRegex();
+        if (linkRegex == null) {
+          log.debug("No anchors known yet, waiting to request variance.");
+          try {
+            Thread.sleep(ANCHOR_RETRY_DELAY);
+          } catch (InterruptedException ie) {
+            // Ignored
+          }
+          continue;
+        }
+        log.info("Requesting RSSI variance values.");
+        log.debug("Variance identifiers: {}", linkRegex);
+
         final StepResponse rssiResponse = this.handler.clientWM
-            .getStreamRequest(".*", System.currentTimeMillis(), 0,
+            .getStreamRequest(linkRegex, System.currentTimeMillis(), 0,
                 "link variance");
+        this.currentResponse = rssiResponse;
 
+        // Set when the stream is being renewed on purpose
+        boolean renew = false;
+        boolean interrupted = false;
         WorldState state = null;
         while (!rssiResponse.isComplete() && !rssiResponse.isError()
-            && this.keepRunning) {
+            && this.keepRunning && !interrupted) {
           try {
             state = rssiResponse.next();
-            
-
-            if (state == null) {
-              break;
-            }
-            for (String uri : state.getIdentifiers()) {
+          } catch (Exception e) {
+            log.warn("Variance stream failed.", e);
+            break;
+          }
 
+          if (state == null) {
+            break;
+          }
+          backoff.succeeded();
+          for (String uri : state.getIdentifiers()) {
+            try {
               int txSensStart = uri.indexOf('.');
               int rxSensStart = uri.lastIndexOf('.');
               String txerSensor = uri.substring(txSensStart + 1, rxSensStart);
@@ -104,17 +140,49 @@ public class PassiveMotionSolver extends Thread {
               }
               Attribute linkAvg = attribs.iterator().next();
               double value = DoubleConverter.get().decode(linkAvg.getData());
-              if (this.handler.algorithm != null) {
-                this.handler.algorithm.addVariance(rxerSensor, txerSensor,
-                    (float) value, linkAvg.getCreationDate());
-              }
+              this.handler.ingestion.publish(this.handler.algorithm,
+                  rxerSensor, txerSensor, (float) value,
+                  linkAvg.getCreationDate());
+            } catch (InterruptedException ie) {
+              Thread.currentThread().interrupt();
+              interrupted = true;
+              break;
+            } catch (RuntimeException re) {
+              log.warn("Unable to decode variance for " + uri + ".", re);
             }
-          } catch (Exception e) {
-            e.printStackTrace();
-            continue main;
+          }
+
+          if (this.handler.algorithm.getAnchorSetVersion() != anchorVersion) {
+            log.info("Anchors changed, renewing variance request.");
+            renew = true;
+            break;
+          }
+          if (this.handler.connections.getClientGeneration() != generation) {
+            log.info("Reconnected, renewing variance request.");
+            renew = true;
+            break;
           }
         }
+        this.currentResponse = null;
         rssiResponse.cancel();
+
+        // Collected variance is kept, so scoring continues once data resumes
+        if (!renew && !interrupted && this.keepRunning
+            && this.handler.algorithm.getAnchorSetVersion() == anchorVersion) {
+          this.handler.connections.clientFailed();
+          backoff.failedAndWait();
+        }
+      }
+    }
+
+    /**
+     * Ends the current variance stream so that it is requested again with
+     * the current set of anchors.
+     */
+    public void anchorsChanged() {
+      StepResponse response = this.currentResponse;
+      if (response != null) {
+        response.cancel();
       }
     }
 
@@ -123,10 +191,15 @@ public class PassiveMotionSolver extends Thread {
     }
   }
 
-  private static final class DeviceHandler extends Thread {
+  /**
+   * Streams anchor locations for the region and keeps the algorithm's
+   * receivers and transmitters up to date as anchors are added, moved, or
+   * removed.
+   */
+  private static final class DeviceHandler implements Runnable {
 
     private final PassiveMotionSolver handler;
-    private boolean keepRunning = true;
+    private volatile boolean keepRunning = true;
 
     public DeviceHandler(final PassiveMotionSolver handler) {
       this.handler = handler;
@@ -134,140 +207,99 @@ public class PassiveMotionSolver extends Thread {
 
     @Override
     public void run() {
-      main: while (this.keepRunning) {
-        log.info("Requesting locations.");
-        if (this.handler.clientWM == null) {
+      ExponentialBackoff backoff = new ExponentialBackoff(
+          ANCHOR_RETRY_DELAY, ConnectionSupervisor.MAX_RETRY_DELAY);
+      while (this.keepRunning) {
+        long generation = this.handler.connections.awaitClient();
+        if (generation < 0) {
           log.info("Device Handler exiting.");
 
           break;
         }
 
-        final StepResponse rssiResponse = this.handler.clientWM
-            .getStreamRequest(
-                "(region\\." + this.handler.algorithm.getRegionId() + "|"
-                    + this.handler.algorithm.getRegionId() + ".*)",
-                System.currentTimeMillis(), 0, ".*");
+        String regionId = this.handler.algorithm.getRegionId();
+        long start = System.currentTimeMillis();
+        // Load the current anchors first, then follow changes from that point
+        if (!this.handler.retrieveAnchors(regionId)) {
+          this.handler.connections.clientFailed();
+          backoff.failedAndWait();
+          continue;
+        }
+
+        final StepResponse anchorResponse = this.handler.clientWM
+            .getStreamRequest(regionId + "\\.anchor.*", start, 0,
+                "location\\..*", "sensor.*");
 
+        boolean renew = false;
         WorldState state = null;
-        while (!rssiResponse.isComplete() && !rssiResponse.isError()
+        while (!anchorResponse.isComplete() && !anchorResponse.isError()
             && this.keepRunning) {
           try {
-            state = rssiResponse.next();
+            state = anchorResponse.next();
 
             if (state == null) {
               break;
             }
-            for (String uri : state.getIdentifiers()) {
-
-              // Handle interesting regions
-              if (this.handler.algorithm.getRegionId().equals(uri)) {
-                Collection<Attribute> fields = state.getState(uri);
-                if (fields == null) {
-                  log.warn("No information about {} available.",
-                      this.handler.algorithm.getRegionId());
-                  return;
-                }
-
-                Dimension regionDimensions = new Dimension();
-                double width = 0.0;
-                double height = 0.0;
-                String mapURL = null;
-                for (Attribute field : fields) {
-                  if ("location.maxx".equals(field.getAttributeName())) {
-                    width = ((Double) DataConverter.decode(
-                        field.getAttributeName(), field.getData()));
-                    continue;
-                  } else if ("location.maxy".equals(field.getAttributeName())) {
-                    height = ((Double) DataConverter.decode(
-                        field.getAttributeName(), field.getData()));
-                    continue;
-                  } else if ("image.url".equals(field.getAttributeName())) {
-                    mapURL = (String) DataConverter.decode(
-                        field.getAttributeName(), field.getData());
-                    continue;
-                  }
-                }
-                regionDimensions.setSize(width, height);
-                this.handler.setRegionImageUri(mapURL);
-              }
-
-              // Check if this is a transmitter
-              if (uri.indexOf("transmitter") != -1) {
-                Transmitter txer = new Transmitter();
-                Collection<Attribute> fields = state.getState(uri);
-                if (fields == null) {
-                  log.warn("No fields available for {}.", uri);
-                  return;
-                }
-                for (Attribute field : fields) {
-                  // X-coordinate
-                  if ("location.xoffset".equalsIgnoreCase(field.getAttributeName())) {
-                    Double xPos = (Double) DataConverter.decode(
-                        field.getAttributeName(), field.getData());
-                    txer.setxLocation(xPos.floatValue());
-                  } else if ("location.yoffset".equalsIgnoreCase(field
-                      .getAttributeName())) {
-                    Double yPos = (Double) DataConverter.decode(
-                        field.getAttributeName(), field.getData());
-                    txer.setyLocation(yPos.floatValue());
-                  } else if ("id".equalsIgnoreCase(field.getAttributeName())) {
-                    Long id = (Long) DataConverter.decode(
-                        field.getAttributeName(), field.getData());
-                    // FIXME: Shouldn't hard-code, where do we consolidate the
-                    // device ID size?
-                    String deviceId = StringConverter.get()
-                        .decode(field.getData()).substring(1);
-
-                    txer.setDeviceId(deviceId);
-                  } else if ("region_uri".equalsIgnoreCase(field
-                      .getAttributeName())) {
-                    String region = (String) DataConverter.decode(
-                        field.getAttributeName(), field.getData());
-                    txer.setRegionUri(region);
-                  }
-                }
-                log.info("Added {} ", txer);
-                this.handler.algorithm.addTransmitter(txer);
-              } else if (uri.indexOf("receiver") != -1) {
-                Receiver rxer = new Receiver();
-
-                Collection<Attribute> fields = state.getState(uri);
-                if (fields == null) {
-                  log.warn("No fields available for {}.", uri);
-                  return;
-                }
-                for (Attribute field : fields) {
-                  // X-coordinate
-                  if ("location.xoffset".equalsIgnoreCase(field.getAttributeName())) {
-                    Double xPos = DoubleConverter.get().decode(field.getData());
-                    rxer.setxLocation(xPos.floatValue());
-                  } else if ("location.yoffset".equalsIgnoreCase(field
-                      .getAttributeName())) {
-                    Double yPos = DoubleConverter.get().decode(field.getData());
-                    rxer.setyLocation(yPos.floatValue());
-                  } else if ("id".equalsIgnoreCase(field.getAttributeName())) {
-                    String deviceId = StringConverter.get()
-                        .decode(field.getData()).substring(1);
-                    rxer.setDeviceId(deviceId);
-                  } else if ("region.uri".equalsIgnoreCase(field
-                      .getAttributeName())) {
-                    String region = StringConverter.get().decode(
-                        field.getData());
-                  }
-                }
-
-                log.info("Added {}", rxer);
-                this.handler.algorithm.addReceiver(rxer);
-              }
-
-            }
+            backoff.succeeded();
+            this.handler.updateAnchors(state);
           } catch (Exception e) {
-            e.printStackTrace();
-            continue main;
+            log.warn("Anchor stream for " + regionId + " failed.", e);
+            break;
+          }
+          if (this.handler.connections.getClientGeneration() != generation) {
+            renew = true;
+            break;
           }
         }
-        rssiResponse.cancel();
+        anchorResponse.cancel();
+        if (!renew && this.keepRunning) {
+          this.handler.connections.clientFailed();
+          backoff.failedAndWait();
+        }
+      }
+    }
+
+    public void shutdown() {
+      this.keepRunning = false;
+    }
+  }
+
+  /**
+   * Requests the region bounds from the world model until it provides them,
+   * after the solver was started with bounds restored from a checkpoint.
+   * Runs apart from the main loop, so a slow or incomplete world model does
+   * not hold up results computed with the restored bounds.
+   */
+  private static final class RegionHandler implements Runnable {
+
+    private final PassiveMotionSolver handler;
+    private volatile boolean keepRunning = true;
+
+    public RegionHandler(final PassiveMotionSolver handler) {
+      this.handler = handler;
+    }
+
+    @Override
+    public void run() {
+      ExponentialBackoff backoff = new ExponentialBackoff(
+          ConnectionSupervisor.MIN_RETRY_DELAY,
+          ConnectionSupervisor.MAX_RETRY_DELAY);
+      String[] uris = new String[] { "region."
+          + this.handler.algorithm.getRegionId() };
+      while (this.keepRunning) {
+        if (this.handler.connections.awaitClient() < 0) {
+          break;
+        }
+        if (this.handler.retrieveRegionInfo(uris)) {
+          log.info("Replaced restored region bounds.");
+          return;
+        }
+        log.warn("Region dimensions unavailable, retrying.");
+        if (!backoff.failedAndWait()) {
+          break;
+        }
       }
+      log.info("Region Handler exiting.");
     }
 
     public void shutdown() {
@@ -275,6 +307,19 @@ public class PassiveMotionSolver extends Thread {
     }
   }
 
+  /**
+   * The most recent attributes seen for an anchor in the world model.
+   */
+  private static final class AnchorRecord {
+    double x = -1;
+    double y = -1;
+    String sensorString = null;
+    /**
+     * Device ID registered with the algorithm, if any.
+     */
+    String appliedId = null;
+  }
+
   private static final Logger log = LoggerFactory
       .getLogger(PassiveMotionSolver.class);
 
@@ -283,6 +328,17 @@ public class PassiveMotionSolver extends Thread {
    */
   public static final String GENERATED_ATTRIBUTE_NAME = "passive motion.tile";
 
+  /**
+   * The name of the attribute holding the tracked areas of motion.
+   */
+  public static final String AREA_ATTRIBUTE_NAME = "passive motion.area";
+
+  /**
+   * The name of the attribute holding the summaries of connected areas of
+   * tiles, published instead of the tiles when areas are summarized.
+   */
+  public static final String SUMMARY_ATTRIBUTE_NAME = "passive motion.summary";
+
   /**
    * The name of this solver.
    */
@@ -293,6 +349,35 @@ public class PassiveMotionSolver extends Thread {
    */
   public static final long UPDATE_FREQUENCY = 1000l;
 
+  /**
+   * How long to wait before requesting anchor locations again after a
+   * failure.
+   */
+  static final long ANCHOR_RETRY_DELAY = 1000l;
+
+  /**
+   * How often to write a checkpoint, if a checkpoint file is configured.
+   */
+  public static final long CHECKPOINT_INTERVAL = 30000l;
+
+  /**
+   * Longest wait, in milliseconds, to connect to the region image server or
+   * for it to send more of the image.
+   */
+  static final int IMAGE_TIMEOUT = 5000;
+
+  /**
+   * How long the JVM waits for the solver to write its final checkpoint when
+   * it is stopped.
+   */
+  public static final long SHUTDOWN_TIMEOUT = 10000l;
+
+  /**
+   * Link variance older than this is not restored from a checkpoint, since
+   * it no longer reflects the state of the region.
+   */
+  public static final long CHECKPOINT_MAX_VARIANCE_AGE = 300000l;
+
   /**
    * For producing the passive motion results.
    */
@@ -323,6 +408,17 @@ public class PassiveMotionSolver extends Thread {
    */
   protected final ClientWorldConnection clientWM = new ClientWorldConnection();
 
+  /**
+   * Opens and monitors the world model connections.
+   */
+  protected final ConnectionSupervisor connections;
+
+  /**
+   * Runs the World Model streams and applies their variance values.
+   */
+  protected final IngestionPipeline ingestion = new IngestionPipeline(
+      IngestionPipeline.DEFAULT_CAPACITY);
+
   /**
    * Handler for processing variance values.
    */
@@ -333,6 +429,86 @@ public class PassiveMotionSolver extends Thread {
    */
   protected DeviceHandler deviceHandler;
 
+  /**
+   * Replaces restored region bounds, or {@code null} if the bounds came from
+   * the world model.
+   */
+  protected RegionHandler regionHandler;
+
+  /**
+   * Anchors seen in the world model, keyed by identifier.
+   */
+  private final ConcurrentHashMap<String, AnchorRecord> anchorsByUri = new ConcurrentHashMap<String, AnchorRecord>();
+
+  /**
+   * Where the solver state is checkpointed, or {@code null} to disable
+   * checkpoints.
+   */
+  protected File checkpointFile = null;
+
+  /**
+   * The last solution sent to the world model.
+   */
+  protected volatile Attribute lastSolution = null;
+
+  /**
+   * Whether to keep a history of tile scores.
+   */
+  protected boolean historyEnabled = false;
+
+  /**
+   * Base name of the files the score history is mapped from, one per tile
+   * layout, or {@code null} to keep it in memory.
+   */
+  protected File historyFile = null;
+
+  /**
+   * History of tile scores, created for the current tile layout.
+   */
+  protected volatile TileScoreHistory history = null;
+
+  /**
+   * The latest result, replaced after every update.
+   */
+  private final AtomicReference<ResultSnapshot> snapshot = new AtomicReference<ResultSnapshot>();
+
+  /**
+   * Port for the query service, or 0 to disable it.
+   */
+  protected int queryPort = 0;
+
+  /**
+   * Host or address the query service listens on, or {@code null} for the
+   * loopback interface only.
+   */
+  protected String queryBindAddress = null;
+
+  /**
+   * Answers local queries for the latest result.
+   */
+  protected QueryServer queryServer = null;
+
+  /**
+   * Merges published tiles and skips unchanged results, or {@code null} to
+   * publish every result as it is.
+   */
+  protected ResultDeduplicator deduplicator = null;
+
+  /**
+   * Port to accept cluster workers on, or 0 to score every shard locally.
+   */
+  protected int coordinatorPort = 0;
+
+  /**
+   * Hands shards to cluster workers.
+   */
+  protected ClusterCoordinator coordinator = null;
+
+  /**
+   * Cleared to end the main loop and shut the solver down.
+   */
+  private volatile boolean keepRunning = true;
+
   /**
    * Accepts 4 required parameters and launches a new solver thread.
    * 
@@ -359,10 +535,37 @@ public class PassiveMotionSolver extends Thread {
       for (int i = 4; i < args.length; ++i) {
         if (args[i].equals("--gui")) {
           solver.setUserInterface(new GraphicalUserInterface());
+        } else if (args[i].equals("--checkpoint") && i + 1 < args.length) {
+          solver.setCheckpointFile(new File(args[++i]));
+        } else if (args[i].equals("--history")) {
+          File file = null;
+          if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+            file = new File(args[++i]);
+          }
+          solver.setHistory(true, file);
+        } else if (args[i].equals("--query-port") && i + 1 < args.length) {
+          solver.setQueryPort(Integer.parseInt(args[++i]));
+        } else if (args[i].equals("--query-bind") && i + 1 < args.length) {
+          solver.setQueryBindAddress(args[++i]);
+        } else if (args[i].equals("--coordinator") && i + 1 < args.length) {
+          solver.setCoordinatorPort(Integer.parseInt(args[++i]));
         }
       }
     }
 
+    final PassiveMotionSolver stopping = solver;
+    Runtime.getRuntime().addShutdownHook(new Thread("Solver Shutdown") {
+      @Override
+      public void run() {
+        stopping.requestShutdown();
+        try {
+          stopping.join(SHUTDOWN_TIMEOUT);
+        } catch (InterruptedException ie) {
+          // Exiting anyway
+        }
+      }
+    });
+
     solver.start();
   }
 
@@ -376,10 +579,20 @@ public class PassiveMotionSolver extends Thread {
     spec.setAttributeName(GENERATED_ATTRIBUTE_NAME);
     spec.setIsOnDemand(false);
     this.solverWM.addAttribute(spec);
+    AttributeSpecification areaSpec = new AttributeSpecification();
+    areaSpec.setAttributeName(AREA_ATTRIBUTE_NAME);
+    areaSpec.setIsOnDemand(false);
+    this.solverWM.addAttribute(areaSpec);
+    AttributeSpecification summarySpec = new AttributeSpecification();
+    summarySpec.setAttributeName(SUMMARY_ATTRIBUTE_NAME);
+    summarySpec.setIsOnDemand(false);
+    this.solverWM.addAttribute(summarySpec);
 
     this.clientWM.setHost(wmHost);
     this.clientWM.setPort(clientPort);
 
+    this.connections = new ConnectionSupervisor(this.solverWM, this.clientWM);
+
     // Configure the fingerprinter
     StdDevFingerprintGenerator fingerprinter = new StdDevFingerprintGenerator();
     fingerprinter.setMaxNumSamples(3);
@@ -388,7 +601,11 @@ public class PassiveMotionSolver extends Thread {
     this.algorithm = new PassiveMotionAlgorithm(config);
     this.algorithm.setStdDevFingerprinter(fingerprinter);
     this.algorithm.setRegionUri(region);
-    
+    if (config.deduplicateResults) {
+      this.deduplicator = new ResultDeduplicator(config.resultScoreTolerance,
+          config.resultRefreshInterval);
+    }
+
   }
 
   public void run() {
@@ -397,33 +614,78 @@ public class PassiveMotionSolver extends Thread {
 //      this.userInterface.setCustomKernel(this.algorithm.getCustomKernel());
     }
     
-    // Connect to aggregator, distributor, and world server
-    if (!this.startConnections()) {
-      log.error("Unable to connect to the world model.");
-      return;
+    // Resume from the last checkpoint while connecting
+    boolean restored = this.restoreCheckpoint();
+
+    // Connect to the world model in the background
+    this.startConnections();
+
+    if (this.queryPort > 0) {
+      try {
+        if (this.queryBindAddress == null) {
+          this.queryServer = new QueryServer(this, this.queryPort);
+        } else {
+          this.queryServer = new QueryServer(this, new InetSocketAddress(
+              this.queryBindAddress, this.queryPort));
+        }
+        this.queryServer.start();
+      } catch (IOException ioe) {
+        log.warn("Unable to start query service on port " + this.queryPort
+            + ".", ioe);
+      }
     }
 
-    this.retrieveRegionInfo(new String[] { "region."
-        + this.algorithm.getRegionId() });
+    if (this.coordinatorPort > 0) {
+      try {
+        this.coordinator = new ClusterCoordinator(this.coordinatorPort);
+        this.coordinator.start();
+        this.algorithm.setShardScorer(this.coordinator);
+      } catch (IOException ioe) {
+        log.warn("Unable to accept cluster workers on port "
+            + this.coordinatorPort + ".", ioe);
+        this.coordinator = null;
+      }
+    }
 
-    this.retrieveAnchors(this.algorithm.getRegionId());
+    if (!restored) {
+      ExponentialBackoff regionBackoff = new ExponentialBackoff(
+          ConnectionSupervisor.MIN_RETRY_DELAY,
+          ConnectionSupervisor.MAX_RETRY_DELAY);
+      while (this.keepRunning && this.connections.awaitClient() >= 0
+          && !this.retrieveRegionInfo(new String[] { "region."
+              + this.algorithm.getRegionId() })) {
+        log.warn("Region dimensions unavailable, retrying.");
+        regionBackoff.failedAndWait();
+      }
+    }
 
-    if (!this.launchWorkers()) {
+    if (!this.launchWorkers(restored)) {
       this.shutdown();
       return;
     }
 
     long lastUpdateTime = 0l;
-    while (true) {
+    long lastCheckpointTime = System.currentTimeMillis();
+    while (this.keepRunning) {
       long now = System.currentTimeMillis();
       if (now - lastUpdateTime > 1000l) {
         FilteredTileResultSet resultSet = this.algorithm.generateResults();
         if (this.userInterface != null) {
           this.userInterface.solutionGenerated(resultSet);
         }
-        if (resultSet != null && resultSet.getTilesToPublish() != null
-            && !resultSet.getTilesToPublish().isEmpty()) {
-          Collection<ScoredTile> tiles = resultSet.getTilesToPublish();
+        Collection<ScoredTile> tiles = null;
+        if (this.algorithm.config.summarizeAreas) {
+          if (resultSet != null && resultSet.getSummaries() != null
+              && !resultSet.getSummaries().isEmpty()) {
+            this.publishSummaries(resultSet.getSummaries(), now);
+          }
+        } else {
+          tiles = resultSet == null ? null : resultSet.getTilesToPublish();
+          if (this.deduplicator != null) {
+            tiles = this.deduplicate(resultSet, tiles, now);
+          }
+        }
+        if (tiles != null && !tiles.isEmpty()) {
 
           ByteBuffer solutionBytes = ByteBuffer.allocate(tiles.size() * 20);
           for (ScoredTile tile : tiles) {
@@ -441,22 +703,206 @@ public class PassiveMotionSolver extends Thread {
           solution.setAttributeName(GENERATED_ATTRIBUTE_NAME);
           solution.setCreationDate(now);
 
-          this.solverWM.updateAttribute(solution);
-          log.info("Sent {}", solution);
+          if (this.connections.isSolverConnected()
+              && this.solverWM.updateAttribute(solution)) {
+            log.info("Sent {}", solution);
+            this.lastSolution = solution;
+            if (this.deduplicator != null) {
+              this.deduplicator.published(tiles, now);
+            }
+          } else {
+            log.warn("Not connected to the world model, dropped {}", solution);
+          }
+        }
+        if (resultSet != null && resultSet.getAreas() != null
+            && !resultSet.getAreas().isEmpty()) {
+          this.publishAreas(resultSet.getAreas(), now);
+        }
+        if (this.queryServer != null) {
+          this.snapshot.set(ResultSnapshot.create(this.algorithm, resultSet,
+              now));
+        }
+        if (resultSet != null && this.historyEnabled) {
+          this.recordHistory(resultSet, now);
+        }
+        if (resultSet != null) {
+          // Hand the score grids back to the algorithm for the next tick
+          resultSet.release();
         }
         lastUpdateTime = now;
       }
+      if (this.checkpointFile != null
+          && now - lastCheckpointTime > CHECKPOINT_INTERVAL) {
+        this.writeCheckpoint();
+        lastCheckpointTime = now;
+      }
       if (500l - (now - lastUpdateTime) > 2) {
         try {
           Thread.sleep(500l - (now - lastUpdateTime));
         } catch (InterruptedException ie) {
-          // Ignored
+          // Checked by the loop
         }
       }
     }
+    this.shutdown();
+  }
+
+  /**
+   * Stops the solver. The main loop ends after the current result, then the
+   * streams and services are stopped and a final checkpoint is written.
+   */
+  public void requestShutdown() {
+    this.keepRunning = false;
+    this.interrupt();
   }
 
-  protected void retrieveRegionInfo(String[] matchingUris) {
+  /**
+   * Merges the tiles of a result into rectangles and checks them against the
+   * last result sent.
+   * 
+   * @param resultSet
+   *          the result, not yet released.
+   * @param tiles
+   *          the tiles the result would publish.
+   * @param now
+   *          the creation time of the result.
+   * @return the merged tiles to publish, or {@code null} to publish nothing.
+   */
+  protected Collection<ScoredTile> deduplicate(
+      final FilteredTileResultSet resultSet,
+      final Collection<ScoredTile> tiles, final long now) {
+    FilteredTileResult merged = resultSet == null ? null : resultSet
+        .getResult("base-raw-0");
+    if (tiles == null || tiles.isEmpty() || merged == null
+        || merged.getGrid() == null) {
+      this.deduplicator.reset();
+      return null;
+    }
+    List<ScoredTile> rectangles = this.deduplicator.merge(merged.getGrid(),
+        merged.getGeometry());
+    if (!this.deduplicator.shouldPublish(rectangles, now)) {
+      log.debug("Result unchanged, not publishing {} tiles.",
+          Integer.valueOf(rectangles.size()));
+      return null;
+    }
+    return rectangles;
+  }
+
+  /**
+   * Adds the merged scores of a result to the score history, creating the
+   * history when first needed or when the tile layout changes.
+   * 
+   * @param resultSet
+   *          the result, not yet released.
+   * @param now
+   *          the creation time of the result.
+   */
+  protected void recordHistory(final FilteredTileResultSet resultSet,
+      final long now) {
+    FilteredTileResult merged = resultSet.getResult("base-raw-0");
+    if (merged == null || merged.getGrid() == null) {
+      return;
+    }
+    TileGeometry geometry = merged.getGeometry();
+    TileScoreHistory current = this.history;
+    if (current == null || !current.matches(geometry)) {
+      try {
+        // The previous layout's file may still be mapped, so never reuse it
+        current = new TileScoreHistory(geometry.getNumX(),
+            geometry.getNumY(), TileScoreHistory.fileForLayout(
+                this.historyFile, geometry.getNumX(), geometry.getNumY()));
+        log.info("Created {}.", current);
+      } catch (IOException ioe) {
+        log.warn("Unable to create score history, disabling it.", ioe);
+        this.historyEnabled = false;
+        return;
+      }
+      this.history = current;
+    }
+    current.record(now, merged.getGrid());
+  }
+
+  /**
+   * Sends the tracked areas of motion to the world model.
+   * 
+   * @param areas
+   *          the areas detected in this result.
+   * @param now
+   *          the creation time of the result.
+   */
+  protected void publishAreas(final Collection<MotionArea> areas,
+      final long now) {
+    ByteBuffer areaBytes = ByteBuffer.allocate(areas.size() * 28);
+    for (MotionArea area : areas) {
+      // ID, X, Y, X velocity, Y velocity, Score
+      areaBytes.putLong(area.getAreaId());
+      areaBytes.putFloat(area.getX());
+      areaBytes.putFloat(area.getY());
+      areaBytes.putFloat(area.getxVelocity());
+      areaBytes.putFloat(area.getyVelocity());
+      areaBytes.putFloat(area.getScore());
+    }
+
+    Attribute attribute = new Attribute();
+    attribute.setData(areaBytes.array());
+    attribute.setId(this.algorithm.getRegionId());
+    attribute.setAttributeName(AREA_ATTRIBUTE_NAME);
+    attribute.setCreationDate(now);
+
+    if (this.connections.isSolverConnected()
+        && this.solverWM.updateAttribute(attribute)) {
+      log.debug("Sent {} areas of motion.", Integer.valueOf(areas.size()));
+    } else {
+      log.warn("Not connected to the world model, dropped {}", attribute);
+    }
+  }
+
+  /**
+   * Sends the summaries of the connected areas of tiles to the world model.
+   * 
+   * @param summaries
+   *          the areas found in this result.
+   * @param now
+   *          the creation time of the result.
+   */
+  protected void publishSummaries(final Collection<AreaSummary> summaries,
+      final long now) {
+    ByteBuffer summaryBytes = ByteBuffer.allocate(summaries.size() * 32);
+    for (AreaSummary summary : summaries) {
+      // X1, Y1, X2, Y2, Center X, Center Y, Peak score, Number of tiles
+      summaryBytes.putFloat(summary.getMinX());
+      summaryBytes.putFloat(summary.getMinY());
+      summaryBytes.putFloat(summary.getMaxX());
+      summaryBytes.putFloat(summary.getMaxY());
+      summaryBytes.putFloat(summary.getX());
+      summaryBytes.putFloat(summary.getY());
+      summaryBytes.putFloat(summary.getPeakScore());
+      summaryBytes.putInt(summary.getNumTiles());
+    }
+
+    Attribute attribute = new Attribute();
+    attribute.setData(summaryBytes.array());
+    attribute.setId(this.algorithm.getRegionId());
+    attribute.setAttributeName(SUMMARY_ATTRIBUTE_NAME);
+    attribute.setCreationDate(now);
+
+    if (this.connections.isSolverConnected()
+        && this.solverWM.updateAttribute(attribute)) {
+      log.debug("Sent {} area summaries.", Integer.valueOf(summaries.size()));
+    } else {
+      log.warn("Not connected to the world model, dropped {}", attribute);
+    }
+  }
+
+  /**
+   * Retrieves the dimensions and map image of the regions.
+   * 
+   * @param matchingUris
+   *          identifiers of the regions.
+   * @return {@code true} if the region dimensions were set.
+   */
+  protected boolean retrieveRegionInfo(String[] matchingUris) {
+    boolean foundBounds = false;
     for (String uri : matchingUris) {
       Response res = this.clientWM.getCurrentSnapshot(uri, "location\\..*",
           "image\\.url");
@@ -490,176 +936,504 @@ public class PassiveMotionSolver extends Thread {
           this.algorithm.setRegionXMax((float) width);
           this.algorithm.setRegionYMax((float) height);
           log.info("Set region bounds: {},{}", width, height);
+          foundBounds = true;
         }
       }
       if (imageUrlString != null) {
-        BufferedImage regionImage;
-        try {
+        this.setRegionImageUri(imageUrlString);
+      }
+    }
+    return foundBounds;
+  }
 
-          if (!imageUrlString.startsWith("http://")) {
-            imageUrlString = "http://" + imageUrlString;
+  /**
+   * Takes a snapshot of the anchor locations in the region.
+   * 
+   * @param regionName
+   *          the region to load.
+   * @return {@code true} if the snapshot was retrieved, else {@code false}.
+   */
+  protected boolean retrieveAnchors(final String regionName) {
+    log.info("Retrieving anchor locations.");
+    try {
+      Response res = this.clientWM.getCurrentSnapshot(regionName
+          + "\\.anchor.*", "location\\..*", "sensor.*");
+      WorldState state = res.get();
+      this.updateAnchors(state);
+
+      // Drop anchors (e.g., from a checkpoint) that no longer exist
+      HashSet<String> current = new HashSet<String>();
+      for (String uri : state.getIdentifiers()) {
+        current.add(uri);
+      }
+      for (String uri : this.anchorsByUri.keySet()) {
+        if (!current.contains(uri)) {
+          AnchorRecord record = this.anchorsByUri.remove(uri);
+          if (record != null) {
+            removeAnchor(this.algorithm, record.appliedId,
+                uri.contains("transmitter"));
           }
-
-          this.setRegionImageUri(imageUrlString);
-          URL imageUrl = new URL(imageUrlString);
-          URLConnection conn = imageUrl.openConnection();
-          conn.setConnectTimeout(5000);
-          conn.connect();
-          this.regionImage = regionImage = ImageIO.read(conn.getInputStream());
-          
-          log.info("Set image for {}: \"{}\".", uri, imageUrl);
-
-        } catch (MalformedURLException e) {
-          log.warn("Malformed URL: {}", imageUrlString);
-          e.printStackTrace();
-        } catch (IOException e) {
-          log.warn("Unable to load region image URL {} due to an exception.",
-              imageUrlString, e);
-          e.printStackTrace();
         }
       }
+    } catch (Exception e) {
+      log.error("Couldn't retrieve location data for anchors in "
+          + this.algorithm.getRegionId() + ".", e);
+      return false;
     }
+
+    log.info("Loaded anchors.");
+    return true;
   }
 
-  protected void retrieveAnchors(final String regionName) {
-    log.info("Retrieving anchor locations.");
-    boolean success = false;
-    do {
-      try {
-        Response res = this.clientWM.getCurrentSnapshot(regionName + "\\.anchor.*",
-            "location\\..*", "sensor.*");
-        WorldState state = res.get();
+  /**
+   * Applies every anchor in {@code state} to the algorithm.
+   * 
+   * @param state
+   *          a snapshot or streamed update of anchor attributes.
+   */
+  protected void updateAnchors(final WorldState state) {
+    long anchorVersion = this.algorithm.getAnchorSetVersion();
+    for (String uri : state.getIdentifiers()) {
+      Collection<Attribute> attribs = state.getState(uri);
+      if (attribs != null) {
+        this.updateAnchor(uri, attribs);
+      }
+    }
+    VarianceHandler variance = this.varianceHandler;
+    if (variance != null
+        && anchorVersion != this.algorithm.getAnchorSetVersion()) {
+      variance.anchorsChanged();
+    }
+  }
 
-        success = true;
-
-        for (String uri : state.getIdentifiers()) {
-
-          String sensorString = null;
-          BigInteger deviceId = null;
-          double x = -1;
-          double y = -1;
-          Collection<Attribute> attribs = state.getState(uri);
-          for (Attribute att : attribs) {
-            if ("location.xoffset".equals(att.getAttributeName())) {
-              x = ((Double) DataConverter.decode(att.getAttributeName(),
-                  att.getData())).doubleValue();
-            } else if ("location.yoffset".equals(att.getAttributeName())) {
-              y = ((Double) DataConverter.decode(att.getAttributeName(),
-                  att.getData())).doubleValue();
-            } else if (att.getAttributeName().startsWith("sensor")) {
-              if (att.getAttributeName().equals("sensor.mim")) {
-                continue;
-              }
-              byte[] id = new byte[16];
-              System.arraycopy(att.getData(), 1, id, 0, 16);
-              sensorString = ByteArrayConverter.get().asString(id);
-              deviceId = new BigInteger(sensorString.substring(2), 16);
-            }
-          }
+  /**
+   * Merges updated attributes into the anchor's record and updates the
+   * algorithm. Streamed updates may only carry the attributes that changed,
+   * so values not present in {@code attribs} are kept from earlier updates. An
+   * expired location or sensor attribute removes the anchor.
+   * 
+   * @param uri
+   *          identifier of the anchor.
+   * @param attribs
+   *          the updated attributes.
+   */
+  protected void updateAnchor(final String uri,
+      final Collection<Attribute> attribs) {
+    updateAnchor(this.anchorsByUri, this.algorithm, uri, attribs);
+  }
 
-          if (x > 0 && y > 0 && deviceId != null) {
-            if (uri.indexOf("wifi") != -1) {
-              // sensorString = "2."+deviceId.toString(10);
-              sensorString = deviceId.toString(10);
-            } else if (uri.indexOf("pipsqueak") != -1) {
-              // sensorString = "1." + deviceId.toString(10);
-              sensorString = deviceId.toString(10);
-            }
+  /**
+   * Applies every anchor in a complete snapshot to an algorithm that has no
+   * anchors yet.
+   * 
+   * @param algorithm
+   *          the algorithm to update.
+   * @param state
+   *          a snapshot of anchor attributes.
+   */
+  static void applyAnchors(final PassiveMotionAlgorithm algorithm,
+      final WorldState state) {
+    HashMap<String, AnchorRecord> records = new HashMap<String, AnchorRecord>();
+    for (String uri : state.getIdentifiers()) {
+      Collection<Attribute> attribs = state.getState(uri);
+      if (attribs != null) {
+        updateAnchor(records, algorithm, uri, attribs);
+      }
+    }
+  }
 
-            // HashableByteArray deviceHash = new HashableByteArray(deviceId);
-            Point2D location = new Point2D.Double(x, y);
-            if (uri.contains("transmitter")) {
-              Transmitter tx = new Transmitter();
-              tx.setRegionUri(this.algorithm.getRegionId());
-              tx.setDeviceId(sensorString);
-              tx.setxLocation((float)x);
-              tx.setyLocation((float)y);
-              this.algorithm.addTransmitter(tx);
-            } else if (uri.contains("receiver")) {
-              Receiver rx = new Receiver();
-              rx.setRegionUri(this.algorithm.getRegionId());
-              rx.setxLocation((float)x);
-              rx.setyLocation((float)y);
-              rx.setDeviceId(sensorString);
-              this.algorithm.addReceiver(rx);
-            } else {
-              return;
-            }
-          }
-        }
+  private static void updateAnchor(final Map<String, AnchorRecord> records,
+      final PassiveMotionAlgorithm algorithm, final String uri,
+      final Collection<Attribute> attribs) {
+    boolean isTransmitter = uri.contains("transmitter");
+    if (!isTransmitter && !uri.contains("receiver")) {
+      return;
+    }
 
-      } catch (Exception e) {
-        log.error("Couldn't retrieve location data for anchors in "
-            + this.algorithm.getRegionId() + ".", e);
-        try {
-          Thread.sleep(250);
-        } catch (InterruptedException ie) {
-          // Ignored
+    AnchorRecord record = records.get(uri);
+    if (record == null) {
+      record = new AnchorRecord();
+      records.put(uri, record);
+    }
+
+    boolean expired = false;
+    for (Attribute att : attribs) {
+      if ("location.xoffset".equals(att.getAttributeName())) {
+        record.x = ((Double) DataConverter.decode(att.getAttributeName(),
+            att.getData())).doubleValue();
+      } else if ("location.yoffset".equals(att.getAttributeName())) {
+        record.y = ((Double) DataConverter.decode(att.getAttributeName(),
+            att.getData())).doubleValue();
+      } else if (att.getAttributeName().startsWith("sensor")) {
+        if (att.getAttributeName().equals("sensor.mim")) {
+          continue;
+        }
+        byte[] id = new byte[16];
+        System.arraycopy(att.getData(), 1, id, 0, 16);
+        String sensorString = ByteArrayConverter.get().asString(id);
+        BigInteger deviceId = new BigInteger(sensorString.substring(2), 16);
+        if (uri.indexOf("wifi") != -1 || uri.indexOf("pipsqueak") != -1) {
+          sensorString = deviceId.toString(10);
         }
+        record.sensorString = sensorString;
+      } else {
+        continue;
       }
-    } while (!success);
+      if (att.getExpirationDate() != 0l) {
+        expired = true;
+      }
+    }
 
-    log.info("Loaded anchors.");
+    if (expired) {
+      records.remove(uri);
+      removeAnchor(algorithm, record.appliedId, isTransmitter);
+      return;
+    }
+
+    applyAnchor(algorithm, record, isTransmitter);
+  }
+
+  /**
+   * Registers the anchor with the algorithm once its location and sensor are
+   * known.
+   * 
+   * @param algorithm
+   *          the algorithm to update.
+   * @param record
+   *          the anchor's current attributes.
+   * @param isTransmitter
+   *          whether the anchor is a transmitter.
+   */
+  private static void applyAnchor(final PassiveMotionAlgorithm algorithm,
+      final AnchorRecord record, final boolean isTransmitter) {
+    if (record.x <= 0 || record.y <= 0 || record.sensorString == null) {
+      return;
+    }
+
+    // A new sensor on the same anchor replaces the old device
+    if (record.appliedId != null
+        && !record.appliedId.equals(record.sensorString)) {
+      removeAnchor(algorithm, record.appliedId, isTransmitter);
+    }
+    record.appliedId = record.sensorString;
+
+    if (isTransmitter) {
+      Transmitter tx = new Transmitter();
+      tx.setRegionUri(algorithm.getRegionId());
+      tx.setDeviceId(record.sensorString);
+      tx.setxLocation((float) record.x);
+      tx.setyLocation((float) record.y);
+      algorithm.addTransmitter(tx);
+    } else {
+      Receiver rx = new Receiver();
+      rx.setRegionUri(algorithm.getRegionId());
+      rx.setxLocation((float) record.x);
+      rx.setyLocation((float) record.y);
+      rx.setDeviceId(record.sensorString);
+      algorithm.addReceiver(rx);
+    }
+  }
+
+  private static void removeAnchor(final PassiveMotionAlgorithm algorithm,
+      final String deviceId, final boolean isTransmitter) {
+    if (deviceId == null) {
+      return;
+    }
+    if (isTransmitter) {
+      algorithm.removeTransmitter(deviceId);
+    } else {
+      algorithm.removeReceiver(deviceId);
+    }
   }
 
-  private boolean launchWorkers() {
-//    this.deviceHandler = new DeviceHandler(this);
-//    this.deviceHandler.start();
+  private boolean launchWorkers(final boolean restored) {
+    this.ingestion.start();
+
+    // Restored bounds are used until the world model provides them
+    if (restored) {
+      this.regionHandler = new RegionHandler(this);
+      this.ingestion.startStream(this.regionHandler);
+    }
+
+    this.deviceHandler = new DeviceHandler(this);
+    this.ingestion.startStream(this.deviceHandler);
 
     this.varianceHandler = new VarianceHandler(this);
-    this.varianceHandler.start();
+    this.ingestion.startStream(this.varianceHandler);
 
     return true;
   }
 
   private void shutdown() {
-    this.solverWM.disconnect();
-    this.clientWM.disconnect();
+    log.info("Shutting down.");
+    // Only meant to end the main loop's sleep; it would abort file writes
+    Thread.interrupted();
+    if (this.regionHandler != null) {
+      this.regionHandler.shutdown();
+    }
+    if (this.varianceHandler != null) {
+      this.varianceHandler.shutdown();
+    }
+    if (this.deviceHandler != null) {
+      this.deviceHandler.shutdown();
+    }
+    this.connections.shutdown();
+    // Applies any queued variance, so the checkpoint includes it
+    this.ingestion.stop();
+    if (this.queryServer != null) {
+      this.queryServer.stop();
+    }
+    if (this.coordinator != null) {
+      this.algorithm.setShardScorer(null);
+      this.coordinator.stop();
+    }
+    this.algorithm.shutdown();
+    this.writeCheckpoint();
   }
 
-  public void setRegionImageUri(String regionImageUri) {
-    if (this.userInterface == null)
+  /**
+   * Writes the region bounds, anchors, link variance, and last solution to
+   * the checkpoint file, if one is configured.
+   */
+  protected void writeCheckpoint() {
+    if (this.checkpointFile == null) {
       return;
-    this.regionImageUrl = regionImageUri;
+    }
+    long start = System.currentTimeMillis();
+    SolverCheckpoint checkpoint = new SolverCheckpoint(
+        this.algorithm.getRegionId(), start);
+    checkpoint.setRegionBounds(this.algorithm.getRegionXMax(),
+        this.algorithm.getRegionYMax());
+
+    for (Map.Entry<String, AnchorRecord> entry : this.anchorsByUri.entrySet()) {
+      AnchorRecord record = entry.getValue();
+      String deviceId = record.appliedId;
+      if (deviceId != null) {
+        checkpoint.addAnchor(new SolverCheckpoint.AnchorEntry(entry.getKey(),
+            deviceId, (float) record.x, (float) record.y));
+      }
+    }
 
-    if (this.regionImageUrl.indexOf("http://") == -1) {
-      this.regionImageUrl = "http://" + this.regionImageUrl;
+    LinkStateTable links = this.algorithm.getStdDevFingerprinter().getLinks();
+    LinkVariance variance = links.view();
+    for (int rx = 0; rx < links.getNumReceivers(); ++rx) {
+      for (int tx = 0; tx < links.getNumTransmitters(); ++tx) {
+        if (variance.moveTo(rx, tx)) {
+          checkpoint.addLink(new SolverCheckpoint.LinkEntry(variance
+              .getReceiverId(), variance.getTransmitterId(), variance
+              .getValue(), variance.getTimestamp(), variance.getBaseline(),
+              variance.getDeviation(), variance.getNumSamples()));
+        }
+      }
+    }
+
+    Attribute solution = this.lastSolution;
+    if (solution != null) {
+      checkpoint.setSolution(solution.getData(), solution.getCreationDate());
     }
 
     try {
-      BufferedImage origImage = ImageIO.read(new URL(this.regionImageUrl));
-      BufferedImage invert = PassiveMotionSolver.negative(origImage);
-      this.userInterface.setBackground(invert);
+      checkpoint.write(this.checkpointFile);
+      log.debug("Wrote {} in {} ms.", checkpoint,
+          Long.valueOf(System.currentTimeMillis() - start));
+    } catch (IOException ioe) {
+      log.warn("Unable to write checkpoint " + this.checkpointFile + ".", ioe);
+    }
+  }
+
+  /**
+   * Loads the region bounds, anchors, link variance, and last solution from
+   * the checkpoint file, if one exists. Variance from an old checkpoint is
+   * ignored. Restored anchors are replaced as the world model is read.
+   * 
+   * @return {@code true} if the region bounds were restored.
+   */
+  protected boolean restoreCheckpoint() {
+    if (this.checkpointFile == null || !this.checkpointFile.exists()) {
+      return false;
+    }
+    long start = System.currentTimeMillis();
+    SolverCheckpoint checkpoint;
+    try {
+      checkpoint = SolverCheckpoint.read(this.checkpointFile);
+    } catch (IOException ioe) {
+      log.warn("Unable to load checkpoint " + this.checkpointFile + ".", ioe);
+      return false;
+    }
+    if (!this.algorithm.getRegionId().equals(checkpoint.getRegionId())) {
+      log.warn("Ignoring checkpoint for region \"{}\".",
+          checkpoint.getRegionId());
+      return false;
+    }
+
+    boolean foundBounds = false;
+    if (checkpoint.getRegionXMax() > 0 && checkpoint.getRegionYMax() > 0) {
+      this.algorithm.setRegionXMax(checkpoint.getRegionXMax());
+      this.algorithm.setRegionYMax(checkpoint.getRegionYMax());
+      foundBounds = true;
+    }
+
+    for (SolverCheckpoint.AnchorEntry anchor : checkpoint.getAnchors()) {
+      AnchorRecord record = new AnchorRecord();
+      record.x = anchor.x;
+      record.y = anchor.y;
+      record.sensorString = anchor.deviceId;
+      this.anchorsByUri.put(anchor.uri, record);
+      applyAnchor(this.algorithm, record, anchor.uri.contains("transmitter"));
+    }
+
+    // Baselines describe the links themselves, so they are always restored
+    boolean varianceCurrent = start - checkpoint.getCreatedTime() <= CHECKPOINT_MAX_VARIANCE_AGE;
+    StdDevFingerprintGenerator fingerprinter = this.algorithm
+        .getStdDevFingerprinter();
+    for (SolverCheckpoint.LinkEntry link : checkpoint.getLinks()) {
+      LinkVariance variance = fingerprinter.getLinkVariance(link.receiver,
+          link.transmitter);
+      variance.setBaseline(link.baseline);
+      variance.setDeviation(link.deviation);
+      variance.setNumSamples(link.numSamples);
+      if (varianceCurrent) {
+        variance.setValue(link.variance);
+        variance.setTimestamp(link.timestamp);
+      }
+    }
+    if (!varianceCurrent) {
+      log.info("Checkpoint variance is too old to restore.");
+    }
+
+    if (checkpoint.getSolution() != null) {
+      Attribute solution = new Attribute();
+      solution.setData(checkpoint.getSolution());
+      solution.setId(this.algorithm.getRegionId());
+      solution.setAttributeName(GENERATED_ATTRIBUTE_NAME);
+      solution.setCreationDate(checkpoint.getSolutionTime());
+      this.lastSolution = solution;
+    }
+
+    log.info("Restored {} in {} ms.", checkpoint,
+        Long.valueOf(System.currentTimeMillis() - start));
+    return foundBounds;
+  }
 
+  /**
+   * Loads the region image for the user interface. The image is only
+   * downloaded when there is a user interface to show it, and only tried
+   * once for each URL.
+   * 
+   * @param regionImageUri
+   *          the URL of the image, with or without the "http://" prefix.
+   */
+  public void setRegionImageUri(String regionImageUri) {
+    if (this.userInterface == null) {
+      return;
+    }
+    String imageUrl = regionImageUri;
+    if (imageUrl.indexOf("http://") == -1) {
+      imageUrl = "http://" + imageUrl;
+    }
+    if (imageUrl.equals(this.regionImageUrl)) {
+      return;
+    }
+    this.regionImageUrl = imageUrl;
+
+    try {
+      URLConnection conn = new URL(imageUrl).openConnection();
+      conn.setConnectTimeout(IMAGE_TIMEOUT);
+      conn.setReadTimeout(IMAGE_TIMEOUT);
+      BufferedImage origImage = ImageIO.read(conn.getInputStream());
+      if (origImage == null) {
+        log.warn("No image could be decoded from {}.", imageUrl);
+        return;
+      }
+      this.regionImage = origImage;
+      this.userInterface.setBackground(PassiveMotionSolver.negative(origImage));
+      log.info("Set region image: \"{}\".", imageUrl);
     } catch (MalformedURLException e) {
-      log.warn("Invalid region URI: {}", this.regionImageUrl);
-      e.printStackTrace();
+      log.warn("Invalid region URI: {}", imageUrl);
     } catch (IOException e) {
-      log.warn("Could not load region URI at {}.", this.regionImageUrl);
-      e.printStackTrace();
+      log.warn("Could not load region URI at " + imageUrl + ".", e);
     }
-
   }
 
   public static void printUsageInfo() {
     System.out
-        .println("Usage: <world model host> <solver port> <client port> <region name> <algorithm config> [--gui]");
+        .println("Usage: <world model host> <solver port> <client port> <region name> <algorithm config> [--gui] [--checkpoint <file>] [--history [file]] [--query-port <port>] [--query-bind <host>] [--coordinator <port>]");
   }
 
   /**
-   * Connects to the world model as a solver and client.
+   * Enables or disables the tile score history.
    * 
-   * @return {@code true} on connection success, else {@code false}.
+   * @param enabled
+   *          whether to record the history.
+   * @param file
+   *          base name of the files to map the history from, suffixed with
+   *          the tile layout, or {@code null} to keep it in memory.
    */
-  public boolean startConnections() {
+  public void setHistory(boolean enabled, File file) {
+    this.historyEnabled = enabled;
+    this.historyFile = file;
+  }
 
-    if (!this.solverWM.connect(10000)) {
-      log.error("Unable to connect to the world model as a solver.");
-      return false;
-    }
-    if (!this.clientWM.connect(10000)) {
-      log.error("Unable to connect to the world model as a client.");
-      return false;
+  public void setQueryPort(int queryPort) {
+    this.queryPort = queryPort;
+  }
+
+  /**
+   * Sets the address the query service listens on. By default it only
+   * accepts connections from the local host.
+   *
+   * @param queryBindAddress
+   *          the host or address to bind, such as "0.0.0.0" for every
+   *          interface, or {@code null} for the loopback interface.
+   */
+  public void setQueryBindAddress(String queryBindAddress) {
+    this.queryBindAddress = queryBindAddress;
+  }
+
+  public void setCoordinatorPort(int coordinatorPort) {
+    this.coordinatorPort = coordinatorPort;
+  }
+
+  /**
+   * Returns the latest result.
+   * 
+   * @return the snapshot, or {@code null} if no result has been produced.
+   */
+  public ResultSnapshot getSnapshot() {
+    return this.snapshot.get();
+  }
+
+  /**
+   * Returns the tile score history.
+   * 
+   * @return the history, or {@code null} if none has been recorded.
+   */
+  public TileScoreHistory getHistory() {
+    return this.history;
+  }
+
+  public File getCheckpointFile() {
+    return this.checkpointFile;
+  }
+
+  public void setCheckpointFile(File checkpointFile) {
+    this.checkpointFile = checkpointFile;
+  }
+
+  public Attribute getLastSolution() {
+    return this.lastSolution;
+  }
+
+  /**
+   * Starts connecting to the world model as a solver and client. The
+   * connections are opened, monitored, and reopened in the background by
+   * {@link #connections}.
+   * 
+   * @return {@code true} if the connection supervisor was started.
+   */
+  public boolean startConnections() {
+    if (!this.connections.isAlive()) {
+      this.connections.start();
     }
     return true;
   }
@@ -703,6 +1477,9 @@ public class PassiveMotionSolver extends Thread {
 
   public void setUserInterface(UserInterfaceAdapter userInterface) {
     this.userInterface = userInterface;
+    // The user interface draws the area summaries
+    this.algorithm.setSummarizeAreas(this.algorithm.config.summarizeAreas
+        || userInterface != null);
   }
 
   // TODO: Got a search response from the world model.
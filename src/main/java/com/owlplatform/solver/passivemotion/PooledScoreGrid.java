@@ -0,0 +1,88 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A score grid borrowed from a {@link ScoreGridPool}. The grid is reference
+ * counted: it starts with a single reference held by whoever acquired it,
+ * each additional holder must call {@link #retain()}, and every holder must
+ * call {@link #release()} when done. The grid returns to its pool when the
+ * last reference is released, after which its contents may be overwritten at
+ * any time.
+ *
+ * @author Robert Moore
+ *
+ */
+public class PooledScoreGrid extends ScoreGrid {
+
+  /**
+   * The pool this grid returns to.
+   */
+  private final ScoreGridPool pool;
+
+  /**
+   * Number of outstanding references to this grid.
+   */
+  private final AtomicInteger references = new AtomicInteger(0);
+
+  PooledScoreGrid(final ScoreGridPool pool, final int numX, final int numY) {
+    super(numX, numY);
+    this.pool = pool;
+  }
+
+  /**
+   * Called by the pool when handing out this grid.
+   */
+  void acquired() {
+    this.references.set(1);
+  }
+
+  /**
+   * Adds a reference to this grid.
+   *
+   * @return this grid.
+   */
+  public PooledScoreGrid retain() {
+    if (this.references.getAndIncrement() <= 0) {
+      this.references.getAndDecrement();
+      throw new IllegalStateException("Grid has already been released.");
+    }
+    return this;
+  }
+
+  /**
+   * Removes a reference to this grid, returning it to the pool if it was the
+   * last one.
+   */
+  public void release() {
+    int remaining = this.references.decrementAndGet();
+    if (remaining == 0) {
+      this.pool.recycle(this);
+    } else if (remaining < 0) {
+      this.references.incrementAndGet();
+      throw new IllegalStateException("Grid has already been released.");
+    }
+  }
+
+  public int getReferenceCount() {
+    return this.references.get();
+  }
+}
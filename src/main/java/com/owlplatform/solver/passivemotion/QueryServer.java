@@ -0,0 +1,241 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embedded HTTP service for local dashboards and health checks. Requests are
+ * answered from the solver's latest {@link ResultSnapshot} and never wait on
+ * the solver thread. The service is bound to the loopback interface unless
+ * another address is given explicitly.
+ *
+ * <ul>
+ * <li>{@code /health} - connection state and the age of the latest result.</li>
+ * <li>{@code /results} - tiles and tracked areas of the latest result.</li>
+ * <li>{@code /links} - variance and noise floor of every link.</li>
+ * <li>{@code /heatmap?start=&lt;ms&gt;&amp;end=&lt;ms&gt;} - mean tile scores
+ * over a time range, if the score history is enabled. Scores are listed
+ * x-major, at index {@code x * numY + y}.</li>
+ * </ul>
+ *
+ * @author Robert Moore
+ *
+ */
+public class QueryServer {
+
+  private static final Logger log = LoggerFactory.getLogger(QueryServer.class);
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * Number of threads answering requests.
+   */
+  private static final int NUM_THREADS = 2;
+
+  private final PassiveMotionSolver solver;
+
+  private final HttpServer server;
+
+  private final ExecutorService executor;
+
+  /**
+   * Creates a server for the solver, bound to {@code port} on the loopback
+   * interface.
+   *
+   * @param solver
+   *          the solver to report on.
+   * @param port
+   *          the port to listen on.
+   * @throws IOException
+   *           if the port cannot be bound.
+   */
+  public QueryServer(final PassiveMotionSolver solver, final int port)
+      throws IOException {
+    this(solver, new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+  }
+
+  /**
+   * Creates a server for the solver, bound to {@code address}.
+   *
+   * @param solver
+   *          the solver to report on.
+   * @param address
+   *          the address and port to listen on.
+   * @throws IOException
+   *           if the address cannot be bound.
+   */
+  public QueryServer(final PassiveMotionSolver solver,
+      final InetSocketAddress address) throws IOException {
+    super();
+    this.solver = solver;
+    this.server = HttpServer.create(address, 0);
+    this.executor = Executors.newFixedThreadPool(NUM_THREADS,
+        new ThreadFactory() {
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Query Server");
+            t.setDaemon(true);
+            return t;
+          }
+        });
+    this.server.setExecutor(this.executor);
+
+    this.server.createContext("/health", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        QueryServer.this.handleHealth(exchange);
+      }
+    });
+    this.server.createContext("/results", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        ResultSnapshot snapshot = QueryServer.this.solver.getSnapshot();
+        if (snapshot == null) {
+          send(exchange, 503, "{\"error\":\"No results yet.\"}");
+        } else {
+          send(exchange, 200, snapshot.getResultsJson());
+        }
+      }
+    });
+    this.server.createContext("/links", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        ResultSnapshot snapshot = QueryServer.this.solver.getSnapshot();
+        if (snapshot == null) {
+          send(exchange, 503, "{\"error\":\"No results yet.\"}");
+        } else {
+          send(exchange, 200, snapshot.getLinksJson());
+        }
+      }
+    });
+    this.server.createContext("/heatmap", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        QueryServer.this.handleHeatmap(exchange);
+      }
+    });
+  }
+
+  public void start() {
+    this.server.start();
+    log.info("Answering queries on {}.", this.server.getAddress());
+  }
+
+  public void stop() {
+    this.server.stop(0);
+    this.executor.shutdown();
+  }
+
+  private void handleHealth(final HttpExchange exchange) throws IOException {
+    ResultSnapshot snapshot = this.solver.getSnapshot();
+    long now = System.currentTimeMillis();
+    boolean solverConnected = this.solver.connections.isSolverConnected();
+    boolean clientConnected = this.solver.connections.isClientConnected();
+
+    StringBuffer sb = new StringBuffer();
+    sb.append("{\"region\":");
+    ResultSnapshot.appendString(sb, this.solver.algorithm.getRegionId());
+    sb.append(",\"solverConnected\":").append(solverConnected)
+        .append(",\"clientConnected\":").append(clientConnected);
+    if (snapshot != null) {
+      sb.append(",\"receivers\":").append(snapshot.getNumReceivers())
+          .append(",\"transmitters\":").append(snapshot.getNumTransmitters())
+          .append(",\"resultAge\":").append(now - snapshot.getTimestamp());
+    }
+    sb.append('}');
+
+    boolean healthy = solverConnected && clientConnected && snapshot != null
+        && now - snapshot.getTimestamp() < 10 * PassiveMotionSolver.UPDATE_FREQUENCY;
+    send(exchange, healthy ? 200 : 503, sb.toString());
+  }
+
+  private void handleHeatmap(final HttpExchange exchange) throws IOException {
+    TileScoreHistory history = this.solver.getHistory();
+    TileGeometry geometry = this.solver.algorithm.getGeometry();
+    if (history == null || geometry == null || !history.matches(geometry)) {
+      send(exchange, 404, "{\"error\":\"No score history.\"}");
+      return;
+    }
+    long end = System.currentTimeMillis();
+    long start = end - 3600000l;
+    String query = exchange.getRequestURI().getQuery();
+    try {
+      if (query != null) {
+        for (String param : query.split("&")) {
+          if (param.startsWith("start=")) {
+            start = Long.parseLong(param.substring(6));
+          } else if (param.startsWith("end=")) {
+            end = Long.parseLong(param.substring(4));
+          }
+        }
+      }
+    } catch (NumberFormatException nfe) {
+      send(exchange, 400, "{\"error\":\"Invalid time range.\"}");
+      return;
+    }
+
+    ScoreGrid heatmap = new ScoreGrid(history.getNumX(), history.getNumY());
+    int count = history.getHeatmap(start, end, heatmap);
+    StringBuffer sb = new StringBuffer();
+    sb.append("{\"start\":").append(start).append(",\"end\":").append(end)
+        .append(",\"samples\":").append(count).append(",\"numX\":")
+        .append(heatmap.getNumX()).append(",\"numY\":")
+        .append(heatmap.getNumY()).append(",\"tileWidth\":")
+        .append(geometry.getTileWidth()).append(",\"tileHeight\":")
+        .append(geometry.getTileHeight()).append(",\"scores\":[");
+    float[] scores = heatmap.getScores();
+    for (int i = 0; i < scores.length; ++i) {
+      if (i > 0) {
+        sb.append(',');
+      }
+      sb.append(scores[i]);
+    }
+    sb.append("]}");
+    send(exchange, 200, sb.toString());
+  }
+
+  private static void send(final HttpExchange exchange, final int status,
+      final String body) throws IOException {
+    send(exchange, status, body.getBytes(UTF8));
+  }
+
+  private static void send(final HttpExchange exchange, final int status,
+      final byte[] body) throws IOException {
+    try {
+      exchange.getResponseHeaders().set("Content-Type",
+          "application/json; charset=utf-8");
+      exchange.sendResponseHeaders(status, body.length);
+      OutputStream out = exchange.getResponseBody();
+      out.write(body);
+      out.flush();
+    } finally {
+      exchange.close();
+    }
+  }
+}
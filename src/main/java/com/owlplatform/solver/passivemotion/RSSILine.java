@@ -27,12 +27,16 @@ import com.owlplatform.common.util.NumericUtils;
 public class RSSILine {
   private float value;
 
+  private float noiseFloor;
+
   private Line2D.Float line;
 
   private Transmitter transmitter;
 
   private Receiver receiver;
 
+  private LinkGeometry link;
+
   public float getValue() {
     return value;
   }
@@ -41,6 +45,18 @@ public class RSSILine {
     this.value = value;
   }
 
+  /**
+   * The variance of the link when nothing is moving. Only variance above
+   * this value contributes to tile scores.
+   */
+  public float getNoiseFloor() {
+    return noiseFloor;
+  }
+
+  public void setNoiseFloor(float noiseFloor) {
+    this.noiseFloor = noiseFloor;
+  }
+
   public Line2D.Float getLine() {
     return line;
   }
@@ -65,6 +81,17 @@ public class RSSILine {
     this.receiver = receiver;
   }
 
+  /**
+   * The cached geometry of the link this line was drawn along.
+   */
+  public LinkGeometry getLink() {
+    return link;
+  }
+
+  public void setLink(LinkGeometry link) {
+    this.link = link;
+  }
+
   @Override
   public String toString() {
     StringBuffer sb = new StringBuffer();
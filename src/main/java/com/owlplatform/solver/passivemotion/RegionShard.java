@@ -0,0 +1,264 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One block of a region that is scored independently of the others. Each
+ * shard owns a core block of tiles, and the cores of all shards partition
+ * the grid. A shard scores its core plus a margin around it, so that an area
+ * of motion near the edge of the core is seen whole; an area is only
+ * reported by the shard whose core holds its peak tile, so areas in the
+ * overlap are never reported twice.
+ *
+ * <p>
+ * A shard's grid covers only its core and margin, so the memory used by the
+ * shards of a region grows with the number of tiles rather than with the
+ * number of shards times the number of tiles. Areas are recorded with their
+ * indices in the whole grid.
+ * </p>
+ *
+ * @author Robert Moore
+ *
+ */
+public class RegionShard {
+
+  private final ScoringContext context;
+
+  private final ScoreGrid grid;
+
+  /**
+   * Number of tiles along the y-axis of the whole grid.
+   */
+  private final int regionNumY;
+
+  private final int regionNumTiles;
+
+  private final int coreMinX;
+
+  private final int coreMinY;
+
+  private final int coreMaxX;
+
+  private final int coreMaxY;
+
+  private final int marginX;
+
+  private final int marginY;
+
+  /**
+   * Tile indices of each area found in the last pass.
+   */
+  private final List<int[]> areaTiles = new ArrayList<int[]>();
+
+  /**
+   * Tile scores of each area found in the last pass.
+   */
+  private final List<float[]> areaScores = new ArrayList<float[]>();
+
+  /**
+   * Creates a shard.
+   *
+   * @param geometry
+   *          the layout of the whole grid.
+   * @param coreMinX
+   *          first x-index of the core.
+   * @param coreMinY
+   *          first y-index of the core.
+   * @param coreMaxX
+   *          last x-index of the core.
+   * @param coreMaxY
+   *          last y-index of the core.
+   * @param marginX
+   *          number of tiles scored on either side of the core along the
+   *          x-axis.
+   * @param marginY
+   *          number of tiles scored on either side of the core along the
+   *          y-axis.
+   */
+  public RegionShard(final TileGeometry geometry, final int coreMinX,
+      final int coreMinY, final int coreMaxX, final int coreMaxY,
+      final int marginX, final int marginY) {
+    super();
+    this.coreMinX = coreMinX;
+    this.coreMinY = coreMinY;
+    this.coreMaxX = coreMaxX;
+    this.coreMaxY = coreMaxY;
+    this.marginX = marginX;
+    this.marginY = marginY;
+    this.context = new ScoringContext(Math.max(0, coreMinX - marginX),
+        Math.max(0, coreMinY - marginY), Math.min(geometry.getNumX() - 1,
+            coreMaxX + marginX), Math.min(geometry.getNumY() - 1, coreMaxY
+            + marginY));
+    this.regionNumY = geometry.getNumY();
+    this.regionNumTiles = geometry.getNumTiles();
+    this.grid = new ScoreGrid(this.context.getBlockNumX(),
+        this.context.getBlockNumY());
+  }
+
+  /**
+   * Records an area found by the shard if its peak tile is in the core.
+   *
+   * @param tiles
+   *          the tiles of the area, indexed within the shard's grid.
+   * @param scores
+   *          the scores of the shard's grid.
+   * @return {@code true} if the area was recorded.
+   */
+  boolean addArea(final TileIndexList tiles, final float[] scores) {
+    int peak = -1;
+    for (int i = 0; i < tiles.size(); ++i) {
+      int index = tiles.get(i);
+      if (peak < 0 || scores[index] > scores[peak]) {
+        peak = index;
+      }
+    }
+    if (peak < 0) {
+      return false;
+    }
+    int peakX = this.context.getMinX() + peak / this.grid.getNumY();
+    int peakY = this.context.getMinY() + peak % this.grid.getNumY();
+    if (peakX < this.coreMinX || peakX > this.coreMaxX
+        || peakY < this.coreMinY || peakY > this.coreMaxY) {
+      return false;
+    }
+    int[] indices = new int[tiles.size()];
+    float[] values = new float[tiles.size()];
+    for (int i = 0; i < indices.length; ++i) {
+      values[i] = scores[tiles.get(i)];
+      indices[i] = this.context.toGlobal(tiles.get(i), this.regionNumY);
+    }
+    this.areaTiles.add(indices);
+    this.areaScores.add(values);
+    return true;
+  }
+
+  /**
+   * Records an area that was found by scoring this shard elsewhere, such as
+   * on a cluster worker. The area is assumed to be owned by this shard.
+   *
+   * @param tiles
+   *          the tile indices of the area in the whole grid.
+   * @param scores
+   *          the score of each tile, in the same order.
+   */
+  void addArea(final int[] tiles, final float[] scores) {
+    if (tiles.length != scores.length) {
+      throw new IllegalArgumentException("Expected " + tiles.length
+          + " scores, got " + scores.length + ".");
+    }
+    this.areaTiles.add(tiles);
+    this.areaScores.add(scores);
+  }
+
+  /**
+   * Checks whether a tile of the whole grid is scored by this shard.
+   *
+   * @param index
+   *          the index of the tile in the whole grid.
+   * @return {@code true} if the tile is in the shard's core or margin.
+   */
+  public boolean covers(final int index) {
+    return index >= 0 && index < this.regionNumTiles
+        && this.context.contains(index / this.regionNumY, index
+            % this.regionNumY);
+  }
+
+  void clearAreas() {
+    this.areaTiles.clear();
+    this.areaScores.clear();
+  }
+
+  public ScoringContext getContext() {
+    return this.context;
+  }
+
+  public ScoreGrid getGrid() {
+    return this.grid;
+  }
+
+  public int getNumAreas() {
+    return this.areaTiles.size();
+  }
+
+  /**
+   * Returns the tiles of an area, indexed in the whole grid.
+   *
+   * @param area
+   *          the area.
+   * @return the tile indices.
+   */
+  public int[] getAreaTiles(final int area) {
+    return this.areaTiles.get(area);
+  }
+
+  public float[] getAreaScores(final int area) {
+    return this.areaScores.get(area);
+  }
+
+  public int getCoreMinX() {
+    return this.coreMinX;
+  }
+
+  public int getCoreMinY() {
+    return this.coreMinY;
+  }
+
+  public int getCoreMaxX() {
+    return this.coreMaxX;
+  }
+
+  public int getCoreMaxY() {
+    return this.coreMaxY;
+  }
+
+  public int getMarginX() {
+    return this.marginX;
+  }
+
+  public int getMarginY() {
+    return this.marginY;
+  }
+
+  /**
+   * Checks whether this shard has the given core and margins.
+   *
+   * @param minX
+   *          first x-index of the core.
+   * @param minY
+   *          first y-index of the core.
+   * @param maxX
+   *          last x-index of the core.
+   * @param maxY
+   *          last y-index of the core.
+   * @param mX
+   *          the x-axis margin.
+   * @param mY
+   *          the y-axis margin.
+   * @return {@code true} if the core and margins are the same.
+   */
+  public boolean hasBounds(final int minX, final int minY, final int maxX,
+      final int maxY, final int mX, final int mY) {
+    return this.coreMinX == minX && this.coreMinY == minY
+        && this.coreMaxX == maxX && this.coreMaxY == maxY
+        && this.marginX == mX && this.marginY == mY;
+  }
+}
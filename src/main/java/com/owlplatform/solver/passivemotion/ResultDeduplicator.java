@@ -0,0 +1,271 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Reduces the tiles of a result to as few rectangles as possible and decides
+ * whether the result differs enough from the last one published to be sent.
+ * A tile found in several rounds is only kept once, at its highest score.
+ * Neighboring tiles whose scores are within the tolerance of each other are
+ * merged into one rectangle, scored with the highest of its tiles. A result
+ * is unchanged if it has the same rectangles as the last published result
+ * and every score is within the tolerance; unchanged results are sent again
+ * only once the refresh interval has passed.
+ *
+ * @author Robert Moore
+ *
+ */
+public class ResultDeduplicator {
+
+  /**
+   * A rectangle of tiles, in tile indices, still being extended.
+   */
+  private static final class Block {
+    final int minY;
+
+    final int maxY;
+
+    final int minX;
+
+    int maxX;
+
+    float minScore;
+
+    float maxScore;
+
+    Block(final int x, final int minY, final int maxY, final float minScore,
+        final float maxScore) {
+      this.minX = x;
+      this.maxX = x;
+      this.minY = minY;
+      this.maxY = maxY;
+      this.minScore = minScore;
+      this.maxScore = maxScore;
+    }
+  }
+
+  private final float tolerance;
+
+  private final long refreshInterval;
+
+  private List<ScoredTile> lastPublished = null;
+
+  private int lastHash = 0;
+
+  private long lastPublishTime = 0l;
+
+  private long numSuppressed = 0l;
+
+  /**
+   * Creates a deduplicator.
+   *
+   * @param tolerance
+   *          largest score difference treated as no difference.
+   * @param refreshInterval
+   *          how often an unchanged result is sent anyway, or 0 to never send
+   *          it.
+   */
+  public ResultDeduplicator(final float tolerance, final long refreshInterval) {
+    super();
+    this.tolerance = Math.max(0f, tolerance);
+    this.refreshInterval = refreshInterval;
+  }
+
+  /**
+   * Merges the tiles of a grid into rectangles. Columns of tiles are merged
+   * first, then identical columns are merged along the x-axis.
+   *
+   * @param grid
+   *          the highest score of each tile over all rounds.
+   * @param geometry
+   *          the tile layout of the grid.
+   * @return the rectangles, in a consistent order for the same grid.
+   */
+  public List<ScoredTile> merge(final ScoreGrid grid,
+      final TileGeometry geometry) {
+    final float[] scores = grid.getScores();
+    final int numX = geometry.getNumX();
+    final int numY = geometry.getNumY();
+    ArrayList<ScoredTile> merged = new ArrayList<ScoredTile>();
+    ArrayList<Block> open = new ArrayList<Block>();
+    ArrayList<Block> column = new ArrayList<Block>();
+
+    for (int x = 0; x <= numX; ++x) {
+      // Runs of tiles along this column
+      column.clear();
+      if (x < numX) {
+        int base = x * numY;
+        for (int y = 0; y < numY; ++y) {
+          float score = scores[base + y];
+          if (score <= 0f) {
+            continue;
+          }
+          Block last = column.isEmpty() ? null : column.get(column.size() - 1);
+          if (last != null && last.maxY == y - 1
+              && this.withinTolerance(last, score, score)) {
+            column.set(column.size() - 1, new Block(x, last.minY, y, Math.min(
+                last.minScore, score), Math.max(last.maxScore, score)));
+          } else {
+            column.add(new Block(x, y, y, score, score));
+          }
+        }
+      }
+
+      // Extend the rectangles from the previous column that match exactly
+      ArrayList<Block> next = new ArrayList<Block>(column.size());
+      for (Block run : column) {
+        Block extended = null;
+        for (Iterator<Block> iter = open.iterator(); iter.hasNext();) {
+          Block block = iter.next();
+          if (block.minY == run.minY && block.maxY == run.maxY
+              && this.withinTolerance(block, run.minScore, run.maxScore)) {
+            iter.remove();
+            block.maxX = x;
+            block.minScore = Math.min(block.minScore, run.minScore);
+            block.maxScore = Math.max(block.maxScore, run.maxScore);
+            extended = block;
+            break;
+          }
+        }
+        next.add(extended == null ? run : extended);
+      }
+      for (Block block : open) {
+        merged.add(this.createTile(block, geometry));
+      }
+      open = next;
+    }
+    return merged;
+  }
+
+  private boolean withinTolerance(final Block block, final float minScore,
+      final float maxScore) {
+    return Math.max(block.maxScore, maxScore)
+        - Math.min(block.minScore, minScore) <= this.tolerance;
+  }
+
+  private ScoredTile createTile(final Block block, final TileGeometry geometry) {
+    float x1 = geometry.getTileX(block.minX);
+    float y1 = geometry.getTileY(block.minY);
+    ScoredTile tile = new ScoredTile();
+    tile.setTile(new Rectangle2D.Float(x1, y1, geometry.getTileX(block.maxX)
+        + geometry.getTileWidth() - x1, geometry.getTileY(block.maxY)
+        + geometry.getTileHeight() - y1));
+    tile.setScore(block.maxScore);
+    return tile;
+  }
+
+  /**
+   * Checks whether a result should be published.
+   *
+   * @param tiles
+   *          the merged tiles of the result.
+   * @param now
+   *          the time of the result.
+   * @return {@code true} if the result differs from the last one published,
+   *         or the last one is due to be refreshed.
+   */
+  public boolean shouldPublish(final Collection<ScoredTile> tiles,
+      final long now) {
+    List<ScoredTile> last = this.lastPublished;
+    if (last == null
+        || (this.refreshInterval > 0 && now - this.lastPublishTime >= this.refreshInterval)) {
+      return true;
+    }
+    boolean unchanged;
+    if (hash(tiles) == this.lastHash && this.matches(last, tiles, 0f)) {
+      unchanged = true;
+    } else {
+      unchanged = this.tolerance > 0f
+          && this.matches(last, tiles, this.tolerance);
+    }
+    if (unchanged) {
+      ++this.numSuppressed;
+    }
+    return !unchanged;
+  }
+
+  private boolean matches(final List<ScoredTile> last,
+      final Collection<ScoredTile> tiles, final float scoreTolerance) {
+    if (last.size() != tiles.size()) {
+      return false;
+    }
+    Iterator<ScoredTile> iter = last.iterator();
+    for (ScoredTile tile : tiles) {
+      ScoredTile previous = iter.next();
+      if (!previous.getTile().equals(tile.getTile())
+          || Math.abs(previous.getScore() - tile.getScore()) > scoreTolerance) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Records a result that was sent, for comparison with later results.
+   *
+   * @param tiles
+   *          the merged tiles of the result.
+   * @param now
+   *          the time of the result.
+   */
+  public void published(final Collection<ScoredTile> tiles, final long now) {
+    this.lastPublished = new ArrayList<ScoredTile>(tiles);
+    this.lastHash = hash(tiles);
+    this.lastPublishTime = now;
+  }
+
+  /**
+   * Forgets the last published result, so the next result is always sent.
+   * Called when no motion is detected, so that motion which returns to the
+   * same place is reported again.
+   */
+  public void reset() {
+    this.lastPublished = null;
+  }
+
+  public long getNumSuppressed() {
+    return this.numSuppressed;
+  }
+
+  /**
+   * Hashes the bounds and scores of a list of tiles.
+   *
+   * @param tiles
+   *          the tiles to hash.
+   * @return the hash.
+   */
+  public static int hash(final Collection<ScoredTile> tiles) {
+    int hash = 1;
+    for (ScoredTile tile : tiles) {
+      Rectangle2D.Float bounds = tile.getTile();
+      hash = 31 * hash + Float.floatToIntBits(bounds.x);
+      hash = 31 * hash + Float.floatToIntBits(bounds.y);
+      hash = 31 * hash + Float.floatToIntBits(bounds.width);
+      hash = 31 * hash + Float.floatToIntBits(bounds.height);
+      hash = 31 * hash + Float.floatToIntBits(tile.getScore());
+    }
+    return hash;
+  }
+}
@@ -0,0 +1,315 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Immutable copy of one result of the solver: the tiles to publish, the
+ * tracked areas of motion, and the state of every link. Snapshots are built
+ * by the solver thread after each result and read by any number of other
+ * threads. The JSON form of each part is rendered on first request and
+ * cached, so the solver thread never pays for it.
+ *
+ * @author Robert Moore
+ *
+ */
+public final class ResultSnapshot {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * The state of a link when the snapshot was taken.
+   */
+  public static final class LinkState {
+    public final String receiver;
+
+    public final String transmitter;
+
+    public final float variance;
+
+    public final long timestamp;
+
+    public final float noiseFloor;
+
+    /**
+     * Whether the link contributed a line to the result.
+     */
+    public final boolean active;
+
+    public LinkState(final String receiver, final String transmitter,
+        final float variance, final long timestamp, final float noiseFloor,
+        final boolean active) {
+      this.receiver = receiver;
+      this.transmitter = transmitter;
+      this.variance = variance;
+      this.timestamp = timestamp;
+      this.noiseFloor = noiseFloor;
+      this.active = active;
+    }
+  }
+
+  private final String regionId;
+
+  private final long timestamp;
+
+  /**
+   * X1, Y1, X2, Y2, and score of each tile to publish.
+   */
+  private final float[] tiles;
+
+  private final List<MotionArea> areas;
+
+  private final List<LinkState> links;
+
+  private final int numReceivers;
+
+  private final int numTransmitters;
+
+  private volatile byte[] resultsJson = null;
+
+  private volatile byte[] linksJson = null;
+
+  private ResultSnapshot(final String regionId, final long timestamp,
+      final float[] tiles, final List<MotionArea> areas,
+      final List<LinkState> links, final int numReceivers,
+      final int numTransmitters) {
+    super();
+    this.regionId = regionId;
+    this.timestamp = timestamp;
+    this.tiles = tiles;
+    this.areas = areas;
+    this.links = links;
+    this.numReceivers = numReceivers;
+    this.numTransmitters = numTransmitters;
+  }
+
+  /**
+   * Copies the parts of a result that are served to clients. Must be called
+   * before the result set is released.
+   *
+   * @param algorithm
+   *          the algorithm that produced the result.
+   * @param resultSet
+   *          the result, or {@code null} if none was produced.
+   * @param timestamp
+   *          the time of the result.
+   * @return the snapshot.
+   */
+  public static ResultSnapshot create(final PassiveMotionAlgorithm algorithm,
+      final FilteredTileResultSet resultSet, final long timestamp) {
+    float[] tiles = new float[0];
+    List<MotionArea> areas = Collections.emptyList();
+    HashSet<String> activeLinks = new HashSet<String>();
+    if (resultSet != null) {
+      Collection<ScoredTile> published = resultSet.getTilesToPublish();
+      if (published != null) {
+        tiles = new float[published.size() * 5];
+        int i = 0;
+        for (ScoredTile tile : published) {
+          tiles[i++] = tile.getTile().x;
+          tiles[i++] = tile.getTile().y;
+          tiles[i++] = tile.getTile().x + tile.getTile().width;
+          tiles[i++] = tile.getTile().y + tile.getTile().height;
+          tiles[i++] = tile.getScore();
+        }
+      }
+      if (resultSet.getAreas() != null) {
+        // The tracker creates new areas for every result
+        areas = Collections.unmodifiableList(new ArrayList<MotionArea>(
+            resultSet.getAreas()));
+      }
+      if (resultSet.getLines() != null) {
+        for (RSSILine line : resultSet.getLines()) {
+          activeLinks.add(line.getReceiver().getDeviceId() + "/"
+              + line.getTransmitter().getDeviceId());
+        }
+      }
+    }
+
+    float threshold = algorithm.config.stdDevNoiseThreshold;
+    boolean adaptive = algorithm.config.baselineAdaptRate > 0;
+    ArrayList<LinkState> links = new ArrayList<LinkState>();
+    LinkStateTable table = algorithm.getStdDevFingerprinter().getLinks();
+    LinkVariance variance = table.view();
+    for (int rx = 0; rx < table.getNumReceivers(); ++rx) {
+      for (int tx = 0; tx < table.getNumTransmitters(); ++tx) {
+        if (!variance.moveTo(rx, tx)) {
+          continue;
+        }
+        String receiver = variance.getReceiverId();
+        String transmitter = variance.getTransmitterId();
+        links.add(new LinkState(receiver, transmitter, variance.getValue(),
+            variance.getTimestamp(), adaptive ? variance
+                .getNoiseFloor(threshold) : threshold, activeLinks
+                .contains(receiver + "/" + transmitter)));
+      }
+    }
+
+    return new ResultSnapshot(algorithm.getRegionId(), timestamp, tiles,
+        areas, Collections.unmodifiableList(links), algorithm.receivers.size(),
+        algorithm.transmitters.size());
+  }
+
+  public String getRegionId() {
+    return this.regionId;
+  }
+
+  public long getTimestamp() {
+    return this.timestamp;
+  }
+
+  public int getNumTiles() {
+    return this.tiles.length / 5;
+  }
+
+  public List<MotionArea> getAreas() {
+    return this.areas;
+  }
+
+  public List<LinkState> getLinks() {
+    return this.links;
+  }
+
+  public int getNumReceivers() {
+    return this.numReceivers;
+  }
+
+  public int getNumTransmitters() {
+    return this.numTransmitters;
+  }
+
+  /**
+   * Returns the tiles and areas as UTF-8 JSON.
+   *
+   * @return the encoded results.
+   */
+  public byte[] getResultsJson() {
+    byte[] json = this.resultsJson;
+    if (json == null) {
+      StringBuffer sb = new StringBuffer();
+      sb.append("{\"region\":");
+      appendString(sb, this.regionId);
+      sb.append(",\"timestamp\":").append(this.timestamp);
+      sb.append(",\"tiles\":[");
+      for (int i = 0; i < this.tiles.length; i += 5) {
+        if (i > 0) {
+          sb.append(',');
+        }
+        sb.append("{\"x1\":").append(this.tiles[i]).append(",\"y1\":")
+            .append(this.tiles[i + 1]).append(",\"x2\":")
+            .append(this.tiles[i + 2]).append(",\"y2\":")
+            .append(this.tiles[i + 3]).append(",\"score\":")
+            .append(this.tiles[i + 4]).append('}');
+      }
+      sb.append("],\"areas\":[");
+      boolean first = true;
+      for (MotionArea area : this.areas) {
+        if (!first) {
+          sb.append(',');
+        }
+        first = false;
+        sb.append("{\"id\":").append(area.getAreaId()).append(",\"x\":")
+            .append(area.getX()).append(",\"y\":").append(area.getY())
+            .append(",\"vx\":").append(area.getxVelocity())
+            .append(",\"vy\":").append(area.getyVelocity())
+            .append(",\"score\":").append(area.getScore())
+            .append(",\"tiles\":").append(area.getNumTiles())
+            .append(",\"firstSeen\":").append(area.getFirstSeen())
+            .append('}');
+      }
+      sb.append("]}");
+      json = sb.toString().getBytes(UTF8);
+      this.resultsJson = json;
+    }
+    return json;
+  }
+
+  /**
+   * Returns the link states as UTF-8 JSON.
+   *
+   * @return the encoded links.
+   */
+  public byte[] getLinksJson() {
+    byte[] json = this.linksJson;
+    if (json == null) {
+      StringBuffer sb = new StringBuffer();
+      sb.append("{\"region\":");
+      appendString(sb, this.regionId);
+      sb.append(",\"timestamp\":").append(this.timestamp);
+      sb.append(",\"links\":[");
+      boolean first = true;
+      for (LinkState link : this.links) {
+        if (!first) {
+          sb.append(',');
+        }
+        first = false;
+        sb.append("{\"receiver\":");
+        appendString(sb, link.receiver);
+        sb.append(",\"transmitter\":");
+        appendString(sb, link.transmitter);
+        sb.append(",\"variance\":").append(link.variance)
+            .append(",\"timestamp\":").append(link.timestamp)
+            .append(",\"noiseFloor\":").append(link.noiseFloor)
+            .append(",\"active\":").append(link.active).append('}');
+      }
+      sb.append("]}");
+      json = sb.toString().getBytes(UTF8);
+      this.linksJson = json;
+    }
+    return json;
+  }
+
+  /**
+   * Appends {@code s} as a quoted JSON string.
+   *
+   * @param sb
+   *          the buffer to append to.
+   * @param s
+   *          the string, which may be {@code null}.
+   */
+  static void appendString(final StringBuffer sb, final String s) {
+    if (s == null) {
+      sb.append("null");
+      return;
+    }
+    sb.append('"');
+    for (int i = 0; i < s.length(); ++i) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\') {
+        sb.append('\\').append(c);
+      } else if (c < 0x20) {
+        String hex = Integer.toHexString(c);
+        sb.append("\\u");
+        for (int pad = hex.length(); pad < 4; ++pad) {
+          sb.append('0');
+        }
+        sb.append(hex);
+      } else {
+        sb.append(c);
+      }
+    }
+    sb.append('"');
+  }
+}
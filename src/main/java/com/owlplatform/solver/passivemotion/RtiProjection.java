@@ -0,0 +1,285 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Regularized inverse for radio tomographic imaging. The weight matrix
+ * {@code W} has one row per link, holding the link's tile weights under a
+ * {@link LinkScoringModel}. Given a vector {@code y} of link values, the
+ * Tikhonov-regularized image is
+ *
+ * <pre>
+ * x = (W'W + aI)^-1 W'y = W'(WW' + aI)^-1 y
+ * </pre>
+ *
+ * The second form only inverts a matrix the size of the number of links, so
+ * it is used to precompute the projection {@code P = W'(WW' + aI)^-1} once
+ * for an anchor layout. Each image is then a single multiply by {@code P}.
+ * The regularization {@code a} is given relative to the mean of the diagonal
+ * of {@code WW'}, so it does not depend on the scale of the weights.
+ *
+ * @author Robert Moore
+ *
+ */
+public final class RtiProjection {
+
+  /**
+   * Number of tiles of the image updated together. The block of the image
+   * stays in cache while every link's row is streamed through it.
+   */
+  static final int TILE_BLOCK = 1024;
+
+  private final TileGeometry geometry;
+
+  private final LinkScoringModel model;
+
+  private final long linkVersion;
+
+  private final IdentityHashMap<LinkGeometry, Integer> linkIndices;
+
+  private final int numLinks;
+
+  private final int numTiles;
+
+  /**
+   * The transpose of the projection, one row of {@link #numTiles} per link.
+   */
+  private final float[] projection;
+
+  private RtiProjection(final TileGeometry geometry,
+      final LinkScoringModel model, final long linkVersion,
+      final IdentityHashMap<LinkGeometry, Integer> linkIndices,
+      final float[] projection) {
+    super();
+    this.geometry = geometry;
+    this.model = model;
+    this.linkVersion = linkVersion;
+    this.linkIndices = linkIndices;
+    this.numLinks = linkIndices.size();
+    this.numTiles = geometry.getNumTiles();
+    this.projection = projection;
+  }
+
+  /**
+   * Computes the projection for a set of links.
+   *
+   * @param links
+   *          the links, in the order of the value vector.
+   * @param model
+   *          provides the weights of each link.
+   * @param geometry
+   *          the tile layout of every link.
+   * @param regularization
+   *          the relative Tikhonov regularization, greater than 0.
+   * @param linkVersion
+   *          identifies the set of links, for {@link #isCurrent}.
+   * @return the projection.
+   */
+  public static RtiProjection build(final List<LinkGeometry> links,
+      final LinkScoringModel model, final TileGeometry geometry,
+      final float regularization, final long linkVersion) {
+    if (regularization <= 0) {
+      throw new IllegalArgumentException("Regularization must be positive.");
+    }
+    final int m = links.size();
+    final int n = geometry.getNumTiles();
+    IdentityHashMap<LinkGeometry, Integer> indices = new IdentityHashMap<LinkGeometry, Integer>();
+    int[][] rowTiles = new int[m][];
+    double[][] rowWeights = new double[m][];
+    for (int j = 0; j < m; ++j) {
+      LinkWeights weights = links.get(j).getWeights(model);
+      indices.put(links.get(j), Integer.valueOf(j));
+      rowTiles[j] = weights.getTiles();
+      rowWeights[j] = new double[rowTiles[j].length];
+      for (int i = 0; i < rowTiles[j].length; ++i) {
+        rowWeights[j][i] = weights.getWeights()[i] / weights.getDivisor();
+      }
+    }
+
+    // A = WW' + aI, symmetric, filled from sparse rows
+    double[] a = new double[m * m];
+    double[] dense = new double[n];
+    double trace = 0;
+    for (int j = 0; j < m; ++j) {
+      for (int i = 0; i < rowTiles[j].length; ++i) {
+        dense[rowTiles[j][i]] = rowWeights[j][i];
+      }
+      for (int k = 0; k <= j; ++k) {
+        double dot = 0;
+        for (int i = 0; i < rowTiles[k].length; ++i) {
+          dot += dense[rowTiles[k][i]] * rowWeights[k][i];
+        }
+        a[j * m + k] = dot;
+        a[k * m + j] = dot;
+      }
+      trace += a[j * m + j];
+      for (int i = 0; i < rowTiles[j].length; ++i) {
+        dense[rowTiles[j][i]] = 0;
+      }
+    }
+    double alpha = regularization * (trace > 0 ? trace / m : 1);
+    for (int j = 0; j < m; ++j) {
+      a[j * m + j] += alpha;
+    }
+
+    double[] inverse = invertSymmetric(a, m);
+
+    // Row j of P' is sum over k of inverse[j][k] * W[k]
+    float[] projection = new float[m * n];
+    for (int j = 0; j < m; ++j) {
+      Arrays.fill(dense, 0);
+      for (int k = 0; k < m; ++k) {
+        double c = inverse[j * m + k];
+        for (int i = 0; i < rowTiles[k].length; ++i) {
+          dense[rowTiles[k][i]] += c * rowWeights[k][i];
+        }
+      }
+      for (int t = 0; t < n; ++t) {
+        projection[j * n + t] = (float) dense[t];
+      }
+    }
+    return new RtiProjection(geometry, model, linkVersion, indices, projection);
+  }
+
+  /**
+   * Inverts a symmetric positive-definite matrix with a Cholesky
+   * factorization.
+   *
+   * @param a
+   *          the row-major matrix, overwritten with its factor.
+   * @param m
+   *          the size of the matrix.
+   * @return the row-major inverse.
+   */
+  static double[] invertSymmetric(final double[] a, final int m) {
+    // A = LL', L stored in the lower triangle of a
+    for (int j = 0; j < m; ++j) {
+      double sum = a[j * m + j];
+      for (int k = 0; k < j; ++k) {
+        sum -= a[j * m + k] * a[j * m + k];
+      }
+      if (sum <= 0) {
+        throw new IllegalArgumentException("Matrix is not positive-definite.");
+      }
+      double diag = Math.sqrt(sum);
+      a[j * m + j] = diag;
+      for (int i = j + 1; i < m; ++i) {
+        double s = a[i * m + j];
+        for (int k = 0; k < j; ++k) {
+          s -= a[i * m + k] * a[j * m + k];
+        }
+        a[i * m + j] = s / diag;
+      }
+    }
+
+    // Solve LL'x = e for each column; the inverse is symmetric
+    double[] inverse = new double[m * m];
+    double[] col = new double[m];
+    for (int c = 0; c < m; ++c) {
+      Arrays.fill(col, 0);
+      col[c] = 1;
+      for (int i = c; i < m; ++i) {
+        double s = col[i];
+        for (int k = c; k < i; ++k) {
+          s -= a[i * m + k] * col[k];
+        }
+        col[i] = s / a[i * m + i];
+      }
+      for (int i = m - 1; i >= 0; --i) {
+        double s = col[i];
+        for (int k = i + 1; k < m; ++k) {
+          s -= a[k * m + i] * col[k];
+        }
+        col[i] = s / a[i * m + i];
+      }
+      for (int i = 0; i < m; ++i) {
+        inverse[i * m + c] = col[i];
+      }
+    }
+    return inverse;
+  }
+
+  /**
+   * Computes the image for a vector of link values. Links with a value of 0
+   * are skipped.
+   *
+   * @param values
+   *          the value of each link, in the order the links were given.
+   * @param image
+   *          receives the score of each tile.
+   */
+  public void project(final float[] values, final float[] image) {
+    final float[] p = this.projection;
+    final int n = this.numTiles;
+    Arrays.fill(image, 0, n, 0f);
+    for (int t0 = 0; t0 < n; t0 += TILE_BLOCK) {
+      int t1 = Math.min(n, t0 + TILE_BLOCK);
+      for (int j = 0; j < this.numLinks; ++j) {
+        float v = values[j];
+        if (v == 0f) {
+          continue;
+        }
+        for (int t = t0, row = j * n; t < t1; ++t) {
+          image[t] += v * p[row + t];
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the position of a link in the value vector.
+   *
+   * @param link
+   *          the link.
+   * @return the link's index, or -1 if it is not part of the projection.
+   */
+  public int indexOf(final LinkGeometry link) {
+    Integer index = this.linkIndices.get(link);
+    return index == null ? -1 : index.intValue();
+  }
+
+  /**
+   * Checks whether the projection was built for the current links.
+   *
+   * @param currentGeometry
+   *          the current tile layout.
+   * @param currentModel
+   *          the current scoring model.
+   * @param currentLinkVersion
+   *          the current version of the set of links.
+   * @return {@code true} if the projection can still be used.
+   */
+  public boolean isCurrent(final TileGeometry currentGeometry,
+      final LinkScoringModel currentModel, final long currentLinkVersion) {
+    return this.geometry == currentGeometry && this.model == currentModel
+        && this.linkVersion == currentLinkVersion;
+  }
+
+  public int getNumLinks() {
+    return this.numLinks;
+  }
+
+  public int getNumTiles() {
+    return this.numTiles;
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import java.util.Arrays;
+
+/**
+ * A dense grid of tile scores stored in a single primitive array. Scores are
+ * laid out in the same order as a {@code ScoredTile[x][y]} array, so the
+ * score of tile (x, y) is stored at {@code x * numY + y}.
+ *
+ * @author Robert Moore
+ *
+ */
+public class ScoreGrid {
+
+  /**
+   * Number of tiles along the x-axis.
+   */
+  protected final int numX;
+
+  /**
+   * Number of tiles along the y-axis.
+   */
+  protected final int numY;
+
+  /**
+   * The tile scores, indexed by {@code x * numY + y}.
+   */
+  protected final float[] scores;
+
+  /**
+   * Creates a new grid with all scores set to 0.
+   *
+   * @param numX
+   *          the number of tiles along the x-axis.
+   * @param numY
+   *          the number of tiles along the y-axis.
+   */
+  public ScoreGrid(final int numX, final int numY) {
+    super();
+    if (numX <= 0 || numY <= 0) {
+      throw new IllegalArgumentException("Grid dimensions must be positive.");
+    }
+    this.numX = numX;
+    this.numY = numY;
+    this.scores = new float[numX * numY];
+  }
+
+  /**
+   * Creates a grid with the same dimensions and scores as the tiles.
+   *
+   * @param tiles
+   *          the tiles to copy scores from.
+   * @return a new grid containing the tile scores.
+   */
+  public static ScoreGrid fromTiles(final ScoredTile[][] tiles) {
+    ScoreGrid grid = new ScoreGrid(tiles.length, tiles[0].length);
+    grid.copyFrom(tiles);
+    return grid;
+  }
+
+  public int getNumX() {
+    return this.numX;
+  }
+
+  public int getNumY() {
+    return this.numY;
+  }
+
+  /**
+   * Returns the backing array of scores. Changes to the array are reflected in
+   * this grid.
+   *
+   * @return the backing array, indexed by {@code x * numY + y}.
+   */
+  public float[] getScores() {
+    return this.scores;
+  }
+
+  public int index(final int x, final int y) {
+    return x * this.numY + y;
+  }
+
+  public float get(final int x, final int y) {
+    return this.scores[x * this.numY + y];
+  }
+
+  public void set(final int x, final int y, final float score) {
+    this.scores[x * this.numY + y] = score;
+  }
+
+  public void add(final int x, final int y, final float score) {
+    this.scores[x * this.numY + y] += score;
+  }
+
+  /**
+   * Sets every score in this grid to 0.
+   */
+  public void clear() {
+    Arrays.fill(this.scores, 0f);
+  }
+
+  /**
+   * Checks whether this grid has the same dimensions as {@code tiles}.
+   *
+   * @param tiles
+   *          the tiles to compare against.
+   * @return {@code true} if the dimensions match, else {@code false}.
+   */
+  public boolean matches(final ScoredTile[][] tiles) {
+    return tiles.length == this.numX && tiles[0].length == this.numY;
+  }
+
+  /**
+   * Copies the scores of {@code tiles} into this grid.
+   *
+   * @param tiles
+   *          the tiles to read, which must have the same dimensions as this
+   *          grid.
+   */
+  public void copyFrom(final ScoredTile[][] tiles) {
+    if (tiles.length != this.numX) {
+      throw new IllegalArgumentException("Tile array does not match grid size.");
+    }
+    for (int x = 0; x < this.numX; ++x) {
+      if (tiles[x].length != this.numY) {
+        throw new IllegalArgumentException(
+            "Tile array does not match grid size.");
+      }
+      int offset = x * this.numY;
+      for (int y = 0; y < this.numY; ++y) {
+        this.scores[offset + y] = tiles[x][y].score;
+      }
+    }
+  }
+
+  /**
+   * Copies the scores of this grid into {@code tiles}.
+   *
+   * @param tiles
+   *          the tiles to update, which must have the same dimensions as this
+   *          grid.
+   */
+  public void copyTo(final ScoredTile[][] tiles) {
+    if (tiles.length != this.numX) {
+      throw new IllegalArgumentException("Tile array does not match grid size.");
+    }
+    for (int x = 0; x < this.numX; ++x) {
+      if (tiles[x].length != this.numY) {
+        throw new IllegalArgumentException(
+            "Tile array does not match grid size.");
+      }
+      int offset = x * this.numY;
+      for (int y = 0; y < this.numY; ++y) {
+        tiles[x][y].score = this.scores[offset + y];
+      }
+    }
+  }
+}
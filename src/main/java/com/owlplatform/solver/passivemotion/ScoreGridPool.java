@@ -0,0 +1,155 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import java.util.ArrayList;
+
+/**
+ * Recycles score grids between solver ticks. Grids of the most recently
+ * requested size are kept once released; grids of any other size are left for
+ * the garbage collector, so a change in the tile layout drains the pool.
+ *
+ * @author Robert Moore
+ *
+ */
+public class ScoreGridPool {
+
+  /**
+   * Released grids waiting to be reused.
+   */
+  private final ArrayList<PooledScoreGrid> free = new ArrayList<PooledScoreGrid>();
+
+  /**
+   * Maximum number of released grids to keep.
+   */
+  private final int maxFree;
+
+  private int numX = 0;
+
+  private int numY = 0;
+
+  /**
+   * Number of grids ever created by this pool.
+   */
+  private int created = 0;
+
+  /**
+   * Creates a pool that keeps up to 16 released grids.
+   */
+  public ScoreGridPool() {
+    this(16);
+  }
+
+  /**
+   * Creates a pool that keeps up to {@code maxFree} released grids.
+   *
+   * @param maxFree
+   *          the maximum number of idle grids to keep.
+   */
+  public ScoreGridPool(final int maxFree) {
+    super();
+    this.maxFree = maxFree;
+  }
+
+  /**
+   * Returns a grid of the requested size with every score set to 0. The
+   * caller holds the only reference to it.
+   *
+   * @param numX
+   *          the number of tiles along the x-axis.
+   * @param numY
+   *          the number of tiles along the y-axis.
+   * @return a cleared grid.
+   */
+  public PooledScoreGrid acquire(final int numX, final int numY) {
+    PooledScoreGrid grid = null;
+    synchronized (this) {
+      if (numX != this.numX || numY != this.numY) {
+        this.free.clear();
+        this.numX = numX;
+        this.numY = numY;
+      }
+      if (!this.free.isEmpty()) {
+        grid = this.free.remove(this.free.size() - 1);
+      }
+    }
+    if (grid == null) {
+      grid = new PooledScoreGrid(this, numX, numY);
+      synchronized (this) {
+        ++this.created;
+      }
+    } else {
+      grid.clear();
+    }
+    grid.acquired();
+    return grid;
+  }
+
+  /**
+   * Returns a grid of the layout's size with every score set to 0.
+   *
+   * @param geometry
+   *          the tile layout.
+   * @return a cleared grid.
+   */
+  public PooledScoreGrid acquire(final TileGeometry geometry) {
+    return this.acquire(geometry.getNumX(), geometry.getNumY());
+  }
+
+  /**
+   * Returns a grid containing a copy of {@code source}'s scores.
+   *
+   * @param source
+   *          the grid to copy.
+   * @return a grid with the same size and scores as {@code source}.
+   */
+  public PooledScoreGrid acquireCopy(final ScoreGrid source) {
+    PooledScoreGrid grid = this.acquire(source.numX, source.numY);
+    System.arraycopy(source.scores, 0, grid.scores, 0, source.scores.length);
+    return grid;
+  }
+
+  /**
+   * Called by a grid once its last reference is released.
+   */
+  synchronized void recycle(final PooledScoreGrid grid) {
+    if (grid.numX == this.numX && grid.numY == this.numY
+        && this.free.size() < this.maxFree) {
+      this.free.add(grid);
+    }
+  }
+
+  /**
+   * The number of grids this pool has created, for monitoring allocation.
+   *
+   * @return the number of grids created.
+   */
+  public synchronized int getCreatedCount() {
+    return this.created;
+  }
+
+  /**
+   * The number of released grids currently waiting to be reused.
+   *
+   * @return the number of idle grids.
+   */
+  public synchronized int getFreeCount() {
+    return this.free.size();
+  }
+}
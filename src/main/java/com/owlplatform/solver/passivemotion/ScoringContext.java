@@ -0,0 +1,192 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+/**
+ * Scratch state for scoring tiles, reused from one call to the next. A
+ * context may only be used by one thread at a time, so each thread that
+ * scores tiles has its own. A context may also be limited to a block of
+ * tiles, in which case no tile outside the block is ever scored. The grid
+ * and tile sets of a limited context cover only its block, and are indexed
+ * by {@link #toLocal(int, int)}, so their size depends on the block rather
+ * than on the whole region.
+ *
+ * @author Robert Moore
+ *
+ */
+public final class ScoringContext {
+
+  /**
+   * Tiles returned by the last scoring pass.
+   */
+  final TileIndexList solutionTiles = new TileIndexList();
+
+  /**
+   * Tiles scored by the last scoring pass. Every other tile of
+   * {@link #activeGrid} is 0.
+   */
+  final ActiveTileSet activeTiles = new ActiveTileSet();
+
+  /**
+   * The grid scored by the last scoring pass.
+   */
+  ScoreGrid activeGrid = null;
+
+  /**
+   * Tiles that survive trimming around the peak.
+   */
+  final ActiveTileSet keptTiles = new ActiveTileSet();
+
+  /**
+   * Tiles checked when removing lines.
+   */
+  final ActiveTileSet removedTiles = new ActiveTileSet();
+
+  private final int minX;
+
+  private final int minY;
+
+  private final int maxX;
+
+  private final int maxY;
+
+  /**
+   * Creates a context for the whole grid.
+   */
+  public ScoringContext() {
+    this(0, 0, Integer.MAX_VALUE, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Creates a context limited to the block [minX..maxX] x [minY..maxY].
+   *
+   * @param minX
+   *          first x-index of the block.
+   * @param minY
+   *          first y-index of the block.
+   * @param maxX
+   *          last x-index of the block.
+   * @param maxY
+   *          last y-index of the block.
+   */
+  public ScoringContext(final int minX, final int minY, final int maxX,
+      final int maxY) {
+    super();
+    this.minX = minX;
+    this.minY = minY;
+    this.maxX = maxX;
+    this.maxY = maxY;
+  }
+
+  /**
+   * Checks whether the context is limited to part of the grid.
+   *
+   * @param geometry
+   *          the layout of the grid.
+   * @return {@code true} if some tiles are outside the context's block.
+   */
+  public boolean isBounded(final TileGeometry geometry) {
+    return this.minX > 0 || this.minY > 0
+        || this.maxX < geometry.getNumX() - 1
+        || this.maxY < geometry.getNumY() - 1;
+  }
+
+  public boolean contains(final int x, final int y) {
+    return x >= this.minX && x <= this.maxX && y >= this.minY
+        && y <= this.maxY;
+  }
+
+  /**
+   * Returns the number of tiles scored with this context.
+   *
+   * @param geometry
+   *          the layout of the grid.
+   * @return the number of tiles in the block, or in the whole grid if the
+   *         context is not limited.
+   */
+  public int getNumTiles(final TileGeometry geometry) {
+    if (!this.isBounded(geometry)) {
+      return geometry.getNumTiles();
+    }
+    return this.getBlockNumX() * this.getBlockNumY();
+  }
+
+  /**
+   * Returns the index of a tile within the block of a limited context.
+   *
+   * @param x
+   *          the x-index of the tile in the whole grid.
+   * @param y
+   *          the y-index of the tile in the whole grid.
+   * @return the index of the tile in the block, or -1 if the tile is outside
+   *         the block.
+   */
+  public int toLocal(final int x, final int y) {
+    if (!this.contains(x, y)) {
+      return -1;
+    }
+    return (x - this.minX) * this.getBlockNumY() + (y - this.minY);
+  }
+
+  /**
+   * Returns the index in the whole grid of a tile in the block of a limited
+   * context.
+   *
+   * @param local
+   *          the index of the tile in the block.
+   * @param numY
+   *          the number of tiles along the y-axis of the whole grid.
+   * @return the index of the tile in the whole grid.
+   */
+  public int toGlobal(final int local, final int numY) {
+    final int blockNumY = this.getBlockNumY();
+    return (this.minX + local / blockNumY) * numY + this.minY + local
+        % blockNumY;
+  }
+
+  /**
+   * Number of tiles along the x-axis of a limited context's block.
+   */
+  public int getBlockNumX() {
+    return this.maxX - this.minX + 1;
+  }
+
+  /**
+   * Number of tiles along the y-axis of a limited context's block.
+   */
+  public int getBlockNumY() {
+    return this.maxY - this.minY + 1;
+  }
+
+  public int getMinX() {
+    return this.minX;
+  }
+
+  public int getMinY() {
+    return this.minY;
+  }
+
+  public int getMaxX() {
+    return this.maxX;
+  }
+
+  public int getMaxY() {
+    return this.maxY;
+  }
+}
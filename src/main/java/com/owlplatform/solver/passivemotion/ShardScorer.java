@@ -0,0 +1,49 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import java.util.List;
+
+/**
+ * Finds the areas of motion in each shard of a region, in place of the
+ * algorithm's own shard threads. Implementations may score shards anywhere,
+ * but must leave every shard holding exactly the areas it owns for this
+ * tick when they return.
+ *
+ * @author Robert Moore
+ *
+ */
+public interface ShardScorer {
+
+  /**
+   * Scores every shard.
+   *
+   * @param algorithm
+   *          the algorithm being solved, which can score any shard locally
+   *          with {@link PassiveMotionAlgorithm#scoreShard}.
+   * @param shards
+   *          the shards covering the region.
+   * @param geometry
+   *          the tile layout.
+   * @param lines
+   *          the lines for this tick.
+   */
+  public void scoreShards(PassiveMotionAlgorithm algorithm,
+      RegionShard[] shards, TileGeometry geometry, List<RSSILine> lines);
+}
@@ -0,0 +1,419 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary snapshot of the solver's state: the region bounds, the
+ * anchor table, the most recent variance and noise baseline of every link,
+ * and the last published solution. Checkpoints are written to a temporary
+ * file through a memory-mapped buffer and then renamed over the previous
+ * checkpoint, so a crash while writing never leaves a partial file in place.
+ * A CRC of the payload is checked when loading.
+ *
+ * <p>
+ * Layout (big-endian): magic, version, payload length, payload CRC, then the
+ * payload. Strings are stored as a 2-byte length followed by UTF-8 bytes.
+ * </p>
+ *
+ * @author Robert Moore
+ *
+ */
+public class SolverCheckpoint {
+
+  /**
+   * "PMCP"
+   */
+  private static final int MAGIC = 0x504D4350;
+
+  private static final int VERSION = 2;
+
+  /**
+   * Magic, version, payload length, and CRC.
+   */
+  private static final int HEADER_LENGTH = 4 + 4 + 4 + 8;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * A located anchor, as last seen in the world model.
+   */
+  public static final class AnchorEntry {
+    public final String uri;
+
+    public final String deviceId;
+
+    public final float x;
+
+    public final float y;
+
+    public AnchorEntry(final String uri, final String deviceId,
+        final float x, final float y) {
+      this.uri = uri;
+      this.deviceId = deviceId;
+      this.x = x;
+      this.y = y;
+    }
+  }
+
+  /**
+   * The most recent variance of a link and its noise baseline.
+   */
+  public static final class LinkEntry {
+    public final String receiver;
+
+    public final String transmitter;
+
+    public final float variance;
+
+    public final long timestamp;
+
+    public final float baseline;
+
+    public final float deviation;
+
+    public final int numSamples;
+
+    public LinkEntry(final String receiver, final String transmitter,
+        final float variance, final long timestamp, final float baseline,
+        final float deviation, final int numSamples) {
+      this.receiver = receiver;
+      this.transmitter = transmitter;
+      this.variance = variance;
+      this.timestamp = timestamp;
+      this.baseline = baseline;
+      this.deviation = deviation;
+      this.numSamples = numSamples;
+    }
+  }
+
+  /**
+   * When the checkpoint was taken.
+   */
+  protected long createdTime;
+
+  protected String regionId;
+
+  protected float regionXMax;
+
+  protected float regionYMax;
+
+  protected final List<AnchorEntry> anchors = new ArrayList<AnchorEntry>();
+
+  protected final List<LinkEntry> links = new ArrayList<LinkEntry>();
+
+  /**
+   * Creation time of the last published solution, or 0 if there is none.
+   */
+  protected long solutionTime = 0l;
+
+  /**
+   * Encoded last published solution, or {@code null} if there is none.
+   */
+  protected byte[] solution = null;
+
+  public SolverCheckpoint(final String regionId, final long createdTime) {
+    super();
+    this.regionId = regionId;
+    this.createdTime = createdTime;
+  }
+
+  public long getCreatedTime() {
+    return this.createdTime;
+  }
+
+  public String getRegionId() {
+    return this.regionId;
+  }
+
+  public float getRegionXMax() {
+    return this.regionXMax;
+  }
+
+  public float getRegionYMax() {
+    return this.regionYMax;
+  }
+
+  public void setRegionBounds(final float regionXMax, final float regionYMax) {
+    this.regionXMax = regionXMax;
+    this.regionYMax = regionYMax;
+  }
+
+  public List<AnchorEntry> getAnchors() {
+    return this.anchors;
+  }
+
+  public void addAnchor(final AnchorEntry anchor) {
+    this.anchors.add(anchor);
+  }
+
+  public List<LinkEntry> getLinks() {
+    return this.links;
+  }
+
+  public void addLink(final LinkEntry link) {
+    this.links.add(link);
+  }
+
+  public long getSolutionTime() {
+    return this.solutionTime;
+  }
+
+  public byte[] getSolution() {
+    return this.solution;
+  }
+
+  public void setSolution(final byte[] solution, final long solutionTime) {
+    this.solution = solution;
+    this.solutionTime = solutionTime;
+  }
+
+  /**
+   * Writes the checkpoint to {@code file}, replacing any previous checkpoint.
+   *
+   * @param file
+   *          the checkpoint file.
+   * @throws IOException
+   *           if the checkpoint could not be written.
+   */
+  public void write(final File file) throws IOException {
+    byte[] region = encode(this.regionId);
+    byte[][] anchorUris = new byte[this.anchors.size()][];
+    byte[][] anchorIds = new byte[this.anchors.size()][];
+    int length = 8 + region.length + 4 + 4 + 4;
+    for (int i = 0; i < anchorUris.length; ++i) {
+      AnchorEntry anchor = this.anchors.get(i);
+      anchorUris[i] = encode(anchor.uri);
+      anchorIds[i] = encode(anchor.deviceId);
+      length += anchorUris[i].length + anchorIds[i].length + 4 + 4;
+    }
+    byte[][] linkRxers = new byte[this.links.size()][];
+    byte[][] linkTxers = new byte[this.links.size()][];
+    length += 4;
+    for (int i = 0; i < linkRxers.length; ++i) {
+      LinkEntry link = this.links.get(i);
+      linkRxers[i] = encode(link.receiver);
+      linkTxers[i] = encode(link.transmitter);
+      length += linkRxers[i].length + linkTxers[i].length + 4 + 8 + 4 + 4 + 4;
+    }
+    length += 8 + 4 + (this.solution == null ? 0 : this.solution.length);
+
+    File tempFile = new File(file.getPath() + ".tmp");
+    RandomAccessFile raf = new RandomAccessFile(tempFile, "rw");
+    try {
+      raf.setLength(HEADER_LENGTH + length);
+      FileChannel channel = raf.getChannel();
+      MappedByteBuffer buff = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+          HEADER_LENGTH + length);
+      buff.putInt(MAGIC);
+      buff.putInt(VERSION);
+      buff.putInt(length);
+      // CRC is filled in once the payload is written
+      buff.putLong(0l);
+
+      buff.putLong(this.createdTime);
+      buff.put(region);
+      buff.putFloat(this.regionXMax);
+      buff.putFloat(this.regionYMax);
+
+      buff.putInt(anchorUris.length);
+      for (int i = 0; i < anchorUris.length; ++i) {
+        AnchorEntry anchor = this.anchors.get(i);
+        buff.put(anchorUris[i]);
+        buff.put(anchorIds[i]);
+        buff.putFloat(anchor.x);
+        buff.putFloat(anchor.y);
+      }
+
+      buff.putInt(linkRxers.length);
+      for (int i = 0; i < linkRxers.length; ++i) {
+        LinkEntry link = this.links.get(i);
+        buff.put(linkRxers[i]);
+        buff.put(linkTxers[i]);
+        buff.putFloat(link.variance);
+        buff.putLong(link.timestamp);
+        buff.putFloat(link.baseline);
+        buff.putFloat(link.deviation);
+        buff.putInt(link.numSamples);
+      }
+
+      buff.putLong(this.solutionTime);
+      if (this.solution == null) {
+        buff.putInt(-1);
+      } else {
+        buff.putInt(this.solution.length);
+        buff.put(this.solution);
+      }
+
+      buff.putLong(12, checksum(buff, length));
+      buff.force();
+    } finally {
+      raf.close();
+    }
+
+    if (!tempFile.renameTo(file)) {
+      // Some platforms won't rename over an existing file
+      if (!file.delete() || !tempFile.renameTo(file)) {
+        throw new IOException("Unable to replace checkpoint " + file + ".");
+      }
+    }
+  }
+
+  /**
+   * Loads a checkpoint written by {@link #write(File)}.
+   *
+   * @param file
+   *          the checkpoint file.
+   * @return the checkpoint.
+   * @throws IOException
+   *           if the file could not be read or is not a valid checkpoint.
+   */
+  public static SolverCheckpoint read(final File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      if (channel.size() < HEADER_LENGTH) {
+        throw new IOException("Checkpoint " + file + " is truncated.");
+      }
+      MappedByteBuffer buff = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+          channel.size());
+      if (buff.getInt() != MAGIC) {
+        throw new IOException(file + " is not a checkpoint.");
+      }
+      int version = buff.getInt();
+      // Version 1 checkpoints lack link baselines
+      if (version < 1 || version > VERSION) {
+        throw new IOException("Unsupported checkpoint version " + version
+            + ".");
+      }
+      int length = buff.getInt();
+      long crc = buff.getLong();
+      if (length < 0 || length > buff.remaining()) {
+        throw new IOException("Checkpoint " + file + " is truncated.");
+      }
+      if (checksum(buff, length) != crc) {
+        throw new IOException("Checkpoint " + file + " is corrupt.");
+      }
+
+      try {
+        SolverCheckpoint checkpoint = new SolverCheckpoint(null, 0l);
+        checkpoint.createdTime = buff.getLong();
+        checkpoint.regionId = decode(buff);
+        checkpoint.regionXMax = buff.getFloat();
+        checkpoint.regionYMax = buff.getFloat();
+
+        int numAnchors = buff.getInt();
+        for (int i = 0; i < numAnchors; ++i) {
+          String uri = decode(buff);
+          String deviceId = decode(buff);
+          float x = buff.getFloat();
+          float y = buff.getFloat();
+          checkpoint.anchors.add(new AnchorEntry(uri, deviceId, x, y));
+        }
+
+        int numLinks = buff.getInt();
+        for (int i = 0; i < numLinks; ++i) {
+          String receiver = decode(buff);
+          String transmitter = decode(buff);
+          float variance = buff.getFloat();
+          long timestamp = buff.getLong();
+          float baseline = 0f;
+          float deviation = 0f;
+          int numSamples = 0;
+          if (version >= 2) {
+            baseline = buff.getFloat();
+            deviation = buff.getFloat();
+            numSamples = buff.getInt();
+          }
+          checkpoint.links.add(new LinkEntry(receiver, transmitter, variance,
+              timestamp, baseline, deviation, numSamples));
+        }
+
+        checkpoint.solutionTime = buff.getLong();
+        int solutionLength = buff.getInt();
+        if (solutionLength >= 0) {
+          checkpoint.solution = new byte[solutionLength];
+          buff.get(checkpoint.solution);
+        }
+        return checkpoint;
+      } catch (BufferUnderflowException bue) {
+        throw new IOException("Checkpoint " + file + " is malformed.");
+      }
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * CRC of the {@code length} bytes following the header.
+   */
+  private static long checksum(final ByteBuffer buff, final int length) {
+    ByteBuffer payload = buff.duplicate();
+    payload.position(HEADER_LENGTH);
+    byte[] chunk = new byte[Math.min(length, 8192)];
+    CRC32 crc = new CRC32();
+    int remaining = length;
+    while (remaining > 0) {
+      int len = Math.min(remaining, chunk.length);
+      payload.get(chunk, 0, len);
+      crc.update(chunk, 0, len);
+      remaining -= len;
+    }
+    return crc.getValue();
+  }
+
+  private static byte[] encode(final String s) {
+    byte[] bytes = (s == null ? "" : s).getBytes(UTF8);
+    if (bytes.length > 0xFFFF) {
+      throw new IllegalArgumentException("String too long for checkpoint.");
+    }
+    byte[] encoded = new byte[bytes.length + 2];
+    encoded[0] = (byte) (bytes.length >> 8);
+    encoded[1] = (byte) bytes.length;
+    System.arraycopy(bytes, 0, encoded, 2, bytes.length);
+    return encoded;
+  }
+
+  private static String decode(final ByteBuffer buff) {
+    int length = buff.getShort() & 0xFFFF;
+    byte[] bytes = new byte[length];
+    buff.get(bytes);
+    return new String(bytes, UTF8);
+  }
+
+  @Override
+  public String toString() {
+    StringBuffer sb = new StringBuffer();
+    sb.append("Checkpoint of \"").append(this.regionId).append("\" @ ")
+        .append(this.createdTime).append(": ").append(this.anchors.size())
+        .append(" anchors, ").append(this.links.size()).append(" links");
+    return sb.toString();
+  }
+}
@@ -24,7 +24,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.slf4j.Logger;
@@ -52,35 +51,80 @@ public class StdDevFingerprintGenerator {
    */
   protected int maxNumSamples = 5;
 
+  /**
+   * Rate at which each link's quiet-period baseline adapts to new variance
+   * values. 0 disables the baselines.
+   */
+  protected float baselineAdaptRate = 0f;
+
   private static class SampleMessageEntry {
     public long receiveTime;
 
     public SampleMessage sample;
   }
 
-  protected ConcurrentHashMap<String, ConcurrentHashMap<String, TimestampedFloat>> varianceByRbyT = new ConcurrentHashMap<String, ConcurrentHashMap<String, TimestampedFloat>>();
+  /**
+   * Variance and baseline of every link.
+   */
+  protected final LinkStateTable links = new LinkStateTable(false);
+
+  /**
+   * Moved to each link as its variance arrives. Only used while holding the
+   * lock on {@link #links}.
+   */
+  private final LinkVariance updateView = this.links.view();
 
   public void addVariance(String transmitter, String receiver, float variance,
       long timestamp) {
 
     if (transmitter == null || receiver == null)
       return;
-    ConcurrentHashMap<String, TimestampedFloat> varianceByTxer = this.varianceByRbyT
-        .get(receiver);
-    if (varianceByTxer == null) {
-      varianceByTxer = new ConcurrentHashMap<String, TimestampedFloat>();
-      this.varianceByRbyT.put(receiver, varianceByTxer);
-    }
+    this.links.update(this.updateView, receiver, transmitter, variance,
+        timestamp, this.baselineAdaptRate);
+  }
 
-    TimestampedFloat value = varianceByTxer.get(transmitter);
-    if(value == null){
-      value = new TimestampedFloat(variance,timestamp);
-      varianceByTxer.put(transmitter, value);
-    }else {
-      value.value = variance;
-      value.timestamp = timestamp;
-    }
-    
+  /**
+   * Returns a view of the variance entry for a link, creating it if
+   * necessary.
+   */
+  protected LinkVariance getLinkVariance(final String receiver,
+      final String transmitter) {
+    return this.links.get(receiver, transmitter);
+  }
+
+  /**
+   * Returns the variance and baseline of every link.
+   *
+   * @return the link table.
+   */
+  public LinkStateTable getLinks() {
+    return this.links;
+  }
+
+  /**
+   * Chooses whether link state is kept in a direct buffer, off the heap.
+   *
+   * @param offHeap
+   *          {@code true} to use a direct buffer.
+   */
+  public void setOffHeap(final boolean offHeap) {
+    this.links.setDirect(offHeap);
+  }
+
+  /**
+   * Returns the variance this link must exceed to indicate motion.
+   * 
+   * @param receiver
+   *          the receiver of the link.
+   * @param transmitter
+   *          the transmitter of the link.
+   * @param minimum
+   *          the global noise threshold, used until the link has a baseline.
+   * @return the noise floor of the link.
+   */
+  public float getNoiseFloor(final String receiver, final String transmitter,
+      final float minimum) {
+    return this.links.getNoiseFloor(receiver, transmitter, minimum);
   }
 
   public Fingerprint generateFingerprint(String receiverId) {
@@ -92,33 +136,20 @@ public class StdDevFingerprintGenerator {
 
     log.debug("Generating fingerprint for {}.", receiverId);
 
-    ConcurrentHashMap<String, TimestampedFloat> receiverVariance = this.varianceByRbyT
-        .get(receiverId);
-
-    if (receiverVariance == null || receiverVariance.size() == 0) {
+    int rx = this.links.getReceiverIndex(receiverId);
+    if (rx < 0) {
       log.debug("No samples available for {}.", receiverId);
       return null;
     }
-    long now = System.currentTimeMillis();
-    long oldestTime = 0;//now - this.maxSampleAge;
-    // Fingerprint fingerprint = new Fingerprint();
-    // fingerprint.setFingerprintName("StdDev");
-    // fingerprint.setTransmitterId(transmitterId);
-    boolean setPhy = false;
-
-    // Now compute the Std. Dev. of RSSI values by receiver
+
+    // The latest variance of each of the receiver's links
     HashMap<String, Float> stdDevRssiValues = new HashMap<String, Float>();
-    for (String receiver : receiverVariance.keySet()) {
-      float stdDevRssi = 0f;
-      int numRssis = 1;
-      float meanRssi = 0f;
-      TimestampedFloat variance = receiverVariance.get(receiver);
-      if(variance.timestamp < oldestTime){
-        receiverVariance.remove(receiver);
-        continue;
+    LinkVariance variance = this.links.view();
+    for (int tx = 0; tx < this.links.getNumTransmitters(); ++tx) {
+      if (variance.moveTo(rx, tx)) {
+        stdDevRssiValues.put(variance.getTransmitterId(),
+            Float.valueOf(variance.getValue()));
       }
-      stdDevRssiValues.put(receiver,
-          Float.valueOf(variance.value));
     }
     if (stdDevRssiValues.size() == 0) {
       log.debug("No values computed.");
@@ -133,8 +164,8 @@ public class StdDevFingerprintGenerator {
   public Fingerprint[] generateFingerprints() {
     ArrayList<Fingerprint> fingerprints = new ArrayList<Fingerprint>();
 
-    for (String rxer : this.varianceByRbyT.keySet()) {
-      Fingerprint fpt = this.generateFingerprint(rxer);
+    for (int rx = 0; rx < this.links.getNumReceivers(); ++rx) {
+      Fingerprint fpt = this.generateFingerprint(this.links.getReceiverId(rx));
       if (fpt != null) {
         fingerprints.add(fpt);
       }
@@ -152,6 +183,14 @@ public class StdDevFingerprintGenerator {
     this.maxSampleAge = maxSampleAge;
   }
 
+  public float getBaselineAdaptRate() {
+    return baselineAdaptRate;
+  }
+
+  public void setBaselineAdaptRate(float baselineAdaptRate) {
+    this.baselineAdaptRate = baselineAdaptRate;
+  }
+
   public int getMaxNumSamples() {
     return maxNumSamples;
   }
@@ -0,0 +1,186 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+/**
+ * Summed-area table (integral image) of a {@link ScoreGrid}. After a single
+ * {@link #build(ScoreGrid)} pass, the sum of any rectangular block of tiles is
+ * available in constant time, which makes coarser views of the grid cheap to
+ * produce. Sums are accumulated in double precision to avoid drift over large
+ * grids. The table may be rebuilt for any grid with the same dimensions.
+ *
+ * @author Robert Moore
+ *
+ */
+public class SummedAreaTable {
+
+  /**
+   * Number of tiles along the x-axis.
+   */
+  protected final int numX;
+
+  /**
+   * Number of tiles along the y-axis.
+   */
+  protected final int numY;
+
+  /**
+   * Entry {@code (x+1) * (numY+1) + (y+1)} holds the sum of all tiles in
+   * [0..x] x [0..y]. The first row and column are always 0.
+   */
+  protected final double[] sums;
+
+  /**
+   * Creates an empty table for grids of the given size.
+   *
+   * @param numX
+   *          the number of tiles along the x-axis.
+   * @param numY
+   *          the number of tiles along the y-axis.
+   */
+  public SummedAreaTable(final int numX, final int numY) {
+    super();
+    this.numX = numX;
+    this.numY = numY;
+    this.sums = new double[(numX + 1) * (numY + 1)];
+  }
+
+  /**
+   * Creates and builds a table for the grid.
+   *
+   * @param grid
+   *          the grid to sum.
+   */
+  public SummedAreaTable(final ScoreGrid grid) {
+    this(grid.numX, grid.numY);
+    this.build(grid);
+  }
+
+  public int getNumX() {
+    return this.numX;
+  }
+
+  public int getNumY() {
+    return this.numY;
+  }
+
+  /**
+   * Recomputes the table from the scores of {@code grid}.
+   *
+   * @param grid
+   *          the grid to sum, which must have the same dimensions as this
+   *          table.
+   */
+  public void build(final ScoreGrid grid) {
+    if (grid.numX != this.numX || grid.numY != this.numY) {
+      throw new IllegalArgumentException("Grid does not match table size.");
+    }
+    final int stride = this.numY + 1;
+    final float[] scores = grid.scores;
+    final double[] s = this.sums;
+    for (int x = 0; x < this.numX; ++x) {
+      double column = 0;
+      int prev = x * stride;
+      int curr = prev + stride;
+      int src = x * this.numY;
+      for (int y = 0; y < this.numY; ++y) {
+        column += scores[src + y];
+        s[curr + y + 1] = s[prev + y + 1] + column;
+      }
+    }
+  }
+
+  /**
+   * Returns the sum of the tiles in the block [x0..x1] x [y0..y1]. The block
+   * is clipped to the grid, and an empty block sums to 0.
+   *
+   * @param x0
+   *          the first x-index, inclusive.
+   * @param y0
+   *          the first y-index, inclusive.
+   * @param x1
+   *          the last x-index, inclusive.
+   * @param y1
+   *          the last y-index, inclusive.
+   * @return the sum of the tile scores in the block.
+   */
+  public float sum(int x0, int y0, int x1, int y1) {
+    if (x0 < 0) {
+      x0 = 0;
+    }
+    if (y0 < 0) {
+      y0 = 0;
+    }
+    if (x1 >= this.numX) {
+      x1 = this.numX - 1;
+    }
+    if (y1 >= this.numY) {
+      y1 = this.numY - 1;
+    }
+    if (x0 > x1 || y0 > y1) {
+      return 0f;
+    }
+    final int stride = this.numY + 1;
+    final int lo = x0 * stride;
+    final int hi = (x1 + 1) * stride;
+    return (float) (this.sums[hi + y1 + 1] - this.sums[lo + y1 + 1]
+        - this.sums[hi + y0] + this.sums[lo + y0]);
+  }
+
+  /**
+   * Returns the sum of every tile in the grid.
+   *
+   * @return the total score of the grid.
+   */
+  public float total() {
+    return (float) this.sums[this.sums.length - 1];
+  }
+
+  /**
+   * Sums each {@code factorX} x {@code factorY} block of tiles into a single
+   * tile of {@code coarse}. Blocks along the far edges may be partial.
+   *
+   * @param factorX
+   *          the number of tiles along the x-axis in each block.
+   * @param factorY
+   *          the number of tiles along the y-axis in each block.
+   * @param coarse
+   *          the grid to fill, which must be
+   *          {@code ceil(numX / factorX) x ceil(numY / factorY)}.
+   */
+  public void downsample(final int factorX, final int factorY,
+      final ScoreGrid coarse) {
+    if (factorX <= 0 || factorY <= 0) {
+      throw new IllegalArgumentException("Block size must be positive.");
+    }
+    if (coarse.numX != (this.numX + factorX - 1) / factorX
+        || coarse.numY != (this.numY + factorY - 1) / factorY) {
+      throw new IllegalArgumentException(
+          "Coarse grid does not match the block size.");
+    }
+    for (int cx = 0; cx < coarse.numX; ++cx) {
+      int x0 = cx * factorX;
+      for (int cy = 0; cy < coarse.numY; ++cy) {
+        int y0 = cy * factorY;
+        coarse.set(cx, cy,
+            this.sum(x0, y0, x0 + factorX - 1, y0 + factorY - 1));
+      }
+    }
+  }
+}
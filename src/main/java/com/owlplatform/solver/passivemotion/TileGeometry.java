@@ -0,0 +1,215 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import java.awt.geom.Rectangle2D;
+
+/**
+ * Immutable layout of the overlapping tiles covering a region. The region is
+ * divided into {@code numX + 1} by {@code numY + 1} steps, and tile (x, y)
+ * covers steps [x..x+1] x [y..y+1], so adjacent tiles overlap by half their
+ * width or height. Tile bounds are computed from their indices rather than
+ * stored.
+ *
+ * @author Robert Moore
+ *
+ */
+public final class TileGeometry {
+
+  private final float regionXMax;
+
+  private final float regionYMax;
+
+  private final int numX;
+
+  private final int numY;
+
+  /**
+   * Distance between the origins of adjacent tiles along the x-axis.
+   */
+  private final float xStep;
+
+  /**
+   * Distance between the origins of adjacent tiles along the y-axis.
+   */
+  private final float yStep;
+
+  /**
+   * Creates the layout for a region with a fixed number of tiles.
+   *
+   * @param regionXMax
+   *          the width of the region.
+   * @param regionYMax
+   *          the height of the region.
+   * @param numX
+   *          the number of tiles along the x-axis.
+   * @param numY
+   *          the number of tiles along the y-axis.
+   */
+  public TileGeometry(final float regionXMax, final float regionYMax,
+      final int numX, final int numY) {
+    super();
+    if (regionXMax <= 0 || regionYMax <= 0) {
+      throw new IllegalArgumentException("Region dimensions must be positive.");
+    }
+    if (numX <= 0 || numY <= 0) {
+      throw new IllegalArgumentException("Tile counts must be positive.");
+    }
+    this.regionXMax = regionXMax;
+    this.regionYMax = regionYMax;
+    this.numX = numX;
+    this.numY = numY;
+    this.xStep = regionXMax / (numX + 1.0f);
+    this.yStep = regionYMax / (numY + 1.0f);
+  }
+
+  /**
+   * Computes the number of overlapping tiles needed along one axis so that
+   * each tile is at most {@code desiredSize} wide.
+   *
+   * @param regionMax
+   *          the length of the region along the axis.
+   * @param desiredSize
+   *          the desired tile size along the axis.
+   * @return the number of overlapping tiles.
+   */
+  public static int tilesForSize(final float regionMax, final float desiredSize) {
+    int numTiles = (int) Math.ceil(regionMax / desiredSize);
+    return numTiles + (numTiles - 1);
+  }
+
+  public float getRegionXMax() {
+    return this.regionXMax;
+  }
+
+  public float getRegionYMax() {
+    return this.regionYMax;
+  }
+
+  public int getNumX() {
+    return this.numX;
+  }
+
+  public int getNumY() {
+    return this.numY;
+  }
+
+  public int getNumTiles() {
+    return this.numX * this.numY;
+  }
+
+  public float getXStep() {
+    return this.xStep;
+  }
+
+  public float getYStep() {
+    return this.yStep;
+  }
+
+  public float getTileWidth() {
+    return this.xStep * 2f;
+  }
+
+  public float getTileHeight() {
+    return this.yStep * 2f;
+  }
+
+  public float getTileX(final int x) {
+    return this.xStep * x;
+  }
+
+  public float getTileY(final int y) {
+    return this.yStep * y;
+  }
+
+  public float getCenterX(final int x) {
+    return this.xStep * x + this.xStep;
+  }
+
+  public float getCenterY(final int y) {
+    return this.yStep * y + this.yStep;
+  }
+
+  /**
+   * Checks whether a grid has the same dimensions as this layout.
+   *
+   * @param grid
+   *          the grid to check.
+   * @return {@code true} if the grid has one score per tile.
+   */
+  public boolean matches(final ScoreGrid grid) {
+    return grid.numX == this.numX && grid.numY == this.numY;
+  }
+
+  /**
+   * Returns a new rectangle with the bounds of tile (x, y).
+   *
+   * @param x
+   *          x-index of the tile.
+   * @param y
+   *          y-index of the tile.
+   * @return the bounds of the tile.
+   */
+  public Rectangle2D.Float createBounds(final int x, final int y) {
+    return new Rectangle2D.Float(this.xStep * x, this.yStep * y,
+        this.xStep * 2f, this.yStep * 2f);
+  }
+
+  /**
+   * Returns a new tile for (x, y).
+   *
+   * @param x
+   *          x-index of the tile.
+   * @param y
+   *          y-index of the tile.
+   * @param score
+   *          score of the tile.
+   * @return a tile with the bounds of (x, y) and the score.
+   */
+  public ScoredTile createTile(final int x, final int y, final float score) {
+    ScoredTile tile = new ScoredTile();
+    tile.setTile(this.createBounds(x, y));
+    tile.setScore(score);
+    return tile;
+  }
+
+  /**
+   * Returns a new array of tiles covering the region, all scored 0.
+   *
+   * @return the unscored tiles, indexed by [x][y].
+   */
+  public ScoredTile[][] createTiles() {
+    ScoredTile[][] allTiles = new ScoredTile[this.numX][this.numY];
+    for (int x = 0; x < this.numX; ++x) {
+      for (int y = 0; y < this.numY; ++y) {
+        allTiles[x][y] = this.createTile(x, y, 0f);
+      }
+    }
+    return allTiles;
+  }
+
+  @Override
+  public String toString() {
+    StringBuffer sb = new StringBuffer();
+    sb.append("Tile Geometry ").append(this.numX).append(" x ")
+        .append(this.numY).append(" over (").append(this.regionXMax)
+        .append(", ").append(this.regionYMax).append(")");
+    return sb.toString();
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of tile indices ({@code x * numY + y}) backed by a
+ * primitive array. Clearing the list keeps its capacity, so a list reused
+ * between ticks stops allocating once it reaches its working size.
+ *
+ * @author Robert Moore
+ *
+ */
+public class TileIndexList {
+
+  private int[] indices;
+
+  private int size = 0;
+
+  public TileIndexList() {
+    this(64);
+  }
+
+  public TileIndexList(final int capacity) {
+    super();
+    this.indices = new int[Math.max(capacity, 1)];
+  }
+
+  public void add(final int index) {
+    if (this.size == this.indices.length) {
+      this.indices = Arrays.copyOf(this.indices, this.size * 2);
+    }
+    this.indices[this.size++] = index;
+  }
+
+  public int get(final int i) {
+    return this.indices[i];
+  }
+
+  public void set(final int i, final int index) {
+    this.indices[i] = index;
+  }
+
+  public int size() {
+    return this.size;
+  }
+
+  public boolean isEmpty() {
+    return this.size == 0;
+  }
+
+  public void clear() {
+    this.size = 0;
+  }
+
+  /**
+   * Shortens the list to its first {@code newSize} entries.
+   *
+   * @param newSize
+   *          the new size, no larger than the current size.
+   */
+  public void truncate(final int newSize) {
+    if (newSize < 0 || newSize > this.size) {
+      throw new IllegalArgumentException("Invalid size: " + newSize);
+    }
+    this.size = newSize;
+  }
+
+  /**
+   * Sorts the indices in ascending order.
+   */
+  public void sort() {
+    Arrays.sort(this.indices, 0, this.size);
+  }
+
+  /**
+   * Replaces the contents of this list with those of {@code other}.
+   *
+   * @param other
+   *          the list to copy.
+   */
+  public void copyFrom(final TileIndexList other) {
+    if (this.indices.length < other.size) {
+      this.indices = new int[other.indices.length];
+    }
+    System.arraycopy(other.indices, 0, this.indices, 0, other.size);
+    this.size = other.size;
+  }
+}
@@ -0,0 +1,482 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-size history of tile scores at several resolutions. Each tier is a
+ * ring of time slots, and each slot holds the sum of every tile's score over
+ * the slot's interval along with the number of results summed. Every tier is
+ * updated directly as results are recorded, so coarser tiers never need the
+ * raw data to be replayed. The history lives outside the Java heap, either in
+ * direct buffers or mapped from a file so that it survives restarts.
+ *
+ * <p>
+ * The default tiers keep 1-second slots for an hour, 1-minute slots for a
+ * day, and 15-minute slots for a month.
+ * </p>
+ *
+ * <p>
+ * Results are recorded by a single thread. Readers never lock: each tier
+ * carries a version that is odd while a slot is being written, and a reader
+ * copies a slot again if the version changed while it was copying. A slow
+ * query therefore never holds up the solver.
+ * </p>
+ *
+ * @author Robert Moore
+ *
+ */
+public class TileScoreHistory {
+
+  /**
+   * "PMTH"
+   */
+  private static final int MAGIC = 0x504D5448;
+
+  private static final int VERSION = 1;
+
+  /**
+   * Slot length in milliseconds and number of slots of each default tier.
+   */
+  public static final long[][] DEFAULT_TIERS = { { 1000l, 3600 },
+      { 60000l, 1440 }, { 900000l, 2880 } };
+
+  /**
+   * A ring of slots at one resolution. The buffer holds the start time (long)
+   * of every slot, then the number of results (int) in every slot, then the
+   * score sums (float) of every slot.
+   */
+  private static final class Tier {
+    final long resolution;
+
+    final int capacity;
+
+    final int numTiles;
+
+    final ByteBuffer buffer;
+
+    final FloatBuffer sums;
+
+    /**
+     * Incremented before and after every write, so odd while one is under
+     * way.
+     */
+    final AtomicLong version = new AtomicLong(0);
+
+    Tier(final long resolution, final int capacity, final int numTiles,
+        final ByteBuffer buffer) {
+      this.resolution = resolution;
+      this.capacity = capacity;
+      this.numTiles = numTiles;
+      this.buffer = buffer;
+      ByteBuffer data = buffer.duplicate();
+      data.position(capacity * 12);
+      this.sums = data.slice().asFloatBuffer();
+    }
+
+    static long byteSize(final int capacity, final int numTiles) {
+      return capacity * 12l + (long) capacity * numTiles * 4l;
+    }
+
+    long getSlotTime(final int slot) {
+      return this.buffer.getLong(slot * 8);
+    }
+
+    int getCount(final int slot) {
+      return this.buffer.getInt(this.capacity * 8 + slot * 4);
+    }
+
+    void clear() {
+      for (int slot = 0; slot < this.capacity; ++slot) {
+        this.buffer.putLong(slot * 8, -1l);
+        this.buffer.putInt(this.capacity * 8 + slot * 4, 0);
+      }
+    }
+
+    /**
+     * Adds the scores to the slot containing {@code timestamp}, starting the
+     * slot over if it last held an older interval.
+     */
+    void add(final long timestamp, final float[] scores, final float[] scratch) {
+      long slotTime = timestamp - timestamp % this.resolution;
+      int slot = (int) ((timestamp / this.resolution) % this.capacity);
+      long stored = this.getSlotTime(slot);
+      if (stored > slotTime) {
+        // Older than anything the ring still holds
+        return;
+      }
+      int offset = slot * this.numTiles;
+      this.version.incrementAndGet();
+      try {
+        if (stored != slotTime) {
+          this.buffer.putLong(slot * 8, slotTime);
+          this.buffer.putInt(this.capacity * 8 + slot * 4, 0);
+          for (int i = 0; i < this.numTiles; ++i) {
+            this.sums.put(offset + i, 0f);
+          }
+        }
+        this.sums.get(offset, scratch, 0, this.numTiles);
+        for (int i = 0; i < this.numTiles; ++i) {
+          scratch[i] += scores[i];
+        }
+        this.sums.put(offset, scratch, 0, this.numTiles);
+        this.buffer.putInt(this.capacity * 8 + slot * 4,
+            this.getCount(slot) + 1);
+      } finally {
+        this.version.incrementAndGet();
+      }
+    }
+
+    /**
+     * Copies a slot's sums into {@code sums} if it overlaps the range, without
+     * blocking the writer.
+     *
+     * @return the number of results in the slot, or 0 if it is empty or
+     *         outside the range.
+     */
+    int read(final int slot, final long start, final long end,
+        final float[] sums) {
+      while (true) {
+        long before = this.version.get();
+        if ((before & 1l) != 0) {
+          Thread.onSpinWait();
+          continue;
+        }
+        long slotTime = this.getSlotTime(slot);
+        int count = 0;
+        if (slotTime >= 0 && slotTime < end
+            && slotTime + this.resolution > start) {
+          count = this.getCount(slot);
+          this.sums.get(slot * this.numTiles, sums, 0, this.numTiles);
+        }
+        VarHandle.loadLoadFence();
+        if (this.version.get() == before) {
+          return count;
+        }
+      }
+    }
+
+    /**
+     * Oldest time this tier still holds, or {@code Long.MAX_VALUE} if empty.
+     */
+    long getOldestTime() {
+      long oldest = Long.MAX_VALUE;
+      for (int slot = 0; slot < this.capacity; ++slot) {
+        long time = this.getSlotTime(slot);
+        if (time >= 0 && time < oldest) {
+          oldest = time;
+        }
+      }
+      return oldest;
+    }
+  }
+
+  private final int numX;
+
+  private final int numY;
+
+  private final Tier[] tiers;
+
+  /**
+   * File backing the history, or {@code null} if it is kept in memory.
+   */
+  private final File file;
+
+  private final float[] scratch;
+
+  private volatile long lastRecorded = -1l;
+
+  /**
+   * Returns the file for the history of one tile layout. A file that is
+   * mapped must never be resized while the mapping is in use, so each layout
+   * is kept in its own file rather than resizing a shared one when the
+   * layout changes.
+   *
+   * @param base
+   *          the configured history file.
+   * @param numX
+   *          the number of tiles along the x-axis.
+   * @param numY
+   *          the number of tiles along the y-axis.
+   * @return the file for the layout, or {@code null} if {@code base} is
+   *         {@code null}.
+   */
+  public static File fileForLayout(final File base, final int numX,
+      final int numY) {
+    if (base == null) {
+      return null;
+    }
+    return new File(base.getPath() + "." + numX + "x" + numY);
+  }
+
+  /**
+   * Creates a history with the default tiers for grids of the given size.
+   *
+   * @param numX
+   *          the number of tiles along the x-axis.
+   * @param numY
+   *          the number of tiles along the y-axis.
+   * @param file
+   *          the file to map the history from, or {@code null} to keep it in
+   *          direct buffers. An existing file for the same grid size and
+   *          tiers is reused; anything else is overwritten, so the file must
+   *          not be mapped by another history. See
+   *          {@link #fileForLayout(File, int, int)}.
+   * @throws IOException
+   *           if the file cannot be mapped.
+   */
+  public TileScoreHistory(final int numX, final int numY, final File file)
+      throws IOException {
+    this(numX, numY, DEFAULT_TIERS, file);
+  }
+
+  /**
+   * Creates a history with custom tiers.
+   *
+   * @param numX
+   *          the number of tiles along the x-axis.
+   * @param numY
+   *          the number of tiles along the y-axis.
+   * @param tierSpecs
+   *          slot length in milliseconds and number of slots of each tier,
+   *          finest first.
+   * @param file
+   *          the file to map the history from, or {@code null} to keep it in
+   *          direct buffers.
+   * @throws IOException
+   *           if the file cannot be mapped.
+   */
+  public TileScoreHistory(final int numX, final int numY,
+      final long[][] tierSpecs, final File file) throws IOException {
+    super();
+    if (numX <= 0 || numY <= 0) {
+      throw new IllegalArgumentException("Grid dimensions must be positive.");
+    }
+    final int numTiles = numX * numY;
+    for (long[] spec : tierSpecs) {
+      if (spec[0] <= 0 || spec[1] <= 0) {
+        throw new IllegalArgumentException("Invalid history tier.");
+      }
+      if (Tier.byteSize((int) spec[1], numTiles) > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("History tier is too large.");
+      }
+    }
+    this.numX = numX;
+    this.numY = numY;
+    this.file = file;
+    this.scratch = new float[numTiles];
+    this.tiers = new Tier[tierSpecs.length];
+
+    if (file == null) {
+      for (int i = 0; i < tierSpecs.length; ++i) {
+        int capacity = (int) tierSpecs[i][1];
+        this.tiers[i] = new Tier(tierSpecs[i][0], capacity, numTiles,
+            ByteBuffer.allocateDirect((int) Tier.byteSize(capacity, numTiles)));
+        this.tiers[i].clear();
+      }
+      return;
+    }
+
+    int headerLength = 4 + 4 + 4 + 4 + 4 + tierSpecs.length * 12;
+    long length = headerLength;
+    for (long[] spec : tierSpecs) {
+      length += Tier.byteSize((int) spec[1], numTiles);
+    }
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      FileChannel channel = raf.getChannel();
+      boolean reuse = channel.size() == length;
+      ByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+          headerLength);
+      if (reuse) {
+        reuse = header.getInt(0) == MAGIC && header.getInt(4) == VERSION
+            && header.getInt(8) == numX && header.getInt(12) == numY
+            && header.getInt(16) == tierSpecs.length;
+        for (int i = 0; reuse && i < tierSpecs.length; ++i) {
+          reuse = header.getLong(20 + i * 12) == tierSpecs[i][0]
+              && header.getInt(28 + i * 12) == (int) tierSpecs[i][1];
+        }
+      }
+      if (!reuse) {
+        raf.setLength(length);
+        header.putInt(0, MAGIC);
+        header.putInt(4, VERSION);
+        header.putInt(8, numX);
+        header.putInt(12, numY);
+        header.putInt(16, tierSpecs.length);
+        for (int i = 0; i < tierSpecs.length; ++i) {
+          header.putLong(20 + i * 12, tierSpecs[i][0]);
+          header.putInt(28 + i * 12, (int) tierSpecs[i][1]);
+        }
+      }
+
+      long offset = headerLength;
+      for (int i = 0; i < tierSpecs.length; ++i) {
+        int capacity = (int) tierSpecs[i][1];
+        long size = Tier.byteSize(capacity, numTiles);
+        this.tiers[i] = new Tier(tierSpecs[i][0], capacity, numTiles,
+            channel.map(FileChannel.MapMode.READ_WRITE, offset, size));
+        if (!reuse) {
+          this.tiers[i].clear();
+        }
+        offset += size;
+      }
+    } finally {
+      // Mappings remain valid after the channel is closed
+      raf.close();
+    }
+  }
+
+  public int getNumX() {
+    return this.numX;
+  }
+
+  public int getNumY() {
+    return this.numY;
+  }
+
+  public File getFile() {
+    return this.file;
+  }
+
+  /**
+   * Checks whether this history can record grids of the layout.
+   *
+   * @param geometry
+   *          the tile layout.
+   * @return {@code true} if the layout has the same number of tiles along
+   *         each axis.
+   */
+  public boolean matches(final TileGeometry geometry) {
+    return geometry.getNumX() == this.numX && geometry.getNumY() == this.numY;
+  }
+
+  /**
+   * Adds the scores of a result to every tier.
+   *
+   * @param timestamp
+   *          the time of the result, in milliseconds.
+   * @param grid
+   *          the scores of the result.
+   */
+  public synchronized void record(final long timestamp, final ScoreGrid grid) {
+    if (grid.numX != this.numX || grid.numY != this.numY) {
+      throw new IllegalArgumentException("Grid does not match history size.");
+    }
+    for (Tier tier : this.tiers) {
+      tier.add(timestamp, grid.scores, this.scratch);
+    }
+    this.lastRecorded = Math.max(this.lastRecorded, timestamp);
+  }
+
+  /**
+   * Computes the mean score of every tile over a time range, using the finest
+   * tier that still covers the start of the range. Slots that overlap the
+   * range are included in full.
+   *
+   * @param start
+   *          the start of the range, inclusive.
+   * @param end
+   *          the end of the range, exclusive.
+   * @param heatmap
+   *          the grid to fill with mean scores.
+   * @return the number of results included in the means, or 0 if the history
+   *         holds nothing in the range.
+   */
+  public int getHeatmap(final long start, final long end,
+      final ScoreGrid heatmap) {
+    if (heatmap.numX != this.numX || heatmap.numY != this.numY) {
+      throw new IllegalArgumentException("Grid does not match history size.");
+    }
+    heatmap.clear();
+    if (end <= start) {
+      return 0;
+    }
+    Tier tier = this.tiers[this.tiers.length - 1];
+    for (Tier candidate : this.tiers) {
+      if (candidate.getOldestTime() <= start) {
+        tier = candidate;
+        break;
+      }
+    }
+
+    final int numTiles = this.numX * this.numY;
+    double[] totals = new double[numTiles];
+    float[] sums = new float[numTiles];
+    int count = 0;
+    for (int slot = 0; slot < tier.capacity; ++slot) {
+      int slotCount = tier.read(slot, start, end, sums);
+      if (slotCount == 0) {
+        continue;
+      }
+      count += slotCount;
+      for (int i = 0; i < numTiles; ++i) {
+        totals[i] += sums[i];
+      }
+    }
+    if (count > 0) {
+      for (int i = 0; i < numTiles; ++i) {
+        heatmap.scores[i] = (float) (totals[i] / count);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Returns the time of the newest recorded result.
+   *
+   * @return the timestamp, or -1 if nothing has been recorded.
+   */
+  public long getLastRecorded() {
+    return this.lastRecorded;
+  }
+
+  /**
+   * Returns the oldest time still held by any tier.
+   *
+   * @return the timestamp, or -1 if the history is empty.
+   */
+  public long getOldestTime() {
+    long oldest = this.tiers[this.tiers.length - 1].getOldestTime();
+    for (Tier tier : this.tiers) {
+      oldest = Math.min(oldest, tier.getOldestTime());
+    }
+    return oldest == Long.MAX_VALUE ? -1l : oldest;
+  }
+
+  @Override
+  public String toString() {
+    StringBuffer sb = new StringBuffer();
+    sb.append("Tile Score History ").append(this.numX).append(" x ")
+        .append(this.numY).append(", ").append(this.tiers.length)
+        .append(" tiers");
+    if (this.file != null) {
+      sb.append(" in ").append(this.file);
+    }
+    return sb.toString();
+  }
+}
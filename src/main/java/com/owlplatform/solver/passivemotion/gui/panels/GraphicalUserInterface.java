@@ -75,20 +75,29 @@ public class GraphicalUserInterface extends JFrame implements
     if (tileSet == null) {
       return;
     }
+    // Keep the pooled grids alive until the tiles have been copied out
+    tileSet.retain();
     this.workers.execute(new Runnable() {
 
       @Override
       public void run() {
-        GraphicalUserInterface.this.tilePanel.clearTiles();
-        for (String desc : tileSet.getResults().keySet()) {
+        try {
+          GraphicalUserInterface.this.tilePanel.clearTiles();
+          GraphicalUserInterface.this.tilePanel.setSummaries(tileSet
+              .getSummaries());
+          for (String desc : tileSet.getResults().keySet()) {
 
-          GraphicalUserInterface.this.tilePanel.setLines(tileSet.getLines());
+            GraphicalUserInterface.this.tilePanel.setLines(tileSet.getLines());
 
-          FilteredTileResult res = tileSet.getResult(desc);
-          if (res != null && res.getTiles() != null) {
-            GraphicalUserInterface.this.tilePanel.setTiles(desc, res.getTiles());
-          }
+            FilteredTileResult res = tileSet.getResult(desc);
+            if (res != null && res.getTiles() != null) {
+              GraphicalUserInterface.this.tilePanel.setTiles(desc,
+                  res.getTiles());
+            }
 
+          }
+        } finally {
+          tileSet.release();
         }
       }
     });
@@ -51,6 +51,7 @@ import javax.swing.SwingUtilities;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.owlplatform.solver.passivemotion.AreaSummary;
 import com.owlplatform.solver.passivemotion.RSSILine;
 import com.owlplatform.solver.passivemotion.ScoredTile;
 
@@ -63,6 +64,11 @@ public class TileViewPanel extends JPanel {
 
   protected Collection<RSSILine> lines = null;
 
+  /**
+   * Connected areas of the latest result, drawn over the tiles.
+   */
+  protected Collection<AreaSummary> summaries = null;
+
   protected BufferedImage backgroundImage = null;
   protected static final Color[] COLOR_LIST = new Color[10];
   static {
@@ -90,6 +96,14 @@ public class TileViewPanel extends JPanel {
     this.lines = lines;
   }
 
+  public Collection<AreaSummary> getSummaries() {
+    return summaries;
+  }
+
+  public void setSummaries(Collection<AreaSummary> summaries) {
+    this.summaries = summaries;
+  }
+
   public TileViewPanel() {
     super();
   }
@@ -231,6 +245,24 @@ public class TileViewPanel extends JPanel {
     }
     g2.setComposite(origComposite);
 
+    if (this.summaries != null) {
+      g2.setColor(Color.WHITE);
+      Collection<AreaSummary> currSummaries = this.summaries;
+      for (AreaSummary area : currSummaries) {
+        int left = (int) (area.getMinX() * xScale);
+        int top = (int) (screenHeight - area.getMaxY() * yScale);
+        g2.drawRect(left, top,
+            (int) ((area.getMaxX() - area.getMinX()) * xScale),
+            (int) ((area.getMaxY() - area.getMinY()) * yScale));
+        int centerX = (int) (area.getX() * xScale);
+        int centerY = (int) (screenHeight - area.getY() * yScale);
+        g2.drawLine(centerX - 4, centerY, centerX + 4, centerY);
+        g2.drawLine(centerX, centerY - 4, centerX, centerY + 4);
+        g2.drawString(String.format("%d @ %04.2f", area.getNumTiles(),
+            area.getPeakScore()), left, top - 2);
+      }
+    }
+
     g2.setColor(origColor);
 
     long endRender = System.currentTimeMillis();
@@ -0,0 +1,334 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion.sim;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import com.owlplatform.solver.passivemotion.AlgorithmConfig;
+import com.owlplatform.solver.passivemotion.ClusterCoordinator;
+import com.owlplatform.solver.passivemotion.ClusterWorker;
+import com.owlplatform.solver.passivemotion.FilteredTileResultSet;
+import com.owlplatform.solver.passivemotion.PassiveMotionAlgorithm;
+import com.owlplatform.solver.passivemotion.RSSILine;
+import com.owlplatform.solver.passivemotion.RegionShard;
+import com.owlplatform.solver.passivemotion.ScoredTile;
+import com.owlplatform.solver.passivemotion.ShardScorer;
+import com.owlplatform.solver.passivemotion.TileGeometry;
+import com.thoughtworks.xstream.XStream;
+
+/**
+ * Checks a cluster against local scoring on one host. The harness starts a
+ * {@link ClusterCoordinator}, forks a number of {@link ClusterWorker} JVMs
+ * that connect to it, and drives two algorithms with the same
+ * {@link SyntheticWorkload}: one scores its shards through the coordinator,
+ * the other scores the same shards in turn on the calling thread. The
+ * published tiles of every tick must be identical.
+ * <p>
+ * One CSV row is printed with the number of shards each tick, how many
+ * shards the workers answered and how many fell back to local scoring, the
+ * number of tiles published, the number of ticks whose results differed,
+ * and the median time of each algorithm. The harness exits with a non-zero
+ * status if any tick differed, or if no shard was scored by a worker.
+ * </p>
+ * <p>
+ * The algorithm configuration must give a radius threshold small enough
+ * for the region to be split into shards.
+ * </p>
+ *
+ * @author Robert Moore
+ *
+ */
+public class ClusterHarness {
+
+  /**
+   * Simulated time between results.
+   */
+  private static final long TICK_LENGTH = 1000l;
+
+  /**
+   * Longest to wait for every worker to connect.
+   */
+  private static final long CONNECT_TIMEOUT = 30000l;
+
+  private final AlgorithmConfig config;
+
+  private final File configFile;
+
+  private int numWorkers = 2;
+
+  private int port = 7100;
+
+  private int size = 200;
+
+  private int numAnchors = 32;
+
+  private int numTargets = 2;
+
+  private int numTicks = 60;
+
+  private SyntheticRegion.Layout layout = SyntheticRegion.Layout.PERIMETER;
+
+  private long seed = 42l;
+
+  /**
+   * Creates a harness. The workers load the configuration from the same
+   * file.
+   *
+   * @param config
+   *          the algorithm configuration.
+   * @param configFile
+   *          the file the configuration was loaded from.
+   */
+  public ClusterHarness(final AlgorithmConfig config, final File configFile) {
+    super();
+    this.config = config;
+    this.configFile = configFile;
+  }
+
+  /**
+   * Runs the check and prints the results to standard out.
+   *
+   * @param args
+   *          algorithm config, then options.
+   */
+  public static void main(String[] args) {
+    if (args.length < 1) {
+      printUsageInfo();
+      return;
+    }
+    File configFile = new File(args[0]);
+    AlgorithmConfig config = (AlgorithmConfig) new XStream()
+        .fromXML(configFile);
+    ClusterHarness harness = new ClusterHarness(config, configFile);
+    try {
+      for (int i = 1; i < args.length; ++i) {
+        if (i + 1 >= args.length) {
+          printUsageInfo();
+          return;
+        }
+        String value = args[++i];
+        if (args[i - 1].equals("--workers")) {
+          harness.numWorkers = Integer.parseInt(value);
+        } else if (args[i - 1].equals("--port")) {
+          harness.port = Integer.parseInt(value);
+        } else if (args[i - 1].equals("--size")) {
+          harness.size = Integer.parseInt(value);
+        } else if (args[i - 1].equals("--anchors")) {
+          harness.numAnchors = Integer.parseInt(value);
+        } else if (args[i - 1].equals("--targets")) {
+          harness.numTargets = Integer.parseInt(value);
+        } else if (args[i - 1].equals("--ticks")) {
+          harness.numTicks = Integer.parseInt(value);
+        } else if (args[i - 1].equals("--layout")) {
+          harness.layout = SyntheticRegion.Layout.valueOf(value.toUpperCase());
+        } else if (args[i - 1].equals("--seed")) {
+          harness.seed = Long.parseLong(value);
+        } else {
+          printUsageInfo();
+          return;
+        }
+      }
+    } catch (IllegalArgumentException iae) {
+      System.err.println("Invalid option: " + iae.getMessage());
+      printUsageInfo();
+      return;
+    }
+    if (harness.numWorkers <= 0 || harness.numTicks <= 0) {
+      printUsageInfo();
+      return;
+    }
+    boolean passed;
+    try {
+      passed = harness.run();
+    } catch (IOException ioe) {
+      System.err.println("Unable to run cluster: " + ioe.getMessage());
+      passed = false;
+    } catch (InterruptedException ie) {
+      passed = false;
+    }
+    System.exit(passed ? 0 : 1);
+  }
+
+  public static void printUsageInfo() {
+    System.out
+        .println("Usage: <algorithm config> [--workers N] [--port P] [--size W] [--anchors N] [--targets N] "
+            + "[--ticks N] [--layout perimeter|grid|random] [--seed N]");
+  }
+
+  /**
+   * Starts the coordinator and workers, runs every tick, and stops them.
+   *
+   * @return {@code true} if every tick matched and the workers scored at
+   *         least one shard.
+   * @throws IOException
+   *           if the coordinator or a worker cannot be started.
+   * @throws InterruptedException
+   *           if interrupted while waiting for the workers.
+   */
+  public boolean run() throws IOException, InterruptedException {
+    ClusterCoordinator coordinator = new ClusterCoordinator(this.port);
+    coordinator.start();
+    List<Process> workers = new ArrayList<Process>();
+    PassiveMotionAlgorithm local = null;
+    PassiveMotionAlgorithm clustered = null;
+    try {
+      String java = System.getProperty("java.home") + File.separator + "bin"
+          + File.separator + "java";
+      for (int i = 0; i < this.numWorkers; ++i) {
+        workers.add(new ProcessBuilder(java, "-cp", System
+            .getProperty("java.class.path"), ClusterWorker.class.getName(),
+            "localhost", String.valueOf(this.port),
+            this.configFile.getPath(), "worker-" + i).inheritIO().start());
+      }
+      long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+      while (coordinator.getNumWorkers() < this.numWorkers) {
+        if (System.currentTimeMillis() > deadline) {
+          throw new IOException("Only " + coordinator.getNumWorkers()
+              + " of " + this.numWorkers + " workers connected.");
+        }
+        Thread.sleep(100l);
+      }
+
+      local = new PassiveMotionAlgorithm(this.config);
+      local.setShardScorer(new ShardScorer() {
+        public void scoreShards(final PassiveMotionAlgorithm algorithm,
+            final RegionShard[] shards, final TileGeometry geometry,
+            final List<RSSILine> lines) {
+          for (RegionShard shard : shards) {
+            algorithm.scoreShard(shard, geometry, lines);
+          }
+        }
+      });
+      clustered = new PassiveMotionAlgorithm(this.config);
+      clustered.setShardScorer(coordinator);
+      return this.compare(local, clustered, coordinator);
+    } finally {
+      coordinator.stop();
+      for (Process worker : workers) {
+        worker.destroy();
+      }
+      if (local != null) {
+        local.shutdown();
+      }
+      if (clustered != null) {
+        clustered.shutdown();
+      }
+    }
+  }
+
+  private boolean compare(final PassiveMotionAlgorithm local,
+      final PassiveMotionAlgorithm clustered,
+      final ClusterCoordinator coordinator) {
+    // Identical seeds, so both algorithms see identical anchors and variance
+    int numTx = this.numAnchors / 2;
+    int numRx = this.numAnchors - numTx;
+    Random localRand = new Random(this.seed);
+    Random clusterRand = new Random(this.seed);
+    SyntheticRegion localRegion = new SyntheticRegion("sim", this.size,
+        this.size * 0.75f, numTx, numRx, this.layout, localRand);
+    SyntheticRegion clusterRegion = new SyntheticRegion("sim", this.size,
+        this.size * 0.75f, numTx, numRx, this.layout, clusterRand);
+    localRegion.apply(local);
+    clusterRegion.apply(clustered);
+    SyntheticWorkload localWork = new SyntheticWorkload(localRegion,
+        this.numTargets, localRand);
+    SyntheticWorkload clusterWork = new SyntheticWorkload(clusterRegion,
+        this.numTargets, clusterRand);
+
+    long[] localTimes = new long[this.numTicks];
+    long[] clusterTimes = new long[this.numTicks];
+    int numDiffering = 0;
+    int numTiles = 0;
+    long time = 0l;
+    for (int tick = 0; tick < this.numTicks; ++tick) {
+      time += TICK_LENGTH;
+      localWork.step(TICK_LENGTH / 1000f);
+      clusterWork.step(TICK_LENGTH / 1000f);
+      localWork.emitVariance(local, time);
+      clusterWork.emitVariance(clustered, time);
+
+      long start = System.nanoTime();
+      FilteredTileResultSet localResults = local.generateResults(time);
+      localTimes[tick] = System.nanoTime() - start;
+      start = System.nanoTime();
+      FilteredTileResultSet clusterResults = clustered.generateResults(time);
+      clusterTimes[tick] = System.nanoTime() - start;
+
+      if (localResults != null && localResults.getTilesToPublish() != null) {
+        numTiles += localResults.getTilesToPublish().size();
+      }
+      if (!describe(localResults).equals(describe(clusterResults))) {
+        ++numDiffering;
+        System.err.println("Tick " + tick + " differs.");
+      }
+      if (localResults != null) {
+        localResults.release();
+      }
+      if (clusterResults != null) {
+        clusterResults.release();
+      }
+    }
+
+    long remote = coordinator.getNumRemoteShards();
+    long fallback = coordinator.getNumLocalShards();
+    Arrays.sort(localTimes);
+    Arrays.sort(clusterTimes);
+    System.out.println("workers,ticks,shardsPerTick,remoteShards,localShards,"
+        + "tiles,differingTicks,localMedianMs,clusterMedianMs");
+    StringBuffer sb = new StringBuffer();
+    sb.append(this.numWorkers).append(',').append(this.numTicks).append(',')
+        .append((remote + fallback) / this.numTicks).append(',')
+        .append(remote).append(',').append(fallback).append(',')
+        .append(numTiles).append(',').append(numDiffering).append(',')
+        .append(format(localTimes[this.numTicks / 2] / 1e6)).append(',')
+        .append(format(clusterTimes[this.numTicks / 2] / 1e6));
+    System.out.println(sb.toString());
+    if (remote + fallback == 0) {
+      System.err.println("The region was not split into shards; "
+          + "lower the radius threshold.");
+    }
+    return numDiffering == 0 && remote > 0;
+  }
+
+  /**
+   * Lists the bounds and score of every published tile.
+   */
+  private static String describe(final FilteredTileResultSet results) {
+    StringBuffer sb = new StringBuffer();
+    Collection<ScoredTile> tiles = results == null ? null : results
+        .getTilesToPublish();
+    if (tiles != null) {
+      for (ScoredTile tile : tiles) {
+        sb.append(tile.getTile()).append('=')
+            .append(Float.floatToIntBits(tile.getScore())).append(';');
+      }
+    }
+    return sb.toString();
+  }
+
+  private static String format(final double value) {
+    return String.format("%.3f", Double.valueOf(value));
+  }
+}
@@ -0,0 +1,283 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion.sim;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+import com.owlplatform.solver.passivemotion.AlgorithmConfig;
+import com.owlplatform.solver.passivemotion.FilteredTileResultSet;
+import com.owlplatform.solver.passivemotion.PassiveMotionAlgorithm;
+import com.owlplatform.solver.passivemotion.ScoredTile;
+import com.thoughtworks.xstream.XStream;
+
+/**
+ * Measures how solve time and accuracy scale with region size, anchor count,
+ * and number of moving targets. For every combination, a fresh algorithm is
+ * driven by a {@link SyntheticWorkload} for a number of one-second ticks, and
+ * one CSV row is printed with the latency percentiles of
+ * {@link PassiveMotionAlgorithm#generateResults()} and how closely the
+ * published tiles match the true target positions.
+ *
+ * @author Robert Moore
+ *
+ */
+public class ScalingHarness {
+
+  /**
+   * Simulated time between results.
+   */
+  private static final long TICK_LENGTH = 1000l;
+
+  private final AlgorithmConfig config;
+
+  private int[] sizes = { 50, 100, 200, 400 };
+
+  private int[] anchorCounts = { 8, 16, 32 };
+
+  private int[] targetCounts = { 0, 1, 2, 4 };
+
+  private SyntheticRegion.Layout layout = SyntheticRegion.Layout.PERIMETER;
+
+  private int numTicks = 60;
+
+  private int warmupTicks = 10;
+
+  private float hitRadius = 10f;
+
+  private float noiseSigma = 0.3f;
+
+  private float amplitude = 20f;
+
+  private long seed = 42l;
+
+  /**
+   * Creates a harness for an algorithm configuration. The configuration is
+   * shared by every run and must not be modified while running.
+   * 
+   * @param config
+   *          the algorithm configuration.
+   */
+  public ScalingHarness(final AlgorithmConfig config) {
+    super();
+    this.config = config;
+  }
+
+  /**
+   * Runs the sweep and prints the results to standard out.
+   *
+   * @param args
+   *          algorithm config, then options.
+   */
+  public static void main(String[] args) {
+    if (args.length < 1) {
+      printUsageInfo();
+      return;
+    }
+    AlgorithmConfig config = (AlgorithmConfig) new XStream()
+        .fromXML(new File(args[0]));
+    ScalingHarness harness = new ScalingHarness(config);
+    try {
+      for (int i = 1; i < args.length; ++i) {
+        if (i + 1 >= args.length) {
+          printUsageInfo();
+          return;
+        }
+        String value = args[++i];
+        if (args[i - 1].equals("--sizes")) {
+          harness.sizes = parseInts(value);
+        } else if (args[i - 1].equals("--anchors")) {
+          harness.anchorCounts = parseInts(value);
+        } else if (args[i - 1].equals("--targets")) {
+          harness.targetCounts = parseInts(value);
+        } else if (args[i - 1].equals("--layout")) {
+          harness.layout = SyntheticRegion.Layout.valueOf(value.toUpperCase());
+        } else if (args[i - 1].equals("--ticks")) {
+          harness.numTicks = Integer.parseInt(value);
+        } else if (args[i - 1].equals("--warmup")) {
+          harness.warmupTicks = Integer.parseInt(value);
+        } else if (args[i - 1].equals("--hit-radius")) {
+          harness.hitRadius = Float.parseFloat(value);
+        } else if (args[i - 1].equals("--noise")) {
+          harness.noiseSigma = Float.parseFloat(value);
+        } else if (args[i - 1].equals("--amplitude")) {
+          harness.amplitude = Float.parseFloat(value);
+        } else if (args[i - 1].equals("--seed")) {
+          harness.seed = Long.parseLong(value);
+        } else {
+          printUsageInfo();
+          return;
+        }
+      }
+    } catch (IllegalArgumentException iae) {
+      System.err.println("Invalid option: " + iae.getMessage());
+      printUsageInfo();
+      return;
+    }
+    if (harness.numTicks <= 0) {
+      printUsageInfo();
+      return;
+    }
+    harness.run();
+  }
+
+  public static void printUsageInfo() {
+    System.out
+        .println("Usage: <algorithm config> [--sizes 50,100,...] [--anchors 8,16,...] [--targets 0,1,...] "
+            + "[--layout perimeter|grid|random] [--ticks N] [--warmup N] [--hit-radius R] [--noise S] [--amplitude A] [--seed N]");
+  }
+
+  private static int[] parseInts(final String list) {
+    String[] parts = list.split(",");
+    int[] values = new int[parts.length];
+    for (int i = 0; i < parts.length; ++i) {
+      values[i] = Integer.parseInt(parts[i].trim());
+    }
+    return values;
+  }
+
+  /**
+   * Runs every combination of region size, anchor count, and target count.
+   */
+  public void run() {
+    System.out.println("width,height,anchors,links,targets,tiles,avgLines,"
+        + "medianMs,p95Ms,maxMs,detectionRate,meanErrorDist,falseTileRate");
+    for (int size : this.sizes) {
+      for (int anchors : this.anchorCounts) {
+        for (int targets : this.targetCounts) {
+          this.runOne(size, size * 0.75f, anchors, targets);
+        }
+      }
+    }
+  }
+
+  private void runOne(final float width, final float height,
+      final int numAnchors, final int numTargets) {
+    Random rand = new Random(this.seed);
+    PassiveMotionAlgorithm algorithm = new PassiveMotionAlgorithm(this.config);
+    int numTx = numAnchors / 2;
+    int numRx = numAnchors - numTx;
+    SyntheticRegion region = new SyntheticRegion("sim", width, height, numTx,
+        numRx, this.layout, rand);
+    region.apply(algorithm);
+    SyntheticWorkload workload = new SyntheticWorkload(region, numTargets,
+        rand);
+    workload.setNoiseSigma(this.noiseSigma);
+    workload.setTargetAmplitude(this.amplitude);
+
+    long[] latencies = new long[this.numTicks];
+    long time = 0l;
+    long totalLines = 0;
+    int targetsSeen = 0;
+    int targetsFound = 0;
+    double errorSum = 0;
+    int tilesPublished = 0;
+    int falseTiles = 0;
+    float hit2 = this.hitRadius * this.hitRadius;
+
+    for (int tick = -this.warmupTicks; tick < this.numTicks; ++tick) {
+      time += TICK_LENGTH;
+      workload.step(TICK_LENGTH / 1000f);
+      workload.emitVariance(algorithm, time);
+
+      long start = System.nanoTime();
+      FilteredTileResultSet results = algorithm.generateResults();
+      long elapsed = System.nanoTime() - start;
+      if (tick < 0 || results == null) {
+        if (results != null) {
+          results.release();
+        }
+        continue;
+      }
+      latencies[tick] = elapsed;
+      if (results.getLines() != null) {
+        totalLines += results.getLines().size();
+      }
+
+      Collection<ScoredTile> tiles = results.getTilesToPublish();
+      float[] centers = new float[tiles == null ? 0 : tiles.size() * 2];
+      if (tiles != null) {
+        int i = 0;
+        for (ScoredTile tile : tiles) {
+          centers[i++] = (float) tile.getTile().getCenterX();
+          centers[i++] = (float) tile.getTile().getCenterY();
+        }
+      }
+      results.release();
+
+      // Nearest published tile to each target
+      for (int t = 0; t < numTargets; ++t) {
+        float best = Float.MAX_VALUE;
+        for (int i = 0; i < centers.length; i += 2) {
+          float dx = centers[i] - workload.getTargetX(t);
+          float dy = centers[i + 1] - workload.getTargetY(t);
+          best = Math.min(best, dx * dx + dy * dy);
+        }
+        ++targetsSeen;
+        if (best <= hit2) {
+          ++targetsFound;
+          errorSum += Math.sqrt(best);
+        }
+      }
+      // Published tiles far from every target
+      for (int i = 0; i < centers.length; i += 2) {
+        boolean near = false;
+        for (int t = 0; t < numTargets && !near; ++t) {
+          float dx = centers[i] - workload.getTargetX(t);
+          float dy = centers[i + 1] - workload.getTargetY(t);
+          near = dx * dx + dy * dy <= hit2;
+        }
+        ++tilesPublished;
+        if (!near) {
+          ++falseTiles;
+        }
+      }
+    }
+
+    Arrays.sort(latencies);
+    StringBuffer sb = new StringBuffer();
+    sb.append(width).append(',').append(height).append(',')
+        .append(numAnchors).append(',').append(numTx * numRx).append(',')
+        .append(numTargets).append(',')
+        .append(algorithm.getGeometry() == null ? 0 : algorithm.getGeometry()
+            .getNumTiles()).append(',')
+        .append(format((double) totalLines / this.numTicks)).append(',')
+        .append(format(percentile(latencies, 0.5) / 1e6)).append(',')
+        .append(format(percentile(latencies, 0.95) / 1e6)).append(',')
+        .append(format(latencies[latencies.length - 1] / 1e6)).append(',')
+        .append(targetsSeen == 0 ? "" : format((double) targetsFound
+            / targetsSeen)).append(',')
+        .append(targetsFound == 0 ? "" : format(errorSum / targetsFound))
+        .append(',')
+        .append(tilesPublished == 0 ? "" : format((double) falseTiles
+            / tilesPublished));
+    System.out.println(sb.toString());
+  }
+
+  private static double percentile(final long[] sorted, final double p) {
+    int index = (int) Math.ceil(p * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+  }
+
+  private static String format(final double value) {
+    return String.format("%.3f", Double.valueOf(value));
+  }
+}
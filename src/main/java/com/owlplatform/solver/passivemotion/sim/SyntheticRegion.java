@@ -0,0 +1,218 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion.sim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.owlplatform.solver.passivemotion.PassiveMotionAlgorithm;
+import com.owlplatform.solver.passivemotion.Receiver;
+import com.owlplatform.solver.passivemotion.Transmitter;
+
+/**
+ * A rectangular region with transmitters and receivers placed in one of
+ * several layouts, for driving the algorithm without hardware.
+ *
+ * @author Robert Moore
+ *
+ */
+public class SyntheticRegion {
+
+  /**
+   * How anchors are placed in the region.
+   */
+  public static enum Layout {
+    /**
+     * Evenly spaced around the walls, alternating transmitters and
+     * receivers.
+     */
+    PERIMETER,
+    /**
+     * On a uniform grid covering the region, alternating transmitters and
+     * receivers.
+     */
+    GRID,
+    /**
+     * Uniformly at random.
+     */
+    RANDOM
+  }
+
+  /**
+   * Distance kept between anchors and the walls.
+   */
+  private static final float WALL_MARGIN = 1f;
+
+  private final String regionId;
+
+  private final float width;
+
+  private final float height;
+
+  private final List<Transmitter> transmitters = new ArrayList<Transmitter>();
+
+  private final List<Receiver> receivers = new ArrayList<Receiver>();
+
+  /**
+   * Creates a region and places its anchors.
+   *
+   * @param regionId
+   *          the name of the region.
+   * @param width
+   *          the size of the region along the x-axis.
+   * @param height
+   *          the size of the region along the y-axis.
+   * @param numTransmitters
+   *          the number of transmitters.
+   * @param numReceivers
+   *          the number of receivers.
+   * @param layout
+   *          how to place the anchors.
+   * @param rand
+   *          source of randomness for the {@link Layout#RANDOM} layout.
+   */
+  public SyntheticRegion(final String regionId, final float width,
+      final float height, final int numTransmitters, final int numReceivers,
+      final Layout layout, final Random rand) {
+    super();
+    if (width <= 2 * WALL_MARGIN || height <= 2 * WALL_MARGIN) {
+      throw new IllegalArgumentException("Region is too small.");
+    }
+    this.regionId = regionId;
+    this.width = width;
+    this.height = height;
+
+    int total = numTransmitters + numReceivers;
+    float[] xs = new float[total];
+    float[] ys = new float[total];
+    switch (layout) {
+    case PERIMETER:
+      this.placePerimeter(xs, ys);
+      break;
+    case GRID:
+      this.placeGrid(xs, ys);
+      break;
+    default:
+      for (int i = 0; i < total; ++i) {
+        xs[i] = WALL_MARGIN + rand.nextFloat() * (width - 2 * WALL_MARGIN);
+        ys[i] = WALL_MARGIN + rand.nextFloat() * (height - 2 * WALL_MARGIN);
+      }
+      break;
+    }
+
+    // Alternate types so both are spread over the whole layout
+    int nextTx = 0;
+    int nextRx = 0;
+    for (int i = 0; i < total; ++i) {
+      boolean transmitter = nextRx >= numReceivers
+          || (nextTx < numTransmitters && (i % 2 == 0));
+      if (transmitter) {
+        Transmitter tx = new Transmitter();
+        tx.setRegionUri(regionId);
+        tx.setDeviceId("tx" + nextTx++);
+        tx.setxLocation(xs[i]);
+        tx.setyLocation(ys[i]);
+        this.transmitters.add(tx);
+      } else {
+        Receiver rx = new Receiver();
+        rx.setRegionUri(regionId);
+        rx.setDeviceId("rx" + nextRx++);
+        rx.setxLocation(xs[i]);
+        rx.setyLocation(ys[i]);
+        this.receivers.add(rx);
+      }
+    }
+  }
+
+  private void placePerimeter(final float[] xs, final float[] ys) {
+    float w = this.width - 2 * WALL_MARGIN;
+    float h = this.height - 2 * WALL_MARGIN;
+    float perimeter = 2 * (w + h);
+    for (int i = 0; i < xs.length; ++i) {
+      float d = perimeter * (i + 0.5f) / xs.length;
+      if (d < w) {
+        xs[i] = d;
+        ys[i] = 0;
+      } else if (d < w + h) {
+        xs[i] = w;
+        ys[i] = d - w;
+      } else if (d < 2 * w + h) {
+        xs[i] = w - (d - w - h);
+        ys[i] = h;
+      } else {
+        xs[i] = 0;
+        ys[i] = h - (d - 2 * w - h);
+      }
+      xs[i] += WALL_MARGIN;
+      ys[i] += WALL_MARGIN;
+    }
+  }
+
+  private void placeGrid(final float[] xs, final float[] ys) {
+    // Columns and rows in proportion to the region's aspect ratio
+    int cols = Math.max(1,
+        (int) Math.ceil(Math.sqrt(xs.length * this.width / this.height)));
+    int rows = (xs.length + cols - 1) / cols;
+    float w = this.width - 2 * WALL_MARGIN;
+    float h = this.height - 2 * WALL_MARGIN;
+    for (int i = 0; i < xs.length; ++i) {
+      xs[i] = WALL_MARGIN + w * (i % cols + 0.5f) / cols;
+      ys[i] = WALL_MARGIN + h * (i / cols + 0.5f) / rows;
+    }
+  }
+
+  /**
+   * Sets the region's dimensions and anchors on the algorithm.
+   *
+   * @param algorithm
+   *          the algorithm to configure.
+   */
+  public void apply(final PassiveMotionAlgorithm algorithm) {
+    algorithm.setRegionUri(this.regionId);
+    algorithm.setRegionXMax(this.width);
+    algorithm.setRegionYMax(this.height);
+    for (Transmitter tx : this.transmitters) {
+      algorithm.addTransmitter(tx);
+    }
+    for (Receiver rx : this.receivers) {
+      algorithm.addReceiver(rx);
+    }
+  }
+
+  public String getRegionId() {
+    return this.regionId;
+  }
+
+  public float getWidth() {
+    return this.width;
+  }
+
+  public float getHeight() {
+    return this.height;
+  }
+
+  public List<Transmitter> getTransmitters() {
+    return this.transmitters;
+  }
+
+  public List<Receiver> getReceivers() {
+    return this.receivers;
+  }
+}
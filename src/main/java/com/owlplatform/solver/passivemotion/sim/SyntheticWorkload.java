@@ -0,0 +1,216 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion.sim;
+
+import java.awt.geom.Line2D;
+import java.util.Random;
+
+import com.owlplatform.solver.passivemotion.PassiveMotionAlgorithm;
+import com.owlplatform.solver.passivemotion.Receiver;
+import com.owlplatform.solver.passivemotion.Transmitter;
+
+/**
+ * Moving targets in a {@link SyntheticRegion} and the link variance they
+ * cause. Every link has a noisy quiet-period variance, and each target near
+ * a link's line of sight raises its variance, most strongly when standing on
+ * the line. Targets walk between random waypoints.
+ *
+ * @author Robert Moore
+ *
+ */
+public class SyntheticWorkload {
+
+  private final SyntheticRegion region;
+
+  private final Random rand;
+
+  private final float[] targetX;
+
+  private final float[] targetY;
+
+  private final float[] waypointX;
+
+  private final float[] waypointY;
+
+  /**
+   * Mean variance of a link with nothing moving nearby.
+   */
+  private float noiseMean = 0.4f;
+
+  /**
+   * Spread of the quiet-period variance.
+   */
+  private float noiseSigma = 0.3f;
+
+  /**
+   * Variance added by a target standing on a link's line of sight.
+   */
+  private float targetAmplitude = 20f;
+
+  /**
+   * Distance from the line of sight at which a target stops affecting a
+   * link.
+   */
+  private float influenceWidth = 4f;
+
+  /**
+   * Walking speed of the targets, in region units per second.
+   */
+  private float targetSpeed = 1.5f;
+
+  /**
+   * Creates a workload with targets at random positions.
+   *
+   * @param region
+   *          the region the targets move in.
+   * @param numTargets
+   *          the number of moving targets.
+   * @param rand
+   *          source of randomness.
+   */
+  public SyntheticWorkload(final SyntheticRegion region, final int numTargets,
+      final Random rand) {
+    super();
+    this.region = region;
+    this.rand = rand;
+    this.targetX = new float[numTargets];
+    this.targetY = new float[numTargets];
+    this.waypointX = new float[numTargets];
+    this.waypointY = new float[numTargets];
+    for (int i = 0; i < numTargets; ++i) {
+      this.targetX[i] = rand.nextFloat() * region.getWidth();
+      this.targetY[i] = rand.nextFloat() * region.getHeight();
+      this.pickWaypoint(i);
+    }
+  }
+
+  private void pickWaypoint(final int target) {
+    this.waypointX[target] = this.rand.nextFloat() * this.region.getWidth();
+    this.waypointY[target] = this.rand.nextFloat() * this.region.getHeight();
+  }
+
+  /**
+   * Moves every target toward its waypoint.
+   *
+   * @param seconds
+   *          the time that has passed.
+   */
+  public void step(final float seconds) {
+    float distance = this.targetSpeed * seconds;
+    for (int i = 0; i < this.targetX.length; ++i) {
+      float dx = this.waypointX[i] - this.targetX[i];
+      float dy = this.waypointY[i] - this.targetY[i];
+      float remaining = (float) Math.sqrt(dx * dx + dy * dy);
+      if (remaining <= distance) {
+        this.targetX[i] = this.waypointX[i];
+        this.targetY[i] = this.waypointY[i];
+        this.pickWaypoint(i);
+      } else {
+        this.targetX[i] += dx * distance / remaining;
+        this.targetY[i] += dy * distance / remaining;
+      }
+    }
+  }
+
+  /**
+   * Computes the variance of every link for the current target positions
+   * and adds it to the algorithm.
+   *
+   * @param algorithm
+   *          the algorithm to update.
+   * @param timestamp
+   *          the time of the variance values.
+   * @return the number of links updated.
+   */
+  public int emitVariance(final PassiveMotionAlgorithm algorithm,
+      final long timestamp) {
+    int numLinks = 0;
+    for (Receiver rx : this.region.getReceivers()) {
+      for (Transmitter tx : this.region.getTransmitters()) {
+        float variance = this.noiseMean
+            + Math.abs((float) this.rand.nextGaussian() * this.noiseSigma);
+        for (int i = 0; i < this.targetX.length; ++i) {
+          double d = Line2D.ptSegDist(rx.getxLocation(), rx.getyLocation(),
+              tx.getxLocation(), tx.getyLocation(), this.targetX[i],
+              this.targetY[i]);
+          if (d < this.influenceWidth) {
+            double falloff = 1 - d / this.influenceWidth;
+            variance += (float) (this.targetAmplitude * falloff * falloff);
+          }
+        }
+        algorithm.addVariance(rx.getDeviceId(), tx.getDeviceId(), variance,
+            timestamp);
+        ++numLinks;
+      }
+    }
+    return numLinks;
+  }
+
+  public int getNumTargets() {
+    return this.targetX.length;
+  }
+
+  public float getTargetX(final int target) {
+    return this.targetX[target];
+  }
+
+  public float getTargetY(final int target) {
+    return this.targetY[target];
+  }
+
+  public float getNoiseMean() {
+    return this.noiseMean;
+  }
+
+  public void setNoiseMean(float noiseMean) {
+    this.noiseMean = noiseMean;
+  }
+
+  public float getNoiseSigma() {
+    return this.noiseSigma;
+  }
+
+  public void setNoiseSigma(float noiseSigma) {
+    this.noiseSigma = noiseSigma;
+  }
+
+  public float getTargetAmplitude() {
+    return this.targetAmplitude;
+  }
+
+  public void setTargetAmplitude(float targetAmplitude) {
+    this.targetAmplitude = targetAmplitude;
+  }
+
+  public float getInfluenceWidth() {
+    return this.influenceWidth;
+  }
+
+  public void setInfluenceWidth(float influenceWidth) {
+    this.influenceWidth = influenceWidth;
+  }
+
+  public float getTargetSpeed() {
+    return this.targetSpeed;
+  }
+
+  public void setTargetSpeed(float targetSpeed) {
+    this.targetSpeed = targetSpeed;
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Reads files written by {@link ColumnarResultWriter} back field by field.
+ *
+ * @author Robert Moore
+ *
+ */
+public class ColumnarResultWriterTest {
+
+  private static final long INTERVAL = 1000l;
+
+  private final TileGeometry geometry = new TileGeometry(50f, 40f, 6, 5);
+
+  private File file;
+
+  @Before
+  public void createFile() throws IOException {
+    this.file = File.createTempFile("results", ".pmc");
+  }
+
+  @After
+  public void deleteFile() {
+    this.file.delete();
+  }
+
+  /**
+   * A grid with a positive score on every {@code stride}th tile, offset by
+   * {@code result}.
+   */
+  private ScoreGrid grid(final int result, final int stride) {
+    ScoreGrid grid = new ScoreGrid(this.geometry.getNumX(),
+        this.geometry.getNumY());
+    float[] scores = grid.getScores();
+    for (int i = result % stride; i < scores.length; i += stride) {
+      scores[i] = result + i / 100f;
+    }
+    return grid;
+  }
+
+  private DataInputStream readHeader() throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(this.file)));
+    assertEquals(ColumnarResultWriter.MAGIC, in.readInt());
+    assertEquals(ColumnarResultWriter.VERSION, in.readInt());
+    assertEquals(50f, in.readFloat(), 0f);
+    assertEquals(40f, in.readFloat(), 0f);
+    assertEquals(6, in.readInt());
+    assertEquals(5, in.readInt());
+    assertEquals(INTERVAL, in.readLong());
+    return in;
+  }
+
+  @Test
+  public void testHeaderOnly() throws IOException {
+    new ColumnarResultWriter(this.file, this.geometry, INTERVAL).close();
+    assertEquals(32l, this.file.length());
+    DataInputStream in = this.readHeader();
+    try {
+      assertEquals(-1, in.read());
+    } finally {
+      in.close();
+    }
+  }
+
+  @Test
+  public void testRowGroupsReadBack() throws IOException {
+    ColumnarResultWriter writer = new ColumnarResultWriter(this.file,
+        this.geometry, INTERVAL);
+    // Enough results and tiles to grow every column of the group
+    final int numResults = 100;
+    ColumnarResultWriter.RowGroup first = new ColumnarResultWriter.RowGroup(
+        5000l);
+    int expectedTiles = 0;
+    for (int r = 0; r < numResults; ++r) {
+      ScoreGrid grid = this.grid(r, 3);
+      first.addResult(5000l + r * INTERVAL, grid);
+      for (float score : grid.getScores()) {
+        if (score > 0f) {
+          ++expectedTiles;
+        }
+      }
+    }
+    assertEquals(numResults, first.getNumResults());
+    assertEquals(expectedTiles, first.getNumTiles());
+    writer.write(first);
+
+    ColumnarResultWriter.RowGroup second = new ColumnarResultWriter.RowGroup(
+        200000l);
+    second.addResult(200000l, null);
+    second.addResult(202000l, this.grid(1, 7));
+    writer.write(second);
+    writer.close();
+
+    DataInputStream in = this.readHeader();
+    try {
+      assertEquals(5000l, in.readLong());
+      assertEquals(numResults, in.readInt());
+      assertEquals(expectedTiles, in.readInt());
+      int[] sizes = new int[numResults];
+      for (int r = 0; r < numResults; ++r) {
+        assertEquals(r * (int) INTERVAL, in.readInt());
+      }
+      for (int r = 0; r < numResults; ++r) {
+        sizes[r] = in.readInt();
+      }
+      int[] tiles = new int[expectedTiles];
+      for (int t = 0; t < expectedTiles; ++t) {
+        tiles[t] = in.readInt();
+      }
+      int t = 0;
+      for (int r = 0; r < numResults; ++r) {
+        float[] scores = this.grid(r, 3).getScores();
+        int count = 0;
+        for (int i = 0; i < scores.length; ++i) {
+          if (scores[i] > 0f) {
+            assertEquals(i, tiles[t + count]);
+            ++count;
+          }
+        }
+        assertEquals(count, sizes[r]);
+        t += count;
+      }
+      for (int s = 0; s < expectedTiles; ++s) {
+        float score = in.readFloat();
+        int result = -1;
+        for (int r = 0, end = 0; r < numResults; ++r) {
+          end += sizes[r];
+          if (s < end) {
+            result = r;
+            break;
+          }
+        }
+        assertEquals(result + tiles[s] / 100f, score, 0f);
+      }
+
+      assertEquals(200000l, in.readLong());
+      assertEquals(2, in.readInt());
+      float[] scores = this.grid(1, 7).getScores();
+      int numTiles = 0;
+      for (float score : scores) {
+        if (score > 0f) {
+          ++numTiles;
+        }
+      }
+      assertEquals(numTiles, in.readInt());
+      assertEquals(0, in.readInt());
+      assertEquals(2000, in.readInt());
+      assertEquals(0, in.readInt());
+      assertEquals(numTiles, in.readInt());
+      for (int i = 1; i < scores.length; i += 7) {
+        assertEquals(i, in.readInt());
+      }
+      for (int i = 1; i < scores.length; i += 7) {
+        assertEquals(scores[i], in.readFloat(), 0f);
+      }
+      assertEquals(-1, in.read());
+    } finally {
+      in.close();
+    }
+  }
+
+  @Test
+  public void testZeroScoresOmitted() {
+    ColumnarResultWriter.RowGroup group = new ColumnarResultWriter.RowGroup(0l);
+    ScoreGrid grid = new ScoreGrid(3, 3);
+    grid.set(1, 1, 2f);
+    grid.set(2, 0, -1f);
+    group.addResult(0l, grid);
+    group.addResult(1000l, new ScoreGrid(3, 3));
+    assertEquals(2, group.getNumResults());
+    assertEquals(1, group.getNumTiles());
+  }
+}
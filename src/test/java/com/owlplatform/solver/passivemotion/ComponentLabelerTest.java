@@ -0,0 +1,191 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks the areas found by {@link ComponentLabeler} against a flood fill.
+ *
+ * @author Robert Moore
+ *
+ */
+public class ComponentLabelerTest {
+
+  private static final float TOLERANCE = 1e-4f;
+
+  /**
+   * Tiles one unit apart and two units wide, so tile {@code (x, y)} covers
+   * {@code [x, x + 2] x [y, y + 2]} and is centered on {@code (x + 1, y + 1)}.
+   */
+  private static TileGeometry unitGeometry(final int numX, final int numY) {
+    return new TileGeometry(numX + 1, numY + 1, numX, numY);
+  }
+
+  /**
+   * Sizes of the 8-connected areas of tiles at or above the threshold, in
+   * order of each area's first tile.
+   */
+  private static List<Integer> floodFill(final ScoreGrid grid,
+      final float threshold) {
+    final int numX = grid.getNumX();
+    final int numY = grid.getNumY();
+    boolean[] seen = new boolean[numX * numY];
+    List<Integer> sizes = new ArrayList<Integer>();
+    int[] stack = new int[numX * numY];
+    for (int start = 0; start < seen.length; ++start) {
+      if (seen[start] || grid.getScores()[start] < threshold) {
+        continue;
+      }
+      int size = 0;
+      int top = 0;
+      stack[top++] = start;
+      seen[start] = true;
+      while (top > 0) {
+        int index = stack[--top];
+        ++size;
+        int x = index / numY;
+        int y = index % numY;
+        for (int dx = -1; dx <= 1; ++dx) {
+          for (int dy = -1; dy <= 1; ++dy) {
+            int nx = x + dx;
+            int ny = y + dy;
+            if (nx < 0 || ny < 0 || nx >= numX || ny >= numY) {
+              continue;
+            }
+            int neighbor = nx * numY + ny;
+            if (!seen[neighbor] && grid.getScores()[neighbor] >= threshold) {
+              seen[neighbor] = true;
+              stack[top++] = neighbor;
+            }
+          }
+        }
+      }
+      sizes.add(Integer.valueOf(size));
+    }
+    return sizes;
+  }
+
+  private static void assertSizes(final List<Integer> expected,
+      final List<AreaSummary> areas) {
+    assertEquals(expected.size(), areas.size());
+    for (int i = 0; i < areas.size(); ++i) {
+      assertEquals(expected.get(i).intValue(), areas.get(i).getNumTiles());
+    }
+  }
+
+  @Test
+  public void testEmptyGridHasNoAreas() {
+    assertEquals(0, new ComponentLabeler().summarize(new ScoreGrid(5, 5),
+        unitGeometry(5, 5), 0f).size());
+  }
+
+  @Test
+  public void testDiagonalTilesJoined() {
+    ScoreGrid grid = new ScoreGrid(4, 4);
+    grid.set(0, 0, 1f);
+    grid.set(1, 1, 1f);
+    grid.set(2, 0, 1f);
+    grid.set(3, 3, 1f);
+    List<AreaSummary> areas = new ComponentLabeler().summarize(grid,
+        unitGeometry(4, 4), 0.5f);
+    assertEquals(2, areas.size());
+    assertEquals(3, areas.get(0).getNumTiles());
+    assertEquals(1, areas.get(1).getNumTiles());
+  }
+
+  @Test
+  public void testArmsJoinedLater() {
+    // A U opening toward y = 0; the arms only meet at y = 3
+    ScoreGrid grid = new ScoreGrid(5, 4);
+    for (int y = 0; y < 4; ++y) {
+      grid.set(0, y, 1f);
+      grid.set(4, y, 1f);
+    }
+    for (int x = 1; x < 4; ++x) {
+      grid.set(x, 3, 1f);
+    }
+    List<AreaSummary> areas = new ComponentLabeler().summarize(grid,
+        unitGeometry(5, 4), 0.5f);
+    assertEquals(1, areas.size());
+    assertEquals(11, areas.get(0).getNumTiles());
+  }
+
+  @Test
+  public void testSummaryOfArea() {
+    ScoreGrid grid = new ScoreGrid(6, 5);
+    grid.set(2, 1, 1f);
+    grid.set(3, 1, 3f);
+    grid.set(3, 2, 2f);
+    grid.set(5, 4, 0.25f);
+    List<AreaSummary> areas = new ComponentLabeler().summarize(grid,
+        unitGeometry(6, 5), 0.5f);
+    assertEquals(1, areas.size());
+    AreaSummary area = areas.get(0);
+    assertEquals(3, area.getNumTiles());
+    assertEquals(3f, area.getPeakScore(), 0f);
+    assertEquals(2f, area.getMinX(), TOLERANCE);
+    assertEquals(1f, area.getMinY(), TOLERANCE);
+    assertEquals(5f, area.getMaxX(), TOLERANCE);
+    assertEquals(4f, area.getMaxY(), TOLERANCE);
+    // Centers weighted by score
+    assertEquals((3f * 1f + 4f * 3f + 4f * 2f) / 6f, area.getX(), TOLERANCE);
+    assertEquals((2f * 1f + 2f * 3f + 3f * 2f) / 6f, area.getY(), TOLERANCE);
+  }
+
+  @Test
+  public void testThresholdSplitsArea() {
+    ScoreGrid grid = new ScoreGrid(5, 1);
+    grid.set(0, 0, 2f);
+    grid.set(1, 0, 2f);
+    grid.set(2, 0, 0.5f);
+    grid.set(3, 0, 2f);
+    ComponentLabeler labeler = new ComponentLabeler();
+    assertEquals(1, labeler.summarize(grid, unitGeometry(5, 1), 0f).size());
+    List<AreaSummary> areas = labeler.summarize(grid, unitGeometry(5, 1), 1f);
+    assertEquals(2, areas.size());
+    assertEquals(2, areas.get(0).getNumTiles());
+    assertEquals(1, areas.get(1).getNumTiles());
+  }
+
+  @Test
+  public void testMatchesFloodFill() {
+    Random rand = new Random(1l);
+    ComponentLabeler labeler = new ComponentLabeler();
+    // Reusing the labeler across sizes exercises its kept arrays
+    int[][] sizes = { { 30, 20 }, { 7, 41 }, { 16, 16 } };
+    for (int[] size : sizes) {
+      ScoreGrid grid = new ScoreGrid(size[0], size[1]);
+      float[] scores = grid.getScores();
+      for (int i = 0; i < scores.length; ++i) {
+        scores[i] = rand.nextInt(5) < 2 ? rand.nextFloat() * 4f : 0f;
+      }
+      for (float threshold : new float[] { 0f, 1f, 2.5f }) {
+        assertSizes(floodFill(grid, Math.max(threshold, Float.MIN_VALUE)),
+            labeler.summarize(grid, unitGeometry(size[0], size[1]), threshold));
+      }
+    }
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks {@link KernelConvolver} against a direct convolution with the edge
+ * tiles repeated outward.
+ *
+ * @author Robert Moore
+ *
+ */
+public class KernelConvolverTest {
+
+  private static final float TOLERANCE = 1e-4f;
+
+  /**
+   * Applies the kernel one tile at a time, clamping reads to the grid.
+   */
+  private static float[] convolve(final float[][] kernel, final ScoreGrid in) {
+    final int midX = kernel.length / 2;
+    final int midY = kernel[0].length / 2;
+    float[] out = new float[in.getNumX() * in.getNumY()];
+    for (int x = 0; x < in.getNumX(); ++x) {
+      for (int y = 0; y < in.getNumY(); ++y) {
+        float sum = 0f;
+        for (int i = 0; i < kernel.length; ++i) {
+          for (int j = 0; j < kernel[i].length; ++j) {
+            int sx = Math.min(Math.max(x + i - midX, 0), in.getNumX() - 1);
+            int sy = Math.min(Math.max(y + j - midY, 0), in.getNumY() - 1);
+            sum += kernel[i][j] * in.get(sx, sy);
+          }
+        }
+        out[in.index(x, y)] = Math.max(sum, 0f);
+      }
+    }
+    return out;
+  }
+
+  private static ScoreGrid randomGrid(final int numX, final int numY,
+      final long seed) {
+    Random rand = new Random(seed);
+    ScoreGrid grid = new ScoreGrid(numX, numY);
+    float[] scores = grid.getScores();
+    for (int i = 0; i < scores.length; ++i) {
+      scores[i] = rand.nextFloat() * 10f;
+    }
+    return grid;
+  }
+
+  @Test
+  public void testOuterProductIsSeparable() {
+    float[][] gaussian = { { 1f, 2f, 1f }, { 2f, 4f, 2f }, { 1f, 2f, 1f } };
+    assertTrue(new KernelConvolver(gaussian).isSeparable());
+  }
+
+  @Test
+  public void testCrossIsNotSeparable() {
+    float[][] cross = { { 0f, 1f, 0f }, { 1f, 1f, 1f }, { 0f, 1f, 0f } };
+    assertFalse(new KernelConvolver(cross).isSeparable());
+  }
+
+  @Test
+  public void testSeparableMatchesDirect() {
+    float[][] kernel = { { 1f, 2f, 1f }, { 2f, 4f, 2f }, { 1f, 2f, 1f } };
+    ScoreGrid in = randomGrid(13, 7, 1l);
+    ScoreGrid out = new ScoreGrid(13, 7);
+    new KernelConvolver(kernel).apply(in, out);
+    assertArrayEquals(convolve(kernel, in), out.getScores(), TOLERANCE);
+  }
+
+  @Test
+  public void testFullMatchesDirect() {
+    float[][] kernel = { { 0f, 1f, 0f, 0.5f }, { 1f, -1f, 1f, 0f },
+        { 0f, 1f, 0f, 2f } };
+    KernelConvolver convolver = new KernelConvolver(kernel);
+    assertFalse(convolver.isSeparable());
+    ScoreGrid in = randomGrid(9, 11, 2l);
+    ScoreGrid out = new ScoreGrid(9, 11);
+    convolver.apply(in, out);
+    assertArrayEquals(convolve(kernel, in), out.getScores(), TOLERANCE);
+  }
+
+  @Test
+  public void testReuseWithNewKernel() {
+    KernelConvolver convolver = new KernelConvolver(new float[][] { { 1f } });
+    ScoreGrid small = randomGrid(3, 3, 3l);
+    convolver.apply(small, new ScoreGrid(3, 3));
+
+    float[][] kernel = { { 1f, 1f, 1f, 1f, 1f } };
+    convolver.setKernel(kernel);
+    ScoreGrid in = randomGrid(20, 15, 4l);
+    ScoreGrid out = new ScoreGrid(20, 15);
+    convolver.apply(in, out);
+    assertArrayEquals(convolve(kernel, in), out.getScores(), TOLERANCE);
+  }
+
+  @Test
+  public void testConstantGridKeepsItsValue() {
+    float[][] box = new float[5][5];
+    for (float[] column : box) {
+      Arrays.fill(column, 1f / 25f);
+    }
+    ScoreGrid in = new ScoreGrid(6, 4);
+    Arrays.fill(in.getScores(), 3f);
+    ScoreGrid out = new ScoreGrid(6, 4);
+    new KernelConvolver(box).apply(in, out);
+    for (float score : out.getScores()) {
+      assertEquals(3f, score, TOLERANCE);
+    }
+  }
+
+  @Test
+  public void testNegativeResultsClamped() {
+    ScoreGrid in = randomGrid(4, 4, 5l);
+    ScoreGrid out = new ScoreGrid(4, 4);
+    new KernelConvolver(new float[][] { { -1f } }).apply(in, out);
+    for (float score : out.getScores()) {
+      assertEquals(0f, score, 0f);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSameGridRejected() {
+    ScoreGrid grid = new ScoreGrid(3, 3);
+    new KernelConvolver(new float[][] { { 1f } }).apply(grid, grid);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMismatchedGridsRejected() {
+    new KernelConvolver(new float[][] { { 1f } }).apply(new ScoreGrid(3, 3),
+        new ScoreGrid(3, 4));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRaggedKernelRejected() {
+    new KernelConvolver(new float[][] { { 1f, 1f }, { 1f } });
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link LinkStateTable} keeps every link's record as the table
+ * grows and moves between heap and direct buffers.
+ *
+ * @author Robert Moore
+ *
+ */
+public class LinkStateTableTest {
+
+  private static final int NUM_RX = 21;
+
+  private static final int NUM_TX = 13;
+
+  /**
+   * Gives every link a value and time derived from its anchors, adding
+   * receivers and transmitters in an interleaved order.
+   */
+  private static void fill(final LinkStateTable table) {
+    LinkVariance view = table.view();
+    for (int rx = 0; rx < NUM_RX; ++rx) {
+      for (int tx = 0; tx < NUM_TX; ++tx) {
+        table.update(view, "rx" + rx, "tx" + tx, rx * 100 + tx, rx * 1000l
+            + tx, 0f);
+      }
+    }
+  }
+
+  private static void assertFilled(final LinkStateTable table) {
+    assertEquals(NUM_RX, table.getNumReceivers());
+    assertEquals(NUM_TX, table.getNumTransmitters());
+    LinkVariance view = table.view();
+    for (int rx = 0; rx < NUM_RX; ++rx) {
+      for (int tx = 0; tx < NUM_TX; ++tx) {
+        int rxIndex = table.getReceiverIndex("rx" + rx);
+        int txIndex = table.getTransmitterIndex("tx" + tx);
+        assertTrue(view.moveTo(rxIndex, txIndex));
+        assertEquals("rx" + rx, view.getReceiverId());
+        assertEquals("tx" + tx, view.getTransmitterId());
+        assertEquals(rx * 100 + tx, view.getValue(), 0f);
+        assertEquals(rx * 1000l + tx, view.getTimestamp());
+      }
+    }
+  }
+
+  @Test
+  public void testRecordsSurviveGrowth() {
+    LinkStateTable table = new LinkStateTable(false);
+    fill(table);
+    assertFilled(table);
+  }
+
+  @Test
+  public void testDirectRecordsSurviveGrowth() {
+    LinkStateTable table = new LinkStateTable(true);
+    fill(table);
+    assertTrue(table.isDirect());
+    assertFilled(table);
+  }
+
+  @Test
+  public void testSwitchingBufferKeepsRecords() {
+    LinkStateTable table = new LinkStateTable(false);
+    fill(table);
+    table.setDirect(true);
+    assertTrue(table.isDirect());
+    assertFilled(table);
+    table.setDirect(false);
+    assertFalse(table.isDirect());
+    assertFilled(table);
+  }
+
+  @Test
+  public void testIndicesAssignedInOrder() {
+    LinkStateTable table = new LinkStateTable(false);
+    fill(table);
+    for (int rx = 0; rx < NUM_RX; ++rx) {
+      assertEquals(rx, table.getReceiverIndex("rx" + rx));
+    }
+    for (int tx = 0; tx < NUM_TX; ++tx) {
+      assertEquals(tx, table.getTransmitterIndex("tx" + tx));
+    }
+    assertEquals(-1, table.getReceiverIndex("missing"));
+    assertEquals(-1, table.getTransmitterIndex("missing"));
+  }
+
+  @Test
+  public void testViewFollowsGrowth() {
+    LinkStateTable table = new LinkStateTable(false);
+    LinkVariance early = table.get("first", "first");
+    early.setValue(7f);
+    fill(table);
+    assertEquals(7f, early.getValue(), 0f);
+    assertEquals("first", early.getReceiverId());
+  }
+
+  @Test
+  public void testUnusedLinkHasNoRecord() {
+    LinkStateTable table = new LinkStateTable(false);
+    table.get("rx0", "tx0");
+    table.get("rx1", "tx1");
+    LinkVariance view = table.view();
+    assertTrue(view.moveTo(0, 0));
+    assertFalse(view.moveTo(0, 1));
+    assertFalse(view.moveTo(1, 0));
+    assertTrue(view.moveTo(1, 1));
+  }
+
+  @Test
+  public void testNoiseFloorNeedsEnoughSamples() {
+    LinkStateTable table = new LinkStateTable(false);
+    LinkVariance view = table.view();
+    assertEquals(1f, table.getNoiseFloor("rx", "tx", 1f), 0f);
+    for (int i = 0; i < LinkVariance.MIN_BASELINE_SAMPLES - 1; ++i) {
+      table.update(view, "rx", "tx", 5f, i, 0.1f);
+    }
+    assertEquals(1f, table.getNoiseFloor("rx", "tx", 1f), 0f);
+    table.update(view, "rx", "tx", 5f, 100l, 0.1f);
+    assertEquals(5f, table.getNoiseFloor("rx", "tx", 1f), 1e-5f);
+    assertEquals(5f, view.getNoiseFloor(1f), 1e-5f);
+    assertEquals(1f, table.getNoiseFloor("rx", "other", 1f), 0f);
+  }
+}
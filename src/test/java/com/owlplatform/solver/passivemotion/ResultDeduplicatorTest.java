@@ -0,0 +1,206 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks how {@link ResultDeduplicator} merges tiles into rectangles and
+ * when it lets a result be published.
+ *
+ * @author Robert Moore
+ *
+ */
+public class ResultDeduplicatorTest {
+
+  /**
+   * Tiles one unit apart and two units wide, so tile {@code (x, y)} covers
+   * {@code [x, x + 2] x [y, y + 2]}.
+   */
+  private static TileGeometry unitGeometry(final int numX, final int numY) {
+    return new TileGeometry(numX + 1, numY + 1, numX, numY);
+  }
+
+  private static ScoredTile tile(final float x, final float y,
+      final float width, final float height, final float score) {
+    ScoredTile tile = new ScoredTile();
+    tile.setTile(new Rectangle2D.Float(x, y, width, height));
+    tile.setScore(score);
+    return tile;
+  }
+
+  private static void assertTile(final ScoredTile expected,
+      final ScoredTile actual) {
+    assertEquals(expected.getTile(), actual.getTile());
+    assertEquals(expected.getScore(), actual.getScore(), 0f);
+  }
+
+  @Test
+  public void testEmptyGridHasNoTiles() {
+    ResultDeduplicator dedup = new ResultDeduplicator(0f, 0l);
+    assertEquals(0, dedup.merge(new ScoreGrid(4, 3), unitGeometry(4, 3))
+        .size());
+  }
+
+  @Test
+  public void testEqualBlockMergedToOneRectangle() {
+    ScoreGrid grid = new ScoreGrid(5, 4);
+    for (int x = 1; x <= 3; ++x) {
+      for (int y = 1; y <= 2; ++y) {
+        grid.set(x, y, 2f);
+      }
+    }
+    List<ScoredTile> merged = new ResultDeduplicator(0f, 0l).merge(grid,
+        unitGeometry(5, 4));
+    assertEquals(1, merged.size());
+    assertTile(tile(1f, 1f, 4f, 3f, 2f), merged.get(0));
+  }
+
+  @Test
+  public void testScoresWithinToleranceMerged() {
+    ScoreGrid grid = new ScoreGrid(2, 2);
+    grid.set(0, 0, 1f);
+    grid.set(0, 1, 1.1f);
+    grid.set(1, 0, 1.05f);
+    grid.set(1, 1, 1.2f);
+    ResultDeduplicator dedup = new ResultDeduplicator(0.25f, 0l);
+    List<ScoredTile> merged = dedup.merge(grid, unitGeometry(2, 2));
+    assertEquals(1, merged.size());
+    assertTile(tile(0f, 0f, 3f, 3f, 1.2f), merged.get(0));
+
+    merged = new ResultDeduplicator(0f, 0l).merge(grid, unitGeometry(2, 2));
+    assertEquals(4, merged.size());
+  }
+
+  @Test
+  public void testOnlyIdenticalColumnsMerged() {
+    // Column 0 covers y = 0..1, column 1 only y = 0
+    ScoreGrid grid = new ScoreGrid(2, 3);
+    grid.set(0, 0, 1f);
+    grid.set(0, 1, 1f);
+    grid.set(1, 0, 1f);
+    List<ScoredTile> merged = new ResultDeduplicator(0f, 0l).merge(grid,
+        unitGeometry(2, 3));
+    assertEquals(2, merged.size());
+    assertTile(tile(0f, 0f, 2f, 3f, 1f), merged.get(0));
+    assertTile(tile(1f, 0f, 2f, 2f, 1f), merged.get(1));
+  }
+
+  @Test
+  public void testEveryTileCoveredOnce() {
+    final int numX = 12;
+    final int numY = 9;
+    Random rand = new Random(1l);
+    ScoreGrid grid = new ScoreGrid(numX, numY);
+    int numPositive = 0;
+    for (int x = 0; x < numX; ++x) {
+      for (int y = 0; y < numY; ++y) {
+        if (rand.nextInt(3) > 0) {
+          grid.set(x, y, 1f + rand.nextInt(2));
+          ++numPositive;
+        }
+      }
+    }
+    int[] covered = new int[numX * numY];
+    for (ScoredTile merged : new ResultDeduplicator(0f, 0l).merge(grid,
+        unitGeometry(numX, numY))) {
+      Rectangle2D.Float bounds = merged.getTile();
+      int x0 = Math.round(bounds.x);
+      int y0 = Math.round(bounds.y);
+      int x1 = Math.round(bounds.x + bounds.width) - 2;
+      int y1 = Math.round(bounds.y + bounds.height) - 2;
+      for (int x = x0; x <= x1; ++x) {
+        for (int y = y0; y <= y1; ++y) {
+          assertEquals(merged.getScore(), grid.get(x, y), 0f);
+          ++covered[x * numY + y];
+        }
+      }
+      numPositive -= (x1 - x0 + 1) * (y1 - y0 + 1);
+    }
+    assertEquals(0, numPositive);
+    for (int i = 0; i < covered.length; ++i) {
+      assertEquals(grid.getScores()[i] > 0f ? 1 : 0, covered[i]);
+    }
+  }
+
+  @Test
+  public void testUnchangedResultSuppressed() {
+    ResultDeduplicator dedup = new ResultDeduplicator(0.1f, 0l);
+    List<ScoredTile> first = new ArrayList<ScoredTile>();
+    first.add(tile(0f, 0f, 2f, 2f, 1f));
+    assertTrue(dedup.shouldPublish(first, 1000l));
+    dedup.published(first, 1000l);
+
+    List<ScoredTile> same = new ArrayList<ScoredTile>();
+    same.add(tile(0f, 0f, 2f, 2f, 1f));
+    assertFalse(dedup.shouldPublish(same, 2000l));
+
+    List<ScoredTile> close = new ArrayList<ScoredTile>();
+    close.add(tile(0f, 0f, 2f, 2f, 1.05f));
+    assertFalse(dedup.shouldPublish(close, 3000l));
+    assertEquals(2l, dedup.getNumSuppressed());
+
+    List<ScoredTile> higher = new ArrayList<ScoredTile>();
+    higher.add(tile(0f, 0f, 2f, 2f, 1.5f));
+    assertTrue(dedup.shouldPublish(higher, 4000l));
+
+    List<ScoredTile> moved = new ArrayList<ScoredTile>();
+    moved.add(tile(1f, 0f, 2f, 2f, 1f));
+    assertTrue(dedup.shouldPublish(moved, 5000l));
+
+    same.add(tile(4f, 4f, 2f, 2f, 1f));
+    assertTrue(dedup.shouldPublish(same, 6000l));
+    assertEquals(2l, dedup.getNumSuppressed());
+  }
+
+  @Test
+  public void testRefreshAndReset() {
+    ResultDeduplicator dedup = new ResultDeduplicator(0f, 5000l);
+    List<ScoredTile> tiles = new ArrayList<ScoredTile>();
+    tiles.add(tile(0f, 0f, 2f, 2f, 1f));
+    dedup.published(tiles, 1000l);
+    assertFalse(dedup.shouldPublish(tiles, 5999l));
+    assertTrue(dedup.shouldPublish(tiles, 6000l));
+    assertFalse(dedup.shouldPublish(tiles, 2000l));
+    dedup.reset();
+    assertTrue(dedup.shouldPublish(tiles, 2000l));
+  }
+
+  @Test
+  public void testHashFollowsContents() {
+    List<ScoredTile> a = new ArrayList<ScoredTile>();
+    a.add(tile(0f, 0f, 2f, 2f, 1f));
+    a.add(tile(3f, 1f, 2f, 4f, 2f));
+    List<ScoredTile> b = new ArrayList<ScoredTile>();
+    b.add(tile(0f, 0f, 2f, 2f, 1f));
+    b.add(tile(3f, 1f, 2f, 4f, 2f));
+    assertEquals(ResultDeduplicator.hash(a), ResultDeduplicator.hash(b));
+    b.get(1).setScore(2.5f);
+    assertFalse(ResultDeduplicator.hash(a) == ResultDeduplicator.hash(b));
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks the Cholesky inverse and the projection of {@link RtiProjection}
+ * against the regularized normal equations.
+ *
+ * @author Robert Moore
+ *
+ */
+public class RtiProjectionTest {
+
+  private static final double TOLERANCE = 1e-3;
+
+  /**
+   * Hands out fixed random weights for each link.
+   */
+  private static final class FixedModel implements LinkScoringModel {
+    final IdentityHashMap<LinkGeometry, LinkWeights> table = new IdentityHashMap<LinkGeometry, LinkWeights>();
+
+    @Override
+    public LinkWeights computeWeights(final LinkGeometry link) {
+      return this.table.get(link);
+    }
+  }
+
+  private static double[] randomSpd(final int m, final long seed) {
+    Random rand = new Random(seed);
+    double[] b = new double[m * m];
+    for (int i = 0; i < b.length; ++i) {
+      b[i] = rand.nextDouble() * 2 - 1;
+    }
+    // BB' + mI is symmetric positive-definite
+    double[] a = new double[m * m];
+    for (int i = 0; i < m; ++i) {
+      for (int j = 0; j < m; ++j) {
+        double dot = 0;
+        for (int k = 0; k < m; ++k) {
+          dot += b[i * m + k] * b[j * m + k];
+        }
+        a[i * m + j] = dot + (i == j ? m : 0);
+      }
+    }
+    return a;
+  }
+
+  private static LinkGeometry link(final String rxId, final String txId,
+      final TileGeometry geometry) {
+    Receiver rx = new Receiver();
+    rx.setDeviceId(rxId);
+    rx.setxLocation(1f);
+    rx.setyLocation(2f);
+    Transmitter tx = new Transmitter();
+    tx.setDeviceId(txId);
+    tx.setxLocation(30f);
+    tx.setyLocation(20f);
+    return new LinkGeometry(rx, tx, geometry, new AlgorithmConfig());
+  }
+
+  /**
+   * Builds links with a few random tiles each, so that some overlap.
+   */
+  private static List<LinkGeometry> randomLinks(final int numLinks,
+      final TileGeometry geometry, final FixedModel model, final long seed) {
+    Random rand = new Random(seed);
+    List<LinkGeometry> links = new ArrayList<LinkGeometry>();
+    for (int j = 0; j < numLinks; ++j) {
+      LinkGeometry link = link("rx" + j, "tx" + j, geometry);
+      int numTiles = 2 + rand.nextInt(5);
+      int first = rand.nextInt(geometry.getNumTiles() - numTiles);
+      int[] tiles = new int[numTiles];
+      float[] weights = new float[numTiles];
+      for (int i = 0; i < numTiles; ++i) {
+        tiles[i] = first + i;
+        weights[i] = 0.5f + rand.nextFloat();
+      }
+      model.table.put(link, new LinkWeights(model, tiles, weights,
+          1 + rand.nextDouble(), tiles, geometry.getNumY()));
+      links.add(link);
+    }
+    return links;
+  }
+
+  @Test
+  public void testInverseOfSymmetricMatrix() {
+    final int m = 7;
+    double[] a = randomSpd(m, 1l);
+    double[] inverse = RtiProjection.invertSymmetric(a.clone(), m);
+    for (int i = 0; i < m; ++i) {
+      for (int j = 0; j < m; ++j) {
+        double dot = 0;
+        for (int k = 0; k < m; ++k) {
+          dot += a[i * m + k] * inverse[k * m + j];
+        }
+        assertEquals(i == j ? 1 : 0, dot, 1e-9);
+        assertEquals(inverse[i * m + j], inverse[j * m + i], 1e-9);
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testIndefiniteMatrixRejected() {
+    RtiProjection.invertSymmetric(new double[] { 1, 2, 2, 1 }, 2);
+  }
+
+  @Test
+  public void testProjectionSolvesNormalEquations() {
+    TileGeometry geometry = new TileGeometry(40f, 30f, 5, 4);
+    FixedModel model = new FixedModel();
+    List<LinkGeometry> links = randomLinks(6, geometry, model, 2l);
+    final float regularization = 0.1f;
+    RtiProjection projection = RtiProjection.build(links, model, geometry,
+        regularization, 1l);
+    final int m = links.size();
+    final int n = geometry.getNumTiles();
+    assertEquals(m, projection.getNumLinks());
+    assertEquals(n, projection.getNumTiles());
+
+    double[][] w = new double[m][n];
+    double trace = 0;
+    for (int j = 0; j < m; ++j) {
+      LinkWeights weights = model.table.get(links.get(j));
+      for (int i = 0; i < weights.getTiles().length; ++i) {
+        w[j][weights.getTiles()[i]] = weights.getWeights()[i]
+            / weights.getDivisor();
+      }
+      for (int t = 0; t < n; ++t) {
+        trace += w[j][t] * w[j][t];
+      }
+    }
+    double alpha = regularization * trace / m;
+
+    float[] values = { 1.5f, 0f, -0.5f, 2f, 0.25f, 1f };
+    float[] image = new float[n];
+    projection.project(values, image);
+
+    // (W'W + aI)x must equal W'y
+    for (int t = 0; t < n; ++t) {
+      double lhs = alpha * image[t];
+      double rhs = 0;
+      for (int j = 0; j < m; ++j) {
+        double wx = 0;
+        for (int s = 0; s < n; ++s) {
+          wx += w[j][s] * image[s];
+        }
+        lhs += w[j][t] * wx;
+        rhs += w[j][t] * values[j];
+      }
+      assertEquals(rhs, lhs, TOLERANCE);
+    }
+  }
+
+  @Test
+  public void testIndicesFollowLinkOrder() {
+    TileGeometry geometry = new TileGeometry(40f, 30f, 5, 4);
+    FixedModel model = new FixedModel();
+    List<LinkGeometry> links = randomLinks(4, geometry, model, 3l);
+    RtiProjection projection = RtiProjection.build(links, model, geometry,
+        0.5f, 1l);
+    for (int j = 0; j < links.size(); ++j) {
+      assertEquals(j, projection.indexOf(links.get(j)));
+    }
+    assertEquals(-1, projection.indexOf(link("rx0", "tx0", geometry)));
+  }
+
+  @Test
+  public void testCurrentOnlyForSameInputs() {
+    TileGeometry geometry = new TileGeometry(40f, 30f, 5, 4);
+    FixedModel model = new FixedModel();
+    List<LinkGeometry> links = randomLinks(3, geometry, model, 4l);
+    RtiProjection projection = RtiProjection.build(links, model, geometry,
+        0.5f, 9l);
+    assertTrue(projection.isCurrent(geometry, model, 9l));
+    assertFalse(projection.isCurrent(geometry, model, 10l));
+    assertFalse(projection.isCurrent(new TileGeometry(40f, 30f, 5, 4), model,
+        9l));
+    assertFalse(projection.isCurrent(geometry, new FixedModel(), 9l));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testZeroRegularizationRejected() {
+    TileGeometry geometry = new TileGeometry(40f, 30f, 5, 4);
+    FixedModel model = new FixedModel();
+    RtiProjection.build(randomLinks(2, geometry, model, 5l), model, geometry,
+        0f, 1l);
+  }
+}
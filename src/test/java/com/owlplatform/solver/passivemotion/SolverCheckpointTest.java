@@ -0,0 +1,204 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that a {@link SolverCheckpoint} survives a write and read, and that
+ * damaged files are refused.
+ *
+ * @author Robert Moore
+ *
+ */
+public class SolverCheckpointTest {
+
+  private File file;
+
+  @Before
+  public void createFile() throws IOException {
+    this.file = File.createTempFile("checkpoint", ".bin");
+  }
+
+  @After
+  public void deleteFile() {
+    this.file.delete();
+    new File(this.file.getPath() + ".tmp").delete();
+  }
+
+  private static SolverCheckpoint sample() {
+    SolverCheckpoint checkpoint = new SolverCheckpoint("winlab", 1234l);
+    checkpoint.setRegionBounds(120.5f, 80.25f);
+    checkpoint.addAnchor(new SolverCheckpoint.AnchorEntry("winlab.anchor.1",
+        "7", 3f, 4.5f));
+    checkpoint.addAnchor(new SolverCheckpoint.AnchorEntry("winlab.anchor.\u00e9",
+        "42", 100f, 0f));
+    checkpoint.addLink(new SolverCheckpoint.LinkEntry("7", "42", 2.5f, 1000l,
+        0.75f, 0.125f, 30));
+    checkpoint.setSolution(new byte[] { 1, 2, 3, -4 }, 999l);
+    return checkpoint;
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    sample().write(this.file);
+    SolverCheckpoint read = SolverCheckpoint.read(this.file);
+
+    assertEquals("winlab", read.getRegionId());
+    assertEquals(1234l, read.getCreatedTime());
+    assertEquals(120.5f, read.getRegionXMax(), 0f);
+    assertEquals(80.25f, read.getRegionYMax(), 0f);
+
+    assertEquals(2, read.getAnchors().size());
+    SolverCheckpoint.AnchorEntry anchor = read.getAnchors().get(1);
+    assertEquals("winlab.anchor.\u00e9", anchor.uri);
+    assertEquals("42", anchor.deviceId);
+    assertEquals(100f, anchor.x, 0f);
+    assertEquals(0f, anchor.y, 0f);
+
+    assertEquals(1, read.getLinks().size());
+    SolverCheckpoint.LinkEntry link = read.getLinks().get(0);
+    assertEquals("7", link.receiver);
+    assertEquals("42", link.transmitter);
+    assertEquals(2.5f, link.variance, 0f);
+    assertEquals(1000l, link.timestamp);
+    assertEquals(0.75f, link.baseline, 0f);
+    assertEquals(0.125f, link.deviation, 0f);
+    assertEquals(30, link.numSamples);
+
+    assertEquals(999l, read.getSolutionTime());
+    assertArrayEquals(new byte[] { 1, 2, 3, -4 }, read.getSolution());
+  }
+
+  @Test
+  public void testMissingSolutionStaysMissing() throws IOException {
+    new SolverCheckpoint("empty", 5l).write(this.file);
+    SolverCheckpoint read = SolverCheckpoint.read(this.file);
+    assertNull(read.getSolution());
+    assertEquals(0, read.getAnchors().size());
+    assertEquals(0, read.getLinks().size());
+  }
+
+  @Test
+  public void testWriteReplacesPreviousCheckpoint() throws IOException {
+    sample().write(this.file);
+    new SolverCheckpoint("other", 77l).write(this.file);
+    SolverCheckpoint read = SolverCheckpoint.read(this.file);
+    assertEquals("other", read.getRegionId());
+    assertEquals(77l, read.getCreatedTime());
+    assertFalse(new File(this.file.getPath() + ".tmp").exists());
+  }
+
+  @Test
+  public void testReadsVersionOneLinks() throws IOException {
+    ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+    DataOutputStream payload = new DataOutputStream(payloadBytes);
+    payload.writeLong(10l);
+    payload.writeUTF("old");
+    payload.writeFloat(50f);
+    payload.writeFloat(60f);
+    payload.writeInt(0);
+    payload.writeInt(1);
+    payload.writeUTF("rx");
+    payload.writeUTF("tx");
+    payload.writeFloat(1.5f);
+    payload.writeLong(20l);
+    payload.writeLong(0l);
+    payload.writeInt(-1);
+    payload.close();
+    byte[] body = payloadBytes.toByteArray();
+    CRC32 crc = new CRC32();
+    crc.update(body);
+
+    DataOutputStream out = new DataOutputStream(new FileOutputStream(
+        this.file));
+    try {
+      out.writeInt(0x504D4350);
+      out.writeInt(1);
+      out.writeInt(body.length);
+      out.writeLong(crc.getValue());
+      out.write(body);
+    } finally {
+      out.close();
+    }
+
+    SolverCheckpoint read = SolverCheckpoint.read(this.file);
+    assertEquals("old", read.getRegionId());
+    SolverCheckpoint.LinkEntry link = read.getLinks().get(0);
+    assertEquals(1.5f, link.variance, 0f);
+    assertEquals(20l, link.timestamp);
+    assertEquals(0f, link.baseline, 0f);
+    assertEquals(0, link.numSamples);
+    assertNull(read.getSolution());
+  }
+
+  @Test(expected = IOException.class)
+  public void testCorruptPayloadRejected() throws IOException {
+    sample().write(this.file);
+    RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
+    try {
+      raf.seek(raf.length() - 2);
+      int b = raf.read();
+      raf.seek(raf.length() - 2);
+      raf.write(b ^ 0x10);
+    } finally {
+      raf.close();
+    }
+    SolverCheckpoint.read(this.file);
+  }
+
+  @Test(expected = IOException.class)
+  public void testTruncatedFileRejected() throws IOException {
+    sample().write(this.file);
+    RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
+    try {
+      raf.setLength(raf.length() - 3);
+    } finally {
+      raf.close();
+    }
+    SolverCheckpoint.read(this.file);
+  }
+
+  @Test(expected = IOException.class)
+  public void testWrongMagicRejected() throws IOException {
+    sample().write(this.file);
+    RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
+    try {
+      raf.writeInt(0x12345678);
+    } finally {
+      raf.close();
+    }
+    SolverCheckpoint.read(this.file);
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Motion Locator Solver for Owl Platform
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.passivemotion;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks {@link SummedAreaTable} block sums and downsampling against sums
+ * taken tile by tile.
+ *
+ * @author Robert Moore
+ *
+ */
+public class SummedAreaTableTest {
+
+  private static final float TOLERANCE = 1e-3f;
+
+  private static ScoreGrid randomGrid(final int numX, final int numY,
+      final long seed) {
+    Random rand = new Random(seed);
+    ScoreGrid grid = new ScoreGrid(numX, numY);
+    float[] scores = grid.getScores();
+    for (int i = 0; i < scores.length; ++i) {
+      scores[i] = rand.nextFloat() * 5f;
+    }
+    return grid;
+  }
+
+  private static float bruteSum(final ScoreGrid grid, final int x0,
+      final int y0, final int x1, final int y1) {
+    double sum = 0;
+    for (int x = Math.max(0, x0); x <= Math.min(grid.getNumX() - 1, x1); ++x) {
+      for (int y = Math.max(0, y0); y <= Math.min(grid.getNumY() - 1, y1); ++y) {
+        sum += grid.get(x, y);
+      }
+    }
+    return (float) sum;
+  }
+
+  @Test
+  public void testEveryBlockMatchesBruteForce() {
+    ScoreGrid grid = randomGrid(9, 6, 1l);
+    SummedAreaTable table = new SummedAreaTable(grid);
+    for (int x0 = 0; x0 < 9; ++x0) {
+      for (int x1 = x0; x1 < 9; ++x1) {
+        for (int y0 = 0; y0 < 6; ++y0) {
+          for (int y1 = y0; y1 < 6; ++y1) {
+            assertEquals(bruteSum(grid, x0, y0, x1, y1),
+                table.sum(x0, y0, x1, y1), TOLERANCE);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testBlocksClippedToGrid() {
+    ScoreGrid grid = randomGrid(5, 7, 2l);
+    SummedAreaTable table = new SummedAreaTable(grid);
+    assertEquals(table.total(), table.sum(-3, -3, 100, 100), TOLERANCE);
+    assertEquals(bruteSum(grid, 3, 0, 4, 2), table.sum(3, -2, 9, 2),
+        TOLERANCE);
+  }
+
+  @Test
+  public void testEmptyBlockIsZero() {
+    SummedAreaTable table = new SummedAreaTable(randomGrid(4, 4, 3l));
+    assertEquals(0f, table.sum(2, 2, 1, 3), 0f);
+    assertEquals(0f, table.sum(5, 0, 8, 3), 0f);
+  }
+
+  @Test
+  public void testRebuildReplacesSums() {
+    SummedAreaTable table = new SummedAreaTable(randomGrid(6, 6, 4l));
+    ScoreGrid ones = new ScoreGrid(6, 6);
+    for (int x = 0; x < 6; ++x) {
+      for (int y = 0; y < 6; ++y) {
+        ones.set(x, y, 1f);
+      }
+    }
+    table.build(ones);
+    assertEquals(36f, table.total(), 0f);
+    assertEquals(6f, table.sum(1, 1, 2, 3), 0f);
+  }
+
+  @Test
+  public void testDownsampleWithPartialBlocks() {
+    ScoreGrid grid = randomGrid(5, 7, 5l);
+    SummedAreaTable table = new SummedAreaTable(grid);
+    ScoreGrid coarse = new ScoreGrid(3, 3);
+    table.downsample(2, 3, coarse);
+    for (int cx = 0; cx < 3; ++cx) {
+      for (int cy = 0; cy < 3; ++cy) {
+        assertEquals(bruteSum(grid, cx * 2, cy * 3, cx * 2 + 1, cy * 3 + 2),
+            coarse.get(cx, cy), TOLERANCE);
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDownsampleRejectsWrongSize() {
+    new SummedAreaTable(randomGrid(5, 7, 6l)).downsample(2, 3,
+        new ScoreGrid(2, 3));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBuildRejectsWrongSize() {
+    new SummedAreaTable(4, 4).build(new ScoreGrid(4, 5));
+  }
+}